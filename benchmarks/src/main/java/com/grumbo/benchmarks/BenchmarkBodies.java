@@ -0,0 +1,83 @@
+package com.grumbo.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.grumbo.gpu.Body;
+import com.grumbo.simulation.Planet;
+import com.grumbo.simulation.PlanetGenerator;
+import com.grumbo.simulation.UnitSet;
+
+/**
+ * BenchmarkBodies class for building the inputs shared by the benchmarks.
+ * Every input is built from a fixed seed, so runs are comparable with each other.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public final class BenchmarkBodies {
+
+    public static final long SEED = 42L;
+
+    // The ranges used by the random box, in SOLAR_SYSTEM_SECOND units.
+    public static final float[] POSITION_RANGE = {-1000f, 1000f};
+    public static final float[] VELOCITY_RANGE = {-0.01f, 0.01f};
+    public static final float[] MASS_RANGE = {1f, 10f};
+    public static final float[] DENSITY_RANGE = {1f, 1f};
+
+    private BenchmarkBodies() {
+    }
+
+    /**
+     * Makes a list of random planets in the SOLAR_SYSTEM_SECOND unit set.
+     * @param numBodies the number of planets
+     * @return the planets
+     */
+    public static List<Planet> randomPlanets(int numBodies) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        List<Planet> planets = new ArrayList<>(numBodies);
+        for (int i = 0; i < numBodies; i++) {
+            planets.add(new Planet(
+                range(POSITION_RANGE, random), range(POSITION_RANGE, random), range(POSITION_RANGE, random),
+                range(VELOCITY_RANGE, random), range(VELOCITY_RANGE, random), range(VELOCITY_RANGE, random),
+                range(MASS_RANGE, random), range(DENSITY_RANGE, random), UnitSet.SOLAR_SYSTEM_SECOND));
+        }
+        return planets;
+    }
+
+    /**
+     * Makes a random box generator with the benchmark ranges.
+     * @param numBodies the number of bodies
+     * @return the generator
+     */
+    public static PlanetGenerator randomBox(int numBodies) {
+        return PlanetGenerator.makeNewRandomBox(numBodies, POSITION_RANGE, POSITION_RANGE, POSITION_RANGE,
+            VELOCITY_RANGE, VELOCITY_RANGE, VELOCITY_RANGE, MASS_RANGE, DENSITY_RANGE, SEED);
+    }
+
+    /**
+     * Makes a random disk generator orbiting a central body, as in the default simulation.
+     * @param numBodies the number of bodies
+     * @return the generator
+     */
+    public static PlanetGenerator randomDisk(int numBodies) {
+        return PlanetGenerator.makeNewRandomDisk(numBodies, new float[] {100f, 5000f}, MASS_RANGE, DENSITY_RANGE,
+            new float[] {0f, 0f, 0f}, new float[] {0f, 0f, 0f}, 0f, 1_000_000f, 1f, 0.9f, 1f,
+            true, true, UnitSet.SOLAR_SYSTEM_SECOND, SEED);
+    }
+
+    /**
+     * Packs random bodies in the layout of the bodies SSBO, as it would be read back from the GPU.
+     * @param numBodies the number of bodies
+     * @return the packed bodies
+     */
+    public static ByteBuffer packedBodies(int numBodies) {
+        return Body.packPlanets(randomPlanets(numBodies));
+    }
+
+    private static float range(float[] range, SplittableRandom random) {
+        return (float) (range[0] + random.nextDouble() * (range[1] - range[0]));
+    }
+}
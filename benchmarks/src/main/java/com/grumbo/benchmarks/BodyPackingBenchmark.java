@@ -0,0 +1,50 @@
+package com.grumbo.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grumbo.gpu.Body;
+import com.grumbo.simulation.Planet;
+
+/**
+ * Benchmarks Body.packPlanets, which packs a list of planets into the layout of the bodies SSBO.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g", "-XX:MaxDirectMemorySize=8g"})
+public class BodyPackingBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int numBodies;
+
+    private List<Planet> planets;
+
+    @Setup
+    public void setup() {
+        planets = BenchmarkBodies.randomPlanets(numBodies);
+    }
+
+    @Benchmark
+    public ByteBuffer packPlanets() {
+        return Body.packPlanets(planets);
+    }
+}
@@ -0,0 +1,77 @@
+package com.grumbo.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grumbo.gpu.Body;
+import com.grumbo.gpu.GLSLVariable;
+
+/**
+ * Benchmarks the decoding done when bodies are read back from the GPU.
+ * SSBO.getData and SSBO.getDataAsString need a GL context to create the buffer, but once the cache is filled they only
+ * call GLSLVariable.getDataAt and GLSLVariable.getDataAsStringAt on it, so those are measured on a packed buffer with the same layout.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g", "-XX:MaxDirectMemorySize=8g"})
+public class GLSLVariableBenchmark {
+
+    // The number of bodies BarnesHut reads back for each debug string.
+    private static final int NUM_DEBUG_OUTPUTS = 100;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int numBodies;
+
+    private GLSLVariable bodies;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        // The same layout as SSBO_FIXED_BODIES_IN in GPU.
+        bodies = new GLSLVariable(Body.bodyStruct, "BodiesIn", numBodies);
+        buffer = BenchmarkBodies.packedBodies(numBodies);
+    }
+
+    /**
+     * Decodes every body into objects, as SSBO.getData does.
+     */
+    @Benchmark
+    public Object[][] getData() {
+        return bodies.getDataAt(buffer, 0, 0, numBodies);
+    }
+
+    /**
+     * Formats every body, as SSBO.getDataAsString does.
+     */
+    @Benchmark
+    public String getDataAsString() {
+        return bodies.getDataAsStringAt(buffer, 0, 0, numBodies);
+    }
+
+    /**
+     * Formats the last bodies of the buffer, as the debug strings of BarnesHut do. Should not depend on the body count.
+     */
+    @Benchmark
+    public String getDataAsStringDebugWindow() {
+        int start = Math.max(0, numBodies - NUM_DEBUG_OUTPUTS);
+        return bodies.getDataAsStringAt(buffer, 0, start, numBodies);
+    }
+}
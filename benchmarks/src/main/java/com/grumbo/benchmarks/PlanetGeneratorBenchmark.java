@@ -0,0 +1,62 @@
+package com.grumbo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grumbo.simulation.BodyStore;
+import com.grumbo.simulation.PlanetGenerator;
+
+/**
+ * Benchmarks the PlanetGenerator factories by generating every body into a body store, as the upload does.
+ * The store is allocated once per trial so only generation is measured.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g", "-XX:MaxDirectMemorySize=8g"})
+public class PlanetGeneratorBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int numBodies;
+
+    private BodyStore store;
+
+    @Setup
+    public void setup() {
+        // The disk adds its center body, so leave room for it.
+        store = new BodyStore(Math.max(BenchmarkBodies.randomBox(numBodies).getNumPlanets(), BenchmarkBodies.randomDisk(numBodies).getNumPlanets()));
+    }
+
+    @Benchmark
+    public BodyStore randomBox() {
+        return generate(BenchmarkBodies.randomBox(numBodies));
+    }
+
+    @Benchmark
+    public BodyStore randomDisk() {
+        return generate(BenchmarkBodies.randomDisk(numBodies));
+    }
+
+    private BodyStore generate(PlanetGenerator planetGenerator) {
+        while (planetGenerator.hasNext()) {
+            planetGenerator.nextChunk(store, planetGenerator.planetsGenerated);
+        }
+        return store;
+    }
+}
@@ -0,0 +1,77 @@
+package com.grumbo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grumbo.simulation.Property;
+
+/**
+ * Benchmarks Property.update, which the settings pane calls on every property each frame.
+ * Its cost scales with the number of properties rather than bodies, so it is parameterized by property count.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PropertyBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int numProperties;
+
+    private List<Property<Double>> properties;
+    private double nextValue;
+
+    @Setup
+    public void setup() {
+        properties = new ArrayList<>(numProperties);
+        for (int i = 0; i < numProperties; i++) {
+            Property<Double> property = Property.createDoubleProperty("property" + i, i, i);
+            // The first update creates the editor row, later ones only sync it.
+            property.update();
+            properties.add(property);
+        }
+        nextValue = 0;
+    }
+
+    /**
+     * Updates properties whose values have not changed, the usual case each frame.
+     */
+    @Benchmark
+    public List<Property<Double>> updateUnchanged() {
+        for (Property<Double> property : properties) {
+            property.update();
+        }
+        return properties;
+    }
+
+    /**
+     * Changes every value and updates, so every editor row is synced.
+     */
+    @Benchmark
+    public List<Property<Double>> updateChanged() {
+        nextValue += 1;
+        for (Property<Double> property : properties) {
+            property.setValue(nextValue);
+            property.update();
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,57 @@
+package com.grumbo.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grumbo.simulation.Planet;
+import com.grumbo.simulation.UnitSet;
+
+/**
+ * Benchmarks Planet.changeUnitSet over a list of planets.
+ * Each invocation converts every planet to the other of two unit sets, so the planets never settle into a no-op.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g"})
+public class UnitSetBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int numBodies;
+
+    private List<Planet> planets;
+    private boolean toHour;
+
+    @Setup
+    public void setup() {
+        planets = BenchmarkBodies.randomPlanets(numBodies);
+        toHour = true;
+    }
+
+    @Benchmark
+    public List<Planet> changeUnitSet() {
+        UnitSet target = toHour ? UnitSet.SOLAR_SYSTEM_HOUR : UnitSet.SOLAR_SYSTEM_SECOND;
+        for (Planet planet : planets) {
+            planet.changeUnitSet(target);
+        }
+        toHour = !toHour;
+        return planets;
+    }
+}
@@ -0,0 +1,116 @@
+package com.grumbo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import com.grumbo.cpu.CPUDirectSum;
+import com.grumbo.gpu.ResourceLoader;
+import com.grumbo.simulation.Settings;
+import com.grumbo.simulation.SimulationSetup;
+import com.grumbo.simulation.UnitSet;
+
+/**
+ * DirectSumBenchmark - Direct Sum Entry Point
+ * ===========================================
+ * Measures the steps per second and energy conservation of the double precision direct sum engine
+ * on a small scene, for 1, 2, 4, ... threads up to the given number.
+ *
+ * The solar system preset and scene json files are loaded in double precision in SOLAR_SYSTEM_HOUR units,
+ * with a step of one hour unless dt is given. Other presets are loaded from their generator with their suggested dt,
+ * and are only practical when they are small.
+ *
+ * Usage: DirectSumBenchmark &lt;preset|scene.json&gt; [steps] [dt] [threads]
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class DirectSumBenchmark {
+    private static final int DEFAULT_STEPS = 8760;
+    private static final String SOLAR_SYSTEM_JSON = "planet_data/solar_system.json";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: DirectSumBenchmark <preset|scene.json> [steps] [dt] [threads]");
+            System.err.println("Presets: " + Arrays.toString(SimulationSetup.Preset.values()));
+            System.exit(1);
+        }
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_STEPS;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        if (steps < 1) {
+            throw new IllegalArgumentException("steps must be at least 1: " + steps);
+        }
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + maxThreads);
+        }
+
+        Settings settings = Settings.getInstance();
+        float dt = settings.getDt();
+        try {
+            for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+                CPUDirectSum directSum = load(args[0], settings, threads);
+                if (args.length > 2) {
+                    settings.setDt(Float.parseFloat(args[2]));
+                }
+                try {
+                    if (threads == 1) {
+                        System.out.println("Bodies: " + directSum.getNumBodies() + ", steps: " + steps + ", dt: " + settings.getDt());
+                        System.out.println("threads     steps/s   substeps/step   rejected       |dE/E|");
+                    }
+                    run(directSum, steps, threads);
+                } finally {
+                    directSum.cleanup();
+                }
+                if (threads >= maxThreads) {
+                    break;
+                }
+            }
+        } finally {
+            settings.setDt(dt);
+        }
+    }
+
+    /**
+     * Loads the scene, setting dt to the scene's default.
+     * @param scene the name of a preset or the path of a scene json file
+     * @param settings the settings to set dt in
+     * @param threads the number of threads to use
+     * @return the engine holding the bodies
+     * @throws IOException if the scene json file cannot be read
+     */
+    private static CPUDirectSum load(String scene, Settings settings, int threads) throws IOException {
+        if (scene.endsWith(".json")) {
+            settings.setDt(1f);
+            return CPUDirectSum.fromJson(Files.readString(Path.of(scene)), UnitSet.SOLAR_SYSTEM_HOUR, threads);
+        }
+        SimulationSetup.Preset preset = SimulationSetup.Preset.valueOf(scene.toUpperCase());
+        if (preset == SimulationSetup.Preset.SOLAR_SYSTEM) {
+            settings.setDt(1f);
+            return CPUDirectSum.fromJson(ResourceLoader.readText(SOLAR_SYSTEM_JSON), UnitSet.SOLAR_SYSTEM_HOUR, threads);
+        }
+        SimulationSetup setup = new SimulationSetup();
+        setup.applyPreset(preset);
+        SimulationSetup.LaunchConfig config = setup.toLaunchConfig();
+        config.suggestedSettings.apply(settings);
+        return new CPUDirectSum(config.generator, threads);
+    }
+
+    /**
+     * Runs the steps and prints the steps per second, the substeps per step, and the relative energy error at the end.
+     * @param directSum the engine
+     * @param steps the number of steps to run
+     * @param threads the number of threads used
+     */
+    private static void run(CPUDirectSum directSum, int steps, int threads) {
+        double initialEnergy = directSum.getEnergy();
+        long start = System.nanoTime();
+        for (int i = 0; i < steps; i++) {
+            directSum.step();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double energyError = initialEnergy != 0 ? Math.abs((directSum.getEnergy() - initialEnergy) / initialEnergy) : 0;
+        System.out.println(String.format("%7d %11.1f %15.2f %10d %12.3e",
+            threads, steps / seconds, (double) directSum.getSubsteps() / steps, directSum.getRejectedSubsteps(), energyError));
+    }
+}
@@ -0,0 +1,215 @@
+package com.grumbo;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import com.grumbo.cpu.CPUBarnesHut;
+import com.grumbo.gpu.Body;
+import com.grumbo.simulation.Settings;
+import com.grumbo.simulation.SimulationSetup;
+
+/**
+ * ForceAccuracyBenchmark - Tree Accuracy Entry Point
+ * ==================================================
+ * Measures the theta / accuracy / time trade-off of the tree, with and without quadrupole moments,
+ * on the first step of a preset scene. Runs on the CPU backend, which builds the same tree as the GPU.
+ * The relative opening criterion is measured the same way for a range of tolerances, starting each from
+ * the accelerations of the default theta as a simulation does after its first step.
+ *
+ * The reference is a direct sum in double precision over every body, with the same softening,
+ * for a random sample of bodies. For each theta the tree accelerations of the sample are compared to it,
+ * and the median, 99th percentile, and largest relative errors |a - aRef| / |aRef| are reported
+ * with the mean number of interactions per body and the best time of a few runs of the tree build and walk.
+ *
+ * Usage: ForceAccuracyBenchmark &lt;preset&gt; [samples] [threads] [seed]
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class ForceAccuracyBenchmark {
+    private static final float[] THETAS = {0.2f, 0.35f, 0.5f, 0.7f, 0.9f, 1.2f};
+    private static final float[] TOLERANCES = {0.02f, 0.01f, 0.005f, 0.0025f, 0.001f};
+    private static final int DEFAULT_SAMPLES = 2000;
+    private static final int TIMED_RUNS = 3;
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: ForceAccuracyBenchmark <preset> [samples] [threads] [seed]");
+            System.err.println("Presets: " + Arrays.toString(SimulationSetup.Preset.values()));
+            System.exit(1);
+        }
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SAMPLES;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        if (samples < 1) {
+            throw new IllegalArgumentException("samples must be at least 1: " + samples);
+        }
+
+        SimulationSetup setup = new SimulationSetup();
+        if (args.length > 3) {
+            setup.setSeed(Long.parseLong(args[3]));
+        }
+        setup.applyPreset(SimulationSetup.Preset.valueOf(args[0].toUpperCase()));
+        SimulationSetup.LaunchConfig config = setup.toLaunchConfig();
+        Settings settings = Settings.getInstance();
+        config.suggestedSettings.apply(settings);
+        float squareBounds = config.squareBounds;
+        float[][] bounds = new float[][] {{-squareBounds, -squareBounds, -squareBounds}, {squareBounds, squareBounds, squareBounds}};
+
+        CPUBarnesHut barnesHut = new CPUBarnesHut(config.generator, bounds, threads, false);
+        barnesHut.init();
+        float[] bodies = barnesHut.getBodies().clone();
+        int[] sample = sampleBodies(bodies, samples, setup.getSeed());
+        System.out.println("Bodies: " + barnesHut.getInitialNumBodies() + ", samples: " + sample.length + ", threads: " + threads + ", seed: " + setup.getSeed());
+
+        float theta = settings.getTheta();
+        boolean quadrupoles = settings.isQuadrupoles();
+        String openingCriterion = settings.getOpeningCriterion();
+        float tolerance = settings.getForceErrorTolerance();
+        try {
+            settings.setOpeningCriterion("geometric");
+            // Builds the tree once so the gravitational constant is set for the reference
+            barnesHut.computeAccelerations();
+            long start = System.nanoTime();
+            double[] reference = directSum(bodies, sample, barnesHut.getGravitationalConstant(), settings.getSoftening());
+            System.out.println(String.format("Direct sum reference: %.1f ms", (System.nanoTime() - start) / 1e6));
+
+            System.out.println("multipole   criterion    param   median err    p99 err    max err  interactions   time (ms)");
+            for (boolean useQuadrupoles : new boolean[] {false, true}) {
+                settings.setQuadrupoles(useQuadrupoles);
+                for (float t : THETAS) {
+                    settings.setTheta(t);
+                    measure(barnesHut, reference, sample, useQuadrupoles, "theta", t);
+                }
+                settings.setTheta(theta);
+                for (float t : TOLERANCES) {
+                    // The first step of a simulation has no accelerations, so it uses theta
+                    settings.setOpeningCriterion("geometric");
+                    barnesHut.computeAccelerations();
+                    settings.setOpeningCriterion("relative");
+                    settings.setForceErrorTolerance(t);
+                    measure(barnesHut, reference, sample, useQuadrupoles, "relative", t);
+                }
+                settings.setOpeningCriterion("geometric");
+            }
+        } finally {
+            settings.setTheta(theta);
+            settings.setQuadrupoles(quadrupoles);
+            settings.setOpeningCriterion(openingCriterion);
+            settings.setForceErrorTolerance(tolerance);
+            barnesHut.cleanup();
+        }
+    }
+
+    /**
+     * Times the tree with the current settings and prints its errors against the reference.
+     * Each run starts from the accelerations of the run before, as the steps of a simulation do.
+     * @param barnesHut the CPU engine
+     * @param reference the reference acceleration of each sampled body as (x, y, z)
+     * @param sample the sampled body slots
+     * @param quadrupoles whether quadrupoles are used
+     * @param criterion the name of the opening criterion
+     * @param param the theta or tolerance of the criterion
+     */
+    private static void measure(CPUBarnesHut barnesHut, double[] reference, int[] sample, boolean quadrupoles, String criterion, float param) {
+        float[] accelerations = null;
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < TIMED_RUNS; run++) {
+            long start = System.nanoTime();
+            accelerations = barnesHut.computeAccelerations();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double[] errors = relativeErrors(accelerations, reference, sample);
+        System.out.println(String.format("%-10s  %-9s %8.4f %12.3e %10.3e %10.3e %13.1f %11.2f",
+            quadrupoles ? "quadrupole" : "monopole", criterion, param,
+            percentile(errors, 0.50), percentile(errors, 0.99), errors[errors.length - 1], barnesHut.getMeanInteractions(), best / 1e6));
+    }
+
+    /**
+     * Picks a random sample of the bodies that are not empty, or all of them if there are fewer.
+     * @param bodies the bodies (Body.STRUCT_SIZE floats each)
+     * @param samples the number of bodies to sample
+     * @param seed the seed of the sample
+     * @return the sampled body slots
+     */
+    private static int[] sampleBodies(float[] bodies, int samples, long seed) {
+        int[] alive = IntStream.range(0, bodies.length / Body.STRUCT_SIZE)
+            .filter(i -> bodies[i * Body.STRUCT_SIZE + 3] > 0f)
+            .toArray();
+        Random random = new Random(seed);
+        for (int i = alive.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = alive[i];
+            alive[i] = alive[j];
+            alive[j] = temp;
+        }
+        return Arrays.copyOf(alive, Math.min(samples, alive.length));
+    }
+
+    /**
+     * Computes the acceleration of the sampled bodies by a direct sum over every body in double precision.
+     * @param bodies the bodies (Body.STRUCT_SIZE floats each)
+     * @param sample the sampled body slots
+     * @param gravitationalConstant the gravitational constant in the simulation's units
+     * @param softening the softening added to the squared distance
+     * @return the acceleration of each sampled body as (x, y, z)
+     */
+    private static double[] directSum(float[] bodies, int[] sample, double gravitationalConstant, double softening) {
+        int numBodies = bodies.length / Body.STRUCT_SIZE;
+        double[] reference = new double[sample.length * 3];
+        IntStream.range(0, sample.length).parallel().forEach(s -> {
+            int body = sample[s] * Body.STRUCT_SIZE;
+            double ax = 0, ay = 0, az = 0;
+            for (int other = 0; other < numBodies; other++) {
+                int base = other * Body.STRUCT_SIZE;
+                double mass = bodies[base + 3];
+                if (base == body || mass <= 0) {
+                    continue;
+                }
+                double rx = bodies[base] - (double) bodies[body];
+                double ry = bodies[base + 1] - (double) bodies[body + 1];
+                double rz = bodies[base + 2] - (double) bodies[body + 2];
+                double oneOverDist = 1.0 / Math.sqrt(rx * rx + ry * ry + rz * rz + softening);
+                double f = gravitationalConstant * mass * oneOverDist * oneOverDist * oneOverDist;
+                ax += f * rx;
+                ay += f * ry;
+                az += f * rz;
+            }
+            reference[3 * s] = ax;
+            reference[3 * s + 1] = ay;
+            reference[3 * s + 2] = az;
+        });
+        return reference;
+    }
+
+    /**
+     * Computes the sorted relative errors of the tree accelerations of the sampled bodies.
+     * @param accelerations the tree acceleration of each body slot as (x, y, z)
+     * @param reference the reference acceleration of each sampled body as (x, y, z)
+     * @param sample the sampled body slots
+     * @return the sorted relative errors
+     */
+    private static double[] relativeErrors(float[] accelerations, double[] reference, int[] sample) {
+        double[] errors = new double[sample.length];
+        for (int s = 0; s < sample.length; s++) {
+            double dx = accelerations[3 * sample[s]] - reference[3 * s];
+            double dy = accelerations[3 * sample[s] + 1] - reference[3 * s + 1];
+            double dz = accelerations[3 * sample[s] + 2] - reference[3 * s + 2];
+            double norm = Math.sqrt(reference[3 * s] * reference[3 * s] + reference[3 * s + 1] * reference[3 * s + 1] + reference[3 * s + 2] * reference[3 * s + 2]);
+            errors[s] = Math.sqrt(dx * dx + dy * dy + dz * dz) / Math.max(norm, Double.MIN_NORMAL);
+        }
+        Arrays.sort(errors);
+        return errors;
+    }
+
+    /**
+     * Gets a percentile of sorted values with the nearest rank method.
+     * @param sorted the sorted values, not empty
+     * @param p the percentile, between 0 and 1
+     * @return the percentile
+     */
+    private static double percentile(double[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+    }
+}
@@ -0,0 +1,227 @@
+package com.grumbo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.grumbo.cpu.CPUBarnesHut;
+import com.grumbo.cpu.CPUDirectSum;
+import com.grumbo.cpu.CPUEngine;
+import com.grumbo.cpu.PMSolver;
+import com.grumbo.gpu.Body;
+import com.grumbo.gpu.GPU;
+import com.grumbo.gpu.SimulationParameters;
+import com.grumbo.simulation.GPUSimulation;
+import com.grumbo.simulation.PlanetGenerator;
+import com.grumbo.simulation.Settings;
+import com.grumbo.simulation.SimulationSetup;
+import com.grumbo.simulation.UnitSet;
+
+/**
+ * HeadlessMain - Headless Entry Point
+ * ===================================
+ * Runs a scene for a fixed number of steps with no window, rendering, or UI,
+ * and writes the bodies to an output file every few steps.
+ * By default the compute shaders run on a hidden OpenGL context (gpu), which is never drawn to or swapped,
+ * so a machine with no display needs a virtual one or a software OpenGL such as llvmpipe.
+ * The CPU engines are there as fallbacks: the Barnes-Hut tree (tree), or the particle mesh (pm) for periodic box scenes,
+ * which uses the pmGridSize setting rounded down to a power of 2, or about one grid point per body when it is 0, or the double precision direct sum (direct) for small scenes,
+ * which loads scene json files without rounding them to floats. threads is only used by the CPU engines.
+ *
+ * Usage: HeadlessMain &lt;preset|scene.json&gt; &lt;steps&gt; &lt;output&gt; [outputEvery] [threads] [squareBounds] [seed] [gpu|tree|pm|direct]
+ *
+ * The output file is little endian and is a sequence of frames, each being
+ * int step, int numBodies, int initialNumBodies, then initialNumBodies Body structs (Body.STRUCT_SIZE floats each).
+ * With leapfrog block timesteps (timestepLevels &gt; 0), a body between its kicks is written with the half kicked velocity from the start of its step,
+ * so the velocities of a frame are only in step when outputEvery is a multiple of 2^timestepLevels.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class HeadlessMain {
+    private static final float DEFAULT_JSON_SQUARE_BOUNDS = 50f;
+    private static final int FRAME_HEADER_SIZE = 3 * Integer.BYTES;
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: HeadlessMain <preset|scene.json> <steps> <output> [outputEvery] [threads] [squareBounds] [seed] [gpu|tree|pm|direct]");
+            System.err.println("Presets: " + java.util.Arrays.toString(SimulationSetup.Preset.values()));
+            System.exit(1);
+        }
+        String scene = args[0];
+        int steps = Integer.parseInt(args[1]);
+        Path output = Path.of(args[2]);
+        int outputEvery = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        String engine = args.length > 7 ? args[7].toLowerCase() : "gpu";
+        if (steps < 0 || outputEvery < 1) {
+            throw new IllegalArgumentException("steps must be non negative and outputEvery must be at least 1");
+        }
+        if (!engine.equals("gpu") && !engine.equals("tree") && !engine.equals("pm") && !engine.equals("direct")) {
+            throw new IllegalArgumentException("engine must be gpu, tree, pm or direct: " + engine);
+        }
+
+        PlanetGenerator generator;
+        float squareBounds;
+        String sceneJson = null;
+        if (scene.toLowerCase().endsWith(".json")) {
+            try {
+                sceneJson = Files.readString(Path.of(scene));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read scene: " + scene, e);
+            }
+            generator = PlanetGenerator.fromJson(sceneJson);
+            if (generator == null) {
+                throw new IllegalArgumentException("Failed to parse scene: " + scene);
+            }
+            generator.changeUnitSet(UnitSet.SOLAR_SYSTEM_HOUR);
+            squareBounds = DEFAULT_JSON_SQUARE_BOUNDS;
+        } else {
+            SimulationSetup setup = new SimulationSetup();
+            if (args.length > 6) {
+                setup.setSeed(Long.parseLong(args[6]));
+            }
+            setup.applyPreset(SimulationSetup.Preset.valueOf(scene.toUpperCase()));
+            SimulationSetup.LaunchConfig config = setup.toLaunchConfig();
+            config.suggestedSettings.apply(Settings.getInstance());
+            System.out.println("Suggested settings: " + config.suggestedSettings + ", seed: " + setup.getSeed());
+            generator = config.generator;
+            squareBounds = config.squareBounds;
+        }
+        if (args.length > 5) {
+            squareBounds = Float.parseFloat(args[5]);
+        }
+
+        int timestepLevels = SimulationParameters.timestepLevels(Settings.getInstance());
+        if ((engine.equals("gpu") || engine.equals("tree")) && timestepLevels > 0 && outputEvery % (1 << timestepLevels) != 0) {
+            System.out.println("Warning: outputEvery is not a multiple of 2^timestepLevels = " + (1 << timestepLevels) + ", so some frames have half kicked velocities");
+        }
+
+        float[][] bounds = new float[][] {{-squareBounds, -squareBounds, -squareBounds}, {squareBounds, squareBounds, squareBounds}};
+        if (engine.equals("gpu")) {
+            runGPU(GPUSimulation.createHeadless(generator, bounds), steps, outputEvery, output, squareBounds);
+            return;
+        }
+        CPUEngine simulation;
+        if (engine.equals("pm")) {
+            int pmGridSize = Settings.getInstance().getPmGridSize();
+            int gridSize = pmGridSize > 0 ? SimulationParameters.roundPmGridSize(pmGridSize) : PMSolver.defaultGridSize(generator.getNumPlanets());
+            simulation = new PMSolver(generator, bounds, gridSize, threads);
+            engine += " " + gridSize + "^3";
+        } else if (engine.equals("direct")) {
+            simulation = sceneJson != null ? CPUDirectSum.fromJson(sceneJson, UnitSet.SOLAR_SYSTEM_HOUR, threads) : new CPUDirectSum(generator, threads);
+        } else {
+            simulation = new CPUBarnesHut(generator, bounds, threads, false);
+        }
+        runCPU(simulation, steps, outputEvery, output, squareBounds, threads, engine);
+    }
+
+    /**
+     * Runs the compute shaders on a hidden OpenGL context, reading the bodies back for each frame written.
+     * @param gpuSimulation the headless simulation
+     * @param steps the number of steps to run
+     * @param outputEvery the number of steps between frames
+     * @param output the output file
+     * @param squareBounds the half size of the bounds, for the log
+     */
+    private static void runGPU(GPUSimulation gpuSimulation, int steps, int outputEvery, Path output, float squareBounds) {
+        gpuSimulation.initHeadless();
+        int initialNumBodies = gpuSimulation.initialNumBodies();
+        System.out.println("Bodies: " + initialNumBodies + ", squareBounds: " + squareBounds + ", engine: gpu");
+
+        float[] bodies = new float[initialNumBodies * Body.STRUCT_SIZE];
+        int[] counters = GPU.readCounters();
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_HEADER_SIZE + initialNumBodies * Body.STRUCT_SIZE * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            GPU.readBodies(bodies);
+            writeFrame(channel, frame, 0, counters[0], initialNumBodies, bodies);
+            for (int step = 1; step <= steps; step++) {
+                gpuSimulation.stepHeadless();
+                if (step % outputEvery == 0) {
+                    counters = GPU.readCounters();
+                    GPU.readBodies(bodies);
+                    writeFrame(channel, frame, gpuSimulation.getSteps(), counters[0], initialNumBodies, bodies);
+                }
+            }
+            counters = GPU.readCounters();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write output: " + output, e);
+        } finally {
+            gpuSimulation.cleanupHeadless();
+        }
+        printSummary(steps, start, counters[0], counters[3], counters[4]);
+    }
+
+    /**
+     * Runs one of the CPU engines.
+     * @param simulation the engine
+     * @param steps the number of steps to run
+     * @param outputEvery the number of steps between frames
+     * @param output the output file
+     * @param squareBounds the half size of the bounds, for the log
+     * @param threads the number of threads, for the log
+     * @param engine the name of the engine, for the log
+     */
+    private static void runCPU(CPUEngine simulation, int steps, int outputEvery, Path output, float squareBounds, int threads, String engine) {
+        simulation.init();
+        System.out.println("Bodies: " + simulation.getInitialNumBodies() + ", squareBounds: " + squareBounds + ", threads: " + threads + ", engine: " + engine);
+
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_HEADER_SIZE + simulation.getInitialNumBodies() * Body.STRUCT_SIZE * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            writeFrame(channel, frame, simulation.getSteps(), simulation.getNumBodies(), simulation.getInitialNumBodies(), simulation.getBodies());
+            for (int step = 1; step <= steps; step++) {
+                simulation.step();
+                if (step % outputEvery == 0) {
+                    writeFrame(channel, frame, simulation.getSteps(), simulation.getNumBodies(), simulation.getInitialNumBodies(), simulation.getBodies());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write output: " + output, e);
+        } finally {
+            simulation.cleanup();
+        }
+        printSummary(steps, start, simulation.getNumBodies(), simulation.getMerged(), simulation.getOutOfBounds());
+    }
+
+    /**
+     * Prints the speed of the run and the final counts of bodies.
+     * @param steps the number of steps run
+     * @param start the start time in nanoseconds
+     * @param numBodies the number of live bodies at the end
+     * @param merged the number of merges
+     * @param outOfBounds the number of bodies lost out of bounds
+     */
+    private static void printSummary(int steps, long start, int numBodies, int merged, int outOfBounds) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Ran %d steps in %.3f s (%.2f steps/s). Bodies: %d, merged: %d, out of bounds: %d",
+            steps, seconds, steps / Math.max(seconds, 1e-9), numBodies, merged, outOfBounds));
+    }
+
+    /**
+     * Writes the current bodies as one frame of the output file.
+     * @param channel the output channel
+     * @param frame the reusable frame buffer
+     * @param step the step of the frame
+     * @param numBodies the number of live bodies
+     * @param initialNumBodies the number of body slots
+     * @param bodies the bodies, initialNumBodies Body structs
+     */
+    private static void writeFrame(FileChannel channel, ByteBuffer frame, int step, int numBodies, int initialNumBodies, float[] bodies) throws IOException {
+        frame.clear();
+        frame.putInt(step);
+        frame.putInt(numBodies);
+        frame.putInt(initialNumBodies);
+        frame.asFloatBuffer().put(bodies, 0, initialNumBodies * Body.STRUCT_SIZE);
+        frame.position(frame.capacity());
+        frame.flip();
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package com.grumbo;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.grumbo.simulation.Checkpoint;
 import com.grumbo.simulation.GPUSimulation;
 import com.grumbo.simulation.Render;
 import com.grumbo.simulation.Settings;
@@ -11,9 +15,14 @@ import com.grumbo.ui.SetupScreen;
  * =============================
  * Setup menu -> simulation -> back to setup when the sim window closes.
  * Quit from the setup menu exits the app.
+ * Passing a checkpoint file resumes it instead of showing the setup menu.
  */
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0) {
+            resume(Path.of(args[0]));
+            return;
+        }
         while (true) {
             SimulationSetup.LaunchConfig config = SetupScreen.run();
             if (config == null) {
@@ -35,4 +44,20 @@ public class Main {
             System.out.println("Returned to setup menu.");
         }
     }
+
+    /**
+     * Resumes a simulation from a checkpoint file.
+     * @param path the checkpoint file
+     */
+    private static void resume(Path path) {
+        Checkpoint checkpoint;
+        try {
+            checkpoint = Checkpoint.read(path);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read checkpoint: " + path, e);
+        }
+        System.out.println("Resuming: " + checkpoint);
+        GPUSimulation gpuSimulation = new GPUSimulation(checkpoint, Render.RenderMode.IMPOSTOR_SPHERES_WITH_GLOW, false);
+        gpuSimulation.run();
+    }
 }
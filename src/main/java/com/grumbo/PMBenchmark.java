@@ -0,0 +1,147 @@
+package com.grumbo;
+
+import static org.lwjgl.opengl.GL43.glFinish;
+
+import com.grumbo.cpu.CPUBarnesHut;
+import com.grumbo.cpu.CPUEngine;
+import com.grumbo.cpu.PMSolver;
+import com.grumbo.simulation.GPUSimulation;
+import com.grumbo.simulation.PlanetGenerator;
+import com.grumbo.simulation.Settings;
+
+/**
+ * PMBenchmark - Particle Mesh Entry Point
+ * =======================================
+ * Measures the time per step of the particle mesh engine against the CPU and GPU Barnes-Hut trees on uniform random boxes
+ * of 1024, 2048, ... bodies up to the given number, and prints the number of bodies where the mesh starts to win against each.
+ * The mesh uses about one grid point per body. The box is pinned to static bounds that wrap around with no pmGridSize,
+ * so every engine runs in the same periodic box and the trees do not switch to TreePM.
+ * The GPU tree runs on a hidden OpenGL context, as HeadlessMain does, so a machine with no GPU needs llvmpipe or withGPU set to false.
+ *
+ * Usage: PMBenchmark [maxBodies] [steps] [threads] [withGPU]
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class PMBenchmark {
+    private static final int MIN_BODIES = 1024;
+    private static final int DEFAULT_MAX_BODIES = 1 << 18;
+    private static final int DEFAULT_STEPS = 10;
+    private static final int WARMUP_STEPS = 2;
+    private static final float BOX_HALF_SIZE = 100f;
+    private static final long SEED = 1L;
+
+    public static void main(String[] args) {
+        int maxBodies = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MAX_BODIES;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_STEPS;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        boolean withGPU = args.length > 3 ? Boolean.parseBoolean(args[3]) : true;
+        if (maxBodies < MIN_BODIES || steps < 1) {
+            throw new IllegalArgumentException("maxBodies must be at least " + MIN_BODIES + " and steps must be at least 1");
+        }
+
+        Settings settings = Settings.getInstance();
+        String dynamicSetting = settings.getDynamic();
+        boolean wrapAroundSetting = settings.isWrapAround();
+        int pmGridSizeSetting = settings.getPmGridSize();
+        try {
+            settings.setDynamic("static");
+            settings.setWrapAround(true);
+            settings.setPmGridSize(0);
+            run(maxBodies, steps, threads, withGPU);
+        } finally {
+            settings.setDynamic(dynamicSetting);
+            settings.setWrapAround(wrapAroundSetting);
+            settings.setPmGridSize(pmGridSizeSetting);
+        }
+    }
+
+    /**
+     * Times the engines at each size and prints the table and the crossovers.
+     * @param maxBodies the largest number of bodies
+     * @param steps the number of timed steps
+     * @param threads the number of threads of the CPU engines
+     * @param withGPU whether to time the GPU tree
+     */
+    private static void run(int maxBodies, int steps, int threads, boolean withGPU) {
+        float[][] bounds = new float[][] {{-BOX_HALF_SIZE, -BOX_HALF_SIZE, -BOX_HALF_SIZE}, {BOX_HALF_SIZE, BOX_HALF_SIZE, BOX_HALF_SIZE}};
+        System.out.println("Steps: " + steps + ", threads: " + threads);
+        System.out.println(" bodies    grid   tree ms/step    gpu ms/step     pm ms/step   speedup   gpu speedup");
+        int crossover = -1;
+        int gpuCrossover = -1;
+        for (int n = MIN_BODIES; n <= maxBodies; n *= 2) {
+            int gridSize = PMSolver.defaultGridSize(n);
+            double treeTime = time(new CPUBarnesHut(box(n), bounds, threads, false), steps);
+            double gpuTime = withGPU ? timeGPU(GPUSimulation.createHeadless(box(n), bounds), steps) : Double.NaN;
+            double pmTime = time(new PMSolver(box(n), bounds, gridSize, threads), steps);
+            System.out.println(String.format("%7d %5d^3 %14.3f %14.3f %14.3f %9.2f %13.2f", n, gridSize, treeTime, gpuTime, pmTime, treeTime / pmTime, gpuTime / pmTime));
+            if (crossover < 0 && pmTime < treeTime) {
+                crossover = n;
+            }
+            if (gpuCrossover < 0 && pmTime < gpuTime) {
+                gpuCrossover = n;
+            }
+        }
+        System.out.println(crossover < 0 ? "The CPU tree was faster at every size" : "The mesh is faster than the CPU tree from " + crossover + " bodies");
+        if (withGPU) {
+            System.out.println(gpuCrossover < 0 ? "The GPU tree was faster at every size" : "The mesh is faster than the GPU tree from " + gpuCrossover + " bodies");
+        }
+    }
+
+    /**
+     * Makes a uniform random box filling the bounds, at rest, with the same seed every time.
+     * @param numBodies the number of bodies
+     * @return the generator of the box
+     */
+    private static PlanetGenerator box(int numBodies) {
+        float[] range = new float[] {-BOX_HALF_SIZE, BOX_HALF_SIZE};
+        float[] still = new float[] {0f, 0f};
+        return PlanetGenerator.makeNewRandomBox(numBodies, range, range, range, still, still, still, new float[] {1f, 1f}, new float[] {1f, 1f}, SEED);
+    }
+
+    /**
+     * Runs the engine for a few warmup steps and then the timed steps.
+     * @param engine the engine to time
+     * @param steps the number of timed steps
+     * @return the mean time per step in milliseconds
+     */
+    private static double time(CPUEngine engine, int steps) {
+        try {
+            engine.init();
+            for (int i = 0; i < WARMUP_STEPS; i++) {
+                engine.step();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < steps; i++) {
+                engine.step();
+            }
+            return (System.nanoTime() - start) / 1e6 / steps;
+        } finally {
+            engine.cleanup();
+        }
+    }
+
+    /**
+     * Runs a headless GPU simulation for a few warmup steps and then the timed steps, waiting for the GPU before and after them.
+     * @param gpuSimulation the headless simulation to time
+     * @param steps the number of timed steps
+     * @return the mean time per step in milliseconds
+     */
+    private static double timeGPU(GPUSimulation gpuSimulation, int steps) {
+        try {
+            gpuSimulation.initHeadless();
+            for (int i = 0; i < WARMUP_STEPS; i++) {
+                gpuSimulation.stepHeadless();
+            }
+            glFinish();
+            long start = System.nanoTime();
+            for (int i = 0; i < steps; i++) {
+                gpuSimulation.stepHeadless();
+            }
+            glFinish();
+            return (System.nanoTime() - start) / 1e6 / steps;
+        } finally {
+            gpuSimulation.cleanupHeadless();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.grumbo;
+
+import com.grumbo.gpu.GPU;
+import com.grumbo.simulation.GPUSimulation;
+import com.grumbo.simulation.PlanetGenerator;
+import com.grumbo.simulation.Settings;
+
+/**
+ * RadixSortCheck - Radix Sort Entry Point
+ * =======================================
+ * Checks both radix sort engines (multiPass and onesweep) at every supported width against a stable CPU sort of the same keys.
+ * Each engine runs on a hidden OpenGL context on a uniform random box, and its sort is checked on the first step
+ * and again after every few steps, so a sort of keys that are already nearly in order (and the coherent sort, if it is on) is covered too.
+ * Both engines are stable, so the indices must match exactly, not just the codes.
+ * Exits with 1 if any sort differs from the CPU sort. On a machine with no GPU, run it on llvmpipe (e.g. LIBGL_ALWAYS_SOFTWARE=1 on Mesa).
+ *
+ * Usage: RadixSortCheck [numBodies] [checks] [stepsBetweenChecks]
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class RadixSortCheck {
+    private static final int DEFAULT_NUM_BODIES = 100_000;
+    private static final int DEFAULT_CHECKS = 4;
+    private static final int DEFAULT_STEPS_BETWEEN_CHECKS = 5;
+    private static final float BOX_HALF_SIZE = 100f;
+    private static final long SEED = 1L;
+    private static final String[] ENGINES = {"multiPass", "onesweep"};
+
+    public static void main(String[] args) {
+        int numBodies = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_BODIES;
+        int checks = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CHECKS;
+        int stepsBetweenChecks = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_STEPS_BETWEEN_CHECKS;
+        if (numBodies < 1 || checks < 1 || stepsBetweenChecks < 0) {
+            throw new IllegalArgumentException("numBodies and checks must be at least 1 and stepsBetweenChecks must be non negative");
+        }
+
+        Settings settings = Settings.getInstance();
+        String engineSetting = settings.getRadixSortEngine();
+        String radixBitsSetting = settings.getRadixBits();
+        int failures = 0;
+        try {
+            for (String engine : ENGINES) {
+                for (int radixBits : GPU.SUPPORTED_RADIX_BITS) {
+                    settings.setRadixSortEngine(engine);
+                    settings.setRadixBits(Integer.toString(radixBits));
+                    failures += check(numBodies, checks, stepsBetweenChecks);
+                }
+            }
+        } finally {
+            settings.setRadixSortEngine(engineSetting);
+            settings.setRadixBits(radixBitsSetting);
+        }
+
+        if (failures > 0) {
+            System.err.println(failures + " sorts differ from the CPU sort");
+            System.exit(1);
+        }
+        System.out.println("Every sort matches the CPU sort");
+    }
+
+    /**
+     * Runs one engine at one width on a fresh headless simulation and checks its sorts.
+     * The engine and width are read from the settings when the compute programs are made in initHeadless.
+     * @param numBodies the number of bodies
+     * @param checks the number of sorts to check
+     * @param stepsBetweenChecks the number of steps run between checks
+     * @return the number of sorts that differ from the CPU sort
+     */
+    private static int check(int numBodies, int checks, int stepsBetweenChecks) {
+        float[][] bounds = new float[][] {{-BOX_HALF_SIZE, -BOX_HALF_SIZE, -BOX_HALF_SIZE}, {BOX_HALF_SIZE, BOX_HALF_SIZE, BOX_HALF_SIZE}};
+        GPUSimulation gpuSimulation = GPUSimulation.createHeadless(box(numBodies), bounds);
+        int failures = 0;
+        try {
+            gpuSimulation.initHeadless();
+            for (int i = 0; i < checks; i++) {
+                if (i > 0) {
+                    for (int step = 0; step < stepsBetweenChecks; step++) {
+                        gpuSimulation.stepHeadless();
+                    }
+                }
+                if (!gpuSimulation.getBarnesHut().checkRadixSort()) {
+                    failures++;
+                }
+                GPUSimulation.checkGLError("checkRadixSort");
+            }
+        } finally {
+            gpuSimulation.cleanupHeadless();
+        }
+        return failures;
+    }
+
+    /**
+     * Makes a uniform random box filling the bounds, at rest, with the same seed every time.
+     * @param numBodies the number of bodies
+     * @return the generator of the box
+     */
+    private static PlanetGenerator box(int numBodies) {
+        float[] range = new float[] {-BOX_HALF_SIZE, BOX_HALF_SIZE};
+        float[] still = new float[] {0f, 0f};
+        return PlanetGenerator.makeNewRandomBox(numBodies, range, range, range, still, still, still, new float[] {1f, 1f}, new float[] {1f, 1f}, SEED);
+    }
+}
@@ -6,6 +6,7 @@ import static org.lwjgl.opengl.GL43.*;
 import org.joml.Vector3f;
 
 import com.grumbo.simulation.*;
+import com.grumbo.gpu.GPUCommands;
 import java.util.ArrayList;
 /**
  * OpenGLUI class creates the SimulationOpenGL UI, manages key events, and draws the UI.
@@ -207,6 +208,8 @@ public class OpenGLUI {
 
         keyEvents.add(new KeyEvent(GLFW.GLFW_KEY_F5, () -> {openGlWindow.gpuSimulation.toggleCrosshair();},false));
         keyEvents.add(new KeyEvent(GLFW.GLFW_KEY_F6, () -> {openGlWindow.gpuSimulation.toggleRecording();},false));
+        keyEvents.add(new KeyEvent(GLFW.GLFW_KEY_F7, () -> {openGlWindow.gpuSimulation.enqueue(GPUCommands.saveCheckpoint());},false));
+        keyEvents.add(new KeyEvent(GLFW.GLFW_KEY_F8, () -> {openGlWindow.gpuSimulation.enqueue(GPUCommands.toggleTrajectory());},false));
         keyEvents.add(new KeyEvent(GLFW.GLFW_KEY_ENTER, () -> {if (openGlWindow.getState() == GPUSimulation.State.PAUSED) openGlWindow.gpuSimulation.frameAdvance();},false));
     }
 
@@ -0,0 +1,1656 @@
+package com.grumbo.cpu;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.grumbo.gpu.Body;
+import com.grumbo.gpu.GPU;
+import com.grumbo.gpu.Node;
+import com.grumbo.gpu.SimulationParameters;
+import com.grumbo.simulation.BodyStore;
+import com.grumbo.simulation.PlanetGenerator;
+import com.grumbo.simulation.Settings;
+
+/**
+ * CPUBarnesHut is a pure Java version of the Barnes-Hut algorithm run by the compute shaders.
+ * It runs the same stages as BarnesHut.step() in parallel over all cores using a ForkJoinPool,
+ * and stores its data in the same layouts as the SSBOs (Body.STRUCT_SIZE floats per body,
+ * Node.STRUCT_SIZE ints per node) so the results can be compared stage by stage with the GPU.
+ *
+ * Each step works in the same 7 stages as the GPU:
+ * 1. Partition empty bodies to the end of the index array.
+ * 2. Generate morton codes for the alive bodies.
+ * 3. Radix sort the morton codes.
+ * 4. Build a binary radix tree using the sorted morton codes.
+ * 5. Compute the center of mass and location of the nodes in the tree.
+ * 6. Compute the force on each body using the tree.
+ * 7. Merge the bodies, leaving empty bodies where they are.
+ *
+ * In a periodic box with pmGridSize set, a ParticleMesh adds the long range force before stage 6,
+ * and the tree only adds the short range force of the nearest image of each node within the cutoff.
+ *
+ * A chunk of CHUNK_SIZE bodies plays the role of a workgroup.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class CPUBarnesHut implements CPUEngine {
+
+    public static final int CHUNK_SIZE = GPU.WORK_GROUP_SIZE * 16;
+    public static final int RADIX_BITS = GPU.DEFAULT_RADIX_BITS;
+    public static final int NUM_RADIX_BUCKETS = 1 << RADIX_BITS;
+    public static final int NULL_INDEX = 0xFFFFFFFF;
+
+    private static final int NEITHER = 0;
+    private static final int MERGING = 1;
+    private static final int COLLISION = 2;
+    private static final int STATIC = 0;
+    private static final int RELATIVE = 1;
+    private static final int LEAPFROG = 1;
+    private static final float RESTITUTION = 0.2f;
+    private static final float MORTON_AABB_GROW = 1.05f;
+    private static final float MORTON_AABB_MAX_GROW = 1.1f;
+    private static final double GRAVITATIONAL_CONSTANT = 6.67430e-11;
+    private static final double THREE_OVER_FOUR_PI_TO_THE_ONE_THIRD = 0.6203504909;
+
+    private static final VarHandle INT_ARRAY = MethodHandles.arrayElementVarHandle(int[].class);
+
+    // Body buffers (same layout as SSBO_SWAPPING_BODIES_IN/OUT)
+    private float[] bodiesIn;
+    private float[] bodiesOut;
+
+    // Morton and index buffers (same layout as SSBO_SWAPPING_MORTON_IN/OUT and SSBO_SWAPPING_INDEX_IN/OUT)
+    private long[] mortonIn;
+    private long[] mortonOut;
+    private int[] indexIn;
+    private int[] indexOut;
+
+    // Node buffers (same layout as SSBO_LEAF_NODES and SSBO_INTERNAL_NODES)
+    private int[] leafNodes;
+    private int[] internalNodes;
+
+    // Per chunk scratch buffers (analogous to SSBO_RADIX_WG_HIST and SSBO_RADIX_WG_SCANNED)
+    private int[] chunkHist;
+    private int[] chunkScanned;
+
+    // Last acceleration magnitude and interaction count of each body slot (analogous to SSBO_BODY_STATS, which is by stable id)
+    private float[] accelMagnitudes;
+    private int[] interactions;
+
+    // Last acceleration of each body slot and its block timestep rung plus 1 once its leapfrog has started (same layout as SSBO_BODY_ACCELERATIONS, which is by stable id)
+    private float[] accelerations;
+
+    // Sorted positions of the bodies whose block timestep ends this step (same as SSBO_ACTIVE_BODIES)
+    private int[] activeList;
+    private int numActive;
+
+    // Long range force of a periodic box (its force grid has the same layout as SSBO_PM_FORCE), null until it is first used
+    private ParticleMesh particleMesh;
+
+    // Merge queue (same layout as SSBO_MERGE_QUEUE without the head and tail)
+    private int[] mergeTasks;
+    private AtomicInteger mergeTasksTail;
+
+    // Simulation values (same as the SimulationValues SSBO)
+    private int numBodies;
+    private int initialNumBodies;
+    private int justDied;
+    private int merged;
+    private AtomicInteger outOfBounds;
+    private float[] simBounds;
+    private float gravitationalConstant;
+    private float bodyLengthInSimulationLengthsConstant;
+
+    private PlanetGenerator planetGenerator;
+    private ForkJoinPool pool;
+    private int steps;
+
+    //Debug variables
+    private boolean debug;
+    private long driftTime;
+    private long deadTime;
+    private long updateBoundsTime;
+    private long mortonCodeGenerationTime;
+    private long radixSortTime;
+    private long buildTreeTime;
+    private long computeCOMAndLocationTime;
+    private long particleMeshTime;
+    private long computeForceTime;
+    private long mergeBodiesTime;
+    public String debugString;
+
+    /**
+     * A function run over a range of indices by a fork join task. Shared with CPUDirectSum and PMSolver.
+     */
+    interface RangeFunction {
+        public void run(int start, int end);
+    }
+
+    /**
+     * Constructor for the CPUBarnesHut class using all available cores.
+     * @param planetGenerator the planet generator to load the bodies from
+     * @param bounds the bounds of the simulation
+     * @param debug whether to time each stage
+     */
+    public CPUBarnesHut(PlanetGenerator planetGenerator, float[][] bounds, boolean debug) {
+        this(planetGenerator, bounds, Runtime.getRuntime().availableProcessors(), debug);
+    }
+
+    /**
+     * Constructor for the CPUBarnesHut class.
+     * @param planetGenerator the planet generator to load the bodies from
+     * @param bounds the bounds of the simulation
+     * @param threads the number of threads to use
+     * @param debug whether to time each stage
+     */
+    public CPUBarnesHut(PlanetGenerator planetGenerator, float[][] bounds, int threads, boolean debug) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.planetGenerator = planetGenerator;
+        this.pool = new ForkJoinPool(threads);
+        this.debug = debug;
+        this.simBounds = new float[] {bounds[0][0], bounds[0][1], bounds[0][2], bounds[1][0], bounds[1][1], bounds[1][2]};
+        this.debugString = "";
+    }
+
+    /**
+     * Initializes the buffers and loads the bodies from the planet generator.
+     * Analogous to GPU.initGPU followed by the init kernel.
+     */
+    public void init() {
+        initialNumBodies = planetGenerator.getNumPlanets();
+        numBodies = initialNumBodies;
+        int numChunks = numChunks();
+
+        bodiesIn = new float[initialNumBodies * Body.STRUCT_SIZE];
+        bodiesOut = new float[initialNumBodies * Body.STRUCT_SIZE];
+        mortonIn = new long[initialNumBodies];
+        mortonOut = new long[initialNumBodies];
+        indexIn = new int[initialNumBodies];
+        indexOut = new int[initialNumBodies];
+        leafNodes = new int[initialNumBodies * Node.STRUCT_SIZE];
+        internalNodes = new int[Math.max(1, initialNumBodies - 1) * Node.STRUCT_SIZE];
+        chunkHist = new int[Math.max(1, numChunks) * NUM_RADIX_BUCKETS];
+        chunkScanned = new int[Math.max(1, numChunks) * NUM_RADIX_BUCKETS];
+        accelMagnitudes = new float[initialNumBodies];
+        interactions = new int[initialNumBodies];
+        accelerations = new float[initialNumBodies * 4];
+        activeList = new int[initialNumBodies];
+        mergeTasks = new int[initialNumBodies * 2];
+        mergeTasksTail = new AtomicInteger();
+        outOfBounds = new AtomicInteger();
+        merged = 0;
+        justDied = 0;
+        steps = 0;
+
+        BodyStore chunk = new BodyStore(Math.min(planetGenerator.getChunkSize(), initialNumBodies));
+        int offset = 0;
+        while (planetGenerator.hasNext()) {
+            int count = planetGenerator.nextChunk(chunk, 0);
+            chunk.writeBodies(0, count, bodiesIn, offset * Body.STRUCT_SIZE);
+            offset += count;
+        }
+        System.arraycopy(bodiesIn, 0, bodiesOut, 0, bodiesIn.length);
+        for (int i = 0; i < initialNumBodies; i++) {
+            indexIn[i] = i;
+        }
+        updateUnits();
+    }
+
+    /**
+     * Steps the simulation once. Mirrors BarnesHut.step().
+     */
+    public void step() {
+        long start = System.nanoTime();
+        resetValues();
+        if (Settings.getInstance().getSelectedIndexIntegrator() == LEAPFROG) {
+            leapfrogDrift();
+        }
+        driftTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        partitionDeadBodies();
+        decrementDeadBodies();
+        deadTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        if (Settings.getInstance().getSelectedIndexDynamic() != STATIC) {
+            updateBounds();
+        }
+        updateBoundsTime = System.nanoTime() - start;
+
+        if (numBodies > 0) {
+            start = System.nanoTime();
+            generateMortonCodes();
+            mortonCodeGenerationTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            radixSort();
+            radixSortTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            buildBinaryRadixTree();
+            buildTreeTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            computeCOMAndLocation();
+            computeCOMAndLocationTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            updateParticleMesh();
+            particleMeshTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            numActive = SimulationParameters.timestepLevels(Settings.getInstance()) > 0 ? buildActiveList() : numBodies;
+            computeForce();
+            computeForceTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            mergeBodies();
+            mergeBodiesTime = System.nanoTime() - start;
+        }
+
+        swapBodyBuffers();
+        steps++;
+
+        if (debug) {
+            printProfiling();
+        }
+    }
+
+    /**
+     * Shuts down the fork join pool.
+     */
+    public void cleanup() {
+        pool.shutdown();
+    }
+
+    /* --------- Stages --------- */
+
+    /**
+     * Resets the merge queue and updates the units. Analogous to the update kernel with resetValuesOrDecrementDeadBodies set.
+     */
+    private void resetValues() {
+        mergeTasksTail.set(0);
+        updateUnits();
+    }
+
+    /**
+     * Partitions the dead bodies to the end of the index array.
+     * Analogous to the dead count, dead exclusive scan, and dead scatter kernels.
+     */
+    private void partitionDeadBodies() {
+        final int n = numBodies;
+        final int numChunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final int[] deadPerChunk = new int[numChunks];
+
+        //Count the dead bodies in each chunk, making sure they are empty in both buffers
+        parallelFor(numChunks, 1, (startChunk, endChunk) -> {
+            for (int c = startChunk; c < endChunk; c++) {
+                int dead = 0;
+                int end = Math.min(n, (c + 1) * CHUNK_SIZE);
+                for (int gid = c * CHUNK_SIZE; gid < end; gid++) {
+                    int bodyIdx = indexIn[gid];
+                    if (isEmpty(bodiesIn, bodyIdx)) {
+                        setEmpty(bodiesIn, bodyIdx);
+                        setEmpty(bodiesOut, bodyIdx);
+                        dead++;
+                    }
+                }
+                deadPerChunk[c] = dead;
+            }
+        });
+
+        //Exclusive scan of the dead bodies per chunk
+        int sum = 0;
+        for (int c = 0; c < numChunks; c++) {
+            int v = deadPerChunk[c];
+            deadPerChunk[c] = sum;
+            sum += v;
+        }
+        justDied = sum;
+
+        //Scatter the alive bodies to the front and the dead bodies to the back
+        final int deadBase = n - justDied;
+        parallelFor(numChunks, 1, (startChunk, endChunk) -> {
+            for (int c = startChunk; c < endChunk; c++) {
+                int chunkStart = c * CHUNK_SIZE;
+                int end = Math.min(n, chunkStart + CHUNK_SIZE);
+                int deadDst = deadBase + deadPerChunk[c];
+                int aliveDst = chunkStart - deadPerChunk[c];
+                for (int gid = chunkStart; gid < end; gid++) {
+                    int bodyIdx = indexIn[gid];
+                    if (isEmpty(bodiesIn, bodyIdx)) {
+                        indexOut[deadDst++] = bodyIdx;
+                    } else {
+                        indexOut[aliveDst++] = bodyIdx;
+                    }
+                }
+            }
+        });
+        //Keep the bodies that were already dead so the index array stays a permutation
+        System.arraycopy(indexIn, n, indexOut, n, initialNumBodies - n);
+
+        int[] tempIndex = indexIn;
+        indexIn = indexOut;
+        indexOut = tempIndex;
+    }
+
+    /**
+     * Decrements the number of bodies by the number of dead bodies found this step.
+     * Analogous to the update kernel with resetValuesOrDecrementDeadBodies unset.
+     */
+    private void decrementDeadBodies() {
+        numBodies -= justDied;
+        justDied = 0;
+    }
+
+    /**
+     * Updates the bounds of the simulation for a dynamic simulation.
+     * Analogous to the morton AABB repopulate and collapse kernels.
+     */
+    private void updateBounds() {
+        final int n = numBodies;
+        final int numChunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final float[] chunkAABBs = new float[Math.max(1, numChunks) * 6];
+        final float[] prev = simBounds.clone();
+        final float[] window = mortonInlierWindow(prev);
+
+        parallelFor(numChunks, 1, (startChunk, endChunk) -> {
+            for (int c = startChunk; c < endChunk; c++) {
+                float[] aabb = defaultAABB();
+                int end = Math.min(n, (c + 1) * CHUNK_SIZE);
+                for (int gid = c * CHUNK_SIZE; gid < end; gid++) {
+                    int base = indexIn[gid] * Body.STRUCT_SIZE;
+                    if (bodiesIn[base + 3] == 0.0f) {
+                        continue;
+                    }
+                    float x = bodiesIn[base];
+                    float y = bodiesIn[base + 1];
+                    float z = bodiesIn[base + 2];
+                    //Only finite inliers contribute so outliers can not grow the box
+                    if (!Float.isFinite(x) || !Float.isFinite(y) || !Float.isFinite(z)) {
+                        continue;
+                    }
+                    if (!emptyAABB(prev) && (x < window[0] || y < window[1] || z < window[2] || x > window[3] || y > window[4] || z > window[5])) {
+                        continue;
+                    }
+                    aabb[0] = Math.min(aabb[0], x);
+                    aabb[1] = Math.min(aabb[1], y);
+                    aabb[2] = Math.min(aabb[2], z);
+                    aabb[3] = Math.max(aabb[3], x);
+                    aabb[4] = Math.max(aabb[4], y);
+                    aabb[5] = Math.max(aabb[5], z);
+                }
+                System.arraycopy(aabb, 0, chunkAABBs, c * 6, 6);
+            }
+        });
+
+        float[] result = defaultAABB();
+        for (int c = 0; c < numChunks; c++) {
+            for (int k = 0; k < 3; k++) {
+                result[k] = Math.min(result[k], chunkAABBs[c * 6 + k]);
+                result[k + 3] = Math.max(result[k + 3], chunkAABBs[c * 6 + k + 3]);
+            }
+        }
+
+        if (emptyAABB(result)) {
+            // No finite inliers this frame, keep the previous bounds
+            if (emptyAABB(prev)) {
+                simBounds = result;
+            }
+        } else {
+            simBounds = clampAABBExtentGrowth(result, prev);
+        }
+    }
+
+    /**
+     * Generates the morton codes for the alive bodies. Analogous to the morton encode kernel.
+     */
+    private void generateMortonCodes() {
+        final float[] scene = simBounds.clone();
+        final boolean emptyScene = emptyAABB(scene);
+        parallelFor(numBodies, CHUNK_SIZE, (start, end) -> {
+            float[] pNorm = new float[3];
+            for (int gid = start; gid < end; gid++) {
+                int base = indexIn[gid] * Body.STRUCT_SIZE;
+                boolean finite = Float.isFinite(bodiesIn[base]) && Float.isFinite(bodiesIn[base + 1]) && Float.isFinite(bodiesIn[base + 2]);
+                for (int k = 0; k < 3; k++) {
+                    float pos;
+                    // NaN/Inf map to the center, finite outliers clamp to the edge of the bounds
+                    if (!finite || emptyScene) {
+                        pos = 0.5f * (scene[k] + scene[k + 3]);
+                    } else {
+                        pos = Math.min(Math.max(bodiesIn[base + k], scene[k]), scene[k + 3]);
+                    }
+                    float extent = Math.max(scene[k + 3] - scene[k], 1e-9f);
+                    pNorm[k] = (pos - scene[k]) / extent;
+                }
+                mortonIn[gid] = mortonEncode3D(pNorm);
+            }
+        });
+    }
+
+    /**
+     * Radix sorts the morton codes and indices of the alive bodies.
+     * Each pass is analogous to the histogram, bucket scan, global scan, and scatter kernels.
+     */
+    private void radixSort() {
+        final int n = numBodies;
+        final int numChunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int numPasses = (int) Math.ceil(63.0 / (double) RADIX_BITS);
+
+        for (int pass = 0; pass < numPasses; pass++) {
+            final int passShift = pass * RADIX_BITS;
+
+            //Histogram of the digits in each chunk
+            parallelFor(numChunks, 1, (startChunk, endChunk) -> {
+                for (int c = startChunk; c < endChunk; c++) {
+                    int histBase = c * NUM_RADIX_BUCKETS;
+                    Arrays.fill(chunkHist, histBase, histBase + NUM_RADIX_BUCKETS, 0);
+                    int end = Math.min(n, (c + 1) * CHUNK_SIZE);
+                    for (int gid = c * CHUNK_SIZE; gid < end; gid++) {
+                        chunkHist[histBase + digit(mortonIn[gid], passShift)]++;
+                    }
+                }
+            });
+
+            //Exclusive scan of each bucket across the chunks, offset by the global base of the bucket
+            int globalBase = 0;
+            for (int bucket = 0; bucket < NUM_RADIX_BUCKETS; bucket++) {
+                for (int c = 0; c < numChunks; c++) {
+                    chunkScanned[c * NUM_RADIX_BUCKETS + bucket] = globalBase;
+                    globalBase += chunkHist[c * NUM_RADIX_BUCKETS + bucket];
+                }
+            }
+
+            //Scatter the morton codes and indices into their positions for this pass
+            parallelFor(numChunks, 1, (startChunk, endChunk) -> {
+                int[] offsets = new int[NUM_RADIX_BUCKETS];
+                for (int c = startChunk; c < endChunk; c++) {
+                    System.arraycopy(chunkScanned, c * NUM_RADIX_BUCKETS, offsets, 0, NUM_RADIX_BUCKETS);
+                    int end = Math.min(n, (c + 1) * CHUNK_SIZE);
+                    for (int gid = c * CHUNK_SIZE; gid < end; gid++) {
+                        long key = mortonIn[gid];
+                        int dstIndex = offsets[digit(key, passShift)]++;
+                        mortonOut[dstIndex] = key;
+                        indexOut[dstIndex] = indexIn[gid];
+                    }
+                }
+            });
+
+            swapMortonAndIndexBuffers();
+        }
+    }
+
+    /**
+     * Builds the binary radix tree from the sorted morton codes using the algorithm by Karras.
+     * Also sets the rope of every leaf, the node the traversal continues at once the leaf is done.
+     * Analogous to the tree build binary radix tree kernel.
+     */
+    private void buildBinaryRadixTree() {
+        final int n = numBodies;
+        if (n == 1) {
+            // For when there is only one body
+            int base = 0;
+            internalNodes[base + Node.PARENT_ID_OFFSET] = NULL_INDEX;
+            internalNodes[base + Node.CHILD_A_OFFSET] = 0;
+            internalNodes[base + Node.CHILD_B_OFFSET] = NULL_INDEX;
+            internalNodes[base + Node.READY_CHILDREN_OFFSET] = 1;
+            setFloats(internalNodes, base + Node.COM_MASS_OFFSET, 0f, 0f, 0f, 0f);
+            setFloats(internalNodes, base + Node.AABB_OFFSET, defaultAABB());
+            internalNodes[base + Node.FIRST_BODY_OFFSET] = 0;
+            internalNodes[base + Node.BODY_COUNT_OFFSET] = 0;
+            setFloats(internalNodes, base + Node.AVG_COLOR_OFFSET, 0f, 0f, 0f, 0f);
+            internalNodes[base + Node.NEXT_NODE_OFFSET] = NULL_INDEX;
+            setFloats(internalNodes, base + Node.QUADRUPOLE_OFFSET, new float[6]);
+            leafNodes[Node.PARENT_ID_OFFSET] = initialNumBodies;
+            leafNodes[Node.NEXT_NODE_OFFSET] = NULL_INDEX;
+            return;
+        }
+
+        parallelFor(n - 1, CHUNK_SIZE, (start, end) -> {
+            for (int i = start; i < end; i++) {
+                int lcpRight = safeLCP(i, i + 1, n);
+                int lcpLeft = safeLCP(i, i - 1, n);
+                int direction = (lcpLeft > lcpRight) ? -1 : 1;
+
+                int deltaMin = safeLCP(i, i - direction, n);
+                int lmax = 2;
+                while (safeLCP(i, i + direction * lmax, n) > deltaMin) {
+                    lmax *= 2;
+                }
+
+                int l = 0;
+                int t = lmax / 2;
+                while (t > 0) {
+                    if (safeLCP(i, i + direction * (l + t), n) > deltaMin) {
+                        l = l + t;
+                    }
+                    t /= 2;
+                }
+                int j = i + l * direction;
+
+                int deltaNode = safeLCP(i, j, n);
+                int s = 0;
+                t = l;
+                while (t > 1) {
+                    t = (t + 1) / 2;
+                    if (safeLCP(i, i + (s + t) * direction, n) > deltaNode) {
+                        s += t;
+                    }
+                }
+                int gamma = i + s * direction + Math.min(direction, 0);
+
+                int leftChild = (Math.min(i, j) == gamma) ? gamma : gamma + initialNumBodies;
+                int rightChild = (Math.max(i, j) == gamma + 1) ? gamma + 1 : gamma + 1 + initialNumBodies;
+
+                int base = i * Node.STRUCT_SIZE;
+                int globalIdx = i + initialNumBodies;
+                internalNodes[base + Node.CHILD_A_OFFSET] = leftChild;
+                internalNodes[base + Node.CHILD_B_OFFSET] = rightChild;
+                //Leaf gamma is the last leaf of the left child, so its rope leads to the right child
+                leafNodes[gamma * Node.STRUCT_SIZE + Node.NEXT_NODE_OFFSET] = rightChild;
+                internalNodes[base + Node.READY_CHILDREN_OFFSET] = 0;
+                setFloats(internalNodes, base + Node.COM_MASS_OFFSET, 0f, 0f, 0f, 0f);
+                setFloats(internalNodes, base + Node.AABB_OFFSET, defaultAABB());
+                setFloats(internalNodes, base + Node.AVG_COLOR_OFFSET, 0f, 0f, 0f, 0f);
+                nodes(leftChild)[nodeBase(leftChild) + Node.PARENT_ID_OFFSET] = globalIdx;
+                nodes(rightChild)[nodeBase(rightChild) + Node.PARENT_ID_OFFSET] = globalIdx;
+                internalNodes[base + Node.FIRST_BODY_OFFSET] = Math.min(i, j);
+                internalNodes[base + Node.BODY_COUNT_OFFSET] = Math.max(i, j) - Math.min(i, j) + 1;
+                if (i == 0) {
+                    internalNodes[base + Node.PARENT_ID_OFFSET] = NULL_INDEX;
+                    leafNodes[(n - 1) * Node.STRUCT_SIZE + Node.NEXT_NODE_OFFSET] = NULL_INDEX;
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes the center of mass, AABB, and average color of every node in the tree.
+     * Analogous to the tree init leaf nodes and tree propagate nodes kernels, but instead of passing
+     * over a work queue each leaf climbs the tree and the second child to arrive at a node processes it.
+     */
+    private void computeCOMAndLocation() {
+        final float massUnit = Settings.getInstance().getMass();
+        final float densityUnit = Settings.getInstance().getDensity();
+        parallelFor(numBodies, CHUNK_SIZE, (start, end) -> {
+            for (int gid = start; gid < end; gid++) {
+                int bodyBase = indexIn[gid] * Body.STRUCT_SIZE;
+                int base = gid * Node.STRUCT_SIZE;
+                float x = bodiesIn[bodyBase];
+                float y = bodiesIn[bodyBase + 1];
+                float z = bodiesIn[bodyBase + 2];
+                float mass = bodiesIn[bodyBase + 3];
+                float density = bodiesIn[bodyBase + 7];
+
+                setFloats(leafNodes, base + Node.COM_MASS_OFFSET, x, y, z, mass);
+                setFloats(leafNodes, base + Node.AABB_OFFSET, x, y, z, x, y, z);
+                leafNodes[base + Node.CHILD_A_OFFSET] = NULL_INDEX;
+                leafNodes[base + Node.CHILD_B_OFFSET] = NULL_INDEX;
+                leafNodes[base + Node.READY_CHILDREN_OFFSET] = NULL_INDEX;
+                leafNodes[base + Node.FIRST_BODY_OFFSET] = 0;
+                setFloats(leafNodes, base + Node.QUADRUPOLE_OFFSET, new float[6]);
+                if (mass > 0.0f && density > 0.0f) {
+                    float[] color = getStarColor(mass * massUnit, density * densityUnit);
+                    setFloats(leafNodes, base + Node.AVG_COLOR_OFFSET, color[0], color[1], color[2], 0f);
+                } else {
+                    setFloats(leafNodes, base + Node.AVG_COLOR_OFFSET, 0f, 0f, 0f, 0f);
+                }
+
+                //Climb the tree while this thread is the second child to arrive
+                int parentIdx = leafNodes[base + Node.PARENT_ID_OFFSET];
+                while (parentIdx != NULL_INDEX) {
+                    int readyIdx = (parentIdx - initialNumBodies) * Node.STRUCT_SIZE + Node.READY_CHILDREN_OFFSET;
+                    int prev = (int) INT_ARRAY.getAndAdd(internalNodes, readyIdx, 1);
+                    if (prev != 1) {
+                        break;
+                    }
+                    propagateNode(parentIdx - initialNumBodies);
+                    parentIdx = internalNodes[(parentIdx - initialNumBodies) * Node.STRUCT_SIZE + Node.PARENT_ID_OFFSET];
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the center of mass, AABB, average color, depth, quadrupole, and rope of an internal node from its children.
+     * A node ends at the same leaf as its right child, so it shares its rope.
+     * @param internalNodeIdx the index of the internal node in the internal nodes array
+     */
+    private void propagateNode(int internalNodeIdx) {
+        int base = internalNodeIdx * Node.STRUCT_SIZE;
+        int childA = internalNodes[base + Node.CHILD_A_OFFSET];
+        int childB = internalNodes[base + Node.CHILD_B_OFFSET];
+        if (childB == NULL_INDEX) {
+            childB = childA;
+        }
+        int[] leftNodes = nodes(childA);
+        int[] rightNodes = nodes(childB);
+        int left = nodeBase(childA);
+        int right = nodeBase(childB);
+
+        float leftMass = getFloat(leftNodes, left + Node.COM_MASS_OFFSET + 3);
+        float rightMass = internalNodes[base + Node.CHILD_B_OFFSET] == NULL_INDEX ? 0f : getFloat(rightNodes, right + Node.COM_MASS_OFFSET + 3);
+        float totalMass = leftMass + rightMass;
+
+        float[] com = new float[3];
+        float[] color = new float[3];
+        for (int k = 0; k < 3; k++) {
+            float leftCOM = getFloat(leftNodes, left + Node.COM_MASS_OFFSET + k);
+            float rightCOM = getFloat(rightNodes, right + Node.COM_MASS_OFFSET + k);
+            float leftColor = getFloat(leftNodes, left + Node.AVG_COLOR_OFFSET + k);
+            float rightColor = getFloat(rightNodes, right + Node.AVG_COLOR_OFFSET + k);
+            if (totalMass > 0.0f) {
+                com[k] = (leftMass * leftCOM + rightMass * rightCOM) / totalMass;
+                color[k] = (leftMass * leftColor + rightMass * rightColor) / totalMass;
+            } else {
+                com[k] = (leftCOM + rightCOM) * 0.5f;
+                color[k] = (leftColor + rightColor) * 0.5f;
+            }
+        }
+        float[] aabb = new float[6];
+        for (int k = 0; k < 3; k++) {
+            aabb[k] = Math.min(getFloat(leftNodes, left + Node.AABB_OFFSET + k), getFloat(rightNodes, right + Node.AABB_OFFSET + k));
+            aabb[k + 3] = Math.max(getFloat(leftNodes, left + Node.AABB_OFFSET + k + 3), getFloat(rightNodes, right + Node.AABB_OFFSET + k + 3));
+        }
+
+        setFloats(internalNodes, base + Node.COM_MASS_OFFSET, com[0], com[1], com[2], totalMass);
+        setFloats(internalNodes, base + Node.AABB_OFFSET, aabb);
+        setFloats(internalNodes, base + Node.AVG_COLOR_OFFSET, color[0], color[1], color[2], 0f);
+        internalNodes[base + Node.READY_CHILDREN_OFFSET] = NULL_INDEX;
+        internalNodes[base + Node.FIRST_BODY_OFFSET] = 1 + Math.max(leftNodes[left + Node.FIRST_BODY_OFFSET], rightNodes[right + Node.FIRST_BODY_OFFSET]);
+        internalNodes[base + Node.NEXT_NODE_OFFSET] = rightNodes[right + Node.NEXT_NODE_OFFSET];
+
+        float[] quadrupole = new float[6];
+        addShiftedQuadrupole(quadrupole, leftNodes, left, com);
+        if (internalNodes[base + Node.CHILD_B_OFFSET] != NULL_INDEX) {
+            addShiftedQuadrupole(quadrupole, rightNodes, right, com);
+        }
+        setFloats(internalNodes, base + Node.QUADRUPOLE_OFFSET, quadrupole);
+    }
+
+    /**
+     * Adds the quadrupole moment of a child, shifted from the child's center of mass to the parent's (parallel axis theorem).
+     * @param quadrupole the parent's quadrupole (xx, yy, zz, xy, xz, yz) to add to
+     * @param nodes the node array of the child
+     * @param base the offset of the child in its node array
+     * @param com the parent's center of mass
+     */
+    private static void addShiftedQuadrupole(float[] quadrupole, int[] nodes, int base, float[] com) {
+        float m = getFloat(nodes, base + Node.COM_MASS_OFFSET + 3);
+        float dx = getFloat(nodes, base + Node.COM_MASS_OFFSET) - com[0];
+        float dy = getFloat(nodes, base + Node.COM_MASS_OFFSET + 1) - com[1];
+        float dz = getFloat(nodes, base + Node.COM_MASS_OFFSET + 2) - com[2];
+        float d2 = dx * dx + dy * dy + dz * dz;
+        float[] shift = {3 * dx * dx - d2, 3 * dy * dy - d2, 3 * dz * dz - d2, 3 * dx * dy, 3 * dx * dz, 3 * dy * dz};
+        for (int k = 0; k < 6; k++) {
+            quadrupole[k] += getFloat(nodes, base + Node.QUADRUPOLE_OFFSET + k) + m * shift[k];
+        }
+    }
+
+    /**
+     * Adds the acceleration from the quadrupole moment of a node, on top of its monopole force.
+     * With q the traceless quadrupole and r towards the node: G * (5/2 * (r.q.r) * r / |r|^7 - q.r / |r|^5)
+     * @param nodes the node array of the node
+     * @param base the offset of the node in its node array
+     * @param rx the x distance from the body to the node's center of mass
+     * @param ry the y distance from the body to the node's center of mass
+     * @param rz the z distance from the body to the node's center of mass
+     * @param oneOverDist the softened inverse distance
+     * @param accel the acceleration to add to
+     */
+    private void addQuadrupoleForce(int[] nodes, int base, float rx, float ry, float rz, float oneOverDist, float[] accel) {
+        float xx = getFloat(nodes, base + Node.QUADRUPOLE_OFFSET);
+        float yy = getFloat(nodes, base + Node.QUADRUPOLE_OFFSET + 1);
+        float zz = getFloat(nodes, base + Node.QUADRUPOLE_OFFSET + 2);
+        float xy = getFloat(nodes, base + Node.QUADRUPOLE_OFFSET + 3);
+        float xz = getFloat(nodes, base + Node.QUADRUPOLE_OFFSET + 4);
+        float yz = getFloat(nodes, base + Node.QUADRUPOLE_OFFSET + 5);
+        float qx = xx * rx + xy * ry + xz * rz;
+        float qy = xy * rx + yy * ry + yz * rz;
+        float qz = xz * rx + yz * ry + zz * rz;
+        float oneOverDist2 = oneOverDist * oneOverDist;
+        float f = gravitationalConstant * oneOverDist2 * oneOverDist2 * oneOverDist;
+        float radial = 2.5f * (rx * qx + ry * qy + rz * qz) * oneOverDist2;
+        accel[0] += f * (radial * rx - qx);
+        accel[1] += f * (radial * ry - qy);
+        accel[2] += f * (radial * rz - qz);
+    }
+
+    /**
+     * Computes the force on each body using the tree and updates its velocity and position.
+     * Also handles collisions and queues merges. Analogous to the force compute kernel, the tree is walked
+     * along the ropes without a stack.
+     */
+    private void computeForce() {
+        final Settings settings = Settings.getInstance();
+        final float softening = settings.getSoftening();
+        final float theta = settings.getTheta();
+        final float dt = settings.getDt();
+        final float elasticity = settings.getElasticity();
+        final int mergingCollisionOrNeither = settings.getSelectedIndexMergingCollisionOrNeither();
+        final boolean wrapAround = settings.isWrapAround();
+        final boolean isStatic = settings.getSelectedIndexDynamic() == STATIC;
+        final boolean leapfrog = settings.getSelectedIndexIntegrator() == LEAPFROG;
+        final int levels = SimulationParameters.timestepLevels(settings);
+        final float accuracy = settings.getTimestepAccuracy();
+        final ParticleMesh mesh = SimulationParameters.pmGridSize(settings) > 0 ? particleMesh : null;
+        final float[] sides = mesh != null ? mesh.getSides() : null;
+        final float splitRadius = mesh != null ? mesh.getSplitRadius() : 0f;
+        final float cutoff = mesh != null ? mesh.getCutoffRadius() : 0f;
+        //The quadrupole term of the short range force is not split, so a periodic box uses monopoles as GADGET-2 does
+        final boolean quadrupoles = settings.isQuadrupoles() && mesh == null;
+        final boolean relative = settings.getSelectedIndexOpeningCriterion() == RELATIVE;
+        final float tolerance = settings.getForceErrorTolerance();
+        final float[] bounds = simBounds.clone();
+        final int root = initialNumBodies;
+
+        parallelFor(numActive, GPU.WORK_GROUP_SIZE, (start, end) -> {
+            float[] body = new float[Body.STRUCT_SIZE];
+            float[] quadrupoleAccel = new float[3];
+            float[] meshAccel = new float[3];
+            for (int i = start; i < end; i++) {
+                int bodyIdx = indexIn[levels > 0 ? activeList[i] : i];
+                System.arraycopy(bodiesIn, bodyIdx * Body.STRUCT_SIZE, body, 0, Body.STRUCT_SIZE);
+                float accelMagnitude = accelMagnitudes[bodyIdx];
+
+                int nextNodeIdx = root;
+                float ax = 0f, ay = 0f, az = 0f;
+                int bodyInteractions = 0;
+
+                while (nextNodeIdx != NULL_INDEX) {
+                    int nodeIdx = nextNodeIdx;
+                    int[] nodes = nodes(nodeIdx);
+                    int base = nodeBase(nodeIdx);
+                    //Unless the node is opened, its subtree is done after this
+                    nextNodeIdx = nodes[base + Node.NEXT_NODE_OFFSET];
+                    float rx = getFloat(nodes, base + Node.COM_MASS_OFFSET) - body[0];
+                    float ry = getFloat(nodes, base + Node.COM_MASS_OFFSET + 1) - body[1];
+                    float rz = getFloat(nodes, base + Node.COM_MASS_OFFSET + 2) - body[2];
+                    if (mesh != null) {
+                        //Skip the subtree if none of it is within the cutoff, otherwise use the nearest image of the node
+                        if (periodicDistanceToAABB(nodes, base, body, sides) > cutoff) {
+                            continue;
+                        }
+                        rx = ParticleMesh.nearestImage(rx, sides[0]);
+                        ry = ParticleMesh.nearestImage(ry, sides[1]);
+                        rz = ParticleMesh.nearestImage(rz, sides[2]);
+                    }
+                    float nodeMass = getFloat(nodes, base + Node.COM_MASS_OFFSET + 3);
+                    float oneOverDist = (float) (1.0 / Math.sqrt(rx * rx + ry * ry + rz * rz + softening));
+
+                    if (nodes[base + Node.CHILD_A_OFFSET] != NULL_INDEX) {
+                        //Check to see if we should continue into the node using the longest radius of the AABB
+                        if (acceptNode(nodes, base, body, oneOverDist, accelMagnitude, relative, theta, tolerance, sides)) {
+                            float f = gravitationalConstant * nodeMass * oneOverDist * oneOverDist * oneOverDist * shortRange(rx, ry, rz, splitRadius);
+                            ax += f * rx;
+                            ay += f * ry;
+                            az += f * rz;
+                            if (quadrupoles) {
+                                quadrupoleAccel[0] = quadrupoleAccel[1] = quadrupoleAccel[2] = 0f;
+                                addQuadrupoleForce(nodes, base, rx, ry, rz, oneOverDist, quadrupoleAccel);
+                                ax += quadrupoleAccel[0];
+                                ay += quadrupoleAccel[1];
+                                az += quadrupoleAccel[2];
+                            }
+                            bodyInteractions++;
+                        } else {
+                            nextNodeIdx = nodes[base + Node.CHILD_A_OFFSET];
+                        }
+                        continue;
+                    }
+
+                    int otherIdx = indexIn[nodeIdx];
+                    if (otherIdx == bodyIdx) {
+                        continue;
+                    }
+                    float f = gravitationalConstant * nodeMass * oneOverDist * oneOverDist * oneOverDist * shortRange(rx, ry, rz, splitRadius);
+                    ax += f * rx;
+                    ay += f * ry;
+                    az += f * rz;
+                    bodyInteractions++;
+
+                    if (mergingCollisionOrNeither == NEITHER) {
+                        continue;
+                    }
+
+                    int otherBase = otherIdx * Body.STRUCT_SIZE;
+                    float otherMass = bodiesIn[otherBase + 3];
+                    float dist = (float) Math.sqrt(rx * rx + ry * ry + rz * rz);
+                    float penetration = radius(body[3], body[7]) + radius(otherMass, bodiesIn[otherBase + 7]) - dist;
+
+                    if (mergingCollisionOrNeither == COLLISION && penetration > 0) {
+                        float nx = rx / dist, ny = ry / dist, nz = rz / dist;
+                        float vImpact = (bodiesIn[otherBase + 4] - body[4]) * nx + (bodiesIn[otherBase + 5] - body[5]) * ny + (bodiesIn[otherBase + 6] - body[6]) * nz;
+                        //If the bodies are moving towards each other, apply an impulse
+                        if (vImpact < 0) {
+                            float mEff = 1 / (1 / body[3] + 1 / otherMass);
+                            float impulse = (1 + elasticity) * mEff * vImpact;
+                            body[4] += nx * impulse / body[3];
+                            body[5] += ny * impulse / body[3];
+                            body[6] += nz * impulse / body[3];
+                        }
+                        float correction = (penetration / (body[3] + otherMass)) * RESTITUTION;
+                        body[0] -= correction * nx;
+                        body[1] -= correction * ny;
+                        body[2] -= correction * nz;
+                    }
+                    //Queued by the lower body, or by this one if the other is not active and so does not walk the tree
+                    if (mergingCollisionOrNeither == MERGING && penetration > 0 && (bodyIdx < otherIdx || (levels > 0 && !isActiveBody(otherIdx, levels)))) {
+                        int slot = mergeTasksTail.getAndIncrement();
+                        if (slot < initialNumBodies) {
+                            mergeTasks[2 * slot] = Math.min(bodyIdx, otherIdx);
+                            mergeTasks[2 * slot + 1] = Math.max(bodyIdx, otherIdx);
+                        }
+                    }
+                }
+
+                if (mesh != null) {
+                    meshAccel[0] = meshAccel[1] = meshAccel[2] = 0f;
+                    mesh.addAcceleration(body[0], body[1], body[2], meshAccel);
+                    ax += meshAccel[0];
+                    ay += meshAccel[1];
+                    az += meshAccel[2];
+                }
+
+                accelMagnitudes[bodyIdx] = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+                interactions[bodyIdx] = bodyInteractions;
+
+                int outBase = bodyIdx * Body.STRUCT_SIZE;
+                int accelBase = bodyIdx * 4;
+                float newVx, newVy, newVz;
+                float newX = body[0], newY = body[1], newZ = body[2];
+                if (leapfrog) {
+                    //Closing half kick of the body's step. Bodies that were not drifted this step only start the leapfrog, on the shortest rung
+                    boolean started = accelerations[accelBase + 3] != 0f;
+                    int rung = started ? bodyRung(accelerations[accelBase + 3], levels) : levels;
+                    float kick = started ? 0.5f * rungDt(dt, rung) : 0f;
+                    newVx = body[4] + ax * kick;
+                    newVy = body[5] + ay * kick;
+                    newVz = body[6] + az * kick;
+                    accelerations[accelBase] = ax;
+                    accelerations[accelBase + 1] = ay;
+                    accelerations[accelBase + 2] = az;
+                    accelerations[accelBase + 3] = chooseRung(accelMagnitudes[bodyIdx], rung, levels, dt, softening, accuracy) + 1;
+                } else {
+                    newVx = body[4] + ax * dt;
+                    newVy = body[5] + ay * dt;
+                    newVz = body[6] + az * dt;
+                    newX += newVx * dt;
+                    newY += newVy * dt;
+                    newZ += newVz * dt;
+                    //Switching to the leapfrog starts it again, since this acceleration is from before the drift
+                    accelerations[accelBase + 3] = 0f;
+                }
+
+                //Check for out of bounds for new position in a static simulation, which the drift does with the leapfrog
+                if (isStatic && !leapfrog) {
+                    if (wrapAround) {
+                        newX = wrap(newX, bounds[0], bounds[3]);
+                        newY = wrap(newY, bounds[1], bounds[4]);
+                        newZ = wrap(newZ, bounds[2], bounds[5]);
+                    } else if (body[0] < bounds[0] || body[0] > bounds[3] || body[1] < bounds[1] || body[1] > bounds[4] || body[2] < bounds[2] || body[2] > bounds[5]) {
+                        setEmpty(bodiesOut, bodyIdx);
+                        outOfBounds.incrementAndGet();
+                        continue;
+                    }
+                }
+
+                bodiesOut[outBase] = newX;
+                bodiesOut[outBase + 1] = newY;
+                bodiesOut[outBase + 2] = newZ;
+                bodiesOut[outBase + 3] = body[3];
+                bodiesOut[outBase + 4] = newVx;
+                bodiesOut[outBase + 5] = newVy;
+                bodiesOut[outBase + 6] = newVz;
+                bodiesOut[outBase + 7] = body[7];
+            }
+        });
+    }
+
+    /**
+     * Builds the tree for the current bodies and computes the gravitational acceleration on each of them,
+     * walking the tree as computeForce() does but without collisions, merges, or moving the bodies.
+     * Uses the opening criterion, theta, softening, and quadrupoles settings, so the accuracy of the tree can be compared to a direct sum.
+     * Like a step, it records the acceleration magnitudes used by the relative criterion next time, and the interaction counts.
+     * @return the acceleration of each body slot as (x, y, z), 0 for empty slots
+     */
+    public float[] computeAccelerations() {
+        resetValues();
+        partitionDeadBodies();
+        decrementDeadBodies();
+        if (Settings.getInstance().getSelectedIndexDynamic() != STATIC) {
+            updateBounds();
+        }
+        final float[] accelerations = new float[initialNumBodies * 3];
+        if (numBodies == 0) {
+            return accelerations;
+        }
+        generateMortonCodes();
+        radixSort();
+        buildBinaryRadixTree();
+        computeCOMAndLocation();
+        updateParticleMesh();
+
+        final Settings settings = Settings.getInstance();
+        final float softening = settings.getSoftening();
+        final float theta = settings.getTheta();
+        final ParticleMesh mesh = SimulationParameters.pmGridSize(settings) > 0 ? particleMesh : null;
+        final float[] sides = mesh != null ? mesh.getSides() : null;
+        final float splitRadius = mesh != null ? mesh.getSplitRadius() : 0f;
+        final float cutoff = mesh != null ? mesh.getCutoffRadius() : 0f;
+        final boolean quadrupoles = settings.isQuadrupoles() && mesh == null;
+        final boolean relative = settings.getSelectedIndexOpeningCriterion() == RELATIVE;
+        final float tolerance = settings.getForceErrorTolerance();
+        final int root = initialNumBodies;
+        parallelFor(numBodies, GPU.WORK_GROUP_SIZE, (start, end) -> {
+            float[] accel = new float[3];
+            float[] body = new float[Body.STRUCT_SIZE];
+            for (int gid = start; gid < end; gid++) {
+                int bodyIdx = indexIn[gid];
+                System.arraycopy(bodiesIn, bodyIdx * Body.STRUCT_SIZE, body, 0, Body.STRUCT_SIZE);
+                accel[0] = accel[1] = accel[2] = 0f;
+                int bodyInteractions = 0;
+                int nextNodeIdx = root;
+                while (nextNodeIdx != NULL_INDEX) {
+                    int nodeIdx = nextNodeIdx;
+                    int[] nodes = nodes(nodeIdx);
+                    int base = nodeBase(nodeIdx);
+                    nextNodeIdx = nodes[base + Node.NEXT_NODE_OFFSET];
+                    float rx = getFloat(nodes, base + Node.COM_MASS_OFFSET) - body[0];
+                    float ry = getFloat(nodes, base + Node.COM_MASS_OFFSET + 1) - body[1];
+                    float rz = getFloat(nodes, base + Node.COM_MASS_OFFSET + 2) - body[2];
+                    if (mesh != null) {
+                        if (periodicDistanceToAABB(nodes, base, body, sides) > cutoff) {
+                            continue;
+                        }
+                        rx = ParticleMesh.nearestImage(rx, sides[0]);
+                        ry = ParticleMesh.nearestImage(ry, sides[1]);
+                        rz = ParticleMesh.nearestImage(rz, sides[2]);
+                    }
+                    float oneOverDist = (float) (1.0 / Math.sqrt(rx * rx + ry * ry + rz * rz + softening));
+                    boolean internal = nodes[base + Node.CHILD_A_OFFSET] != NULL_INDEX;
+                    if (internal && !acceptNode(nodes, base, body, oneOverDist, accelMagnitudes[bodyIdx], relative, theta, tolerance, sides)) {
+                        nextNodeIdx = nodes[base + Node.CHILD_A_OFFSET];
+                        continue;
+                    }
+                    if (!internal && indexIn[nodeIdx] == bodyIdx) {
+                        continue;
+                    }
+                    float f = gravitationalConstant * getFloat(nodes, base + Node.COM_MASS_OFFSET + 3) * oneOverDist * oneOverDist * oneOverDist * shortRange(rx, ry, rz, splitRadius);
+                    accel[0] += f * rx;
+                    accel[1] += f * ry;
+                    accel[2] += f * rz;
+                    if (internal && quadrupoles) {
+                        addQuadrupoleForce(nodes, base, rx, ry, rz, oneOverDist, accel);
+                    }
+                    bodyInteractions++;
+                }
+                if (mesh != null) {
+                    mesh.addAcceleration(body[0], body[1], body[2], accel);
+                }
+                System.arraycopy(accel, 0, accelerations, bodyIdx * 3, 3);
+                accelMagnitudes[bodyIdx] = (float) Math.sqrt(accel[0] * accel[0] + accel[1] * accel[1] + accel[2] * accel[2]);
+                interactions[bodyIdx] = bodyInteractions;
+            }
+        });
+        return accelerations;
+    }
+
+    /**
+     * Deposits the live bodies on the particle mesh and solves for its long range force, when the box is periodic.
+     * Analogous to the PM deposit kernel followed by the solve in BarnesHut. The mesh is remade when pmGridSize changes.
+     */
+    private void updateParticleMesh() {
+        final Settings settings = Settings.getInstance();
+        int gridSize = SimulationParameters.pmGridSize(settings);
+        if (gridSize == 0) {
+            return;
+        }
+        if (particleMesh == null || particleMesh.getGridSize() != gridSize) {
+            particleMesh = new ParticleMesh(gridSize, pool);
+        }
+        final ParticleMesh mesh = particleMesh;
+        mesh.setBox(simBounds, settings.getPmSplitScale(), gravitationalConstant);
+        mesh.clearMasses();
+        parallelFor(numBodies, CHUNK_SIZE, (start, end) -> {
+            for (int gid = start; gid < end; gid++) {
+                int base = indexIn[gid] * Body.STRUCT_SIZE;
+                mesh.depositMass(bodiesIn[base], bodiesIn[base + 1], bodiesIn[base + 2], bodiesIn[base + 3]);
+            }
+        });
+        mesh.solve();
+    }
+
+    /**
+     * Kicks each body by half a step with its last acceleration and drifts it a full step, in place on the input buffer.
+     * With block timesteps the kick is half of the body's own step on the step it begins, and every body drifts one substep.
+     * Analogous to the leapfrog drift kernel. Bodies without a last acceleration stay until the force pass starts their leapfrog.
+     */
+    private void leapfrogDrift() {
+        final Settings settings = Settings.getInstance();
+        final float dt = settings.getDt();
+        final int levels = SimulationParameters.timestepLevels(settings);
+        final float driftDt = rungDt(dt, levels);
+        final boolean wrapAround = settings.isWrapAround();
+        final boolean isStatic = settings.getSelectedIndexDynamic() == STATIC;
+        final float[] bounds = simBounds.clone();
+
+        parallelFor(initialNumBodies, GPU.WORK_GROUP_SIZE, (start, end) -> {
+            for (int slot = start; slot < end; slot++) {
+                int base = slot * Body.STRUCT_SIZE;
+                int accelBase = slot * 4;
+                if (isEmpty(bodiesIn, slot) || accelerations[accelBase + 3] == 0f) {
+                    continue;
+                }
+                if (isStatic && !wrapAround && (bodiesIn[base] < bounds[0] || bodiesIn[base] > bounds[3] || bodiesIn[base + 1] < bounds[1] || bodiesIn[base + 1] > bounds[4] || bodiesIn[base + 2] < bounds[2] || bodiesIn[base + 2] > bounds[5])) {
+                    setEmpty(bodiesIn, slot);
+                    outOfBounds.incrementAndGet();
+                    continue;
+                }
+                int rung = bodyRung(accelerations[accelBase + 3], levels);
+                float kick = rungAligned(rung, steps, levels) ? 0.5f * rungDt(dt, rung) : 0f;
+                for (int k = 0; k < 3; k++) {
+                    bodiesIn[base + 4 + k] += accelerations[accelBase + k] * kick;
+                    bodiesIn[base + k] += bodiesIn[base + 4 + k] * driftDt;
+                }
+                if (isStatic && wrapAround) {
+                    for (int k = 0; k < 3; k++) {
+                        bodiesIn[base + k] = wrap(bodiesIn[base + k], bounds[k], bounds[k + 3]);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Lists the sorted positions of the bodies whose block timestep ends this step, in order, and copies the others
+     * to the output buffer as they are, since the force pass skips them. Analogous to the active count, scan, and scatter kernels.
+     * @return the number of active bodies
+     */
+    private int buildActiveList() {
+        final int levels = SimulationParameters.timestepLevels(Settings.getInstance());
+        int count = 0;
+        for (int gid = 0; gid < numBodies; gid++) {
+            int bodyIdx = indexIn[gid];
+            if (isActiveBody(bodyIdx, levels)) {
+                activeList[count++] = gid;
+            } else {
+                System.arraycopy(bodiesIn, bodyIdx * Body.STRUCT_SIZE, bodiesOut, bodyIdx * Body.STRUCT_SIZE, Body.STRUCT_SIZE);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks if a body's block timestep ends this step, so the force pass runs for it. Bodies that have not started the leapfrog always do.
+     * This does not change during the force pass, since an active body only picks a rung whose step begins at the end of this step.
+     * @param bodyIdx the slot of the body
+     * @param levels the block timestep levels
+     * @return whether the body is active
+     */
+    private boolean isActiveBody(int bodyIdx, int levels) {
+        float w = accelerations[bodyIdx * 4 + 3];
+        return w == 0f || rungAligned(bodyRung(w, levels), steps + 1, levels);
+    }
+
+    /**
+     * Gets the step of a block timestep rung.
+     * @param dt the longest step
+     * @param rung the rung
+     * @return dt / 2^rung
+     */
+    private static float rungDt(float dt, int rung) {
+        return dt / (1 << rung);
+    }
+
+    /**
+     * Gets the rung of a started body from the w of its last acceleration, which is the rung plus 1.
+     * @param w the w of the last acceleration
+     * @param levels the block timestep levels
+     * @return the rung, at most levels
+     */
+    private static int bodyRung(float w, int levels) {
+        return Math.min((int) w - 1, levels);
+    }
+
+    /**
+     * Checks if the steps of a rung begin and end at a substep.
+     * @param rung the rung
+     * @param substep the substep of dt / 2^levels
+     * @param levels the block timestep levels
+     * @return true if a step of the rung begins at the substep
+     */
+    private static boolean rungAligned(int rung, int substep, int levels) {
+        return (substep & ((1 << (levels - rung)) - 1)) == 0;
+    }
+
+    /**
+     * Chooses the rung of a body's next step from its acceleration, with the step sqrt(2 * accuracy * softening length / |a|).
+     * A body can move to a shorter step at any time, but only to a longer one where that step would begin, at the end of this step.
+     * @param accelMagnitude the magnitude of the body's acceleration
+     * @param currentRung the rung of the step that is ending
+     * @param levels the block timestep levels
+     * @param dt the longest step
+     * @param softening the softening added to the squared distance
+     * @param accuracy the timestepAccuracy setting
+     * @return the rung
+     */
+    private int chooseRung(float accelMagnitude, int currentRung, int levels, float dt, float softening, float accuracy) {
+        if (levels == 0) {
+            return 0;
+        }
+        float wanted = (float) Math.sqrt(2.0 * accuracy * Math.sqrt(softening) / Math.max(accelMagnitude, 1e-30f));
+        int rung = levels;
+        if (wanted >= dt) {
+            rung = 0;
+        } else if (wanted > rungDt(dt, levels)) {
+            rung = (int) Math.ceil(Math.log(dt / wanted) / Math.log(2));
+        }
+        while (rung < currentRung && !rungAligned(rung, steps + 1, levels)) {
+            rung++;
+        }
+        return rung;
+    }
+
+    /**
+     * Merges the queued pairs of bodies in the output buffer. Analogous to the merge bodies kernel.
+     * The queue is usually short, so it is processed on one thread in queue order.
+     */
+    private void mergeBodies() {
+        int tail = Math.min(mergeTasksTail.get(), initialNumBodies);
+        for (int task = 0; task < tail; task++) {
+            int iA = mergeTasks[2 * task];
+            int iB = mergeTasks[2 * task + 1];
+            if (iA == iB || isEmpty(bodiesOut, iA) || isEmpty(bodiesOut, iB)) {
+                continue;
+            }
+            int a = iA * Body.STRUCT_SIZE;
+            int b = iB * Body.STRUCT_SIZE;
+            float massA = bodiesOut[a + 3];
+            float massB = bodiesOut[b + 3];
+            float newMass = massA + massB;
+            for (int k = 0; k < 3; k++) {
+                bodiesOut[a + k] = (bodiesOut[a + k] * massA + bodiesOut[b + k] * massB) / newMass;
+                bodiesOut[a + 4 + k] = (bodiesOut[a + 4 + k] * massA + bodiesOut[b + 4 + k] * massB) / newMass;
+            }
+            //The merged body keeps the mass weighted acceleration for the leapfrog's next opening half kick
+            for (int k = 0; k < 3; k++) {
+                accelerations[iA * 4 + k] = (accelerations[iA * 4 + k] * massA + accelerations[iB * 4 + k] * massB) / newMass;
+            }
+            bodiesOut[a + 7] = newMass / (massA / bodiesOut[a + 7] + massB / bodiesOut[b + 7]);
+            bodiesOut[a + 3] = newMass;
+            setEmpty(bodiesOut, iB);
+            merged++;
+        }
+    }
+
+    /**
+     * Swaps the body buffers. Analogous to GPU.swapBodyBuffers.
+     */
+    private void swapBodyBuffers() {
+        float[] temp = bodiesIn;
+        bodiesIn = bodiesOut;
+        bodiesOut = temp;
+    }
+
+    /**
+     * Swaps the morton and index buffers. Analogous to GPU.swapMortonAndIndexBuffers.
+     */
+    private void swapMortonAndIndexBuffers() {
+        long[] tempMorton = mortonIn;
+        mortonIn = mortonOut;
+        mortonOut = tempMorton;
+        int[] tempIndex = indexIn;
+        indexIn = indexOut;
+        indexOut = tempIndex;
+    }
+
+    /**
+     * Updates the scaled gravitational constant and body length constant from the unit settings.
+     * Analogous to updateUnits in common.glsl.
+     */
+    private void updateUnits() {
+        Settings settings = Settings.getInstance();
+        double mass = settings.getMass();
+        double density = settings.getDensity();
+        double len = settings.getLength();
+        double time = settings.getTime();
+        gravitationalConstant = (float) (GRAVITATIONAL_CONSTANT * Math.pow(len, -3) * Math.pow(time, 2) * mass);
+        bodyLengthInSimulationLengthsConstant = (float) (THREE_OVER_FOUR_PI_TO_THE_ONE_THIRD * Math.pow(mass / density, 1.0 / 3.0) / len);
+    }
+
+    /* --------- Helpers --------- */
+
+    /**
+     * Runs a function over [0, n) split into fork join tasks of at least grain indices.
+     * @param n the number of indices
+     * @param grain the smallest range given to one task
+     * @param function the function to run
+     */
+    private void parallelFor(int n, int grain, RangeFunction function) {
+        if (n <= 0) {
+            return;
+        }
+        pool.invoke(new RangeTask(function, 0, n, Math.max(1, grain)));
+    }
+
+    /**
+     * A fork join task that splits a range in half until it is at most grain indices long.
+     */
+    static class RangeTask extends RecursiveAction {
+        private final RangeFunction function;
+        private final int start;
+        private final int end;
+        private final int grain;
+
+        RangeTask(RangeFunction function, int start, int end, int grain) {
+            this.function = function;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= grain) {
+                function.run(start, end);
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new RangeTask(function, start, mid, grain), new RangeTask(function, mid, end, grain));
+        }
+    }
+
+    private int numChunks() {
+        return (initialNumBodies + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    private static int digit(long key, int passShift) {
+        return (int) ((key >>> passShift) & (NUM_RADIX_BUCKETS - 1));
+    }
+
+    private boolean isEmpty(float[] bodies, int bodyIdx) {
+        return bodies[bodyIdx * Body.STRUCT_SIZE + Body.POS_MASS_OFFSET + 3] == 0.0f;
+    }
+
+    private void setEmpty(float[] bodies, int bodyIdx) {
+        Arrays.fill(bodies, bodyIdx * Body.STRUCT_SIZE, (bodyIdx + 1) * Body.STRUCT_SIZE, 0.0f);
+    }
+
+    private float radius(float mass, float density) {
+        return bodyLengthInSimulationLengthsConstant * (float) Math.pow(mass / density, 1.0 / 3.0);
+    }
+
+    private static float wrap(float value, float min, float max) {
+        float range = max - min;
+        float x = value - min;
+        return x - range * (float) Math.floor(x / range) + min;
+    }
+
+    /**
+     * Gets the node array (leaf or internal) a node index refers to.
+     * @param nodeIdx the node index
+     * @return the node array
+     */
+    private int[] nodes(int nodeIdx) {
+        return Integer.compareUnsigned(nodeIdx, initialNumBodies) < 0 ? leafNodes : internalNodes;
+    }
+
+    /**
+     * Gets the offset of a node in its node array.
+     * @param nodeIdx the node index
+     * @return the offset of the node
+     */
+    private int nodeBase(int nodeIdx) {
+        return (Integer.compareUnsigned(nodeIdx, initialNumBodies) < 0 ? nodeIdx : nodeIdx - initialNumBodies) * Node.STRUCT_SIZE;
+    }
+
+    private static float getFloat(int[] nodes, int offset) {
+        return Float.intBitsToFloat(nodes[offset]);
+    }
+
+    private static void setFloats(int[] nodes, int offset, float... values) {
+        for (int k = 0; k < values.length; k++) {
+            nodes[offset + k] = Float.floatToRawIntBits(values[k]);
+        }
+    }
+
+    private static float getLongestSide(int[] nodes, int base) {
+        float ex = getFloat(nodes, base + Node.AABB_OFFSET + 3) - getFloat(nodes, base + Node.AABB_OFFSET);
+        float ey = getFloat(nodes, base + Node.AABB_OFFSET + 4) - getFloat(nodes, base + Node.AABB_OFFSET + 1);
+        float ez = getFloat(nodes, base + Node.AABB_OFFSET + 5) - getFloat(nodes, base + Node.AABB_OFFSET + 2);
+        return Math.max(ex, Math.max(ey, ez)) / 2;
+    }
+
+    /**
+     * Decides whether a node is accepted for a body with the selected opening criterion. Analogous to acceptNode in bh_force.comp.
+     * The relative criterion accepts a node if G * M / d^2 * (l / d)^2, with l its longest side, is below the tolerance times
+     * the body's last acceleration, and the body is outside the node. Bodies without a last acceleration use theta.
+     * @param nodes the node array
+     * @param base the offset of the node
+     * @param body the body, with its position first
+     * @param oneOverDist the softened inverse distance to the node's center of mass
+     * @param accelMagnitude the magnitude of the body's last acceleration, 0 if it has none
+     * @param relative whether to use the relative criterion
+     * @param theta the geometric acceptance criterion
+     * @param tolerance the relative force error tolerance
+     * @param sides the sides of the periodic box, or null if it is not periodic
+     * @return whether the node is accepted
+     */
+    private boolean acceptNode(int[] nodes, int base, float[] body, float oneOverDist, float accelMagnitude, boolean relative, float theta, float tolerance, float[] sides) {
+        float longestRadius = getLongestSide(nodes, base);
+        if (relative && accelMagnitude > 0f) {
+            int aabb = base + Node.AABB_OFFSET;
+            boolean inside = true;
+            for (int k = 0; k < 3; k++) {
+                inside &= body[k] >= getFloat(nodes, aabb + k) && body[k] <= getFloat(nodes, aabb + 3 + k);
+            }
+            if (sides != null) {
+                inside = periodicDistanceToAABB(nodes, base, body, sides) == 0f;
+            }
+            float sideOverDist = 2 * longestRadius * oneOverDist;
+            float termEstimate = gravitationalConstant * getFloat(nodes, base + Node.COM_MASS_OFFSET + 3) * oneOverDist * oneOverDist * sideOverDist * sideOverDist;
+            return !inside && termEstimate <= tolerance * accelMagnitude;
+        }
+        return longestRadius * oneOverDist < theta;
+    }
+
+    /**
+     * Gets the distance from a body to the nearest image of a node's AABB in a periodic box, 0 inside it.
+     * Analogous to distanceToAABB in bh_force.comp with a particle mesh.
+     * @param nodes the node array
+     * @param base the offset of the node
+     * @param body the body, with its position first
+     * @param sides the sides of the periodic box
+     * @return the distance
+     */
+    private static float periodicDistanceToAABB(int[] nodes, int base, float[] body, float[] sides) {
+        float dist2 = 0f;
+        for (int k = 0; k < 3; k++) {
+            float lo = getFloat(nodes, base + Node.AABB_OFFSET + k);
+            float hi = getFloat(nodes, base + Node.AABB_OFFSET + 3 + k);
+            float d = Math.abs(ParticleMesh.nearestImage(0.5f * (lo + hi) - body[k], sides[k])) - 0.5f * (hi - lo);
+            if (d > 0f) {
+                dist2 += d * d;
+            }
+        }
+        return (float) Math.sqrt(dist2);
+    }
+
+    /**
+     * Gets the factor of a pair's force the tree adds, the short range part with a particle mesh and otherwise all of it.
+     * @param rx the x distance between the bodies
+     * @param ry the y distance between the bodies
+     * @param rz the z distance between the bodies
+     * @param splitRadius the split radius of the particle mesh, 0 if it is off
+     * @return the factor
+     */
+    private static float shortRange(float rx, float ry, float rz, float splitRadius) {
+        if (splitRadius == 0f) {
+            return 1f;
+        }
+        return ParticleMesh.shortRangeFactor((float) Math.sqrt(rx * rx + ry * ry + rz * rz), splitRadius);
+    }
+
+    private static float[] defaultAABB() {
+        return new float[] {1e38f, 1e38f, 1e38f, -1e38f, -1e38f, -1e38f};
+    }
+
+    private static boolean emptyAABB(float[] aabb) {
+        return aabb[0] > aabb[3];
+    }
+
+    /**
+     * Gets the window that bodies must be in to contribute to the new bounds (center +/- halfExtent * MORTON_AABB_GROW).
+     * @param prev the previous bounds
+     * @return the window
+     */
+    private static float[] mortonInlierWindow(float[] prev) {
+        float[] window = new float[6];
+        for (int k = 0; k < 3; k++) {
+            float center = 0.5f * (prev[k] + prev[k + 3]);
+            float halfExt = Math.max(0.5f * (prev[k + 3] - prev[k]) * MORTON_AABB_GROW, 1e-9f);
+            window[k] = center - halfExt;
+            window[k + 3] = center + halfExt;
+        }
+        return window;
+    }
+
+    /**
+     * Caps how much the new bounds may grow compared to the previous bounds.
+     * @param neu the new bounds
+     * @param prev the previous bounds
+     * @return the capped bounds
+     */
+    private static float[] clampAABBExtentGrowth(float[] neu, float[] prev) {
+        if (emptyAABB(prev) || emptyAABB(neu)) {
+            return neu;
+        }
+        float[] result = new float[6];
+        for (int k = 0; k < 3; k++) {
+            float maxHalf = 0.5f * Math.max(prev[k + 3] - prev[k], 1e-9f) * MORTON_AABB_MAX_GROW;
+            float center = 0.5f * (neu[k] + neu[k + 3]);
+            float half = Math.min(0.5f * (neu[k + 3] - neu[k]), maxHalf);
+            result[k] = center - half;
+            result[k + 3] = center + half;
+        }
+        return result;
+    }
+
+    /**
+     * Takes a 21-bit integer and spreads its bits out so there are two zeros between each bit.
+     * @param v the 21-bit integer
+     * @return the expanded bits
+     */
+    private static long expandBits21(int v) {
+        long x = v & 0x1FFFFFL;
+        x = (x | (x << 32)) & 0x1F00000000FFFFL;
+        x = (x | (x << 16)) & 0x1F0000FF0000FFL;
+        x = (x | (x << 8)) & 0x100F00F00F00F00FL;
+        x = (x | (x << 4)) & 0x10C30C30C30C30C3L;
+        x = (x | (x << 2)) & 0x1249249249249249L;
+        return x;
+    }
+
+    /**
+     * Encodes a normalized position into a 63-bit morton code. Analogous to mortonEncode3D in bh_morton.comp.
+     * @param pNorm the position normalized to [0,1]^3
+     * @return the morton code
+     */
+    public static long mortonEncode3D(float[] pNorm) {
+        final float MAX_VALUE = 2097151.0f;
+        int xi = (int) Math.min(Math.max((float) Math.floor(pNorm[0] * MAX_VALUE), 0.0f), MAX_VALUE);
+        int yi = (int) Math.min(Math.max((float) Math.floor(pNorm[1] * MAX_VALUE), 0.0f), MAX_VALUE);
+        int zi = (int) Math.min(Math.max((float) Math.floor(pNorm[2] * MAX_VALUE), 0.0f), MAX_VALUE);
+        return (expandBits21(xi) << 2) | (expandBits21(yi) << 1) | expandBits21(zi);
+    }
+
+    /**
+     * Calculates the longest common prefix of the sorted morton codes at i and j, using the indices to break ties.
+     * @param i the first index
+     * @param j the second index
+     * @param n the number of alive bodies
+     * @return the longest common prefix, or -1 if either index is out of range
+     */
+    private int safeLCP(int i, int j, int n) {
+        if (i < 0 || j < 0 || i >= n || j >= n) return -1;
+        long mortonI = mortonIn[i];
+        long mortonJ = mortonIn[j];
+        if (mortonI == mortonJ) {
+            if (i == j) {
+                return 64;
+            }
+            return 64 + Integer.numberOfLeadingZeros(i ^ j);
+        }
+        return Long.numberOfLeadingZeros(mortonI ^ mortonJ);
+    }
+
+    /**
+     * Gets the main sequence star color of a body. Analogous to getStarColor in common.glsl.
+     * @param mass the mass of the body in kg
+     * @param density the density of the body in kg/m^3
+     * @return the rgb color from 0 to 1
+     */
+    private static float[] getStarColor(float mass, float density) {
+        double kelvin = 5.95589e-19 * Math.pow(mass, 0.875 - 1.0 / 6.0) * Math.pow(density, 1.0 / 6.0);
+        double temp = kelvin / 100.0;
+        double r = temp <= 66.0 ? 255.0 : 329.698727446 * Math.pow(temp - 60.0, -0.1332047592);
+        double g = temp <= 66.0 ? 99.4708025861 * Math.log(Math.max(temp, 1e-3)) - 161.1195681661 : 288.1221695283 * Math.pow(temp, -0.0755148492);
+        double b = temp >= 66.0 ? 255.0 : 138.5177312231 * Math.log(Math.max(temp - 10.0, 1e-3)) - 305.0447927307;
+        return new float[] {
+            (float) (Math.min(Math.max(r, 0.0), 255.0) / 255.0),
+            (float) (Math.min(Math.max(g, 0.0), 255.0) / 255.0),
+            (float) (Math.min(Math.max(b, 0.0), 255.0) / 255.0)
+        };
+    }
+
+    /**
+     * Prints the time taken by each stage of the last step.
+     */
+    private void printProfiling() {
+        long total = driftTime + deadTime + updateBoundsTime + mortonCodeGenerationTime + radixSortTime + buildTreeTime + computeCOMAndLocationTime + particleMeshTime + computeForceTime + mergeBodiesTime;
+        debugString = "CPU step " + steps + " (" + numBodies + " bodies, " + pool.getParallelism() + " threads): " + String.format("%.3f", total / 1e6) + " ms\n"
+            + "  Drift: " + String.format("%.3f", driftTime / 1e6) + " ms\n"
+            + "  Dead partition: " + String.format("%.3f", deadTime / 1e6) + " ms\n"
+            + "  Update bounds: " + String.format("%.3f", updateBoundsTime / 1e6) + " ms\n"
+            + "  Morton codes: " + String.format("%.3f", mortonCodeGenerationTime / 1e6) + " ms\n"
+            + "  Radix sort: " + String.format("%.3f", radixSortTime / 1e6) + " ms\n"
+            + "  Build tree: " + String.format("%.3f", buildTreeTime / 1e6) + " ms\n"
+            + "  COM and location: " + String.format("%.3f", computeCOMAndLocationTime / 1e6) + " ms\n"
+            + "  Particle mesh: " + String.format("%.3f", particleMeshTime / 1e6) + " ms\n"
+            + "  Force: " + String.format("%.3f", computeForceTime / 1e6) + " ms (" + numActive + " active bodies)\n"
+            + "  Merge: " + String.format("%.3f", mergeBodiesTime / 1e6) + " ms\n"
+            + "  Interactions per body: " + String.format("%.1f", getMeanInteractions()) + " mean\n";
+        System.out.println(debugString);
+    }
+
+    /* --------- Getters --------- */
+
+    /**
+     * Gets the mean number of nodes and leaves the live bodies interacted with in the last force pass.
+     * @return the mean interactions per body, 0 if there are no live bodies
+     */
+    public double getMeanInteractions() {
+        if (numBodies == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (int gid = 0; gid < numBodies; gid++) {
+            total += interactions[indexIn[gid]];
+        }
+        return (double) total / numBodies;
+    }
+
+    /**
+     * Gets the current body buffer in the same layout as SSBO_SWAPPING_BODIES_IN.
+     * @return the bodies
+     */
+    public float[] getBodies() {
+        return bodiesIn;
+    }
+
+    /**
+     * Gets the sorted morton codes of the last step in the same layout as SSBO_SWAPPING_MORTON_IN.
+     * @return the morton codes
+     */
+    public long[] getMortonCodes() {
+        return mortonIn;
+    }
+
+    /**
+     * Gets the sorted body indices of the last step in the same layout as SSBO_SWAPPING_INDEX_IN.
+     * @return the indices
+     */
+    public int[] getIndices() {
+        return indexIn;
+    }
+
+    /**
+     * Gets the leaf nodes of the last step in the same layout as SSBO_LEAF_NODES.
+     * They can be read with Node.fromBuffer(IntBuffer.wrap(getLeafNodes())).
+     * @return the leaf nodes
+     */
+    public int[] getLeafNodes() {
+        return leafNodes;
+    }
+
+    /**
+     * Gets the internal nodes of the last step in the same layout as SSBO_INTERNAL_NODES.
+     * @return the internal nodes
+     */
+    public int[] getInternalNodes() {
+        return internalNodes;
+    }
+
+    /**
+     * Gets the current bounds of the simulation.
+     * @return the bounds as {{minX, minY, minZ}, {maxX, maxY, maxZ}}
+     */
+    public float[][] getBounds() {
+        return new float[][] {{simBounds[0], simBounds[1], simBounds[2]}, {simBounds[3], simBounds[4], simBounds[5]}};
+    }
+
+    /**
+     * Gets the current number of alive bodies.
+     * @return the number of bodies
+     */
+    public int getNumBodies() {
+        return numBodies;
+    }
+
+    /**
+     * Gets the gravitational constant in the simulation's units, as of the last step.
+     * @return the gravitational constant
+     */
+    public float getGravitationalConstant() {
+        return gravitationalConstant;
+    }
+
+    /**
+     * Gets the initial number of bodies.
+     * @return the initial number of bodies
+     */
+    public int getInitialNumBodies() {
+        return initialNumBodies;
+    }
+
+    /**
+     * Gets the number of merges so far.
+     * @return the number of merges
+     */
+    public int getMerged() {
+        return merged;
+    }
+
+    /**
+     * Gets the number of bodies that have left the bounds so far.
+     * @return the number of out of bounds bodies
+     */
+    public int getOutOfBounds() {
+        return outOfBounds.get();
+    }
+
+    /**
+     * Gets the number of steps taken.
+     * @return the number of steps
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Gets the planet generator the bodies were loaded from.
+     * @return the planet generator
+     */
+    public PlanetGenerator getPlanetGenerator() {
+        return planetGenerator;
+    }
+}
@@ -0,0 +1,657 @@
+package com.grumbo.cpu;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.grumbo.gpu.Body;
+import com.grumbo.simulation.BodyStore;
+import com.grumbo.simulation.PlanetGenerator;
+import com.grumbo.simulation.Settings;
+import com.grumbo.simulation.UnitSet;
+
+/**
+ * CPUDirectSum is a double precision engine for small scenes, such as the solar system of solar_system.json.
+ * It sums the gravity between every pair of bodies directly, in parallel over runs of bodies using a ForkJoinPool,
+ * and integrates with IAS15, the 15th order adaptive Gauss-Radau integrator of Rein and Spiegel (2015).
+ * It needs neither the tree nor the GPU, and is the direct engine of HeadlessMain.
+ *
+ * The float bodies of the other engines lose the orbits of close moons within days of simulation time.
+ * Here every position, velocity, and mass is a double, and the positions and velocities are added to with
+ * compensated summation, so the error stays near machine precision over long runs.
+ * The direct sum is O(N^2), so it is meant for scenes of up to about a thousand bodies.
+ *
+ * Each step advances the simulation by the dt setting, in substeps chosen by the integrator that divide dt evenly.
+ * Gravity is not softened, and bodies do not collide or merge.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class CPUDirectSum implements CPUEngine {
+
+    // Accuracy of the substeps, which are about (5040 epsilon)^(1/7) of the shortest timescale of any body, keeping the error near machine precision
+    public static final double DEFAULT_EPSILON = 1e-9;
+    // Tasks of the acceleration sum per thread, each a run of rows, so even a scene of a few dozen bodies is shared by every thread
+    private static final int TASKS_PER_THREAD = 4;
+    // Most predictor-corrector iterations of a substep
+    private static final int MAX_ITERATIONS = 12;
+    // Change of the last coefficient, relative to the largest acceleration, below which the predictor-corrector has converged
+    private static final double CONVERGENCE = 1e-16;
+    // A substep is redone if the next substep would be shorter than this fraction of it, and substeps grow by at most its inverse
+    private static final double SAFETY_FACTOR = 0.25;
+    // Shortest substep that is redone, as a fraction of dt, so close encounters cannot stall a step
+    private static final double MIN_SUBSTEP_FRACTION = 1e-12;
+    // Density of bodies loaded from a scene json file in kg/m^3, the same as Planet.fromJson
+    private static final double JSON_DENSITY = 100;
+
+    // Gauss-Radau spacings of the force evaluations within a substep, as fractions of the substep
+    private static final double[] H = {
+        0.0,
+        0.0562625605369221464656521910318,
+        0.180240691736892364987579942780,
+        0.352624717113169637373907769648,
+        0.547153626330555383001448554766,
+        0.734210177215410531523210605558,
+        0.885320946839095768090359771030,
+        0.977520613561287501891174488626
+    };
+    // The force polynomial is a0 + sum b[k] h^(k+1) = a0 + sum g[j] h (h - H[1]) ... (h - H[j]) over a substep.
+    // B_FROM_G[k][j] is the coefficient of g[j] in b[k], and G_FROM_B is its inverse (the c and d of Everhart 1985).
+    private static final double[][] B_FROM_G = newtonToPowerBasis();
+    private static final double[][] G_FROM_B = invertUnitUpperTriangular(B_FROM_G);
+
+    private final int numBodies;
+    private final double gravitationalConstant;
+    private final ForkJoinPool pool;
+    // Rows of the acceleration sum per task
+    private final int grain;
+
+    // Bodies, with (x, y, z) of each body in positions and velocities
+    private final double[] positions;
+    private final double[] velocities;
+    private final double[] masses;
+    private final double[] densities;
+    // Float copy of the bodies for getBodies, made on the first call
+    private float[] outputBodies;
+
+    // Rounding errors of the compensated summation of the positions and velocities
+    private final double[] positionErrors;
+    private final double[] velocityErrors;
+
+    // Integrator state for each component: the power and Newton coefficients of the force polynomial of the last substep,
+    // the start of the substep, and the positions and accelerations of the current force evaluation
+    private final double[][] b;
+    private final double[][] g;
+    private final double[] x0;
+    private final double[] v0;
+    private final double[] a0;
+    private final double[] predicted;
+    private final double[] accelerations;
+
+    private double epsilon = DEFAULT_EPSILON;
+    // Length of the last substep, 0 before the first
+    private double lastSubstep;
+    // Length the integrator suggests for the next substep, 0 before the first
+    private double nextSubstep;
+    private double time;
+    private int steps;
+    private long substeps;
+    private long rejectedSubsteps;
+    private long forceEvaluations;
+
+    /**
+     * Constructor for the CPUDirectSum class, loading the bodies from a planet generator in its unit set.
+     * The generator's bodies are floats, so use fromJson for scenes that need every digit of their initial conditions.
+     * @param planetGenerator the planet generator to load the bodies from
+     * @param threads the number of threads to use
+     */
+    public CPUDirectSum(PlanetGenerator planetGenerator, int threads) {
+        this(planetGenerator.getNumPlanets(), planetGenerator.getUnitSet(), threads);
+        // The columns of each chunk are read straight into the double arrays, with no interleaved copy in between
+        BodyStore chunk = new BodyStore(Math.max(1, Math.min(planetGenerator.getChunkSize(), numBodies)));
+        int offset = 0;
+        while (planetGenerator.hasNext()) {
+            int count = planetGenerator.nextChunk(chunk, 0);
+            for (int i = 0; i < count; i++) {
+                int body = offset + i;
+                for (int k = 0; k < 3; k++) {
+                    positions[3 * body + k] = chunk.get(BodyStore.X + k, i);
+                    velocities[3 * body + k] = chunk.get(BodyStore.X_VELOCITY + k, i);
+                }
+                masses[body] = chunk.get(BodyStore.MASS, i);
+                densities[body] = chunk.get(BodyStore.DENSITY, i);
+            }
+            offset += count;
+        }
+    }
+
+    /**
+     * Allocates the bodies and the integrator state.
+     * @param numBodies the number of bodies
+     * @param unitSet the unit set the bodies and dt are in
+     * @param threads the number of threads to use
+     */
+    private CPUDirectSum(int numBodies, UnitSet unitSet, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.numBodies = numBodies;
+        this.gravitationalConstant = unitSet.gravitationalConstant();
+        this.pool = new ForkJoinPool(threads);
+        this.grain = Math.max(1, numBodies / (TASKS_PER_THREAD * threads));
+        int components = 3 * numBodies;
+        positions = new double[components];
+        velocities = new double[components];
+        masses = new double[numBodies];
+        densities = new double[numBodies];
+        positionErrors = new double[components];
+        velocityErrors = new double[components];
+        b = new double[7][components];
+        g = new double[7][components];
+        x0 = new double[components];
+        v0 = new double[components];
+        a0 = new double[components];
+        predicted = new double[components];
+        accelerations = new double[components];
+    }
+
+    /**
+     * Loads a scene json file, such as solar_system.json, keeping the full precision of its values.
+     * The bodies are read as PlanetGenerator.fromJson reads them, in metres, metres per second, and kilograms.
+     * @param json the json string to parse
+     * @param unitSet the unit set to convert the bodies to, which dt is also in
+     * @param threads the number of threads to use
+     * @return the engine holding the bodies
+     */
+    public static CPUDirectSum fromJson(String json, UnitSet unitSet, int threads) {
+        JsonNode bodies;
+        try {
+            bodies = new ObjectMapper().readTree(json).get("bodies");
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to parse scene json", e);
+        }
+        if (bodies == null || !bodies.isArray()) {
+            throw new IllegalArgumentException("Scene json has no bodies array");
+        }
+        CPUDirectSum directSum = new CPUDirectSum(bodies.size(), unitSet, threads);
+        double velocityUnit = unitSet.len() / unitSet.time();
+        for (int i = 0; i < bodies.size(); i++) {
+            JsonNode body = bodies.get(i);
+            for (int k = 0; k < 3; k++) {
+                directSum.positions[3 * i + k] = body.get("position").get(k).doubleValue() / unitSet.len();
+                directSum.velocities[3 * i + k] = body.get("velocity").get(k).doubleValue() / velocityUnit;
+            }
+            directSum.masses[i] = body.get("mass").doubleValue() / unitSet.mass();
+            directSum.densities[i] = JSON_DENSITY / unitSet.density();
+        }
+        return directSum;
+    }
+
+    /**
+     * Initializes the engine. The bodies are loaded when it is made, so there is nothing left to do.
+     */
+    public void init() {
+    }
+
+    /**
+     * Steps the simulation by the dt setting.
+     * The step is split evenly into the fewest substeps no longer than the integrator suggests, so there is no short last substep.
+     */
+    public void step() {
+        double dt = Settings.getInstance().getDt();
+        if (!(dt > 0)) {
+            throw new IllegalStateException("dt must be positive: " + dt);
+        }
+        double start = time;
+        double remaining = dt;
+        double minSubstep = dt * MIN_SUBSTEP_FRACTION;
+        while (remaining > minSubstep) {
+            double planned = nextSubstep > 0 ? nextSubstep : remaining;
+            double substep = remaining / Math.ceil(remaining / planned);
+            remaining -= integrateSubstep(substep, minSubstep);
+        }
+        time = start + dt;
+        steps++;
+    }
+
+    /**
+     * Takes one IAS15 substep from the current bodies, redoing it shorter until its error is small enough.
+     * @param dt the length to try
+     * @param minSubstep the shortest length that is redone
+     * @return the length of the substep taken
+     */
+    private double integrateSubstep(double dt, double minSubstep) {
+        System.arraycopy(positions, 0, x0, 0, x0.length);
+        System.arraycopy(velocities, 0, v0, 0, v0.length);
+        computeAccelerations(positions, a0);
+        // Start from the last substep's polynomial continued over this one
+        if (lastSubstep > 0) {
+            shiftCoefficients(1.0, dt / lastSubstep);
+        }
+
+        while (true) {
+            correct(dt);
+            double timescale = minTimescale();
+            double newDt = timescale > 0 ? dt * timescale * Math.pow(epsilon * 5040.0, 1.0 / 7.0) : dt / SAFETY_FACTOR;
+            if (newDt < SAFETY_FACTOR * dt && dt > minSubstep) {
+                // Redo it shorter, starting from the polynomial of this try over the shorter substep, as clamped
+                double shorterDt = Math.max(newDt, minSubstep);
+                shiftCoefficients(0.0, shorterDt / dt);
+                dt = shorterDt;
+                rejectedSubsteps++;
+                continue;
+            }
+            nextSubstep = Math.min(newDt, dt / SAFETY_FACTOR);
+            break;
+        }
+
+        // Advance to the end of the substep with compensated summation
+        for (int i = 0; i < positions.length; i++) {
+            double dx = dt * v0[i] + dt * dt * (a0[i] / 2.0 + b[0][i] / 6.0 + b[1][i] / 12.0 + b[2][i] / 20.0 + b[3][i] / 30.0 + b[4][i] / 42.0 + b[5][i] / 56.0 + b[6][i] / 72.0);
+            double dv = dt * (a0[i] + b[0][i] / 2.0 + b[1][i] / 3.0 + b[2][i] / 4.0 + b[3][i] / 5.0 + b[4][i] / 6.0 + b[5][i] / 7.0 + b[6][i] / 8.0);
+            double y = dx - positionErrors[i];
+            double t = positions[i] + y;
+            positionErrors[i] = (t - positions[i]) - y;
+            positions[i] = t;
+            y = dv - velocityErrors[i];
+            t = velocities[i] + y;
+            velocityErrors[i] = (t - velocities[i]) - y;
+            velocities[i] = t;
+        }
+        lastSubstep = dt;
+        time += dt;
+        substeps++;
+        return dt;
+    }
+
+    /**
+     * Iterates the predictor-corrector of a substep: the positions at each Gauss-Radau spacing are predicted from the
+     * force polynomial, and the accelerations there correct its coefficients, until the last coefficient stops changing.
+     * @param dt the length of the substep
+     */
+    private void correct(double dt) {
+        double error = Double.MAX_VALUE;
+        double lastError = Double.MAX_VALUE;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            if (error < CONVERGENCE || (iteration > 2 && error >= lastError)) {
+                break;
+            }
+            lastError = error;
+            double maxDelta = 0;
+            for (int s = 1; s < H.length; s++) {
+                predictPositions(H[s], dt);
+                computeAccelerations(predicted, accelerations);
+                maxDelta = updateCoefficients(s);
+            }
+            double maxAcceleration = maxAbs(accelerations);
+            error = maxAcceleration > 0 ? maxDelta / maxAcceleration : 0;
+        }
+    }
+
+    /**
+     * Predicts the positions at a fraction of the substep from the force polynomial.
+     * @param h the fraction of the substep
+     * @param dt the length of the substep
+     */
+    private void predictPositions(double h, double dt) {
+        double hdt = h * dt;
+        for (int i = 0; i < predicted.length; i++) {
+            double poly = b[0][i] / 6.0 + h * (b[1][i] / 12.0 + h * (b[2][i] / 20.0 + h * (b[3][i] / 30.0 + h * (b[4][i] / 42.0 + h * (b[5][i] / 56.0 + h * b[6][i] / 72.0)))));
+            predicted[i] = x0[i] + hdt * v0[i] + hdt * hdt * (a0[i] / 2.0 + h * poly);
+        }
+    }
+
+    /**
+     * Updates the Newton coefficient of a spacing from the accelerations there, by divided differences, and the power coefficients with it.
+     * @param s the spacing, from 1 to 7
+     * @return the largest change of a coefficient of the spacing
+     */
+    private double updateCoefficients(int s) {
+        double maxDelta = 0;
+        for (int i = 0; i < accelerations.length; i++) {
+            double gNew = (accelerations[i] - a0[i]) / H[s];
+            for (int j = 1; j < s; j++) {
+                gNew = (gNew - g[j - 1][i]) / (H[s] - H[j]);
+            }
+            double delta = gNew - g[s - 1][i];
+            g[s - 1][i] = gNew;
+            for (int k = 0; k < s; k++) {
+                b[k][i] += B_FROM_G[k][s - 1] * delta;
+            }
+            maxDelta = Math.max(maxDelta, Math.abs(delta));
+        }
+        return maxDelta;
+    }
+
+    /**
+     * Estimates the shortest timescale on which a body's acceleration changes, from the acceleration, jerk, and snap
+     * at the end of the substep (Pham, Rein and Spiegel 2024). Unlike the size of the last coefficient, these do not
+     * reach the rounding noise of a moon close to a distant planet, which would shrink the substeps without end.
+     * @return the shortest timescale as a fraction of the substep, 0 if no body's acceleration changes
+     */
+    private double minTimescale() {
+        double minTimescale2 = Double.MAX_VALUE;
+        for (int i = 0; i < numBodies; i++) {
+            double y2 = 0, y3 = 0, y4 = 0;
+            for (int k = 3 * i; k < 3 * i + 3; k++) {
+                double acceleration = a0[k] + b[0][k] + b[1][k] + b[2][k] + b[3][k] + b[4][k] + b[5][k] + b[6][k];
+                double jerk = b[0][k] + 2.0 * b[1][k] + 3.0 * b[2][k] + 4.0 * b[3][k] + 5.0 * b[4][k] + 6.0 * b[5][k] + 7.0 * b[6][k];
+                double snap = 2.0 * b[1][k] + 6.0 * b[2][k] + 12.0 * b[3][k] + 20.0 * b[4][k] + 30.0 * b[5][k] + 42.0 * b[6][k];
+                y2 += acceleration * acceleration;
+                y3 += jerk * jerk;
+                y4 += snap * snap;
+            }
+            double timescale2 = 2.0 * y2 / (y3 + Math.sqrt(y4 * y2));
+            if (Double.isFinite(timescale2) && timescale2 > 0 && y4 > 0) {
+                minTimescale2 = Math.min(minTimescale2, timescale2);
+            }
+        }
+        return minTimescale2 == Double.MAX_VALUE ? 0 : Math.sqrt(minTimescale2);
+    }
+
+    /**
+     * Re-expands the force polynomial over a new substep, starting at a fraction of the current one and scaled by a ratio of lengths,
+     * then recomputes the Newton coefficients from it.
+     * @param offset the start of the new substep as a fraction of the current one, 1 for the next substep and 0 to redo this one
+     * @param ratio the length of the new substep over the current one
+     */
+    private void shiftCoefficients(double offset, double ratio) {
+        // shift[m][k] is the coefficient of b[k] in the new b[m], from expanding (offset + ratio * h)^(k+1)
+        double[][] shift = new double[7][7];
+        for (int m = 0; m < 7; m++) {
+            double ratioPower = Math.pow(ratio, m + 1);
+            for (int k = m; k < 7; k++) {
+                shift[m][k] = ratioPower * binomial(k + 1, m + 1) * Math.pow(offset, k - m);
+            }
+        }
+        double[] old = new double[7];
+        for (int i = 0; i < accelerations.length; i++) {
+            for (int k = 0; k < 7; k++) {
+                old[k] = b[k][i];
+            }
+            for (int m = 0; m < 7; m++) {
+                double value = 0;
+                for (int k = m; k < 7; k++) {
+                    value += shift[m][k] * old[k];
+                }
+                b[m][i] = value;
+            }
+            for (int j = 0; j < 7; j++) {
+                double value = 0;
+                for (int k = j; k < 7; k++) {
+                    value += G_FROM_B[j][k] * b[k][i];
+                }
+                g[j][i] = value;
+            }
+        }
+    }
+
+    /**
+     * Computes the acceleration of every body by summing the gravity of every other body, in parallel over the bodies.
+     * @param pos the positions to use
+     * @param acc the accelerations to write
+     */
+    private void computeAccelerations(double[] pos, double[] acc) {
+        forceEvaluations++;
+        if (numBodies == 0) {
+            return;
+        }
+        pool.invoke(new CPUBarnesHut.RangeTask((start, end) -> {
+            for (int i = start; i < end; i++) {
+                double xi = pos[3 * i], yi = pos[3 * i + 1], zi = pos[3 * i + 2];
+                double ax = 0, ay = 0, az = 0;
+                for (int j = 0; j < numBodies; j++) {
+                    double mass = masses[j];
+                    if (j == i || mass == 0) {
+                        continue;
+                    }
+                    double rx = pos[3 * j] - xi;
+                    double ry = pos[3 * j + 1] - yi;
+                    double rz = pos[3 * j + 2] - zi;
+                    double r2 = rx * rx + ry * ry + rz * rz;
+                    if (r2 == 0) {
+                        continue;
+                    }
+                    double f = gravitationalConstant * mass / (r2 * Math.sqrt(r2));
+                    ax += f * rx;
+                    ay += f * ry;
+                    az += f * rz;
+                }
+                acc[3 * i] = ax;
+                acc[3 * i + 1] = ay;
+                acc[3 * i + 2] = az;
+            }
+        }, 0, numBodies, grain));
+    }
+
+    /**
+     * Shuts down the thread pool.
+     */
+    public void cleanup() {
+        pool.shutdown();
+    }
+
+    /**
+     * Gets the largest absolute value of an array.
+     * @param values the values
+     * @return the largest absolute value, 0 if there are none
+     */
+    private static double maxAbs(double[] values) {
+        double max = 0;
+        for (double value : values) {
+            max = Math.max(max, Math.abs(value));
+        }
+        return max;
+    }
+
+    /**
+     * Gets a binomial coefficient.
+     * @param n the number of items
+     * @param k the number chosen
+     * @return n choose k
+     */
+    private static double binomial(int n, int k) {
+        double result = 1;
+        for (int i = 1; i <= k; i++) {
+            result = result * (n - k + i) / i;
+        }
+        return result;
+    }
+
+    /**
+     * Computes the coefficients of the power basis h^(k+1) in the Newton basis h (h - H[1]) ... (h - H[j]) of the spacings.
+     * @return the matrix whose [k][j] entry is the coefficient of h^(k+1) in the j-th Newton polynomial
+     */
+    private static double[][] newtonToPowerBasis() {
+        double[][] matrix = new double[7][7];
+        for (int j = 0; j < 7; j++) {
+            // Coefficients of h^0 to h^8 of h (h - H[1]) ... (h - H[j])
+            double[] poly = new double[9];
+            poly[1] = 1;
+            for (int i = 1; i <= j; i++) {
+                for (int p = 8; p > 0; p--) {
+                    poly[p] = poly[p - 1] - H[i] * poly[p];
+                }
+                poly[0] = -H[i] * poly[0];
+            }
+            for (int k = 0; k < 7; k++) {
+                matrix[k][j] = poly[k + 1];
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Inverts an upper triangular matrix with ones on its diagonal by back substitution.
+     * @param matrix the matrix
+     * @return the inverse
+     */
+    private static double[][] invertUnitUpperTriangular(double[][] matrix) {
+        int n = matrix.length;
+        double[][] inverse = new double[n][n];
+        for (int j = 0; j < n; j++) {
+            for (int k = j; k >= 0; k--) {
+                double value = k == j ? 1 : 0;
+                for (int l = k + 1; l <= j; l++) {
+                    value -= matrix[k][l] * inverse[l][j];
+                }
+                inverse[k][j] = value;
+            }
+        }
+        return inverse;
+    }
+
+    /* --------- Getters and setters --------- */
+
+    /**
+     * Sets the accuracy of the substeps. Smaller values take shorter substeps.
+     * @param epsilon the accuracy, DEFAULT_EPSILON by default
+     */
+    public void setEpsilon(double epsilon) {
+        if (!(epsilon > 0)) {
+            throw new IllegalArgumentException("epsilon must be positive: " + epsilon);
+        }
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * Gets the total energy of the bodies, kinetic plus gravitational potential.
+     * @return the energy in the simulation's units
+     */
+    public double getEnergy() {
+        double kinetic = 0;
+        double potential = 0;
+        for (int i = 0; i < numBodies; i++) {
+            double vx = velocities[3 * i], vy = velocities[3 * i + 1], vz = velocities[3 * i + 2];
+            kinetic += 0.5 * masses[i] * (vx * vx + vy * vy + vz * vz);
+            for (int j = i + 1; j < numBodies; j++) {
+                double rx = positions[3 * j] - positions[3 * i];
+                double ry = positions[3 * j + 1] - positions[3 * i + 1];
+                double rz = positions[3 * j + 2] - positions[3 * i + 2];
+                double r = Math.sqrt(rx * rx + ry * ry + rz * rz);
+                if (r > 0) {
+                    potential -= gravitationalConstant * masses[i] * masses[j] / r;
+                }
+            }
+        }
+        return kinetic + potential;
+    }
+
+    /**
+     * Gets the bodies as floats in the same layout as SSBO_SWAPPING_BODIES_IN, for output and rendering.
+     * The same array is filled again on every call.
+     * @return the bodies (Body.STRUCT_SIZE floats each)
+     */
+    public float[] getBodies() {
+        if (outputBodies == null) {
+            outputBodies = new float[numBodies * Body.STRUCT_SIZE];
+        }
+        for (int i = 0; i < numBodies; i++) {
+            int base = i * Body.STRUCT_SIZE;
+            for (int k = 0; k < 3; k++) {
+                outputBodies[base + Body.POS_MASS_OFFSET + k] = (float) positions[3 * i + k];
+                outputBodies[base + Body.VEL_DENSITY_OFFSET + k] = (float) velocities[3 * i + k];
+            }
+            outputBodies[base + Body.POS_MASS_OFFSET + 3] = (float) masses[i];
+            outputBodies[base + Body.VEL_DENSITY_OFFSET + 3] = (float) densities[i];
+        }
+        return outputBodies;
+    }
+
+    /**
+     * Gets the positions of the bodies.
+     * @return a copy of the positions, (x, y, z) of each body
+     */
+    public double[] getPositions() {
+        return positions.clone();
+    }
+
+    /**
+     * Gets the velocities of the bodies.
+     * @return a copy of the velocities, (x, y, z) of each body
+     */
+    public double[] getVelocities() {
+        return velocities.clone();
+    }
+
+    /**
+     * Gets the number of bodies.
+     * @return the number of bodies
+     */
+    public int getNumBodies() {
+        return numBodies;
+    }
+
+    /**
+     * Gets the number of body slots, the same as the number of bodies since they never merge or leave.
+     * @return the initial number of bodies
+     */
+    public int getInitialNumBodies() {
+        return numBodies;
+    }
+
+    /**
+     * Gets the number of merges, always 0 since bodies do not merge.
+     * @return 0
+     */
+    public int getMerged() {
+        return 0;
+    }
+
+    /**
+     * Gets the number of bodies that have left the bounds, always 0 since there are no bounds.
+     * @return 0
+     */
+    public int getOutOfBounds() {
+        return 0;
+    }
+
+    /**
+     * Gets the gravitational constant in the simulation's units.
+     * @return the gravitational constant
+     */
+    public double getGravitationalConstant() {
+        return gravitationalConstant;
+    }
+
+    /**
+     * Gets the simulation time.
+     * @return the time in the simulation's units
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * Gets the number of steps taken.
+     * @return the number of steps
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Gets the number of substeps taken by the integrator, not counting the ones redone shorter.
+     * @return the number of substeps
+     */
+    public long getSubsteps() {
+        return substeps;
+    }
+
+    /**
+     * Gets the number of substeps redone shorter because their error was too large.
+     * @return the number of rejected substeps
+     */
+    public long getRejectedSubsteps() {
+        return rejectedSubsteps;
+    }
+
+    /**
+     * Gets the number of times the accelerations of every body were summed.
+     * @return the number of force evaluations
+     */
+    public long getForceEvaluations() {
+        return forceEvaluations;
+    }
+}
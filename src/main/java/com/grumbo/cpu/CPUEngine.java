@@ -0,0 +1,62 @@
+package com.grumbo.cpu;
+
+/**
+ * CPUEngine is a force engine that steps the bodies on the CPU, with no OpenGL context, so HeadlessMain can run any of them.
+ * The bodies are kept in the same layout as SSBO_SWAPPING_BODIES_IN.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public interface CPUEngine {
+
+    /**
+     * Initializes the buffers and loads the bodies.
+     */
+    public void init();
+
+    /**
+     * Steps the simulation once.
+     */
+    public void step();
+
+    /**
+     * Releases the threads of the engine.
+     */
+    public void cleanup();
+
+    /**
+     * Gets the current body buffer in the same layout as SSBO_SWAPPING_BODIES_IN.
+     * @return the bodies
+     */
+    public float[] getBodies();
+
+    /**
+     * Gets the number of live bodies.
+     * @return the number of live bodies
+     */
+    public int getNumBodies();
+
+    /**
+     * Gets the number of body slots.
+     * @return the initial number of bodies
+     */
+    public int getInitialNumBodies();
+
+    /**
+     * Gets the number of steps taken.
+     * @return the number of steps
+     */
+    public int getSteps();
+
+    /**
+     * Gets the number of merges so far.
+     * @return the number of merges
+     */
+    public int getMerged();
+
+    /**
+     * Gets the number of bodies that have left the bounds so far.
+     * @return the number of out of bounds bodies
+     */
+    public int getOutOfBounds();
+}
@@ -0,0 +1,241 @@
+package com.grumbo.cpu;
+
+import java.util.concurrent.ForkJoinPool;
+
+import com.grumbo.gpu.Body;
+import com.grumbo.gpu.GPU;
+import com.grumbo.gpu.SimulationParameters;
+import com.grumbo.simulation.BodyStore;
+import com.grumbo.simulation.PlanetGenerator;
+import com.grumbo.simulation.Settings;
+
+/**
+ * PMSolver is a particle mesh force engine for periodic boxes, an alternative to CPUBarnesHut for large, smooth box scenes.
+ * Each step deposits the masses of the bodies on a grid with cloud in cell weights, solves Poisson's equation with FFTs,
+ * and interpolates the force back to the bodies with the same weights, costing O(N + G^3 log G) for N bodies on a grid of G^3 points.
+ * It is the ParticleMesh of the TreePM mode with a split scale of 0, so the mesh gives the whole force and there is no tree.
+ *
+ * The box wraps around, and as in any periodic solver the mean density is taken out, so the bodies move against a uniform background.
+ * Forces are smoothed below about a cell, so close pairs, merging, and collisions are not resolved; none of the bodies are ever removed.
+ * Bodies are stepped with a kick-drift-kick leapfrog of the dt setting, whatever the integrator setting is.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class PMSolver implements CPUEngine {
+
+    private final PlanetGenerator planetGenerator;
+    private final ForkJoinPool pool;
+    private final float[] simBounds;
+    private final ParticleMesh particleMesh;
+
+    private float[] bodies;
+    private float[] accelerations;
+    private int numBodies;
+    private int steps;
+    private boolean accelerationsValid;
+
+    /**
+     * Constructor for the PMSolver class.
+     * @param planetGenerator the planet generator to load the bodies from
+     * @param bounds the periodic box of the simulation
+     * @param gridSize the number of grid points along each side of the box, a power of 2 up to SimulationParameters.MAX_PM_GRID_SIZE
+     * @param threads the number of threads to use
+     */
+    public PMSolver(PlanetGenerator planetGenerator, float[][] bounds, int gridSize, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.planetGenerator = planetGenerator;
+        this.pool = new ForkJoinPool(threads);
+        this.simBounds = new float[] {bounds[0][0], bounds[0][1], bounds[0][2], bounds[1][0], bounds[1][1], bounds[1][2]};
+        this.particleMesh = new ParticleMesh(gridSize, pool);
+    }
+
+    /**
+     * Gets a grid size with about one grid point per body, the power of 2 at or above the cube root of the number of bodies.
+     * @param numBodies the number of bodies
+     * @return the grid size
+     */
+    public static int defaultGridSize(int numBodies) {
+        int perSide = (int) Math.ceil(Math.cbrt(Math.max(numBodies, 1)));
+        int gridSize = Integer.highestOneBit(Math.max(perSide, 2));
+        if (gridSize < perSide) {
+            gridSize <<= 1;
+        }
+        return Math.min(gridSize, SimulationParameters.MAX_PM_GRID_SIZE);
+    }
+
+    /**
+     * Initializes the buffers and loads the bodies from the planet generator, wrapping them into the box.
+     */
+    public void init() {
+        numBodies = planetGenerator.getNumPlanets();
+        bodies = new float[numBodies * Body.STRUCT_SIZE];
+        accelerations = new float[numBodies * 3];
+        steps = 0;
+        accelerationsValid = false;
+
+        BodyStore chunk = new BodyStore(Math.max(1, Math.min(planetGenerator.getChunkSize(), numBodies)));
+        int offset = 0;
+        while (planetGenerator.hasNext()) {
+            int count = planetGenerator.nextChunk(chunk, 0);
+            chunk.writeBodies(0, count, bodies, offset * Body.STRUCT_SIZE);
+            offset += count;
+        }
+        parallelFor(numBodies, (start, end) -> {
+            for (int i = start; i < end; i++) {
+                wrap(i * Body.STRUCT_SIZE);
+            }
+        });
+    }
+
+    /**
+     * Steps the simulation once with a kick-drift-kick leapfrog.
+     * The accelerations of the end of a step are kept for the first kick of the next.
+     */
+    public void step() {
+        final float dt = Settings.getInstance().getDt();
+        if (!accelerationsValid) {
+            computeAccelerations();
+        }
+        parallelFor(numBodies, (start, end) -> {
+            for (int i = start; i < end; i++) {
+                int base = i * Body.STRUCT_SIZE;
+                for (int k = 0; k < 3; k++) {
+                    bodies[base + Body.VEL_DENSITY_OFFSET + k] += 0.5f * dt * accelerations[i * 3 + k];
+                    bodies[base + Body.POS_MASS_OFFSET + k] += dt * bodies[base + Body.VEL_DENSITY_OFFSET + k];
+                }
+                wrap(base);
+            }
+        });
+        computeAccelerations();
+        parallelFor(numBodies, (start, end) -> {
+            for (int i = start; i < end; i++) {
+                int base = i * Body.STRUCT_SIZE;
+                for (int k = 0; k < 3; k++) {
+                    bodies[base + Body.VEL_DENSITY_OFFSET + k] += 0.5f * dt * accelerations[i * 3 + k];
+                }
+            }
+        });
+        steps++;
+    }
+
+    /**
+     * Shuts down the fork join pool.
+     */
+    public void cleanup() {
+        pool.shutdown();
+    }
+
+    /**
+     * Computes the acceleration of every body from the mesh, using the gravitational constant of the planet generator's unit set.
+     * @return the accelerations, 3 floats per body
+     */
+    public float[] computeAccelerations() {
+        particleMesh.setBox(simBounds, 0f, (float) planetGenerator.getUnitSet().gravitationalConstant());
+        particleMesh.clearMasses();
+        parallelFor(numBodies, (start, end) -> {
+            for (int i = start; i < end; i++) {
+                int base = i * Body.STRUCT_SIZE;
+                particleMesh.depositMass(bodies[base], bodies[base + 1], bodies[base + 2], bodies[base + 3]);
+            }
+        });
+        particleMesh.solve();
+        parallelFor(numBodies, (start, end) -> {
+            float[] accel = new float[3];
+            for (int i = start; i < end; i++) {
+                int base = i * Body.STRUCT_SIZE;
+                accel[0] = accel[1] = accel[2] = 0f;
+                particleMesh.addAcceleration(bodies[base], bodies[base + 1], bodies[base + 2], accel);
+                System.arraycopy(accel, 0, accelerations, i * 3, 3);
+            }
+        });
+        accelerationsValid = true;
+        return accelerations;
+    }
+
+    /**
+     * Wraps the position of a body back into the box.
+     * @param base the index of the body's first float
+     */
+    private void wrap(int base) {
+        for (int k = 0; k < 3; k++) {
+            float side = simBounds[k + 3] - simBounds[k];
+            float p = (bodies[base + k] - simBounds[k]) % side;
+            if (p < 0) {
+                p += side;
+            }
+            // A tiny negative p rounds up to side, which is the same point as the min corner
+            bodies[base + k] = simBounds[k] + (p >= side ? 0f : p);
+        }
+    }
+
+    /**
+     * Runs a function over [0, n) split into fork join tasks of about a workgroup each.
+     * @param n the number of indices
+     * @param function the function to run
+     */
+    private void parallelFor(int n, CPUBarnesHut.RangeFunction function) {
+        if (n <= 0) {
+            return;
+        }
+        pool.invoke(new CPUBarnesHut.RangeTask(function, 0, n, GPU.WORK_GROUP_SIZE));
+    }
+
+    /**
+     * Gets the current body buffer in the same layout as SSBO_SWAPPING_BODIES_IN.
+     * @return the bodies
+     */
+    public float[] getBodies() {
+        return bodies;
+    }
+
+    /**
+     * Gets the number of bodies, which never changes.
+     * @return the number of bodies
+     */
+    public int getNumBodies() {
+        return numBodies;
+    }
+
+    /**
+     * Gets the initial number of bodies.
+     * @return the initial number of bodies
+     */
+    public int getInitialNumBodies() {
+        return numBodies;
+    }
+
+    /**
+     * Gets the number of steps taken.
+     * @return the number of steps
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Gets the number of merges, always 0 since the mesh does not resolve close pairs.
+     * @return 0
+     */
+    public int getMerged() {
+        return 0;
+    }
+
+    /**
+     * Gets the number of bodies that have left the bounds, always 0 since the box wraps around.
+     * @return 0
+     */
+    public int getOutOfBounds() {
+        return 0;
+    }
+
+    /**
+     * Gets the grid size of the mesh.
+     * @return the number of grid points along each side of the box
+     */
+    public int getGridSize() {
+        return particleMesh.getGridSize();
+    }
+}
@@ -0,0 +1,444 @@
+package com.grumbo.cpu;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import com.grumbo.gpu.SimulationParameters;
+
+/**
+ * ParticleMesh computes the long range part of gravity in a periodic box on a grid, as the PM half of a TreePM code (as in GADGET-2).
+ * Gravity is split with a Gaussian of scale splitRadius: the mesh gives the long range force of every periodic image,
+ * and the tree only adds the short range force, G * m / r^2 * (erfc(r / 2rs) + r / (rs sqrt(pi)) * exp(-r^2 / 4rs^2)),
+ * from the bodies within CUTOFF split radii. The mean density of the box does not pull, as usual for periodic boxes.
+ *
+ * Each solve deposits the masses on the grid with cloud in cell weights, transforms them with a radix 2 FFT, multiplies them by the
+ * Green's function of the long range force, with the cloud in cell window of the deposit and the interpolation divided out,
+ * and transforms the three components of the force back. The force of each body is interpolated with the same weights.
+ * The FFT runs on the CPU for both engines. The GPU deposits the masses and interpolates the forces in bh_pm.comp.
+ * With a split scale of 0 the mesh gives the whole force, which PMSolver uses on its own.
+ *
+ * Grid point (i, j, k) sits at min + (i, j, k) * cellSide, so the force grid has the same layout as SSBO_PM_FORCE.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class ParticleMesh {
+
+    // Distance in split radii beyond which the tree skips the short range force, as in GADGET-2
+    public static final float CUTOFF = 4.5f;
+    // Largest cutoff of the short range force as a fraction of the box's shortest side, just under half so no body feels two images of another
+    public static final float MAX_CUTOFF_FRACTION = 0.49f;
+
+    private static final VarHandle DOUBLE_ARRAY = MethodHandles.arrayElementVarHandle(double[].class);
+    private static final double ONE_OVER_SQRT_PI = 0.5641895835477563;
+    // Lines of the grid transformed by one task
+    private static final int LINE_GRAIN = 64;
+
+    private final int gridSize;
+    private final int numCells;
+    private final ForkJoinPool pool;
+
+    // Mass deposited in each cell, then the transform of the potential
+    private final double[] re;
+    private final double[] im;
+    // Work arrays of the force components
+    private final double[] forceRe;
+    private final double[] forceIm;
+    // Force per unit mass at each grid point as (x, y, z, 0), the layout of SSBO_PM_FORCE
+    private final float[] forces;
+
+    private final float[] min = new float[3];
+    private final float[] side = new float[3];
+    private final float[] cellSide = new float[3];
+    private float splitRadius;
+    private float gravitationalConstant;
+    // The last split scale that had to be clamped, so the warning is printed once for each value
+    private float clampedSplitScale = Float.NaN;
+
+    /**
+     * Constructor for the ParticleMesh class.
+     * @param gridSize the number of grid points along each side of the box, a power of 2 up to SimulationParameters.MAX_PM_GRID_SIZE
+     * @param pool the pool to run the deposit and transforms on
+     */
+    public ParticleMesh(int gridSize, ForkJoinPool pool) {
+        if (gridSize < 2 || gridSize > SimulationParameters.MAX_PM_GRID_SIZE || Integer.bitCount(gridSize) != 1) {
+            throw new IllegalArgumentException("gridSize must be a power of 2 from 2 to " + SimulationParameters.MAX_PM_GRID_SIZE + ": " + gridSize);
+        }
+        this.gridSize = gridSize;
+        this.numCells = gridSize * gridSize * gridSize;
+        this.pool = pool;
+        this.re = new double[numCells];
+        this.im = new double[numCells];
+        this.forceRe = new double[numCells];
+        this.forceIm = new double[numCells];
+        this.forces = new float[numCells * 4];
+    }
+
+    /**
+     * Sets the periodic box and the split of the force. The cutoff of the short range force must be under half of the box's shortest side,
+     * so no body feels more than one image of another through the tree. A split scale that breaks this, as a large pmSplitScale on a small grid does,
+     * is clamped to MAX_CUTOFF_FRACTION of the shortest side with a warning, as pmSplitRadius in common.glsl does on the GPU.
+     * @param bounds the box as (minX, minY, minZ, maxX, maxY, maxZ)
+     * @param splitScale the split radius in cells of the box's longest side, or 0 for the whole force with no tree
+     * @param gravitationalConstant the gravitational constant in the simulation's units
+     */
+    public void setBox(float[] bounds, float splitScale, float gravitationalConstant) {
+        float shortestSide = Float.MAX_VALUE;
+        float longestCell = 0f;
+        for (int k = 0; k < 3; k++) {
+            min[k] = bounds[k];
+            side[k] = bounds[k + 3] - bounds[k];
+            cellSide[k] = side[k] / gridSize;
+            shortestSide = Math.min(shortestSide, side[k]);
+            longestCell = Math.max(longestCell, cellSide[k]);
+        }
+        if (!(shortestSide > 0)) {
+            throw new IllegalArgumentException("Periodic box must have a positive size: " + Arrays.toString(bounds));
+        }
+        if (!(splitScale >= 0)) {
+            throw new IllegalArgumentException("Split scale must be non negative: " + splitScale);
+        }
+        float maxSplitRadius = MAX_CUTOFF_FRACTION * shortestSide / CUTOFF;
+        splitRadius = Math.min(splitScale * longestCell, maxSplitRadius);
+        if (splitScale * longestCell > maxSplitRadius && splitScale != clampedSplitScale) {
+            System.err.println("Warning: pmSplitScale " + splitScale + " puts the short range cutoff past half of the box's shortest side on a "
+                + gridSize + "^3 grid, using a split radius of " + splitRadius + " (" + splitRadius / longestCell + " cells). Lower pmSplitScale or raise pmGridSize");
+            clampedSplitScale = splitScale;
+        }
+        this.gravitationalConstant = gravitationalConstant;
+    }
+
+    /**
+     * Empties the grid before depositing the masses.
+     */
+    public void clearMasses() {
+        Arrays.fill(re, 0.0);
+    }
+
+    /**
+     * Adds the mass of a body to the 8 grid points around it with cloud in cell weights. Safe to call from several threads at once.
+     * @param x the x position of the body
+     * @param y the y position of the body
+     * @param z the z position of the body
+     * @param mass the mass of the body
+     */
+    public void depositMass(float x, float y, float z, float mass) {
+        float ux = (x - min[0]) / cellSide[0], uy = (y - min[1]) / cellSide[1], uz = (z - min[2]) / cellSide[2];
+        int ix = (int) Math.floor(ux), iy = (int) Math.floor(uy), iz = (int) Math.floor(uz);
+        float fx = ux - ix, fy = uy - iy, fz = uz - iz;
+        for (int corner = 0; corner < 8; corner++) {
+            int dx = corner & 1, dy = (corner >> 1) & 1, dz = (corner >> 2) & 1;
+            double weight = mass * (dx == 0 ? 1 - fx : fx) * (dy == 0 ? 1 - fy : fy) * (dz == 0 ? 1 - fz : fz);
+            int cell = cellIndex(ix + dx, iy + dy, iz + dz);
+            double old;
+            do {
+                old = (double) DOUBLE_ARRAY.getVolatile(re, cell);
+            } while (!DOUBLE_ARRAY.compareAndSet(re, cell, old, old + weight));
+        }
+    }
+
+    /**
+     * Sets the mass of every grid point at once, as deposited by the GPU.
+     * @param masses the mass of each grid point, in the layout of SSBO_PM_DENSITY
+     */
+    public void setMasses(float[] masses) {
+        if (masses.length < numCells) {
+            throw new IllegalArgumentException("Expected " + numCells + " grid masses, got " + masses.length);
+        }
+        for (int cell = 0; cell < numCells; cell++) {
+            re[cell] = masses[cell];
+        }
+    }
+
+    /**
+     * Solves for the long range force at every grid point from the deposited masses.
+     */
+    public void solve() {
+        final int n = gridSize;
+        final double cellVolume = (double) cellSide[0] * cellSide[1] * cellSide[2];
+        Arrays.fill(im, 0.0);
+        fft3D(re, im, false);
+
+        // Multiply by the Green's function of the long range potential, for the mass per volume of the cells, giving phi
+        final double rs2 = (double) splitRadius * splitRadius;
+        final double fourPiG = 4 * Math.PI * gravitationalConstant / cellVolume;
+        parallelFor(n * n, (start, end) -> {
+            for (int line = start; line < end; line++) {
+                int ix = line / n, iy = line % n;
+                double kx = waveNumber(ix, 0), ky = waveNumber(iy, 1);
+                double wxy = cicWindow(kx, 0) * cicWindow(ky, 1);
+                for (int iz = 0; iz < n; iz++) {
+                    double kz = waveNumber(iz, 2);
+                    double k2 = kx * kx + ky * ky + kz * kz;
+                    int cell = line * n + iz;
+                    double window = wxy * cicWindow(kz, 2);
+                    double green = k2 == 0 ? 0 : -fourPiG * Math.exp(-k2 * rs2) / (k2 * window * window);
+                    re[cell] *= green;
+                    im[cell] *= green;
+                }
+            }
+        });
+
+        // a = -grad(phi), so each component is -i k phi, with the Nyquist wave number, which has no sign, left out.
+        // Each component is the transform of a real grid, so x and y are transformed back at once as x + i y,
+        // giving x in the real parts and y in the imaginary parts. z is transformed back on its own.
+        parallelFor(n * n, (start, end) -> {
+            for (int line = start; line < end; line++) {
+                int ix = line / n, iy = line % n;
+                double kx = ix == n / 2 ? 0 : waveNumber(ix, 0);
+                double ky = iy == n / 2 ? 0 : waveNumber(iy, 1);
+                for (int iz = 0; iz < n; iz++) {
+                    int cell = line * n + iz;
+                    forceRe[cell] = kx * im[cell] + ky * re[cell];
+                    forceIm[cell] = -kx * re[cell] + ky * im[cell];
+                }
+            }
+        });
+        fft3D(forceRe, forceIm, true);
+        parallelFor(numCells, (start, end) -> {
+            for (int cell = start; cell < end; cell++) {
+                forces[cell * 4] = (float) forceRe[cell];
+                forces[cell * 4 + 1] = (float) forceIm[cell];
+            }
+        });
+        parallelFor(n * n, (start, end) -> {
+            for (int line = start; line < end; line++) {
+                for (int iz = 0; iz < n; iz++) {
+                    int cell = line * n + iz;
+                    double kz = iz == n / 2 ? 0 : waveNumber(iz, 2);
+                    forceRe[cell] = kz * im[cell];
+                    forceIm[cell] = -kz * re[cell];
+                }
+            }
+        });
+        fft3D(forceRe, forceIm, true);
+        parallelFor(numCells, (start, end) -> {
+            for (int cell = start; cell < end; cell++) {
+                forces[cell * 4 + 2] = (float) forceRe[cell];
+            }
+        });
+    }
+
+    /**
+     * Adds the long range acceleration at a position, interpolated from the grid with cloud in cell weights.
+     * @param x the x position
+     * @param y the y position
+     * @param z the z position
+     * @param accel the acceleration to add to
+     */
+    public void addAcceleration(float x, float y, float z, float[] accel) {
+        float ux = (x - min[0]) / cellSide[0], uy = (y - min[1]) / cellSide[1], uz = (z - min[2]) / cellSide[2];
+        int ix = (int) Math.floor(ux), iy = (int) Math.floor(uy), iz = (int) Math.floor(uz);
+        float fx = ux - ix, fy = uy - iy, fz = uz - iz;
+        for (int corner = 0; corner < 8; corner++) {
+            int dx = corner & 1, dy = (corner >> 1) & 1, dz = (corner >> 2) & 1;
+            float weight = (dx == 0 ? 1 - fx : fx) * (dy == 0 ? 1 - fy : fy) * (dz == 0 ? 1 - fz : fz);
+            int base = cellIndex(ix + dx, iy + dy, iz + dz) * 4;
+            accel[0] += weight * forces[base];
+            accel[1] += weight * forces[base + 1];
+            accel[2] += weight * forces[base + 2];
+        }
+    }
+
+    /**
+     * Gets the factor of the Newtonian force that is short range, which the tree adds. It falls from 1 at r = 0 to about 0.016 at the cutoff.
+     * @param r the distance between the bodies
+     * @param splitRadius the split radius
+     * @return erfc(r / 2rs) + r / (rs sqrt(pi)) * exp(-r^2 / 4rs^2)
+     */
+    public static float shortRangeFactor(float r, float splitRadius) {
+        float u = r / (2 * splitRadius);
+        float gaussian = (float) Math.exp(-u * u);
+        return erfc(u, gaussian) + 2 * u * (float) ONE_OVER_SQRT_PI * gaussian;
+    }
+
+    /**
+     * Gets the complementary error function of a non negative value, to within 1.5e-7 (Abramowitz and Stegun 7.1.26).
+     * Analogous to erfcApprox in common.glsl.
+     * @param x the value, not negative
+     * @param gaussian exp(-x^2)
+     * @return erfc(x)
+     */
+    private static float erfc(float x, float gaussian) {
+        float t = 1f / (1f + 0.3275911f * x);
+        return t * (0.254829592f + t * (-0.284496736f + t * (1.421413741f + t * (-1.453152027f + t * 1.061405429f)))) * gaussian;
+    }
+
+    /**
+     * Gets the nearest periodic image of a separation along one side of the box.
+     * @param d the separation
+     * @param side the side of the box
+     * @return the separation shifted by a multiple of the side into [-side / 2, side / 2]
+     */
+    public static float nearestImage(float d, float side) {
+        return d - side * (float) Math.rint(d / side);
+    }
+
+    /**
+     * Transforms the grid in place along each of its three axes with radix 2 FFTs, the lines of each axis in parallel.
+     * @param re the real parts
+     * @param im the imaginary parts
+     * @param inverse whether to do the inverse transform, which also divides by the number of cells
+     */
+    private void fft3D(double[] re, double[] im, boolean inverse) {
+        final int n = gridSize;
+        for (int axis = 0; axis < 3; axis++) {
+            final int stride = axis == 0 ? n * n : axis == 1 ? n : 1;
+            parallelFor(n * n, (start, end) -> {
+                double[] lineRe = new double[n];
+                double[] lineIm = new double[n];
+                for (int line = start; line < end; line++) {
+                    // The first cell of the line, from the other two indices
+                    int a = line / n, b = line % n;
+                    int first = stride == n * n ? a * n + b : stride == n ? a * n * n + b : (a * n + b) * n;
+                    for (int i = 0; i < n; i++) {
+                        lineRe[i] = re[first + i * stride];
+                        lineIm[i] = im[first + i * stride];
+                    }
+                    fft(lineRe, lineIm, inverse);
+                    for (int i = 0; i < n; i++) {
+                        re[first + i * stride] = lineRe[i];
+                        im[first + i * stride] = lineIm[i];
+                    }
+                }
+            });
+        }
+        if (inverse) {
+            final double scale = 1.0 / numCells;
+            parallelFor(numCells, (start, end) -> {
+                for (int cell = start; cell < end; cell++) {
+                    re[cell] *= scale;
+                    im[cell] *= scale;
+                }
+            });
+        }
+    }
+
+    /**
+     * Transforms one line in place with an iterative radix 2 Cooley-Tukey FFT, without dividing the inverse by its length.
+     * @param re the real parts, a power of 2 long
+     * @param im the imaginary parts
+     * @param inverse whether to use e^(+i) instead of e^(-i)
+     */
+    private static void fft(double[] re, double[] im, boolean inverse) {
+        int n = re.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+        for (int length = 2; length <= n; length <<= 1) {
+            double angle = (inverse ? 2 : -2) * Math.PI / length;
+            double wRe = Math.cos(angle), wIm = Math.sin(angle);
+            for (int start = 0; start < n; start += length) {
+                double uRe = 1, uIm = 0;
+                for (int k = 0; k < length / 2; k++) {
+                    int even = start + k, odd = even + length / 2;
+                    double tRe = re[odd] * uRe - im[odd] * uIm;
+                    double tIm = re[odd] * uIm + im[odd] * uRe;
+                    re[odd] = re[even] - tRe;
+                    im[odd] = im[even] - tIm;
+                    re[even] += tRe;
+                    im[even] += tIm;
+                    double nextRe = uRe * wRe - uIm * wIm;
+                    uIm = uRe * wIm + uIm * wRe;
+                    uRe = nextRe;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the wave number of a grid index along an axis, with the upper half of the indices negative.
+     * @param index the index along the axis
+     * @param axis the axis
+     * @return the wave number in radians per simulation length
+     */
+    private double waveNumber(int index, int axis) {
+        int signed = index < gridSize / 2 ? index : index - gridSize;
+        return 2 * Math.PI * signed / side[axis];
+    }
+
+    /**
+     * Gets the cloud in cell window along an axis, sinc^2 of half a cell times the wave number.
+     * @param k the wave number
+     * @param axis the axis
+     * @return the window, 1 at k = 0
+     */
+    private double cicWindow(double k, int axis) {
+        double x = 0.5 * k * cellSide[axis];
+        double sinc = x == 0 ? 1 : Math.sin(x) / x;
+        return sinc * sinc;
+    }
+
+    /**
+     * Gets the index of a grid point, wrapping each index around the box.
+     * @param ix the x index
+     * @param iy the y index
+     * @param iz the z index
+     * @return the index of the grid point
+     */
+    private int cellIndex(int ix, int iy, int iz) {
+        int mask = gridSize - 1;
+        return ((ix & mask) * gridSize + (iy & mask)) * gridSize + (iz & mask);
+    }
+
+    /**
+     * Runs a function over [0, n) on the pool.
+     * @param n the number of indices
+     * @param function the function to run
+     */
+    private void parallelFor(int n, CPUBarnesHut.RangeFunction function) {
+        pool.invoke(new CPUBarnesHut.RangeTask(function, 0, n, Math.max(LINE_GRAIN, n / (4 * pool.getParallelism()))));
+    }
+
+    /* --------- Getters --------- */
+
+    /**
+     * Gets the force per unit mass at each grid point, to upload to SSBO_PM_FORCE.
+     * @return the forces as (x, y, z, 0) per grid point
+     */
+    public float[] getForces() {
+        return forces;
+    }
+
+    /**
+     * Gets the number of grid points along each side of the box.
+     * @return the grid size
+     */
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    /**
+     * Gets the split radius of the force.
+     * @return the split radius in simulation lengths
+     */
+    public float getSplitRadius() {
+        return splitRadius;
+    }
+
+    /**
+     * Gets the distance beyond which the tree skips the short range force.
+     * @return CUTOFF split radii
+     */
+    public float getCutoffRadius() {
+        return CUTOFF * splitRadius;
+    }
+
+    /**
+     * Gets the sides of the periodic box.
+     * @return a copy of the sides (x, y, z)
+     */
+    public float[] getSides() {
+        return side.clone();
+    }
+}
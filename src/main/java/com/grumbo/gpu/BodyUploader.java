@@ -0,0 +1,259 @@
+package com.grumbo.gpu;
+
+import static org.lwjgl.opengl.GL44C.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.IntStream;
+
+import com.grumbo.simulation.BodyStore;
+import com.grumbo.simulation.PlanetGenerator;
+
+/**
+ * BodyUploader class for uploading the bodies of a planet generator to an SSBO as a pipeline.
+ * A producer thread generates each chunk and packs it into a slot of a persistently mapped staging buffer,
+ * while the GL thread copies filled slots into the SSBO on the GPU. A fence is placed after each copy
+ * so a slot is only handed back to the producer once the GPU has finished reading it.
+ * Generating the next chunk so overlaps with the copy of the previous one, instead of running in sequence.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class BodyUploader {
+
+    // The number of staging slots. More slots let the producer run further ahead of the GPU.
+    private static final int NUM_STAGING_SLOTS = 3;
+    // The number of bodies packed by one parallel task.
+    private static final int PACK_TASK_SIZE = 16_384;
+    private static final long FENCE_TIMEOUT_NANOS = 1_000_000_000L;
+    private static final int DISPLAY_PROGRESS = 5;
+
+    /**
+     * A slot of the staging buffer, passed between the producer and the GL thread.
+     */
+    private static final class Slot {
+        private final int index;
+        private final ByteBuffer buffer;
+        private int count;
+        private long dstOffset;
+        private long fence;
+
+        private Slot(int index, ByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+
+    // Put on the ready queue by the producer once it is done, whether it finished or failed.
+    private static final Slot END = new Slot(-1, null);
+
+    private final PlanetGenerator planetGenerator;
+    private final SSBO bodiesSSBO;
+    private final long slotBytes;
+    private final BlockingQueue<Slot> freeSlots;
+    private final BlockingQueue<Slot> readySlots;
+    private final ArrayDeque<Slot> inFlightSlots;
+    private volatile Throwable producerError;
+    private int stagingBuffer;
+
+    /**
+     * Constructor for the BodyUploader class.
+     * @param planetGenerator the planet generator to upload
+     * @param bodiesSSBO the SSBO to upload to. Assumes it is already correctly sized.
+     */
+    public BodyUploader(PlanetGenerator planetGenerator, SSBO bodiesSSBO) {
+        this.planetGenerator = planetGenerator;
+        this.bodiesSSBO = bodiesSSBO;
+        this.slotBytes = (long) Math.max(1, Math.min(planetGenerator.getChunkSize(), planetGenerator.getNumPlanets())) * Body.STRUCT_SIZE * Float.BYTES;
+        this.freeSlots = new ArrayBlockingQueue<>(NUM_STAGING_SLOTS);
+        this.readySlots = new ArrayBlockingQueue<>(NUM_STAGING_SLOTS + 1);
+        this.inFlightSlots = new ArrayDeque<>();
+    }
+
+    /**
+     * Uploads all the bodies of the planet generator. Must be called on the GL thread.
+     * Returns once every copy into the SSBO has completed on the GPU.
+     */
+    public void upload() {
+        ByteBuffer mapped = createStagingBuffer();
+        for (int i = 0; i < NUM_STAGING_SLOTS; i++) {
+            ByteBuffer slot = mapped.duplicate();
+            slot.position((int) (i * slotBytes)).limit((int) ((i + 1) * slotBytes));
+            freeSlots.add(new Slot(i, slot.slice().order(ByteOrder.nativeOrder())));
+        }
+
+        Thread producer = new Thread(this::produce, "BodyUploader");
+        producer.setDaemon(true);
+        producer.start();
+
+        glBindBuffer(GL_COPY_READ_BUFFER, stagingBuffer);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, bodiesSSBO.getBufferLocation());
+        System.out.print("Uploading planet data:");
+        int lastDisplayed = -1;
+        long uploaded = 0;
+        try {
+            while (true) {
+                Slot slot = readySlots.poll();
+                if (slot == null) {
+                    // The producer may be waiting for a slot, so free the oldest one before waiting on it.
+                    if (!inFlightSlots.isEmpty()) {
+                        recycle(inFlightSlots.poll());
+                        continue;
+                    }
+                    slot = readySlots.take();
+                }
+                if (slot == END) {
+                    break;
+                }
+                glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, slot.index * slotBytes, slot.dstOffset,
+                    (long) slot.count * Body.STRUCT_SIZE * Float.BYTES);
+                slot.fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+                inFlightSlots.add(slot);
+
+                uploaded += slot.count;
+                int percentUploaded = (int) (uploaded * 100 / planetGenerator.getNumPlanets());
+                percentUploaded -= percentUploaded % DISPLAY_PROGRESS;
+                if (percentUploaded != lastDisplayed && percentUploaded < 100) {
+                    lastDisplayed = percentUploaded;
+                    System.out.print(" " + percentUploaded + "%");
+                }
+            }
+            while (!inFlightSlots.isEmpty()) {
+                recycle(inFlightSlots.poll());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while uploading " + bodiesSSBO.getName(), e);
+        } finally {
+            // The producer may still be packing into a mapped slot, so it must be stopped before the staging buffer is unmapped
+            producer.interrupt();
+            joinProducer(producer);
+            for (Slot slot : inFlightSlots) {
+                glDeleteSync(slot.fence);
+            }
+            inFlightSlots.clear();
+            glBindBuffer(GL_COPY_READ_BUFFER, 0);
+            glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+            deleteStagingBuffer();
+        }
+        if (producerError != null) {
+            throw new RuntimeException("Failed to generate bodies for " + bodiesSSBO.getName(), producerError);
+        }
+        System.out.println(" 100%");
+    }
+
+    /**
+     * Waits for the producer thread to finish, even if the GL thread is interrupted while waiting.
+     * @param producer the producer thread
+     */
+    private static void joinProducer(Thread producer) {
+        boolean interrupted = false;
+        while (producer.isAlive()) {
+            try {
+                producer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs on the producer thread. Generates each chunk into a body store and packs it into a free slot.
+     */
+    private void produce() {
+        try {
+            BodyStore chunk = new BodyStore((int) (slotBytes / (Body.STRUCT_SIZE * Float.BYTES)));
+            long dstOffset = 0;
+            while (planetGenerator.hasNext()) {
+                int count = planetGenerator.nextChunk(chunk, 0);
+                Slot slot = freeSlots.take();
+                pack(chunk, count, slot.buffer);
+                slot.count = count;
+                slot.dstOffset = dstOffset;
+                dstOffset += (long) count * Body.STRUCT_SIZE * Float.BYTES;
+                readySlots.put(slot);
+            }
+        } catch (InterruptedException e) {
+            // The GL thread stopped the upload.
+        } catch (Throwable t) {
+            producerError = t;
+        } finally {
+            // There is always room for END since the ready queue holds one more than the number of slots.
+            readySlots.offer(END);
+        }
+    }
+
+    /**
+     * Packs a chunk into the layout of the Body struct, splitting it into ranges that are packed in parallel.
+     * @param chunk the chunk to pack
+     * @param count the number of bodies in the chunk
+     * @param dst the slot to pack into
+     */
+    private static void pack(BodyStore chunk, int count, ByteBuffer dst) {
+        int numTasks = (count + PACK_TASK_SIZE - 1) / PACK_TASK_SIZE;
+        IntStream.range(0, numTasks).parallel().forEach(task -> {
+            int start = task * PACK_TASK_SIZE;
+            ByteBuffer range = dst.duplicate();
+            range.position(start * Body.STRUCT_SIZE * Float.BYTES);
+            chunk.writeBodies(start, Math.min(PACK_TASK_SIZE, count - start), range);
+        });
+    }
+
+    /**
+     * Waits for the copy out of a slot to finish on the GPU, then hands the slot back to the producer.
+     * @param slot the slot to recycle
+     */
+    private void recycle(Slot slot) {
+        int status;
+        do {
+            status = glClientWaitSync(slot.fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NANOS);
+        } while (status == GL_TIMEOUT_EXPIRED);
+        glDeleteSync(slot.fence);
+        if (status == GL_WAIT_FAILED) {
+            throw new RuntimeException("Failed to wait for upload fence of " + bodiesSSBO.getName());
+        }
+        freeSlots.add(slot);
+    }
+
+    /**
+     * Creates the persistently mapped staging buffer that holds every slot.
+     * @return the mapped staging buffer
+     */
+    private ByteBuffer createStagingBuffer() {
+        long size = slotBytes * NUM_STAGING_SLOTS;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Staging buffer too large: " + size + " bytes. Lower the chunk size of the planet generator.");
+        }
+        int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+        stagingBuffer = glGenBuffers();
+        glBindBuffer(GL_COPY_READ_BUFFER, stagingBuffer);
+        glBufferStorage(GL_COPY_READ_BUFFER, size, flags);
+        ByteBuffer mapped = glMapBufferRange(GL_COPY_READ_BUFFER, 0, size, flags);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        if (mapped == null) {
+            deleteStagingBuffer();
+            throw new RuntimeException("Failed to map staging buffer for " + bodiesSSBO.getName());
+        }
+        return mapped;
+    }
+
+    /**
+     * Unmaps and deletes the staging buffer.
+     */
+    private void deleteStagingBuffer() {
+        if (stagingBuffer == 0) {
+            return;
+        }
+        glBindBuffer(GL_COPY_READ_BUFFER, stagingBuffer);
+        glUnmapBuffer(GL_COPY_READ_BUFFER);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glDeleteBuffers(stagingBuffer);
+        stagingBuffer = 0;
+    }
+}
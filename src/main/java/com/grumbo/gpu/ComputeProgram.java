@@ -12,6 +12,11 @@ import static org.lwjgl.opengl.GL43C.*;
  */
 public class ComputeProgram extends GLSLProgram {
     private xWorkGroupsFunction xWorkGroupsFunction;
+    private String profileStage;
+    // If set, the work groups are read on the GPU from this buffer instead of given by xWorkGroupsFunction
+    private SSBO indirectBuffer;
+    private indirectOffsetFunction indirectOffsetFunction;
+    private int memoryBarrierBits;
 
 
     /**
@@ -21,6 +26,13 @@ public class ComputeProgram extends GLSLProgram {
         int getXWorkGroups();
     }
 
+    /**
+     * indirectOffsetFunction is a function that returns the byte offset of the DispatchIndirectCommand to dispatch with.
+     */
+    public interface indirectOffsetFunction {
+        long getIndirectOffset();
+    }
+
     /**
      * Constructor for the ComputeShader class.
      * @param program the int id of the program given by glCreateProgram()
@@ -32,6 +44,8 @@ public class ComputeProgram extends GLSLProgram {
     public ComputeProgram(String kernelName, int program, Uniform<?>[] uniforms, SSBO[] ssbos, xWorkGroupsFunction xWorkGroupsFunction) {
         super(kernelName, program, null, uniforms, ssbos);
         this.xWorkGroupsFunction = xWorkGroupsFunction;
+        this.profileStage = kernelName;
+        this.memoryBarrierBits = GL_SHADER_STORAGE_BARRIER_BIT;
         this.addShader(new ComputeShader(kernelName));
     }
 
@@ -46,11 +60,26 @@ public class ComputeProgram extends GLSLProgram {
 
     /**
      * Runs the compute program, adds a memory barrier, and uses glUseProgram(0).
+     * If an indirect buffer is set, the work groups are read from it on the GPU with glDispatchComputeIndirect.
+     * If GPU.PROFILER is enabled, the dispatch is timed under the profile stage of the program.
      */
     @Override
     public void runProgram() {
-        glDispatchCompute(xWorkGroupsFunction.getXWorkGroups(), 1, 1);
-        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+        boolean profile = GPU.PROFILER != null && GPU.PROFILER.isEnabled();
+        if (profile) {
+            GPU.PROFILER.begin(profileStage);
+        }
+        if (indirectBuffer != null) {
+            glBindBuffer(GL_DISPATCH_INDIRECT_BUFFER, indirectBuffer.getBufferLocation());
+            glDispatchComputeIndirect(indirectOffsetFunction.getIndirectOffset());
+            glBindBuffer(GL_DISPATCH_INDIRECT_BUFFER, 0);
+        } else {
+            glDispatchCompute(xWorkGroupsFunction.getXWorkGroups(), 1, 1);
+        }
+        if (profile) {
+            GPU.PROFILER.end();
+        }
+        glMemoryBarrier(memoryBarrierBits);
         glUseProgram(0);
     }
 
@@ -62,4 +91,33 @@ public class ComputeProgram extends GLSLProgram {
         this.xWorkGroupsFunction = xWorkGroupsFunction;
     }
 
+    /**
+     * Dispatches this program with glDispatchComputeIndirect, reading the work groups from a buffer of DispatchIndirectCommands.
+     * The xWorkGroupsFunction is no longer used.
+     * @param indirectBuffer the buffer holding the commands
+     * @param indirectOffsetFunction the function that returns the byte offset of the command to dispatch with
+     */
+    public void setIndirectDispatch(SSBO indirectBuffer, indirectOffsetFunction indirectOffsetFunction) {
+        this.indirectBuffer = indirectBuffer;
+        this.indirectOffsetFunction = indirectOffsetFunction;
+    }
+
+    /**
+     * Sets the bits of the memory barrier added after each dispatch. Defaults to GL_SHADER_STORAGE_BARRIER_BIT.
+     * Programs writing commands for a later indirect dispatch also need GL_COMMAND_BARRIER_BIT.
+     * @param memoryBarrierBits the bits to pass to glMemoryBarrier
+     */
+    public void setMemoryBarrierBits(int memoryBarrierBits) {
+        this.memoryBarrierBits = memoryBarrierBits;
+    }
+
+    /**
+     * Sets the stage the dispatches of this program are counted under by GPU.PROFILER.
+     * Programs sharing a stage are summed together. Defaults to the kernel name.
+     * @param profileStage the name of the stage
+     */
+    public void setProfileStage(String profileStage) {
+        this.profileStage = profileStage;
+    }
+
 }
\ No newline at end of file
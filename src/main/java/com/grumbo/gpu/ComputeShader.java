@@ -24,6 +24,7 @@ public class ComputeShader extends GLSLShader {
     @Override
     public String getSource(String programName) {
         String source = insertDefineAfterVersion(getComputeShaderSource(), programName);
+        source = insertDefineAfterVersion(source, "RADIX_BITS_VALUE " + GPU.RADIX_BITS + "u");
         source = source.replaceAll("(?s)//For render shaders:.*?//End for render shaders", "//Removed render shader code here");
         return source;
     }
@@ -2,10 +2,15 @@ package com.grumbo.gpu;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.lwjgl.opengl.GL43C.*;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
 import org.lwjgl.BufferUtils;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
@@ -14,7 +19,7 @@ import org.joml.Vector2i;
 import com.grumbo.simulation.Render;
 import com.grumbo.simulation.GPUSimulation;
 import com.grumbo.simulation.PlanetGenerator;
-import com.grumbo.simulation.Planet;
+import com.grumbo.simulation.Checkpoint;
 import com.grumbo.simulation.Settings;
 import com.grumbo.simulation.BarnesHut;
 import com.grumbo.simulation.UnitSet;
@@ -32,17 +37,46 @@ public class GPU {
     // Simulation params
     //To change these, you need to also change their definitions in the compute shader
     public static final int WORK_GROUP_SIZE = 256;
-    public static final int RADIX_BITS = 4;
-    public static final int NUM_RADIX_BUCKETS = (int)Math.pow(2, RADIX_BITS); // 16 when RADIX_BITS=4
+    public static final int MORTON_BITS = 63;
     public static final int MAX_RENDER_INSTANCES = 5_000_000;
 
+    // The radix sort width is read from the radixBits setting in initGPU, and passed to the compute shader by ComputeShader.
+    // Every width must have at most WORK_GROUP_SIZE buckets.
+    public static final int DEFAULT_RADIX_BITS = 4;
+    public static final int[] SUPPORTED_RADIX_BITS = {4, 6, 8};
+    public static int RADIX_BITS = DEFAULT_RADIX_BITS;
+    public static int NUM_RADIX_BUCKETS = 1 << RADIX_BITS; // 16 when RADIX_BITS=4
+    // The radix sort engine is read from the radixSortEngine setting in initGPU.
+    // If true, the sort uses one histogram up front and one decoupled lookback scatter per pass (bh_onesweep.comp)
+    public static boolean ONESWEEP_SORT = false;
+    // Grid size the particle mesh SSBOs were made for, 0 without a periodic box at init (pmGridSize is applied on restart)
+    public static int PM_GRID_SIZE = 0;
 
     // These can be freely changed here
+    // If true, the kernels after the dead partition are dispatched with the live body count read on the GPU
+    public static final boolean INDIRECT_DISPATCH = true;
+    // This must also match PROPAGATE_NODES_ITERATIONS in common.glsl
     public static final int PROPAGATE_NODES_ITERATIONS = 64;
+
+    // Byte offsets of the DispatchIndirectCommands in the DispatchIndirect SSBO
+    public static final int DISPATCH_COMMAND_BYTES = 3 * Integer.BYTES;
+    public static final long BODIES_DISPATCH_OFFSET = 0;
+    public static final long INTERNAL_NODES_DISPATCH_OFFSET = DISPATCH_COMMAND_BYTES;
+    public static final long PROPAGATE_DISPATCH_OFFSET = 2 * DISPATCH_COMMAND_BYTES;
+    public static final long SORT_DISPATCH_OFFSET = (2 + PROPAGATE_NODES_ITERATIONS) * DISPATCH_COMMAND_BYTES;
+    public static final long COHERENT_DISPATCH_OFFSET = SORT_DISPATCH_OFFSET + DISPATCH_COMMAND_BYTES;
+    public static final long OUTLIER_DISPATCH_OFFSET = COHERENT_DISPATCH_OFFSET + DISPATCH_COMMAND_BYTES;
+    public static final long ACTIVE_DISPATCH_OFFSET = OUTLIER_DISPATCH_OFFSET + DISPATCH_COMMAND_BYTES;
+    // Most of the bodies the coherent sort can hold as outliers, as a fraction of every body.
+    // The outliers are sorted in O(M log^2 M), so this only bounds the memory of the outlier buffer.
+    // The coherentSortThreshold setting can only lower this, since the outlier buffer is sized by it.
+    public static final float COHERENT_MAX_OUTLIER_FRACTION = 0.125f;
     public static Map<String, Uniform<?>> UNIFORMS;
     public static Map<String, SSBO> SSBOS;
     public static Map<String, ComputeProgram> COMPUTE_PROGRAMS;
     public static Map<String, RenderProgram> RENDER_PROGRAMS;
+    public static GPUProfiler PROFILER;
+    public static SimulationParameters SIMULATION_PARAMETERS;
     //public static Map<String, VertexShader> VERTEX_SHADERS;
     //public static Map<String, FragmentShader> FRAGMENT_SHADERS;
 
@@ -66,6 +100,19 @@ public class GPU {
     // layout(std430, binding = 13) buffer RadixBucketTotals  { uint bucketTotals[NUM_BUCKETS]; uint globalBase[NUM_BUCKETS];};
     // layout(std430, binding = 14) buffer MergeTasks         { uint mergeTasksHead; uint mergeTasksTail; uvec2 mergeTasks[];};
     // layout(std430, binding = 15) buffer MergeBodyLocks     { uint bodyLocks[]; };
+    // layout(std430, binding = 16) buffer DispatchIndirect   { DispatchCommand bodiesDispatch; DispatchCommand internalNodesDispatch; DispatchCommand propagateDispatch[PROPAGATE_NODES_ITERATIONS];
+    //                                                          DispatchCommand sortDispatch; DispatchCommand coherentDispatch; DispatchCommand outlierDispatch; };
+    // layout(std430, binding = 17) buffer RadixOnesweepGlobal { uint onesweepTileCounter[RADIX_PASSES]; uint onesweepHist[RADIX_PASSES * NUM_BUCKETS]; uint onesweepBase[RADIX_PASSES * NUM_BUCKETS]; };
+    // layout(std430, binding = 18) coherent buffer RadixPartitionStatus { uint partitionStatus[]; };
+    // layout(std430, binding = 19) buffer CoherentScan       { uint coherentOutliers; uint coherentFailures; uint coherentSorts; uint coherentFallbacks; uint outlierScan[]; };
+    // layout(std430, binding = 20) buffer CoherentOutliers   { Outlier outliers[]; };
+    // layout(std430, binding = 21) buffer BodyIds            { uint bodyIds[]; };
+    // layout(std430, binding = 22) buffer BodySlots          { uint bodySlots[]; };
+    // layout(std430, binding = 23) buffer BodyStats          { BodyStat bodyStats[]; };
+    // layout(std430, binding = 24) buffer BodyAccelerations  { vec4 accelerations[]; };
+    // layout(std430, binding = 25) buffer ActiveBodies       { uint numActive; uint activeList[]; };
+    // layout(std430, binding = 26) buffer PMDensity          { uint pmDensity[]; };
+    // layout(std430, binding = 27) buffer PMForce            { vec4 pmForce[]; };
 
     public static SSBO SSBO_LEAF_NODES;
     public static SSBO SSBO_INTERNAL_NODES;
@@ -81,8 +128,20 @@ public class GPU {
     public static SSBO SSBO_RADIX_WG_HIST;
     public static SSBO SSBO_RADIX_WG_SCANNED;
     public static SSBO SSBO_RADIX_BUCKET_TOTALS;
+    public static SSBO SSBO_ONESWEEP_GLOBAL;
+    public static SSBO SSBO_ONESWEEP_STATUS;
+    public static SSBO SSBO_COHERENT_SCAN;
+    public static SSBO SSBO_COHERENT_OUTLIERS;
     public static SSBO SSBO_MERGE_QUEUE;
     public static SSBO SSBO_MERGE_BODY_LOCKS;
+    public static SSBO SSBO_DISPATCH_INDIRECT;
+    public static SSBO SSBO_BODY_IDS;
+    public static SSBO SSBO_BODY_SLOTS;
+    public static SSBO SSBO_BODY_STATS;
+    public static SSBO SSBO_BODY_ACCELERATIONS;
+    public static SSBO SSBO_ACTIVE_BODIES;
+    public static SSBO SSBO_PM_DENSITY;
+    public static SSBO SSBO_PM_FORCE;
 
     public static SSBO SSBO_SWAPPING_BODIES_IN;
     public static SSBO SSBO_SWAPPING_BODIES_OUT;
@@ -106,30 +165,38 @@ public class GPU {
     public static ComputeProgram COMPUTE_RADIX_BUCKET_SCAN; // bh_radix.comp
     public static ComputeProgram COMPUTE_RADIX_GLOBAL_SCAN; // bh_radix.comp
     public static ComputeProgram COMPUTE_RADIX_SCATTER; // bh_radix.comp
+    public static ComputeProgram COMPUTE_ONESWEEP_HISTOGRAM; // bh_onesweep.comp
+    public static ComputeProgram COMPUTE_ONESWEEP_SCAN; // bh_onesweep.comp
+    public static ComputeProgram COMPUTE_ONESWEEP_SCATTER; // bh_onesweep.comp
+    public static ComputeProgram COMPUTE_COHERENT_MARK; // bh_coherent.comp
+    public static ComputeProgram COMPUTE_COHERENT_DECIDE; // bh_coherent.comp
+    public static ComputeProgram COMPUTE_COHERENT_COMPACT; // bh_coherent.comp
+    public static ComputeProgram COMPUTE_COHERENT_SORT_TILES; // bh_coherent.comp
+    public static ComputeProgram COMPUTE_COHERENT_MERGE_RUNS; // bh_coherent.comp
+    public static ComputeProgram COMPUTE_COHERENT_MERGE; // bh_coherent.comp
+    public static ComputeProgram COMPUTE_COHERENT_COPY; // bh_coherent.comp
+    public static ComputeProgram COMPUTE_REORDER_GATHER; // bh_reorder.comp
+    public static ComputeProgram COMPUTE_REORDER_SCATTER; // bh_reorder.comp
     public static ComputeProgram COMPUTE_TREE_BUILD; // bh_tree.comp
     public static ComputeProgram COMPUTE_TREE_INIT_LEAVES; // bh_reduce.comp
     public static ComputeProgram COMPUTE_TREE_PROPAGATE_NODES; // bh_reduce.comp
+    public static ComputeProgram COMPUTE_TREE_CLIMB; // bh_tree.comp
     public static ComputeProgram COMPUTE_FORCE_COMPUTE; // bh_force.comp
+    public static ComputeProgram COMPUTE_FORCE_GROUP; // bh_force.comp
+    public static ComputeProgram COMPUTE_LEAPFROG_DRIFT; // bh_force.comp
+    public static ComputeProgram COMPUTE_ACTIVE_COUNT; // bh_force.comp
+    public static ComputeProgram COMPUTE_ACTIVE_SCAN; // bh_force.comp
+    public static ComputeProgram COMPUTE_ACTIVE_SCATTER; // bh_force.comp
+    public static ComputeProgram COMPUTE_PM_DEPOSIT; // bh_pm.comp
     public static ComputeProgram COMPUTE_MERGE_BODIES; // bh_merge.comp
     public static ComputeProgram COMPUTE_DEBUG; // bh_debug.comp
 
     // Compute Uniforms
     public static Uniform<Float> UNIFORM_CAMERA_SCALE;
-    public static Uniform<Integer> UNIFORM_NUM_WORK_GROUPS;
-    public static Uniform<Float> UNIFORM_SOFTENING;
-    public static Uniform<Float> UNIFORM_THETA;
-    public static Uniform<Float> UNIFORM_DT;
-    public static Uniform<Float> UNIFORM_ELASTICITY;
-    public static Uniform<Float> UNIFORM_RESTITUTION;
-    public static Uniform<Integer> UNIFORM_MERGING_COLLISION_OR_NEITHER;
     public static Uniform<Integer> UNIFORM_PASS_SHIFT;
+    public static Uniform<Integer> UNIFORM_COHERENT_MERGE_PASS;
+    public static Uniform<Integer> UNIFORM_BLOCK_SUBSTEP;
     public static Uniform<Boolean> UNIFORM_RESET_VALUES_OR_DECREMENT_DEAD_BODIES;
-    public static Uniform<Boolean> UNIFORM_WRAP_AROUND;
-    public static Uniform<Integer> UNIFORM_STATIC_OR_DYNAMIC;
-    public static Uniform<Float> UNIFORM_TIME;
-    public static Uniform<Float> UNIFORM_MASS;
-    public static Uniform<Float> UNIFORM_DENSITY;
-    public static Uniform<Float> UNIFORM_LENGTH;
 
 
 
@@ -166,7 +233,7 @@ public class GPU {
 
     
     /**
-     * Initializes the GPU data and programs for the given GPU simulation.
+     * Initializes the GPU data and programs for the given GPU simulation. The render programs are skipped for a headless simulation.
      * @param gpuSimulation the GPU simulation
      */
     public static void initGPU(GPUSimulation gpuSimulation) {
@@ -175,28 +242,98 @@ public class GPU {
         Render render = gpuSimulation.getRender();
         float[][] bounds = gpuSimulation.getBarnesHut().getBounds();
         PlanetGenerator planetGenerator = gpuSimulation.getPlanetGenerator();
+        Checkpoint checkpoint = gpuSimulation.getCheckpoint();
         GPU.initialNumBodies = gpuSimulation.initialNumBodies();
         UnitSet units = gpuSimulation.getUnitSet();
+        setRadixBits(Integer.parseInt(Settings.getInstance().getRadixBits()));
+        ONESWEEP_SORT = Settings.getInstance().getRadixSortEngine().equals("onesweep");
+        PM_GRID_SIZE = SimulationParameters.pmGridSize(Settings.getInstance());
 
         initComputeUniforms(barnesHut);
 
-        initComputeSSBOs(planetGenerator, bounds, units);
+        initComputeSSBOs(planetGenerator, checkpoint, bounds, units);
         initComputeSwappingBuffers();
         initComputePrograms(barnesHut);
+        // A headless simulation has no render, so only the compute side is set up
+        if (render == null) {
+            GPU.RENDER_PROGRAMS = new HashMap<>();
+            return;
+        }
         initRenderUniforms(render);
         initRenderPrograms(render);
     }
 
 
+    /**
+     * Sets the number of bits sorted per radix sort pass. Must be called before the SSBOs and programs are created.
+     * @param radixBits the number of bits, one of SUPPORTED_RADIX_BITS
+     */
+    public static void setRadixBits(int radixBits) {
+        boolean supported = false;
+        for (int bits : SUPPORTED_RADIX_BITS) {
+            supported |= bits == radixBits;
+        }
+        if (!supported) {
+            throw new IllegalArgumentException("Unsupported radix width: " + radixBits + " bits. Supported: " + Arrays.toString(SUPPORTED_RADIX_BITS));
+        }
+        RADIX_BITS = radixBits;
+        NUM_RADIX_BUCKETS = 1 << radixBits;
+    }
+
+    /**
+     * Get the number of radix sort passes needed to sort the Morton codes with the current radix width.
+     * @return the number of passes (16, 11 or 8 for 4, 6 or 8 bits)
+     */
+    public static int numRadixPasses() {
+        return (MORTON_BITS + RADIX_BITS - 1) / RADIX_BITS;
+    }
+
+    /**
+     * Get the profile stage of the radix sort kernels that are not run once per pass, labelled with the engine and width.
+     * @return the name of the stage
+     */
+    public static String radixProfileStage() {
+        return "radix (" + (ONESWEEP_SORT ? "onesweep, " : "") + RADIX_BITS + " bit)";
+    }
+
+    /**
+     * Get the profile stage of one pass of the radix sort, so the passes are timed apart from each other
+     * and from the histogram and scan kernels that cover every pass.
+     * @param pass the pass, from 0 to numRadixPasses() - 1
+     * @return the name of the stage
+     */
+    public static String radixPassProfileStage(int pass) {
+        return radixProfileStage() + " pass " + pass;
+    }
+
+    /**
+     * Get the most outliers the coherent sort can hold before it falls back to a full radix sort.
+     * @return the number of outliers, at least one
+     */
+    public static int maxCoherentOutliers() {
+        return Math.max(1, (int) (numBodies() * COHERENT_MAX_OUTLIER_FRACTION));
+    }
+
+    /**
+     * Get the number of merge passes the coherent sort runs after sorting the outliers in tiles of a work group,
+     * enough to merge the tiles of as many outliers as the buffer holds into one run. Must match coherentMergePasses() in bh_coherent.comp.
+     * @return the number of merge passes
+     */
+    public static int coherentMergePasses() {
+        int numTiles = (maxCoherentOutliers() + WORK_GROUP_SIZE - 1) / WORK_GROUP_SIZE;
+        return numTiles > 1 ? 32 - Integer.numberOfLeadingZeros(numTiles - 1) : 0;
+    }
+
     /**
      * Initialize the SSBOs.
      * Gives the SSBOs their correct sizes or data functions, and 
      * the general layout of the SSBOs.
-     * @param planetGenerator the planet generator
+     * @param planetGenerator the planet generator, used if there is no checkpoint
+     * @param checkpoint the checkpoint to restore, or null to upload the planet generator
      * @param bounds the bounds of the simulation
      * @param units the units of the simulation
      */
-    private static void initComputeSSBOs(PlanetGenerator planetGenerator, float[][] bounds, UnitSet units) {
+    private static void initComputeSSBOs(PlanetGenerator planetGenerator, Checkpoint checkpoint, float[][] bounds, UnitSet units) {
         // Compute sizes (use long to avoid overflow)
         long nodesSize = Node.STRUCT_SIZE * Integer.BYTES * (long) (numBodies());
         long maxBlock = glGetInteger(GL_MAX_SHADER_STORAGE_BLOCK_SIZE);
@@ -249,6 +386,9 @@ public class GPU {
 
         //This is the SSBO that holds values that are used in different shaders
         SSBO_SIMULATION_VALUES = new SSBO(SSBO.SIMULATION_VALUES_BINDING, () -> {
+            if (checkpoint != null) {
+                return packValues(numBodies(), checkpoint.merged, checkpoint.outOfBounds, bounds, units);
+            }
             return packValues(numBodies(), bounds, units);
         },"SSBO_SIMULATION_VALUES", new GLSLVariable(new GLSLVariable[] {
             new GLSLVariable(VariableType.UINT,"numBodies", 1), 
@@ -295,6 +435,46 @@ public class GPU {
             new GLSLVariable(VariableType.UINT,"GlobalBase", NUM_RADIX_BUCKETS)}));
         GPU.SSBOS.put(SSBO_RADIX_BUCKET_TOTALS.getName(), SSBO_RADIX_BUCKET_TOTALS);
 
+        if (ONESWEEP_SORT) {
+            //This is the SSBO that holds the tile counter, global histogram, and global base of every pass of the onesweep sort.
+            //It starts zeroed, and the scan kernel leaves the counters and histogram zeroed for the next sort.
+            SSBO_ONESWEEP_GLOBAL = new SSBO(SSBO.ONESWEEP_GLOBAL_BINDING, () -> {
+                return BufferUtils.createByteBuffer((numRadixPasses() + 2 * numRadixPasses() * NUM_RADIX_BUCKETS) * Integer.BYTES);
+            }, "SSBO_ONESWEEP_GLOBAL", new GLSLVariable(new GLSLVariable[] {
+                new GLSLVariable(VariableType.UINT,"TileCounter", numRadixPasses()), 
+                new GLSLVariable(VariableType.UINT,"Hist", numRadixPasses() * NUM_RADIX_BUCKETS), 
+                new GLSLVariable(VariableType.UINT,"Base", numRadixPasses() * NUM_RADIX_BUCKETS)}));
+            GPU.SSBOS.put(SSBO_ONESWEEP_GLOBAL.getName(), SSBO_ONESWEEP_GLOBAL);
+
+            //This is the SSBO that holds the decoupled lookback status of each tile and bucket, one half for even passes and one for odd.
+            SSBO_ONESWEEP_STATUS = new SSBO(SSBO.ONESWEEP_STATUS_BINDING, () -> {
+                return 2 * numGroups() * NUM_RADIX_BUCKETS * Integer.BYTES;
+            }, "SSBO_ONESWEEP_STATUS", new GLSLVariable(VariableType.UINT,"PartitionStatus", 2 * numGroups() * NUM_RADIX_BUCKETS));
+            GPU.SSBOS.put(SSBO_ONESWEEP_STATUS.getName(), SSBO_ONESWEEP_STATUS);
+        }
+
+        //The coherent sort can be toggled while running, so its SSBOs exist whenever it can run.
+        //It needs indirect dispatch to skip the kernels of whichever sort it does not use.
+        if (INDIRECT_DISPATCH) {
+            //This is the SSBO that holds the outlier counters of the coherent sort, and the number of outliers before each position.
+            //It starts zeroed, so the statistics count from the first step.
+            SSBO_COHERENT_SCAN = new SSBO(SSBO.COHERENT_SCAN_BINDING, () -> {
+                return BufferUtils.createByteBuffer((5 + numBodies()) * Integer.BYTES);
+            }, "SSBO_COHERENT_SCAN", new GLSLVariable(new GLSLVariable[] {
+                new GLSLVariable(VariableType.UINT,"CoherentOutliers", 1), 
+                new GLSLVariable(VariableType.UINT,"CoherentFailures", 1), 
+                new GLSLVariable(VariableType.UINT,"CoherentSorts", 1), 
+                new GLSLVariable(VariableType.UINT,"CoherentFallbacks", 1), 
+                new GLSLVariable(VariableType.UINT,"OutlierScan", numBodies() + 1)}));
+            GPU.SSBOS.put(SSBO_COHERENT_SCAN.getName(), SSBO_COHERENT_SCAN);
+
+            //This is the SSBO that holds the outliers of the coherent sort, the first half in position order and the second half sorted.
+            SSBO_COHERENT_OUTLIERS = new SSBO(SSBO.COHERENT_OUTLIERS_BINDING, () -> {
+                return 2 * maxCoherentOutliers() * 4 * Integer.BYTES;
+            }, "SSBO_COHERENT_OUTLIERS", new GLSLVariable(VariableType.UINT,"Outliers", 2 * maxCoherentOutliers() * 4));
+            GPU.SSBOS.put(SSBO_COHERENT_OUTLIERS.getName(), SSBO_COHERENT_OUTLIERS);
+        }
+
         //These are the fixed SSBOs that point to the morton and index buffers after the radix sort.
         //They are intialized with the correct sizes.
         SSBO_FIXED_MORTON_OUT = new SSBO(SSBO.MORTON_OUT_BINDING, () -> {
@@ -340,6 +520,70 @@ public class GPU {
         }, "SSBO_BODY_LOCKS", new GLSLVariable(VariableType.UINT,"BodyLocks", numBodies()));
         GPU.SSBOS.put(SSBO_MERGE_BODY_LOCKS.getName(), SSBO_MERGE_BODY_LOCKS);
 
+        //This is the SSBO that holds the indirect dispatch commands, rewritten by the dead partition every step.
+        //It starts sized for every body so nothing is skipped before the first partition.
+        SSBO_DISPATCH_INDIRECT = new SSBO(SSBO.DISPATCH_INDIRECT_BINDING, () -> {
+            return packDispatchCommands(numBodies());
+        }, "SSBO_DISPATCH_INDIRECT", new GLSLVariable(new GLSLVariable[] {
+            new GLSLVariable(VariableType.UINT,"BodiesDispatch", 3), 
+            new GLSLVariable(VariableType.UINT,"InternalNodesDispatch", 3), 
+            new GLSLVariable(VariableType.UINT,"PropagateDispatch", 3 * PROPAGATE_NODES_ITERATIONS), 
+            new GLSLVariable(VariableType.UINT,"SortDispatch", 3), 
+            new GLSLVariable(VariableType.UINT,"CoherentDispatch", 3), 
+            new GLSLVariable(VariableType.UINT,"OutlierDispatch", 3), 
+            new GLSLVariable(VariableType.UINT,"ActiveDispatch", 3)}));
+        GPU.SSBOS.put(SSBO_DISPATCH_INDIRECT.getName(), SSBO_DISPATCH_INDIRECT);
+
+        //This is the SSBO that holds the stable id of the body in each slot, moved with the bodies when they are reordered.
+        //It starts as the identity, so the ids are the order the bodies were generated or loaded in.
+        SSBO_BODY_IDS = new SSBO(SSBO.BODY_IDS_BINDING, () -> {
+            return packIdentity(numBodies());
+        }, "SSBO_BODY_IDS", new GLSLVariable(VariableType.UINT,"BodyIds", numBodies()));
+        GPU.SSBOS.put(SSBO_BODY_IDS.getName(), SSBO_BODY_IDS);
+
+        //This is the SSBO that holds the slot of each stable id, used to find the relativeTo body after a reorder.
+        SSBO_BODY_SLOTS = new SSBO(SSBO.BODY_SLOTS_BINDING, () -> {
+            return packIdentity(numBodies());
+        }, "SSBO_BODY_SLOTS", new GLSLVariable(VariableType.UINT,"BodySlots", numBodies()));
+        GPU.SSBOS.put(SSBO_BODY_SLOTS.getName(), SSBO_BODY_SLOTS);
+
+        //This is the SSBO that holds the last acceleration and interaction count of each stable id, written by the force pass.
+        //It starts zeroed, so the relative opening criterion uses theta until a body has an acceleration.
+        SSBO_BODY_STATS = new SSBO(SSBO.BODY_STATS_BINDING, () -> {
+            return BufferUtils.createByteBuffer(numBodies() * 2 * Integer.BYTES);
+        }, "SSBO_BODY_STATS", new GLSLVariable(new GLSLVariable[] {
+            new GLSLVariable(VariableType.FLOAT,"accelMagnitude", 1),
+            new GLSLVariable(VariableType.UINT,"interactions", 1)}, "BodyStats", numBodies()));
+        GPU.SSBOS.put(SSBO_BODY_STATS.getName(), SSBO_BODY_STATS);
+
+        //This is the SSBO that holds the last acceleration of each stable id, for the opening half kick of the leapfrog integrator.
+        //It starts zeroed, so the leapfrog starts with a force pass at the initial positions.
+        SSBO_BODY_ACCELERATIONS = new SSBO(SSBO.BODY_ACCELERATIONS_BINDING, () -> {
+            return BufferUtils.createByteBuffer(numBodies() * 4 * Float.BYTES);
+        }, "SSBO_BODY_ACCELERATIONS", new GLSLVariable(VariableType.FLOAT,"Accelerations", numBodies() * 4));
+        GPU.SSBOS.put(SSBO_BODY_ACCELERATIONS.getName(), SSBO_BODY_ACCELERATIONS);
+
+        //This is the SSBO that holds the sorted positions of the bodies whose block timestep ends this step, for the force kernels.
+        SSBO_ACTIVE_BODIES = new SSBO(SSBO.ACTIVE_BODIES_BINDING, () -> {
+            return BufferUtils.createByteBuffer((1 + numBodies()) * Integer.BYTES);
+        }, "SSBO_ACTIVE_BODIES", new GLSLVariable(new GLSLVariable[] {
+            new GLSLVariable(VariableType.UINT,"NumActive", 1),
+            new GLSLVariable(VariableType.UINT,"ActiveList", numBodies())}));
+        GPU.SSBOS.put(SSBO_ACTIVE_BODIES.getName(), SSBO_ACTIVE_BODIES);
+
+        //This is the SSBO that holds the mass deposited on each grid point of the particle mesh as float bits, cleared before each deposit.
+        //It holds one element when the mesh is off.
+        SSBO_PM_DENSITY = new SSBO(SSBO.PM_DENSITY_BINDING, () -> {
+            return BufferUtils.createByteBuffer(pmGridCells() * Integer.BYTES);
+        }, "SSBO_PM_DENSITY", new GLSLVariable(VariableType.FLOAT,"PMDensity", pmGridCells()));
+        GPU.SSBOS.put(SSBO_PM_DENSITY.getName(), SSBO_PM_DENSITY);
+
+        //This is the SSBO that holds the long range acceleration at each grid point of the particle mesh, solved on the CPU each step.
+        SSBO_PM_FORCE = new SSBO(SSBO.PM_FORCE_BINDING, () -> {
+            return BufferUtils.createByteBuffer(pmGridCells() * 4 * Float.BYTES);
+        }, "SSBO_PM_FORCE", new GLSLVariable(VariableType.FLOAT,"PMForce", pmGridCells() * 4));
+        GPU.SSBOS.put(SSBO_PM_FORCE.getName(), SSBO_PM_FORCE);
+
         GPUSimulation.checkGLError("after initComputeSSBOs");
 
         for (SSBO ssbo : GPU.SSBOS.values()) {
@@ -349,7 +593,11 @@ public class GPU {
 
         GPUSimulation.checkGLError("after createBufferData");
 
-        uploadPlanetsData(planetGenerator, SSBO_FIXED_BODIES_IN);
+        if (checkpoint != null) {
+            uploadCheckpointData(checkpoint, SSBO_FIXED_BODIES_IN);
+        } else {
+            uploadPlanetsData(planetGenerator, SSBO_FIXED_BODIES_IN);
+        }
         
 
 
@@ -409,41 +657,9 @@ public class GPU {
 
         GPU.UNIFORMS.put(UNIFORM_CAMERA_SCALE.getName(), UNIFORM_CAMERA_SCALE);
 
-        UNIFORM_NUM_WORK_GROUPS = new Uniform<Integer>("numWorkGroups", () -> {
-            return numGroups();
-        }, VariableType.UINT);
-
-        GPU.UNIFORMS.put(UNIFORM_NUM_WORK_GROUPS.getName(), UNIFORM_NUM_WORK_GROUPS);
-
-        UNIFORM_SOFTENING = new Uniform<Float>("softening", () -> {
-            return Settings.getInstance().getSoftening();
-        }, VariableType.FLOAT);
-
-        GPU.UNIFORMS.put(UNIFORM_SOFTENING.getName(), UNIFORM_SOFTENING);
-
-        UNIFORM_THETA = new Uniform<Float>("theta", () -> {
-            return Settings.getInstance().getTheta();
-        }, VariableType.FLOAT);
-
-        GPU.UNIFORMS.put(UNIFORM_THETA.getName(), UNIFORM_THETA);
-
-        UNIFORM_DT = new Uniform<Float>("dt", () -> {
-            return Settings.getInstance().getDt();
-        }, VariableType.FLOAT);
-
-        GPU.UNIFORMS.put(UNIFORM_DT.getName(), UNIFORM_DT);
-
-        UNIFORM_ELASTICITY = new Uniform<Float>("elasticity", () -> {
-            return (float)Settings.getInstance().getElasticity();
-        }, VariableType.FLOAT);
-
-        GPU.UNIFORMS.put(UNIFORM_ELASTICITY.getName(), UNIFORM_ELASTICITY);
-
-        UNIFORM_RESTITUTION = new Uniform<Float>("restitution", () -> {
-            return 0.2f;
-        }, VariableType.FLOAT);
-
-        GPU.UNIFORMS.put(UNIFORM_RESTITUTION.getName(), UNIFORM_RESTITUTION);
+        //The per-step values (dt, theta, softening, ...) are in the SimulationParameters uniform buffer instead.
+        //Only the values that change between dispatches of a step are uniforms.
+        SIMULATION_PARAMETERS = new SimulationParameters(numGroups());
 
         UNIFORM_PASS_SHIFT = new Uniform<Integer>("passShift", () -> {
             return barnesHut.radixSortPassShift;
@@ -451,50 +667,24 @@ public class GPU {
 
         GPU.UNIFORMS.put(UNIFORM_PASS_SHIFT.getName(), UNIFORM_PASS_SHIFT);
 
-        UNIFORM_MERGING_COLLISION_OR_NEITHER = new Uniform<Integer>("mergingCollisionOrNeither", () -> {
-            return Settings.getInstance().getSelectedIndexMergingCollisionOrNeither();
+        UNIFORM_COHERENT_MERGE_PASS = new Uniform<Integer>("coherentMergePass", () -> {
+            return barnesHut.coherentMergePass;
         }, VariableType.UINT);
 
-        GPU.UNIFORMS.put(UNIFORM_MERGING_COLLISION_OR_NEITHER.getName(), UNIFORM_MERGING_COLLISION_OR_NEITHER);
+        GPU.UNIFORMS.put(UNIFORM_COHERENT_MERGE_PASS.getName(), UNIFORM_COHERENT_MERGE_PASS);
+
+        // Each step is one substep of the block timesteps, so the step count says which bodies begin and end their steps.
+        UNIFORM_BLOCK_SUBSTEP = new Uniform<Integer>("blockSubstep", () -> {
+            return barnesHut.getSteps();
+        }, VariableType.UINT);
+
+        GPU.UNIFORMS.put(UNIFORM_BLOCK_SUBSTEP.getName(), UNIFORM_BLOCK_SUBSTEP);
 
         UNIFORM_RESET_VALUES_OR_DECREMENT_DEAD_BODIES = new Uniform<Boolean>("resetValuesOrDecrementDeadBodies", () -> {
             return barnesHut.resetValuesOrDecrementDeadBodies ? true : false;
         }, VariableType.BOOL);
 
         GPU.UNIFORMS.put(UNIFORM_RESET_VALUES_OR_DECREMENT_DEAD_BODIES.getName(), UNIFORM_RESET_VALUES_OR_DECREMENT_DEAD_BODIES);
-
-        UNIFORM_WRAP_AROUND = new Uniform<Boolean>("wrapAround", () -> {
-            return Settings.getInstance().isWrapAround();
-        }, VariableType.BOOL);
-
-        GPU.UNIFORMS.put(UNIFORM_WRAP_AROUND.getName(), UNIFORM_WRAP_AROUND);
-
-        UNIFORM_STATIC_OR_DYNAMIC = new Uniform<Integer>("staticOrDynamic", () -> {
-            return Settings.getInstance().getSelectedIndexDynamic();
-        }, VariableType.UINT);
-
-        GPU.UNIFORMS.put(UNIFORM_STATIC_OR_DYNAMIC.getName(), UNIFORM_STATIC_OR_DYNAMIC);
-
-        UNIFORM_MASS = new Uniform<Float>("mass", () -> {
-            return Settings.getInstance().getMass();
-        }, VariableType.FLOAT);
-        GPU.UNIFORMS.put(UNIFORM_MASS.getName(), UNIFORM_MASS);
-        UNIFORM_DENSITY = new Uniform<Float>("density", () -> {
-            return Settings.getInstance().getDensity();
-        }, VariableType.FLOAT);
-
-        GPU.UNIFORMS.put(UNIFORM_DENSITY.getName(), UNIFORM_DENSITY);
-
-        UNIFORM_LENGTH = new Uniform<Float>("len", () -> {
-            return Settings.getInstance().getLength();
-        }, VariableType.FLOAT);
-        GPU.UNIFORMS.put(UNIFORM_LENGTH.getName(), UNIFORM_LENGTH);
-
-        UNIFORM_TIME = new Uniform<Float>("time", () -> {
-            return Settings.getInstance().getTime();
-        }, VariableType.FLOAT);
-        GPU.UNIFORMS.put(UNIFORM_TIME.getName(), UNIFORM_TIME);
-
     }
 
     /**
@@ -504,6 +694,9 @@ public class GPU {
     private static void initComputePrograms(BarnesHut barnesHut) {
 
         GPU.COMPUTE_PROGRAMS = new HashMap<>();
+        GPU.PROFILER = new GPUProfiler();
+        // The radix stage is labelled with its width, so the sort time of each width can be compared across runs.
+        String radixStage = radixProfileStage();
         COMPUTE_INIT = new ComputeProgram("COMPUTE_INIT");
         COMPUTE_INIT.setUniforms(new Uniform[] {
         });
@@ -530,10 +723,10 @@ public class GPU {
         COMPUTE_MORTON_AABB_REPOPULATE.setXWorkGroupsFunction(() -> {
             return numGroups();
         });
+        COMPUTE_MORTON_AABB_REPOPULATE.setProfileStage("bounds");
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_MORTON_AABB_REPOPULATE.getProgramName(), COMPUTE_MORTON_AABB_REPOPULATE);
         COMPUTE_MORTON_AABB_COLLAPSE = new ComputeProgram("COMPUTE_MORTON_AABB_COLLAPSE");
         COMPUTE_MORTON_AABB_COLLAPSE.setUniforms(new Uniform[] {
-            UNIFORM_NUM_WORK_GROUPS
         });
         COMPUTE_MORTON_AABB_COLLAPSE.setSSBOs(new SSBO[] {
             GPU.SSBO_SIMULATION_VALUES,
@@ -544,6 +737,7 @@ public class GPU {
         COMPUTE_MORTON_AABB_COLLAPSE.setXWorkGroupsFunction(() -> {
             return 1;
         });
+        COMPUTE_MORTON_AABB_COLLAPSE.setProfileStage("bounds");
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_MORTON_AABB_COLLAPSE.getProgramName(), COMPUTE_MORTON_AABB_COLLAPSE);
         COMPUTE_MORTON_ENCODE = new ComputeProgram("COMPUTE_MORTON_ENCODE");
         COMPUTE_MORTON_ENCODE.setUniforms(new Uniform[] {
@@ -558,10 +752,10 @@ public class GPU {
         COMPUTE_MORTON_ENCODE.setXWorkGroupsFunction(() -> {
             return numGroups();
         });
+        COMPUTE_MORTON_ENCODE.setProfileStage("morton");
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_MORTON_ENCODE.getProgramName(), COMPUTE_MORTON_ENCODE);   
         COMPUTE_DEAD_COUNT = new ComputeProgram("COMPUTE_DEAD_COUNT");
         COMPUTE_DEAD_COUNT.setUniforms(new Uniform[] {
-            UNIFORM_NUM_WORK_GROUPS
         });
         COMPUTE_DEAD_COUNT.setSSBOs(new SSBO[] {
             GPU.SSBO_SIMULATION_VALUES,
@@ -575,10 +769,10 @@ public class GPU {
             return numGroups();
         });
         
+        COMPUTE_DEAD_COUNT.setProfileStage("dead");
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_DEAD_COUNT.getProgramName(), COMPUTE_DEAD_COUNT);
         COMPUTE_DEAD_EXCLUSIVE_SCAN = new ComputeProgram("COMPUTE_DEAD_EXCLUSIVE_SCAN");
         COMPUTE_DEAD_EXCLUSIVE_SCAN.setUniforms(new Uniform[] {
-            UNIFORM_NUM_WORK_GROUPS
         });
         COMPUTE_DEAD_EXCLUSIVE_SCAN.setSSBOs(new SSBO[] {
             GPU.SSBO_SIMULATION_VALUES,
@@ -587,15 +781,17 @@ public class GPU {
             GPU.SSBO_SWAPPING_BODIES_IN,
             GPU.SSBO_SWAPPING_INDEX_IN,
             GPU.SSBO_SWAPPING_MORTON_IN,
+            GPU.SSBO_DISPATCH_INDIRECT,
         });
         COMPUTE_DEAD_EXCLUSIVE_SCAN.setXWorkGroupsFunction(() -> {
             return 1;
         });
-        
+        //The dispatch commands written here are read by the indirect dispatches that follow.
+        COMPUTE_DEAD_EXCLUSIVE_SCAN.setMemoryBarrierBits(GL_SHADER_STORAGE_BARRIER_BIT | GL_COMMAND_BARRIER_BIT);
+        COMPUTE_DEAD_EXCLUSIVE_SCAN.setProfileStage("dead");
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_DEAD_EXCLUSIVE_SCAN.getProgramName(), COMPUTE_DEAD_EXCLUSIVE_SCAN);
         COMPUTE_DEAD_SCATTER = new ComputeProgram("COMPUTE_DEAD_SCATTER");
         COMPUTE_DEAD_SCATTER.setUniforms(new Uniform[] {
-            UNIFORM_NUM_WORK_GROUPS
         });
         COMPUTE_DEAD_SCATTER.setSSBOs(new SSBO[] {
             GPU.SSBO_SIMULATION_VALUES,
@@ -610,78 +806,53 @@ public class GPU {
             return numGroups();
         });
         
+        COMPUTE_DEAD_SCATTER.setProfileStage("dead");
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_DEAD_SCATTER.getProgramName(), COMPUTE_DEAD_SCATTER);
-        COMPUTE_RADIX_HISTOGRAM = new ComputeProgram("COMPUTE_RADIX_HIST");
-        COMPUTE_RADIX_HISTOGRAM.setUniforms(new Uniform[] {
+        if (ONESWEEP_SORT) {
+            initOnesweepPrograms(radixStage);
+        } else {
+            initMultiPassRadixPrograms(radixStage);
+        }
+        if (INDIRECT_DISPATCH) {
+            initCoherentPrograms(radixStage);
+        }
 
-            UNIFORM_PASS_SHIFT,
-            UNIFORM_NUM_WORK_GROUPS
+        // The reorder covers every slot, dead ones included, so it always runs for the initial body count.
+        COMPUTE_REORDER_GATHER = new ComputeProgram("COMPUTE_REORDER_GATHER");
+        COMPUTE_REORDER_GATHER.setUniforms(new Uniform[] {
         });
-        COMPUTE_RADIX_HISTOGRAM.setSSBOs(new SSBO[] {
+        COMPUTE_REORDER_GATHER.setSSBOs(new SSBO[] {
             GPU.SSBO_SIMULATION_VALUES,
-            GPU.SSBO_SWAPPING_MORTON_IN,
-            GPU.SSBO_SWAPPING_INDEX_IN,
-            GPU.SSBO_RADIX_WG_HIST,
             GPU.SSBO_SWAPPING_BODIES_IN,
+            GPU.SSBO_SWAPPING_BODIES_OUT,
+            GPU.SSBO_SWAPPING_INDEX_IN,
+            GPU.SSBO_SWAPPING_INDEX_OUT,
+            GPU.SSBO_BODY_IDS,
+            GPU.SSBO_BODY_SLOTS,
         });
-        COMPUTE_RADIX_HISTOGRAM.setXWorkGroupsFunction(() -> {
+        COMPUTE_REORDER_GATHER.setXWorkGroupsFunction(() -> {
             return numGroups();
         });
-        
-        GPU.COMPUTE_PROGRAMS.put(COMPUTE_RADIX_HISTOGRAM.getProgramName(), COMPUTE_RADIX_HISTOGRAM);
-        COMPUTE_RADIX_BUCKET_SCAN = new ComputeProgram("COMPUTE_RADIX_BUCKET_SCAN");
-        COMPUTE_RADIX_BUCKET_SCAN.setUniforms(new Uniform[] {
-            UNIFORM_NUM_WORK_GROUPS
-        });
-        COMPUTE_RADIX_BUCKET_SCAN.setSSBOs(new SSBO[] {
-            GPU.SSBO_SIMULATION_VALUES,
-            GPU.SSBO_RADIX_WG_HIST,
-            GPU.SSBO_RADIX_WG_SCANNED,
-            GPU.SSBO_RADIX_BUCKET_TOTALS,
-            GPU.SSBO_SWAPPING_BODIES_IN,
-        });
-        COMPUTE_RADIX_BUCKET_SCAN.setXWorkGroupsFunction(() -> {
-            return NUM_RADIX_BUCKETS;
-        });
-        
-        GPU.COMPUTE_PROGRAMS.put(COMPUTE_RADIX_BUCKET_SCAN.getProgramName(), COMPUTE_RADIX_BUCKET_SCAN);    
-        COMPUTE_RADIX_GLOBAL_SCAN = new ComputeProgram("COMPUTE_RADIX_GLOBAL_SCAN");
-        COMPUTE_RADIX_GLOBAL_SCAN.setUniforms(new Uniform[] {
-            UNIFORM_NUM_WORK_GROUPS
-        });
-        COMPUTE_RADIX_GLOBAL_SCAN.setSSBOs(new SSBO[] {
-            GPU.SSBO_SIMULATION_VALUES,
-            GPU.SSBO_RADIX_BUCKET_TOTALS,
-            GPU.SSBO_SWAPPING_BODIES_IN,
-        });
-        COMPUTE_RADIX_GLOBAL_SCAN.setXWorkGroupsFunction(() -> {
-            return NUM_RADIX_BUCKETS;
-        });
-        
-        GPU.COMPUTE_PROGRAMS.put(COMPUTE_RADIX_GLOBAL_SCAN.getProgramName(), COMPUTE_RADIX_GLOBAL_SCAN);
-        COMPUTE_RADIX_SCATTER = new ComputeProgram("COMPUTE_RADIX_SCATTER");
 
-        COMPUTE_RADIX_SCATTER.setUniforms(new Uniform[] {
-            UNIFORM_PASS_SHIFT,
-            UNIFORM_NUM_WORK_GROUPS
+        COMPUTE_REORDER_GATHER.setProfileStage("reorder");
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_REORDER_GATHER.getProgramName(), COMPUTE_REORDER_GATHER);
+        COMPUTE_REORDER_SCATTER = new ComputeProgram("COMPUTE_REORDER_SCATTER");
+        COMPUTE_REORDER_SCATTER.setUniforms(new Uniform[] {
         });
-
-        COMPUTE_RADIX_SCATTER.setSSBOs(new SSBO[] {
+        COMPUTE_REORDER_SCATTER.setSSBOs(new SSBO[] {
             GPU.SSBO_SIMULATION_VALUES,
-            GPU.SSBO_SWAPPING_MORTON_IN,
+            GPU.SSBO_SWAPPING_BODIES_IN,
+            GPU.SSBO_SWAPPING_BODIES_OUT,
             GPU.SSBO_SWAPPING_INDEX_IN,
-            GPU.SSBO_RADIX_WG_SCANNED,
-            GPU.SSBO_RADIX_BUCKET_TOTALS,
-            GPU.SSBO_SWAPPING_MORTON_OUT,
             GPU.SSBO_SWAPPING_INDEX_OUT,
-            GPU.SSBO_SWAPPING_BODIES_IN,
+            GPU.SSBO_BODY_IDS,
         });
-
-        COMPUTE_RADIX_SCATTER.setXWorkGroupsFunction(() -> {
+        COMPUTE_REORDER_SCATTER.setXWorkGroupsFunction(() -> {
             return numGroups();
         });
-        
-        GPU.COMPUTE_PROGRAMS.put(COMPUTE_RADIX_SCATTER.getProgramName(), COMPUTE_RADIX_SCATTER); 
+
+        COMPUTE_REORDER_SCATTER.setProfileStage("reorder");
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_REORDER_SCATTER.getProgramName(), COMPUTE_REORDER_SCATTER);
 
 
         COMPUTE_TREE_BUILD = new ComputeProgram("COMPUTE_TREE_BUILD");
@@ -704,6 +875,7 @@ public class GPU {
             return internalNodeGroups;
         });
         
+        COMPUTE_TREE_BUILD.setProfileStage("tree build");
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_TREE_BUILD.getProgramName(), COMPUTE_TREE_BUILD);
         //Compute COM and Location Kernels
 
@@ -726,15 +898,12 @@ public class GPU {
         COMPUTE_TREE_INIT_LEAVES.setXWorkGroupsFunction(() -> {
             return numGroups();
         });
+        COMPUTE_TREE_INIT_LEAVES.setProfileStage("propagate (multi pass)");
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_TREE_INIT_LEAVES.getProgramName(), COMPUTE_TREE_INIT_LEAVES);
         COMPUTE_UPDATE = new ComputeProgram("COMPUTE_UPDATE");
 
         COMPUTE_UPDATE.setUniforms(new Uniform[] {
             UNIFORM_RESET_VALUES_OR_DECREMENT_DEAD_BODIES,
-            UNIFORM_MASS,
-            UNIFORM_DENSITY,
-            UNIFORM_LENGTH,
-            UNIFORM_TIME,
         });
 
         COMPUTE_UPDATE.setSSBOs(new SSBO[] {
@@ -748,6 +917,7 @@ public class GPU {
         COMPUTE_UPDATE.setXWorkGroupsFunction(() -> {
             return 1;
         });
+        COMPUTE_UPDATE.setProfileStage("update");
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_UPDATE.getProgramName(), COMPUTE_UPDATE);
         COMPUTE_TREE_PROPAGATE_NODES = new ComputeProgram("COMPUTE_TREE_PROPAGATE_NODES");
 
@@ -769,17 +939,31 @@ public class GPU {
             int workGroups = (maxPossibleNodes + WORK_GROUP_SIZE - 1) / WORK_GROUP_SIZE;
             return workGroups;
         });
+        COMPUTE_TREE_PROPAGATE_NODES.setProfileStage("propagate (multi pass)");
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_TREE_PROPAGATE_NODES.getProgramName(), COMPUTE_TREE_PROPAGATE_NODES);
+        COMPUTE_TREE_CLIMB = new ComputeProgram("COMPUTE_TREE_CLIMB");
+
+        COMPUTE_TREE_CLIMB.setUniforms(new Uniform[] {
+        });
+
+        COMPUTE_TREE_CLIMB.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_BODIES_IN,
+            GPU.SSBO_INTERNAL_NODES,
+            GPU.SSBO_LEAF_NODES,
+            GPU.SSBO_SWAPPING_INDEX_IN,
+        });
+
+        COMPUTE_TREE_CLIMB.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+        // A separate stage from the multi pass propagation, so the profiler compares their times and dispatch counts.
+        COMPUTE_TREE_CLIMB.setProfileStage("propagate (single dispatch)");
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_TREE_CLIMB.getProgramName(), COMPUTE_TREE_CLIMB);
         COMPUTE_FORCE_COMPUTE = new ComputeProgram("COMPUTE_FORCE_COMPUTE");
 
         COMPUTE_FORCE_COMPUTE.setUniforms(new Uniform[] {
-            UNIFORM_THETA,
-            UNIFORM_DT,
-            UNIFORM_ELASTICITY,
-            UNIFORM_WRAP_AROUND,
-            UNIFORM_SOFTENING,
-            UNIFORM_MERGING_COLLISION_OR_NEITHER,
-            UNIFORM_STATIC_OR_DYNAMIC,
+            UNIFORM_BLOCK_SUBSTEP
         });
 
         COMPUTE_FORCE_COMPUTE.setSSBOs(new SSBO[] {
@@ -789,13 +973,146 @@ public class GPU {
             GPU.SSBO_INTERNAL_NODES,
             GPU.SSBO_LEAF_NODES,
             GPU.SSBO_SWAPPING_INDEX_IN,
-            GPU.SSBO_MERGE_QUEUE
+            GPU.SSBO_MERGE_QUEUE,
+            GPU.SSBO_BODY_IDS,
+            GPU.SSBO_BODY_STATS,
+            GPU.SSBO_BODY_ACCELERATIONS,
+            GPU.SSBO_ACTIVE_BODIES,
+            GPU.SSBO_PM_FORCE
         });
 
         COMPUTE_FORCE_COMPUTE.setXWorkGroupsFunction(() -> {
             return numGroups();
         });
+        COMPUTE_FORCE_COMPUTE.setProfileStage("force");
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_FORCE_COMPUTE.getProgramName(), COMPUTE_FORCE_COMPUTE);
+        COMPUTE_FORCE_GROUP = new ComputeProgram("COMPUTE_FORCE_GROUP");
+
+        COMPUTE_FORCE_GROUP.setUniforms(new Uniform[] {
+            UNIFORM_BLOCK_SUBSTEP
+        });
+
+        COMPUTE_FORCE_GROUP.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_BODIES_IN,
+            GPU.SSBO_SWAPPING_BODIES_OUT,
+            GPU.SSBO_INTERNAL_NODES,
+            GPU.SSBO_LEAF_NODES,
+            GPU.SSBO_SWAPPING_INDEX_IN,
+            GPU.SSBO_MERGE_QUEUE,
+            GPU.SSBO_BODY_IDS,
+            GPU.SSBO_BODY_STATS,
+            GPU.SSBO_BODY_ACCELERATIONS,
+            GPU.SSBO_ACTIVE_BODIES,
+            GPU.SSBO_PM_FORCE
+        });
+
+        COMPUTE_FORCE_GROUP.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+        COMPUTE_FORCE_GROUP.setProfileStage("force (group)");
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_FORCE_GROUP.getProgramName(), COMPUTE_FORCE_GROUP);
+
+        // The deposit runs after the dead partition, so it covers every slot and skips the empty ones like the drift.
+        COMPUTE_PM_DEPOSIT = new ComputeProgram("COMPUTE_PM_DEPOSIT");
+
+        COMPUTE_PM_DEPOSIT.setUniforms(new Uniform[] {
+        });
+
+        COMPUTE_PM_DEPOSIT.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_BODIES_IN,
+            GPU.SSBO_PM_DENSITY
+        });
+
+        COMPUTE_PM_DEPOSIT.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+        // The grid is read back with glGetBufferSubData right after.
+        COMPUTE_PM_DEPOSIT.setMemoryBarrierBits(GL_SHADER_STORAGE_BARRIER_BIT | GL_BUFFER_UPDATE_BARRIER_BIT);
+        COMPUTE_PM_DEPOSIT.setProfileStage("particle mesh deposit");
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_PM_DEPOSIT.getProgramName(), COMPUTE_PM_DEPOSIT);
+
+        // The drift runs before the dead partition, so it covers every slot and skips the empty ones.
+        COMPUTE_LEAPFROG_DRIFT = new ComputeProgram("COMPUTE_LEAPFROG_DRIFT");
+
+        COMPUTE_LEAPFROG_DRIFT.setUniforms(new Uniform[] {
+            UNIFORM_BLOCK_SUBSTEP
+        });
+
+        COMPUTE_LEAPFROG_DRIFT.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_BODIES_IN,
+            GPU.SSBO_BODY_IDS,
+            GPU.SSBO_BODY_ACCELERATIONS
+        });
+
+        COMPUTE_LEAPFROG_DRIFT.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+        COMPUTE_LEAPFROG_DRIFT.setProfileStage("drift");
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_LEAPFROG_DRIFT.getProgramName(), COMPUTE_LEAPFROG_DRIFT);
+
+        // The active body list of the block timesteps, built after the sort like the coherent sort's outliers.
+        COMPUTE_ACTIVE_COUNT = new ComputeProgram("COMPUTE_ACTIVE_COUNT");
+
+        COMPUTE_ACTIVE_COUNT.setUniforms(new Uniform[] {
+            UNIFORM_BLOCK_SUBSTEP
+        });
+
+        COMPUTE_ACTIVE_COUNT.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_BODIES_IN,
+            GPU.SSBO_SWAPPING_BODIES_OUT,
+            GPU.SSBO_SWAPPING_INDEX_IN,
+            GPU.SSBO_RADIX_WG_HIST,
+            GPU.SSBO_BODY_IDS,
+            GPU.SSBO_BODY_ACCELERATIONS
+        });
+
+        COMPUTE_ACTIVE_COUNT.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+        COMPUTE_ACTIVE_COUNT.setProfileStage("active list");
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_ACTIVE_COUNT.getProgramName(), COMPUTE_ACTIVE_COUNT);
+        COMPUTE_ACTIVE_SCAN = new ComputeProgram("COMPUTE_ACTIVE_SCAN");
+
+        COMPUTE_ACTIVE_SCAN.setUniforms(new Uniform[] {
+        });
+
+        COMPUTE_ACTIVE_SCAN.setSSBOs(new SSBO[] {
+            GPU.SSBO_RADIX_WG_HIST,
+            GPU.SSBO_RADIX_WG_SCANNED,
+            GPU.SSBO_DISPATCH_INDIRECT,
+            GPU.SSBO_ACTIVE_BODIES
+        });
+
+        COMPUTE_ACTIVE_SCAN.setXWorkGroupsFunction(() -> {
+            return 1;
+        });
+        COMPUTE_ACTIVE_SCAN.setMemoryBarrierBits(GL_SHADER_STORAGE_BARRIER_BIT | GL_COMMAND_BARRIER_BIT);
+        COMPUTE_ACTIVE_SCAN.setProfileStage("active list");
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_ACTIVE_SCAN.getProgramName(), COMPUTE_ACTIVE_SCAN);
+        COMPUTE_ACTIVE_SCATTER = new ComputeProgram("COMPUTE_ACTIVE_SCATTER");
+
+        COMPUTE_ACTIVE_SCATTER.setUniforms(new Uniform[] {
+            UNIFORM_BLOCK_SUBSTEP
+        });
+
+        COMPUTE_ACTIVE_SCATTER.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_INDEX_IN,
+            GPU.SSBO_RADIX_WG_SCANNED,
+            GPU.SSBO_BODY_IDS,
+            GPU.SSBO_BODY_ACCELERATIONS,
+            GPU.SSBO_ACTIVE_BODIES
+        });
+
+        COMPUTE_ACTIVE_SCATTER.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+        COMPUTE_ACTIVE_SCATTER.setProfileStage("active list");
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_ACTIVE_SCATTER.getProgramName(), COMPUTE_ACTIVE_SCATTER);
         COMPUTE_MERGE_BODIES = new ComputeProgram("COMPUTE_MERGE_BODIES");
         COMPUTE_MERGE_BODIES.setUniforms(new Uniform[] {
             
@@ -806,10 +1123,13 @@ public class GPU {
             GPU.SSBO_SWAPPING_BODIES_OUT,
             GPU.SSBO_MERGE_QUEUE,
             GPU.SSBO_MERGE_BODY_LOCKS,
+            GPU.SSBO_BODY_IDS,
+            GPU.SSBO_BODY_ACCELERATIONS,
         });
         COMPUTE_MERGE_BODIES.setXWorkGroupsFunction(() -> {
             return numGroups();
         });
+        COMPUTE_MERGE_BODIES.setProfileStage("merge");
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_MERGE_BODIES.getProgramName(), COMPUTE_MERGE_BODIES);
         COMPUTE_DEBUG = new ComputeProgram("COMPUTE_DEBUG");
 
@@ -829,6 +1149,335 @@ public class GPU {
         });
 
         GPU.COMPUTE_PROGRAMS.put(COMPUTE_DEBUG.getProgramName(), COMPUTE_DEBUG);
+
+        if (INDIRECT_DISPATCH) {
+            initIndirectDispatch(barnesHut);
+        }
+    }
+
+    /**
+     * Initialize the four programs of each pass of the multi pass radix sort (bh_radix.comp).
+     * @param radixStage the profile stage of the sort
+     */
+    private static void initMultiPassRadixPrograms(String radixStage) {
+        COMPUTE_RADIX_HISTOGRAM = new ComputeProgram("COMPUTE_RADIX_HIST");
+        COMPUTE_RADIX_HISTOGRAM.setUniforms(new Uniform[] {
+
+            UNIFORM_PASS_SHIFT,
+        });
+        COMPUTE_RADIX_HISTOGRAM.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_MORTON_IN,
+            GPU.SSBO_SWAPPING_INDEX_IN,
+            GPU.SSBO_RADIX_WG_HIST,
+            GPU.SSBO_SWAPPING_BODIES_IN,
+        });
+        COMPUTE_RADIX_HISTOGRAM.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+        
+        COMPUTE_RADIX_HISTOGRAM.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_RADIX_HISTOGRAM.getProgramName(), COMPUTE_RADIX_HISTOGRAM);
+        COMPUTE_RADIX_BUCKET_SCAN = new ComputeProgram("COMPUTE_RADIX_BUCKET_SCAN");
+        COMPUTE_RADIX_BUCKET_SCAN.setUniforms(new Uniform[] {
+        });
+        COMPUTE_RADIX_BUCKET_SCAN.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_RADIX_WG_HIST,
+            GPU.SSBO_RADIX_WG_SCANNED,
+            GPU.SSBO_RADIX_BUCKET_TOTALS,
+            GPU.SSBO_SWAPPING_BODIES_IN,
+            GPU.SSBO_DISPATCH_INDIRECT,
+        });
+        COMPUTE_RADIX_BUCKET_SCAN.setXWorkGroupsFunction(() -> {
+            return NUM_RADIX_BUCKETS;
+        });
+        
+        COMPUTE_RADIX_BUCKET_SCAN.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_RADIX_BUCKET_SCAN.getProgramName(), COMPUTE_RADIX_BUCKET_SCAN);    
+        COMPUTE_RADIX_GLOBAL_SCAN = new ComputeProgram("COMPUTE_RADIX_GLOBAL_SCAN");
+        COMPUTE_RADIX_GLOBAL_SCAN.setUniforms(new Uniform[] {
+        });
+        COMPUTE_RADIX_GLOBAL_SCAN.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_RADIX_BUCKET_TOTALS,
+            GPU.SSBO_SWAPPING_BODIES_IN,
+        });
+        COMPUTE_RADIX_GLOBAL_SCAN.setXWorkGroupsFunction(() -> {
+            return NUM_RADIX_BUCKETS;
+        });
+        
+        COMPUTE_RADIX_GLOBAL_SCAN.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_RADIX_GLOBAL_SCAN.getProgramName(), COMPUTE_RADIX_GLOBAL_SCAN);
+        COMPUTE_RADIX_SCATTER = new ComputeProgram("COMPUTE_RADIX_SCATTER");
+
+        COMPUTE_RADIX_SCATTER.setUniforms(new Uniform[] {
+            UNIFORM_PASS_SHIFT,
+        });
+
+        COMPUTE_RADIX_SCATTER.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_MORTON_IN,
+            GPU.SSBO_SWAPPING_INDEX_IN,
+            GPU.SSBO_RADIX_WG_SCANNED,
+            GPU.SSBO_RADIX_BUCKET_TOTALS,
+            GPU.SSBO_SWAPPING_MORTON_OUT,
+            GPU.SSBO_SWAPPING_INDEX_OUT,
+            GPU.SSBO_SWAPPING_BODIES_IN,
+        });
+
+        COMPUTE_RADIX_SCATTER.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+        
+        COMPUTE_RADIX_SCATTER.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_RADIX_SCATTER.getProgramName(), COMPUTE_RADIX_SCATTER);
+    }
+
+    /**
+     * Initialize the programs of the onesweep radix sort (bh_onesweep.comp).
+     * The histogram and scan run once per sort, and the scatter once per pass.
+     * @param radixStage the profile stage of the sort
+     */
+    private static void initOnesweepPrograms(String radixStage) {
+        COMPUTE_ONESWEEP_HISTOGRAM = new ComputeProgram("COMPUTE_ONESWEEP_HIST");
+        COMPUTE_ONESWEEP_HISTOGRAM.setUniforms(new Uniform[] {
+        });
+        COMPUTE_ONESWEEP_HISTOGRAM.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_MORTON_IN,
+            GPU.SSBO_ONESWEEP_GLOBAL,
+            GPU.SSBO_ONESWEEP_STATUS,
+        });
+        COMPUTE_ONESWEEP_HISTOGRAM.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+
+        COMPUTE_ONESWEEP_HISTOGRAM.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_ONESWEEP_HISTOGRAM.getProgramName(), COMPUTE_ONESWEEP_HISTOGRAM);
+        COMPUTE_ONESWEEP_SCAN = new ComputeProgram("COMPUTE_ONESWEEP_SCAN");
+        COMPUTE_ONESWEEP_SCAN.setUniforms(new Uniform[] {
+        });
+        COMPUTE_ONESWEEP_SCAN.setSSBOs(new SSBO[] {
+            GPU.SSBO_ONESWEEP_GLOBAL,
+        });
+        COMPUTE_ONESWEEP_SCAN.setXWorkGroupsFunction(() -> {
+            return numRadixPasses();
+        });
+
+        COMPUTE_ONESWEEP_SCAN.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_ONESWEEP_SCAN.getProgramName(), COMPUTE_ONESWEEP_SCAN);
+        COMPUTE_ONESWEEP_SCATTER = new ComputeProgram("COMPUTE_ONESWEEP_SCATTER");
+        COMPUTE_ONESWEEP_SCATTER.setUniforms(new Uniform[] {
+            UNIFORM_PASS_SHIFT,
+        });
+        COMPUTE_ONESWEEP_SCATTER.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_MORTON_IN,
+            GPU.SSBO_SWAPPING_INDEX_IN,
+            GPU.SSBO_ONESWEEP_GLOBAL,
+            GPU.SSBO_ONESWEEP_STATUS,
+            GPU.SSBO_SWAPPING_MORTON_OUT,
+            GPU.SSBO_SWAPPING_INDEX_OUT,
+        });
+        COMPUTE_ONESWEEP_SCATTER.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+
+        COMPUTE_ONESWEEP_SCATTER.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_ONESWEEP_SCATTER.getProgramName(), COMPUTE_ONESWEEP_SCATTER);
+    }
+
+    /**
+     * Initialize the programs of the coherent sort (bh_coherent.comp), which runs before the radix sort when the coherentSort setting is on.
+     * Every program but the mark and decide kernels is switched to indirect dispatch, so only the kernels of the chosen sort do work.
+     * @param radixStage the profile stage of the sort
+     */
+    private static void initCoherentPrograms(String radixStage) {
+        COMPUTE_COHERENT_MARK = new ComputeProgram("COMPUTE_COHERENT_MARK");
+        COMPUTE_COHERENT_MARK.setUniforms(new Uniform[] {
+        });
+        COMPUTE_COHERENT_MARK.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_MORTON_IN,
+            GPU.SSBO_RADIX_WG_HIST,
+            GPU.SSBO_COHERENT_SCAN,
+        });
+        COMPUTE_COHERENT_MARK.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+
+        COMPUTE_COHERENT_MARK.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_COHERENT_MARK.getProgramName(), COMPUTE_COHERENT_MARK);
+        COMPUTE_COHERENT_DECIDE = new ComputeProgram("COMPUTE_COHERENT_DECIDE");
+        COMPUTE_COHERENT_DECIDE.setUniforms(new Uniform[] {
+        });
+        COMPUTE_COHERENT_DECIDE.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_RADIX_WG_HIST,
+            GPU.SSBO_RADIX_WG_SCANNED,
+            GPU.SSBO_DISPATCH_INDIRECT,
+            GPU.SSBO_COHERENT_SCAN,
+            GPU.SSBO_COHERENT_OUTLIERS,
+        });
+        COMPUTE_COHERENT_DECIDE.setXWorkGroupsFunction(() -> {
+            return 1;
+        });
+        //The dispatch commands written here choose which sort the indirect dispatches that follow run.
+        COMPUTE_COHERENT_DECIDE.setMemoryBarrierBits(GL_SHADER_STORAGE_BARRIER_BIT | GL_COMMAND_BARRIER_BIT);
+        COMPUTE_COHERENT_DECIDE.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_COHERENT_DECIDE.getProgramName(), COMPUTE_COHERENT_DECIDE);
+        COMPUTE_COHERENT_COMPACT = new ComputeProgram("COMPUTE_COHERENT_COMPACT");
+        COMPUTE_COHERENT_COMPACT.setUniforms(new Uniform[] {
+        });
+        COMPUTE_COHERENT_COMPACT.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_MORTON_IN,
+            GPU.SSBO_RADIX_WG_SCANNED,
+            GPU.SSBO_COHERENT_SCAN,
+            GPU.SSBO_COHERENT_OUTLIERS,
+        });
+        COMPUTE_COHERENT_COMPACT.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+
+        COMPUTE_COHERENT_COMPACT.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_COHERENT_COMPACT.getProgramName(), COMPUTE_COHERENT_COMPACT);
+        COMPUTE_COHERENT_SORT_TILES = new ComputeProgram("COMPUTE_COHERENT_SORT_TILES");
+        COMPUTE_COHERENT_SORT_TILES.setUniforms(new Uniform[] {
+        });
+        COMPUTE_COHERENT_SORT_TILES.setSSBOs(new SSBO[] {
+            GPU.SSBO_COHERENT_SCAN,
+            GPU.SSBO_COHERENT_OUTLIERS,
+        });
+        COMPUTE_COHERENT_SORT_TILES.setXWorkGroupsFunction(() -> {
+            return (maxCoherentOutliers() + WORK_GROUP_SIZE - 1) / WORK_GROUP_SIZE;
+        });
+
+        COMPUTE_COHERENT_SORT_TILES.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_COHERENT_SORT_TILES.getProgramName(), COMPUTE_COHERENT_SORT_TILES);
+        COMPUTE_COHERENT_MERGE_RUNS = new ComputeProgram("COMPUTE_COHERENT_MERGE_RUNS");
+        COMPUTE_COHERENT_MERGE_RUNS.setUniforms(new Uniform[] {
+            UNIFORM_COHERENT_MERGE_PASS,
+        });
+        COMPUTE_COHERENT_MERGE_RUNS.setSSBOs(new SSBO[] {
+            GPU.SSBO_COHERENT_SCAN,
+            GPU.SSBO_COHERENT_OUTLIERS,
+        });
+        COMPUTE_COHERENT_MERGE_RUNS.setXWorkGroupsFunction(() -> {
+            return (maxCoherentOutliers() + WORK_GROUP_SIZE - 1) / WORK_GROUP_SIZE;
+        });
+
+        COMPUTE_COHERENT_MERGE_RUNS.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_COHERENT_MERGE_RUNS.getProgramName(), COMPUTE_COHERENT_MERGE_RUNS);
+        COMPUTE_COHERENT_MERGE = new ComputeProgram("COMPUTE_COHERENT_MERGE");
+        COMPUTE_COHERENT_MERGE.setUniforms(new Uniform[] {
+        });
+        COMPUTE_COHERENT_MERGE.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_MORTON_IN,
+            GPU.SSBO_SWAPPING_INDEX_IN,
+            GPU.SSBO_COHERENT_SCAN,
+            GPU.SSBO_COHERENT_OUTLIERS,
+            GPU.SSBO_SWAPPING_MORTON_OUT,
+            GPU.SSBO_SWAPPING_INDEX_OUT,
+        });
+        COMPUTE_COHERENT_MERGE.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+
+        COMPUTE_COHERENT_MERGE.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_COHERENT_MERGE.getProgramName(), COMPUTE_COHERENT_MERGE);
+        COMPUTE_COHERENT_COPY = new ComputeProgram("COMPUTE_COHERENT_COPY");
+        COMPUTE_COHERENT_COPY.setUniforms(new Uniform[] {
+        });
+        COMPUTE_COHERENT_COPY.setSSBOs(new SSBO[] {
+            GPU.SSBO_SIMULATION_VALUES,
+            GPU.SSBO_SWAPPING_MORTON_IN,
+            GPU.SSBO_SWAPPING_INDEX_IN,
+            GPU.SSBO_SWAPPING_MORTON_OUT,
+            GPU.SSBO_SWAPPING_INDEX_OUT,
+        });
+        COMPUTE_COHERENT_COPY.setXWorkGroupsFunction(() -> {
+            return numGroups();
+        });
+
+        COMPUTE_COHERENT_COPY.setProfileStage(radixStage);
+        GPU.COMPUTE_PROGRAMS.put(COMPUTE_COHERENT_COPY.getProgramName(), COMPUTE_COHERENT_COPY);
+    }
+
+    /**
+     * Switches the kernels that run after the dead partition to indirect dispatch.
+     * The dead partition and the bounds stay sized for every body, since they run before the live count of the step is known.
+     * @param barnesHut the Barnes-Hut object
+     */
+    private static void initIndirectDispatch(BarnesHut barnesHut) {
+        ComputeProgram[] bodyPrograms = new ComputeProgram[] {
+            COMPUTE_MORTON_ENCODE,
+            COMPUTE_COHERENT_MARK,
+            COMPUTE_TREE_INIT_LEAVES,
+            COMPUTE_TREE_CLIMB,
+            COMPUTE_ACTIVE_COUNT,
+            COMPUTE_ACTIVE_SCATTER,
+            COMPUTE_MERGE_BODIES
+        };
+        for (ComputeProgram program : bodyPrograms) {
+            // Only the programs of the selected radix sort engine are created
+            if (program == null) {
+                continue;
+            }
+            program.setIndirectDispatch(SSBO_DISPATCH_INDIRECT, () -> {
+                return BODIES_DISPATCH_OFFSET;
+            });
+        }
+        // The sort kernels cover the live bodies too, but the coherent sort empties their command when it sorts the bodies itself
+        ComputeProgram[] sortPrograms = new ComputeProgram[] {
+            COMPUTE_RADIX_HISTOGRAM,
+            COMPUTE_RADIX_SCATTER,
+            COMPUTE_ONESWEEP_HISTOGRAM,
+            COMPUTE_ONESWEEP_SCATTER,
+        };
+        for (ComputeProgram program : sortPrograms) {
+            // Only the programs of the selected radix sort engine are created
+            if (program == null) {
+                continue;
+            }
+            program.setIndirectDispatch(SSBO_DISPATCH_INDIRECT, () -> {
+                return SORT_DISPATCH_OFFSET;
+            });
+        }
+        ComputeProgram[] coherentPrograms = new ComputeProgram[] {
+            COMPUTE_COHERENT_COMPACT,
+            COMPUTE_COHERENT_MERGE,
+            COMPUTE_COHERENT_COPY,
+        };
+        for (ComputeProgram program : coherentPrograms) {
+            program.setIndirectDispatch(SSBO_DISPATCH_INDIRECT, () -> {
+                return COHERENT_DISPATCH_OFFSET;
+            });
+        }
+        // The force kernels cover the live bodies too, but the block timesteps shrink their command to the active bodies
+        ComputeProgram[] forcePrograms = new ComputeProgram[] {
+            COMPUTE_FORCE_COMPUTE,
+            COMPUTE_FORCE_GROUP,
+        };
+        for (ComputeProgram program : forcePrograms) {
+            program.setIndirectDispatch(SSBO_DISPATCH_INDIRECT, () -> {
+                return ACTIVE_DISPATCH_OFFSET;
+            });
+        }
+        COMPUTE_COHERENT_SORT_TILES.setIndirectDispatch(SSBO_DISPATCH_INDIRECT, () -> {
+            return OUTLIER_DISPATCH_OFFSET;
+        });
+        COMPUTE_COHERENT_MERGE_RUNS.setIndirectDispatch(SSBO_DISPATCH_INDIRECT, () -> {
+            return OUTLIER_DISPATCH_OFFSET;
+        });
+        COMPUTE_TREE_BUILD.setIndirectDispatch(SSBO_DISPATCH_INDIRECT, () -> {
+            return INTERNAL_NODES_DISPATCH_OFFSET;
+        });
+        COMPUTE_TREE_PROPAGATE_NODES.setIndirectDispatch(SSBO_DISPATCH_INDIRECT, () -> {
+            return PROPAGATE_DISPATCH_OFFSET + (long) barnesHut.COMPropagationPassNumber * DISPATCH_COMMAND_BYTES;
+        });
     }
 
     private static void initRenderUniforms(Render render) {
@@ -962,6 +1611,7 @@ public class GPU {
         });
         GPU.RENDER_POINTS.setSSBOs(new SSBO[] {
             GPU.SSBO_SWAPPING_BODIES_IN,
+            GPU.SSBO_BODY_SLOTS, // for relativeTo
             GPU.SSBO_SIMULATION_VALUES
         });
         GPU.RENDER_PROGRAMS.put(GPU.RENDER_POINTS.getProgramName(), GPU.RENDER_POINTS);
@@ -987,6 +1637,7 @@ public class GPU {
         });
         GPU.RENDER_IMPOSTOR.setSSBOs(new SSBO[] {
             GPU.SSBO_SWAPPING_BODIES_IN,
+            GPU.SSBO_BODY_SLOTS, // for relativeTo
             GPU.SSBO_SIMULATION_VALUES
 
         });
@@ -1004,6 +1655,7 @@ public class GPU {
         });
         GPU.RENDER_SPHERE.setSSBOs(new SSBO[] {
             GPU.SSBO_SWAPPING_BODIES_IN,
+            GPU.SSBO_BODY_SLOTS, // for relativeTo
         });
         GPU.RENDER_PROGRAMS.put(GPU.RENDER_SPHERE.getProgramName(), GPU.RENDER_SPHERE);
         GPUSimulation.checkGLError("GPU.RENDER_SPHERE");
@@ -1046,6 +1698,7 @@ public class GPU {
             GPU.SSBO_INTERNAL_NODES,
             GPU.SSBO_SIMULATION_VALUES,
             GPU.SSBO_SWAPPING_BODIES_IN, // for relativeTo
+            GPU.SSBO_BODY_SLOTS, // for relativeTo
         });
         GPU.RENDER_PROGRAMS.put(GPU.RENDER_NODE_GLOW.getProgramName(), GPU.RENDER_NODE_GLOW);
         GPUSimulation.checkGLError("GPU.RENDER_NODE_GLOW");
@@ -1094,6 +1747,19 @@ public class GPU {
      * @return the packed values
      */
     public static ByteBuffer packValues(int numBodies, float[][] bounds, UnitSet units) {
+        return packValues(numBodies, 0, 0, bounds, units);
+    }
+
+    /**
+     * Packs the values to a float buffer, starting from existing merged and out of bounds counters.
+     * @param numBodies the number of bodies
+     * @param merged the number of bodies that have merged
+     * @param outOfBounds the number of bodies that have left the bounds
+     * @param bounds the bounds of the simulation
+     * @param units the units of the simulation
+     * @return the packed values
+     */
+    public static ByteBuffer packValues(int numBodies, int merged, int outOfBounds, float[][] bounds, UnitSet units) {
 
         // new GLSLVariable(VariableType.UINT,"numBodies", 1), 
         //     new GLSLVariable(VariableType.UINT,"initialNumBodies", 1), 
@@ -1123,8 +1789,8 @@ public class GPU {
         buf.putInt(numBodies); // numBodies
         buf.putInt(numBodies); // initialNumBodies
         buf.putInt(0); // justDied
-        buf.putInt(0); // merged
-        buf.putInt(0); // outOfBounds
+        buf.putInt(merged); // merged
+        buf.putInt(outOfBounds); // outOfBounds
         buf.putInt(0); // pad0
         buf.putInt(0); // pad1
         buf.putInt(0); // pad2
@@ -1142,6 +1808,51 @@ public class GPU {
         return buf;
     }
 
+    /**
+     * Packs the indirect dispatch commands for a number of live bodies, as writeDispatchCommands in bh_dead.comp does on the GPU.
+     * @param numBodies the number of live bodies
+     * @return the packed DispatchIndirectCommands
+     */
+    public static ByteBuffer packDispatchCommands(int numBodies) {
+        ByteBuffer buf = BufferUtils.createByteBuffer((6 + PROPAGATE_NODES_ITERATIONS) * DISPATCH_COMMAND_BYTES);
+        int numInternalNodes = Math.max(numBodies, 1) - 1;
+        buf.putInt(groupsFor(numBodies)).putInt(1).putInt(1); // bodiesDispatch
+        buf.putInt(groupsFor(numInternalNodes)).putInt(1).putInt(1); // internalNodesDispatch
+        for (int pass = 0; pass < PROPAGATE_NODES_ITERATIONS; pass++) {
+            int maxPossibleNodes = Math.max(4 * WORK_GROUP_SIZE, pass < 32 ? numInternalNodes >> pass : 0);
+            buf.putInt(groupsFor(maxPossibleNodes)).putInt(1).putInt(1); // propagateDispatch[pass]
+        }
+        buf.putInt(groupsFor(numBodies)).putInt(1).putInt(1); // sortDispatch
+        buf.putInt(0).putInt(1).putInt(1); // coherentDispatch
+        buf.putInt(0).putInt(1).putInt(1); // outlierDispatch
+        buf.putInt(groupsFor(numBodies)).putInt(1).putInt(1); // activeDispatch
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Packs the identity permutation, the ids and slots of the bodies before any reorder.
+     * @param count the number of bodies
+     * @return the packed uints 0 to count - 1
+     */
+    private static ByteBuffer packIdentity(int count) {
+        ByteBuffer buf = BufferUtils.createByteBuffer(count * Integer.BYTES);
+        for (int i = 0; i < count; i++) {
+            buf.putInt(i);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Get the number of work groups needed to cover a count, at least one.
+     * @param count the number of invocations
+     * @return the number of work groups
+     */
+    private static int groupsFor(int count) {
+        return Math.max(1, (count + WORK_GROUP_SIZE - 1) / WORK_GROUP_SIZE);
+    }
+
     /**
      * Get the number of work groups required for the given number of bodies.
      * @return the number of work groups
@@ -1158,8 +1869,58 @@ public class GPU {
         return initialNumBodies;
     }
 
+    /**
+     * Get the number of grid points the particle mesh SSBOs hold, at least 1 so they exist when the mesh is off.
+     * @return the number of grid points
+     */
+    private static int pmGridCells() {
+        return Math.max(1, PM_GRID_SIZE * PM_GRID_SIZE * PM_GRID_SIZE);
+    }
+
+    /**
+     * Get the size of the particle mesh grid in use this step. The pmGridSize setting is applied on restart,
+     * so this is 0 unless the SSBOs were made for a mesh, and never more than they hold.
+     * @return the grid size, or 0 if the mesh is off
+     */
+    public static int pmGridSize() {
+        return Math.min(SimulationParameters.pmGridSize(Settings.getInstance()), PM_GRID_SIZE);
+    }
+
+    /**
+     * Empty the particle mesh grid before the deposit kernel.
+     */
+    public static void clearParticleMesh() {
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, SSBO_PM_DENSITY.getBufferLocation());
+        glClearBufferData(GL_SHADER_STORAGE_BUFFER, GL_R32UI, GL_RED_INTEGER, GL_UNSIGNED_INT, (ByteBuffer) null);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+    }
+
+    /**
+     * Read back the mass deposited on each grid point of the particle mesh. Waits for the GPU.
+     * @param gridSize the size of the grid in use
+     * @return the masses, in the layout of SSBO_PM_DENSITY
+     */
+    public static float[] readParticleMeshMasses(int gridSize) {
+        float[] masses = new float[gridSize * gridSize * gridSize];
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, SSBO_PM_DENSITY.getBufferLocation());
+        glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, masses);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        return masses;
+    }
+
+    /**
+     * Upload the long range acceleration of each grid point of the particle mesh for the force kernels.
+     * @param forces the accelerations as (x, y, z, 0), in the layout of SSBO_PM_FORCE
+     */
+    public static void uploadParticleMeshForces(float[] forces) {
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, SSBO_PM_FORCE.getBufferLocation());
+        glBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, forces);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+    }
+
     /**
      * Upload the planet data to the GPU.
+     * Chunks are generated and packed on a producer thread while the GL thread copies them into the SSBO through a persistently mapped staging buffer.
      * @param planetGenerator the planet generator
      * @param bodiesSSBO the SSBO to upload the data to
      */
@@ -1168,34 +1929,211 @@ public class GPU {
         GPUSimulation.checkGLError("before uploadPlanetsData");
 
         // Assumes buffers are already correctly sized
-        bodiesSSBO.bind();
-    
-        int offset = 0;
-        System.out.print("Uploading planet data:");
-        double percentUploaded = 0;
-        int displayProgress = 5;
-        int lastDisplayed = -1;
-        while (planetGenerator.hasNext()) {
-            percentUploaded = (int)((double)planetGenerator.planetsGenerated/planetGenerator.getNumPlanets()*100);
-            if (percentUploaded % displayProgress == 0 && percentUploaded != lastDisplayed) {
-                lastDisplayed = (int)percentUploaded;
-                System.out.print(" "+percentUploaded+"%");
-            }
-            List<Planet> planets = planetGenerator.nextChunk();
-            ByteBuffer data = Body.packPlanets(planets);
-            glBufferSubData(GL_SHADER_STORAGE_BUFFER, offset, data);
-            offset += data.capacity();
+        new BodyUploader(planetGenerator, bodiesSSBO).upload();
+
+        GPUSimulation.checkGLError("after uploadPlanetsData");
+    }
+
+
+
+    /**
+     * Upload the bodies of a checkpoint to the GPU, along with the last accelerations and BodyStats of each stable id.
+     * The checkpoint file is memory mapped region by region and each region is copied straight into the SSBO.
+     * All bodies are uploaded as alive, and the dead ones are partitioned out again on the first step.
+     * The bodies are in id order and the ids start as the identity, so the per id buffers line up with them as saved.
+     * @param checkpoint the checkpoint, read from a file
+     * @param bodiesSSBO the SSBO to upload the data to
+     */
+    public static void uploadCheckpointData(Checkpoint checkpoint, SSBO bodiesSSBO) {
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            throw new IllegalStateException("Checkpoints are little endian and can only be uploaded on a little endian machine");
+        }
+        GPUSimulation.checkGLError("before uploadCheckpointData");
+
+        // Assumes buffers are already correctly sized
+        System.out.println("Uploading checkpoint: " + checkpoint);
+        Checkpoint.BodyRegionFunction upload = (offset, region) -> {
+            glBufferSubData(GL_SHADER_STORAGE_BUFFER, offset, region);
+        };
+        try {
+            bodiesSSBO.bind();
+            checkpoint.forEachBodyRegion(upload);
+            SSBO_BODY_ACCELERATIONS.bind();
+            checkpoint.forEachAccelerationRegion(upload);
+            SSBO_BODY_STATS.bind();
+            checkpoint.forEachBodyStatRegion(upload);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read checkpoint: " + checkpoint.getPath(), e);
+        } finally {
+            bodiesSSBO.unbind();
         }
 
-        System.out.println(" 100%");
+        GPUSimulation.checkGLError("after uploadCheckpointData");
+    }
 
-        GPUSimulation.checkGLError("after uploadPlanetsData");
+    /**
+     * Save the current state of the simulation to a checkpoint file.
+     * Reads the counters and bounds from the simulation values, and reads back the bodies, which are put in the order of their stable ids,
+     * then the last accelerations and BodyStats, which are already kept by stable id. Waits for the GPU.
+     * With block timesteps the bodies between their kicks are saved with their half kicked velocities, and their rungs with the accelerations,
+     * so loading the checkpoint resumes exactly, but its velocities are only all in step on a multiple of 2^timestepLevels steps.
+     * @param path the file to save to
+     * @param step the number of steps the simulation has run
+     * @param units the units of the simulation
+     */
+    public static void saveCheckpoint(Path path, int step, UnitSet units) {
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            throw new IllegalStateException("Checkpoints are little endian and can only be saved on a little endian machine");
+        }
+        GPUSimulation.checkGLError("before saveCheckpoint");
+
+        // numBodies, initialNumBodies, justDied, merged, outOfBounds, pad0, pad1, pad2, then the bounds
+        ByteBuffer values = BufferUtils.createByteBuffer(16 * Integer.BYTES);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, SSBO_SIMULATION_VALUES.getBufferLocation());
+        glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, values);
+        float[][] bounds = new float[][] {
+            {values.getFloat(8 * Integer.BYTES), values.getFloat(9 * Integer.BYTES), values.getFloat(10 * Integer.BYTES)},
+            {values.getFloat(12 * Integer.BYTES), values.getFloat(13 * Integer.BYTES), values.getFloat(14 * Integer.BYTES)}
+        };
+        Checkpoint checkpoint = new Checkpoint(step, numBodies(), values.getInt(0), values.getInt(3 * Integer.BYTES), values.getInt(4 * Integer.BYTES),
+            Settings.getInstance().getDt(), Settings.getInstance().getTheta(), units, bounds);
+        // The bodies are reordered by id on the CPU, so they are read back like the other sections rather than mapped
+        ByteBuffer bodies = bodiesInIdOrder(readBuffer(SSBO_SWAPPING_BODIES_IN, numBodies() * Body.STRUCT_SIZE * Float.BYTES));
+        ByteBuffer accelerations = readBuffer(SSBO_BODY_ACCELERATIONS, numBodies() * Checkpoint.ACCELERATION_BYTES);
+        ByteBuffer bodyStats = readBuffer(SSBO_BODY_STATS, numBodies() * Checkpoint.BODY_STAT_BYTES);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        try {
+            checkpoint.write(path, bodies, accelerations, bodyStats);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write checkpoint: " + path, e);
+        }
 
-    
-        bodiesSSBO.unbind();
+        GPUSimulation.checkGLError("after saveCheckpoint");
+    }
+
+
+
+    /**
+     * Reads the bodies back in the order of their stable ids, in the layout of SSBO_SWAPPING_BODIES_IN. Waits for the GPU.
+     * With block timesteps, bodies between their kicks have their half kicked velocities.
+     * @param bodies the array to fill, numBodies() * Body.STRUCT_SIZE floats
+     */
+    public static void readBodies(float[] bodies) {
+        if (bodies.length < numBodies() * Body.STRUCT_SIZE) {
+            throw new IllegalArgumentException("Expected room for " + numBodies() * Body.STRUCT_SIZE + " floats, got " + bodies.length);
+        }
+        ByteBuffer slots = readBuffer(SSBO_SWAPPING_BODIES_IN, numBodies() * Body.STRUCT_SIZE * Float.BYTES);
+        bodiesInIdOrder(slots).asFloatBuffer().get(bodies, 0, numBodies() * Body.STRUCT_SIZE);
+    }
+
+    /**
+     * Reads the start of an SSBO. Waits for the GPU, and leaves the SSBO bound.
+     * @param ssbo the SSBO to read
+     * @param bytes the number of bytes to read
+     * @return the bytes, in little endian order
+     */
+    private static ByteBuffer readBuffer(SSBO ssbo, int bytes) {
+        ByteBuffer data = BufferUtils.createByteBuffer(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, ssbo.getBufferLocation());
+        glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, data);
+        return data;
+    }
+
+    /**
+     * Reads the counters at the start of the simulation values. Waits for the GPU.
+     * @return numBodies, initialNumBodies, justDied, merged, and outOfBounds
+     */
+    public static int[] readCounters() {
+        IntBuffer values = BufferUtils.createIntBuffer(5);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, SSBO_SIMULATION_VALUES.getBufferLocation());
+        glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, values);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        int[] counters = new int[5];
+        values.get(counters);
+        return counters;
+    }
+
+    /**
+     * Puts the bodies back in the order of their stable ids, undoing any reorder, so saved bodies keep their place.
+     * Slots with no id are dead bodies, and ids with no slot are left as empty bodies.
+     * @param bodies the bodies in slot order, as they are in the bodies SSBO
+     * @return the bodies in id order
+     */
+    private static ByteBuffer bodiesInIdOrder(ByteBuffer bodies) {
+        int bodyBytes = Body.STRUCT_SIZE * Float.BYTES;
+        IntBuffer ids = BufferUtils.createIntBuffer(numBodies());
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, SSBO_BODY_IDS.getBufferLocation());
+        glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, ids);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+
+        ByteBuffer ordered = BufferUtils.createByteBuffer(numBodies() * bodyBytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (int slot = 0; slot < numBodies(); slot++) {
+            int id = ids.get(slot);
+            if (id < 0 || id >= numBodies()) {
+                continue;
+            }
+            ordered.put(id * bodyBytes, bodies, slot * bodyBytes, bodyBytes);
+        }
+        return ordered;
     }
 
+    /**
+     * Gets the byte offset of a variable in its shader storage block, as laid out by the driver.
+     * @param program a program that uses the variable
+     * @param name the name of the variable, prefixed by the name of its block
+     * @return the byte offset of the variable from the start of the block
+     */
+    private static int bufferVariableOffset(ComputeProgram program, String name) {
+        int index = glGetProgramResourceIndex(program.getProgram(), GL_BUFFER_VARIABLE, name);
+        if (index == GL_INVALID_INDEX) {
+            throw new IllegalStateException("Buffer variable " + name + " is not active in " + program.getProgramName());
+        }
+        int[] offset = new int[1];
+        glGetProgramResourceiv(program.getProgram(), GL_BUFFER_VARIABLE, index, new int[] {GL_OFFSET}, null, offset);
+        return offset[0];
+    }
 
+    /**
+     * Reports the number of nodes and leaves each body interacted with in the last force pass.
+     * The mean and max come from the step totals in uintDebug, and the percentiles from the force statistics of the live bodies.
+     * Reads back from the GPU and waits for it, so it is only meant for the end of a run.
+     * @return the report
+     */
+    public static String interactionReport() {
+        // numBodies is the first value. uintDebug follows the 8 counters, the bounds (8), and the units (7 floats, so not 8),
+        // so its offset is asked of the driver rather than counted by hand
+        int uintDebugOffset = bufferVariableOffset(COMPUTE_FORCE_COMPUTE, "SimulationValues.uintDebug[0]") / Integer.BYTES;
+        IntBuffer values = BufferUtils.createIntBuffer(uintDebugOffset + 3);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, SSBO_SIMULATION_VALUES.getBufferLocation());
+        glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, values);
+        int liveBodies = values.get(0);
+        long opened = Integer.toUnsignedLong(values.get(uintDebugOffset));
+        long total = Integer.toUnsignedLong(values.get(uintDebugOffset + 1));
+        int max = values.get(uintDebugOffset + 2);
+        if (liveBodies <= 0) {
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+            return "Interactions per body: no live bodies";
+        }
+
+        IntBuffer index = BufferUtils.createIntBuffer(liveBodies);
+        IntBuffer ids = BufferUtils.createIntBuffer(numBodies());
+        IntBuffer stats = BufferUtils.createIntBuffer(numBodies() * 2);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, SSBO_SWAPPING_INDEX_IN.getBufferLocation());
+        glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, index);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, SSBO_BODY_IDS.getBufferLocation());
+        glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, ids);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, SSBO_BODY_STATS.getBufferLocation());
+        glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, stats);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+
+        int[] interactions = new int[liveBodies];
+        for (int i = 0; i < liveBodies; i++) {
+            interactions[i] = stats.get(2 * ids.get(index.get(i)) + 1);
+        }
+        Arrays.sort(interactions);
+        return String.format("Interactions per body: mean %.1f, p50 %d, p99 %d, max %d (%d nodes opened)",
+            (double) total / liveBodies, interactions[liveBodies / 2], interactions[Math.min(liveBodies - 1, (int) Math.ceil(0.99 * liveBodies) - 1)], max, opened);
+    }
 
     /* --------- Cleanup --------- */
     /**
@@ -1211,8 +2149,21 @@ public class GPU {
         for (RenderProgram program : GPU.RENDER_PROGRAMS.values()) {
             program.delete();
         }
+        // The interaction counts are read back before the buffers are deleted
+        if (GPU.PROFILER != null && GPU.PROFILER.isEnabled()) {
+            System.out.println(interactionReport());
+        }
         for (SSBO ssbo : GPU.SSBOS.values()) {
             ssbo.delete();
         }
+        if (GPU.PROFILER != null) {
+            if (GPU.PROFILER.isEnabled()) {
+                System.out.println(GPU.PROFILER.report());
+            }
+            GPU.PROFILER.delete();
+        }
+        if (GPU.SIMULATION_PARAMETERS != null) {
+            GPU.SIMULATION_PARAMETERS.delete();
+        }
     }
 }
@@ -36,7 +36,21 @@ public final class GPUCommands {
     }
 
 
-    
+    /**
+     * Saves a checkpoint of the simulation.
+     * @return the GPU command to save a checkpoint
+     */
+    public static GPUCommand saveCheckpoint() {
+        return sim -> sim.saveCheckpoint();
+    }
+
+    /**
+     * Starts or stops writing a trajectory of the simulation.
+     * @return the GPU command to toggle the trajectory
+     */
+    public static GPUCommand toggleTrajectory() {
+        return sim -> sim.toggleTrajectory();
+    }
 
     //Functions to be implemented for changing the planet data while a simulation is running
     // // Re-upload existing planet data (same size)
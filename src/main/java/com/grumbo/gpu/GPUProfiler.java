@@ -0,0 +1,320 @@
+package com.grumbo.gpu;
+
+import static org.lwjgl.opengl.GL43C.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * GPUProfiler class for timing the stages of the simulation on the GPU without stalling it.
+ * Each timed dispatch is wrapped in a pair of GL_TIMESTAMP queries taken from a reusable pool.
+ * The queries of a frame are only read back a few frames later, once the GPU reports that the last of them
+ * is available, so the CPU never waits on the GPU. If the GPU falls too far behind, frames are skipped instead.
+ * Per stage, the time of each resolved frame is kept in a rolling window and summarized as percentiles,
+ * along with the number of dispatches the stage took in the latest resolved frame.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class GPUProfiler {
+
+    // The number of resolved frames each stage keeps for its percentiles.
+    private static final int WINDOW_SIZE = 240;
+    // The most frames waiting on their queries. Frames beyond this are not profiled.
+    private static final int MAX_PENDING_FRAMES = 8;
+    // The number of queries generated whenever the pool runs out.
+    private static final int QUERY_BATCH_SIZE = 64;
+    private static final String TOTAL_STAGE = "total";
+
+    /**
+     * The queries issued during one frame. Intervals are stored as (stage, start query, end query).
+     */
+    private static final class Frame {
+        private final ArrayList<String> stages = new ArrayList<>();
+        private int[] queries = new int[2 * QUERY_BATCH_SIZE];
+        private int numIntervals;
+
+        private void add(String stage, int startQuery, int endQuery) {
+            if (2 * numIntervals + 2 > queries.length) {
+                queries = Arrays.copyOf(queries, queries.length * 2);
+            }
+            stages.add(stage);
+            queries[2 * numIntervals] = startQuery;
+            queries[2 * numIntervals + 1] = endQuery;
+            numIntervals++;
+        }
+
+        private int lastQuery() {
+            return queries[2 * numIntervals - 1];
+        }
+    }
+
+    /**
+     * The rolling window of frame times of one stage, in nanoseconds.
+     */
+    private static final class Stage {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int numSamples;
+        private int next;
+        private long frameTime;
+        private int frameDispatches;
+        // The number of dispatches in the latest resolved frame.
+        private int dispatches;
+        private boolean inFrame;
+
+        private void addSample(long sample) {
+            samples[next] = sample;
+            next = (next + 1) % WINDOW_SIZE;
+            numSamples = Math.min(numSamples + 1, WINDOW_SIZE);
+        }
+
+        private long[] sortedSamples() {
+            long[] sorted = Arrays.copyOf(samples, numSamples);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    private boolean enabled;
+    private int[] freeQueries = new int[0];
+    private int numFreeQueries;
+    private final ArrayList<Integer> allQueries = new ArrayList<>();
+    private final ArrayDeque<Frame> pendingFrames = new ArrayDeque<>();
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+    private Frame currentFrame;
+    private boolean skippingFrame;
+    private String openStage;
+    private int openQuery;
+    private long skippedFrames;
+
+    /**
+     * Constructor for the GPUProfiler class. Profiling starts disabled.
+     */
+    public GPUProfiler() {
+        this.enabled = false;
+    }
+
+    /**
+     * Starts timing a stage. Must be followed by end() before the next begin().
+     * @param stage the name of the stage
+     */
+    public void begin(String stage) {
+        if (!enabled) {
+            return;
+        }
+        if (openStage != null) {
+            throw new IllegalStateException("Profiler stage " + openStage + " was not ended before " + stage);
+        }
+        if (currentFrame == null && !skippingFrame) {
+            if (pendingFrames.size() >= MAX_PENDING_FRAMES) {
+                skippingFrame = true;
+                skippedFrames++;
+            } else {
+                currentFrame = new Frame();
+            }
+        }
+        openStage = stage;
+        if (!skippingFrame) {
+            openQuery = acquireQuery();
+            glQueryCounter(openQuery, GL_TIMESTAMP);
+        }
+    }
+
+    /**
+     * Stops timing the stage started by the last begin().
+     */
+    public void end() {
+        if (!enabled || openStage == null) {
+            return;
+        }
+        if (!skippingFrame) {
+            int endQuery = acquireQuery();
+            glQueryCounter(endQuery, GL_TIMESTAMP);
+            currentFrame.add(openStage, openQuery, endQuery);
+        }
+        openStage = null;
+    }
+
+    /**
+     * Ends the current frame and resolves every earlier frame whose queries are available. Never waits on the GPU.
+     */
+    public void endFrame() {
+        if (!enabled) {
+            return;
+        }
+        if (currentFrame != null && currentFrame.numIntervals > 0) {
+            pendingFrames.add(currentFrame);
+        }
+        currentFrame = null;
+        skippingFrame = false;
+        resolveAvailableFrames();
+    }
+
+    /**
+     * Resolves pending frames in order, stopping at the first one the GPU has not finished.
+     */
+    private void resolveAvailableFrames() {
+        while (!pendingFrames.isEmpty()) {
+            Frame frame = pendingFrames.peek();
+            if (glGetQueryObjecti(frame.lastQuery(), GL_QUERY_RESULT_AVAILABLE) == GL_FALSE) {
+                return;
+            }
+            pendingFrames.poll();
+            long total = 0;
+            for (int i = 0; i < frame.numIntervals; i++) {
+                int startQuery = frame.queries[2 * i];
+                int endQuery = frame.queries[2 * i + 1];
+                long time = glGetQueryObjectui64(endQuery, GL_QUERY_RESULT) - glGetQueryObjectui64(startQuery, GL_QUERY_RESULT);
+                releaseQuery(startQuery);
+                releaseQuery(endQuery);
+                Stage stage = stages.computeIfAbsent(frame.stages.get(i), name -> new Stage());
+                stage.frameTime += time;
+                stage.frameDispatches++;
+                stage.inFrame = true;
+                total += time;
+            }
+            for (Stage stage : stages.values()) {
+                if (stage.inFrame) {
+                    stage.addSample(stage.frameTime);
+                    stage.dispatches = stage.frameDispatches;
+                    stage.frameTime = 0;
+                    stage.frameDispatches = 0;
+                    stage.inFrame = false;
+                }
+            }
+            Stage totalStage = stages.computeIfAbsent(TOTAL_STAGE, name -> new Stage());
+            totalStage.addSample(total);
+            totalStage.dispatches = frame.numIntervals;
+        }
+    }
+
+    /**
+     * Gets a query from the pool, generating a new batch if it is empty.
+     * @return the query
+     */
+    private int acquireQuery() {
+        if (numFreeQueries == 0) {
+            int[] batch = new int[QUERY_BATCH_SIZE];
+            glGenQueries(batch);
+            // The free list can hold every query, so releasing never has to grow it.
+            freeQueries = new int[allQueries.size() + QUERY_BATCH_SIZE];
+            for (int query : batch) {
+                allQueries.add(query);
+                freeQueries[numFreeQueries++] = query;
+            }
+        }
+        return freeQueries[--numFreeQueries];
+    }
+
+    /**
+     * Returns a query to the pool.
+     * @param query the query
+     */
+    private void releaseQuery(int query) {
+        freeQueries[numFreeQueries++] = query;
+    }
+
+    /**
+     * Gets a report of the rolling percentiles of every stage, in milliseconds, and their dispatches in the latest resolved frame.
+     * @return the report
+     */
+    public String report() {
+        if (!enabled) {
+            return "";
+        }
+        StringBuilder report = new StringBuilder("GPU time per step (ms)         p50     p90     p99  dispatches\n");
+        Stage totalStage = stages.get(TOTAL_STAGE);
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            if (entry.getValue() != totalStage) {
+                appendStage(report, entry.getKey(), entry.getValue());
+            }
+        }
+        if (totalStage != null) {
+            appendStage(report, TOTAL_STAGE, totalStage);
+        }
+        report.append(String.format("frames in flight: %d, skipped: %d%n", pendingFrames.size(), skippedFrames));
+        return report.toString();
+    }
+
+    /**
+     * Appends the percentiles and dispatches of a stage to a report.
+     * @param report the report
+     * @param name the name of the stage
+     * @param stage the stage
+     */
+    private static void appendStage(StringBuilder report, String name, Stage stage) {
+        if (stage.numSamples == 0) {
+            return;
+        }
+        long[] sorted = stage.sortedSamples();
+        report.append(String.format("%-28s %7.3f %7.3f %7.3f %11d%n", name,
+            percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.90) / 1e6, percentile(sorted, 0.99) / 1e6, stage.dispatches));
+    }
+
+    /**
+     * Gets a percentile of sorted samples with the nearest rank method.
+     * @param sorted the sorted samples, not empty
+     * @param p the percentile, between 0 and 1
+     * @return the percentile
+     */
+    private static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+    }
+
+    /**
+     * Clears the percentiles of every stage. Pending frames are still resolved.
+     */
+    public void reset() {
+        stages.clear();
+        skippedFrames = 0;
+    }
+
+    /**
+     * Gets whether the profiler is enabled.
+     * @return whether the profiler is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether the profiler is enabled. Disabling drops the frame in progress.
+     * @param enabled whether the profiler is enabled
+     */
+    public void setEnabled(boolean enabled) {
+        if (!enabled && currentFrame != null) {
+            for (int i = 0; i < 2 * currentFrame.numIntervals; i++) {
+                releaseQuery(currentFrame.queries[i]);
+            }
+            currentFrame = null;
+        }
+        if (!enabled && openStage != null && !skippingFrame) {
+            releaseQuery(openQuery);
+        }
+        openStage = null;
+        skippingFrame = false;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Deletes every query of the pool.
+     */
+    public void delete() {
+        int[] queries = new int[allQueries.size()];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = allQueries.get(i);
+        }
+        if (queries.length > 0) {
+            glDeleteQueries(queries);
+        }
+        allQueries.clear();
+        pendingFrames.clear();
+        freeQueries = new int[0];
+        numFreeQueries = 0;
+        currentFrame = null;
+    }
+}
@@ -7,7 +7,8 @@ import java.util.ArrayList;
 /**
  * Java Analog to the Node struct in the shader code:
  * struct Node { vec4 comMass; float[6] aabb; uint childA; uint childB; uint nodeDepth;
- *               uint bodiesContained; uint readyChildren; uint parentId; vec4 avgColor; };
+ *               uint bodiesContained; uint readyChildren; uint parentId; vec4 avgColor;
+ *               uint nextNode; float[6] quadrupole; uint pad0; };
  * 
  * @author Grumbo
  * @version 1.0
@@ -25,6 +26,9 @@ public class Node {
     //     uint readyChildren; // atomic counter representing the number of ready children. It is set to 0xFFFFFFFF once the node has been processed.
     //     uint parentId;     // parent node index (0xFFFFFFFF for root)
     //     vec4 avgColor;     // mass-weighted average star RGB (w unused)
+    //     uint nextNode;     // rope: node to visit after this node's subtree (0xFFFFFFFF after the last leaf)
+    //     float[6] quadrupole; // traceless quadrupole about the center of mass (xx, yy, zz, xy, xz, yz), 0 for leaves
+    //     uint pad0;
     //   };
     // -----
 
@@ -37,8 +41,10 @@ public class Node {
     public static final int READY_CHILDREN_OFFSET = 14;
     public static final int PARENT_ID_OFFSET = 15;
     public static final int AVG_COLOR_OFFSET = 16;
+    public static final int NEXT_NODE_OFFSET = 20;
+    public static final int QUADRUPOLE_OFFSET = 21;
 
-    public static final int STRUCT_SIZE = 20;
+    public static final int STRUCT_SIZE = 28;
     public static final GLSLVariable comMassGLSL = new GLSLVariable(VariableType.FLOAT, "comMass", 4);
     public static final GLSLVariable aabbGLSL = new GLSLVariable(VariableType.FLOAT, "aabb", 6);
     public static final GLSLVariable childAGLSL = new GLSLVariable(VariableType.UINT, "childA", 1);
@@ -48,7 +54,10 @@ public class Node {
     public static final GLSLVariable readyChildrenGLSL = new GLSLVariable(VariableType.UINT, "readyChildren", 1);
     public static final GLSLVariable parentIdGLSL = new GLSLVariable(VariableType.UINT, "parentId", 1);
     public static final GLSLVariable avgColorGLSL = new GLSLVariable(VariableType.FLOAT, "avgColor", 4);
-    public static final GLSLVariable nodeStruct = new GLSLVariable(new GLSLVariable[] {comMassGLSL, aabbGLSL, childAGLSL, childBGLSL, nodeDepthGLSL, bodiesContainedGLSL, readyChildrenGLSL, parentIdGLSL, avgColorGLSL}, "Node");
+    public static final GLSLVariable nextNodeGLSL = new GLSLVariable(VariableType.UINT, "nextNode", 1);
+    public static final GLSLVariable quadrupoleGLSL = new GLSLVariable(VariableType.FLOAT, "quadrupole", 6);
+    public static final GLSLVariable padGLSL = new GLSLVariable(VariableType.PADDING);
+    public static final GLSLVariable nodeStruct = new GLSLVariable(new GLSLVariable[] {comMassGLSL, aabbGLSL, childAGLSL, childBGLSL, nodeDepthGLSL, bodiesContainedGLSL, readyChildrenGLSL, parentIdGLSL, avgColorGLSL, nextNodeGLSL, quadrupoleGLSL, padGLSL}, "Node");
 
     public float[] comMass;
     public float[] aabb;
@@ -59,6 +68,8 @@ public class Node {
     public int readyChildren;
     public int parentId;
     public float[] avgColor;
+    public int nextNode;
+    public float[] quadrupole;
     public boolean isLeaf;
     /**
      * Constructor for the Node class.
@@ -71,9 +82,11 @@ public class Node {
      * @param readyChildren the number of ready children of the node
      * @param parentId the index of the parent node
      * @param avgColor mass-weighted average star color (rgb + pad)
+     * @param nextNode the index of the node visited after this node's subtree
+     * @param quadrupole the traceless quadrupole moment about the center of mass as float[6] (xx, yy, zz, xy, xz, yz)
      * @param isLeaf whether the node is a leaf node
      */
-    public Node(float[] comMass, float[] aabb, int childA, int childB, int nodeDepth, int bodiesContained, int readyChildren, int parentId, float[] avgColor, boolean isLeaf) {
+    public Node(float[] comMass, float[] aabb, int childA, int childB, int nodeDepth, int bodiesContained, int readyChildren, int parentId, float[] avgColor, int nextNode, float[] quadrupole, boolean isLeaf) {
 
         this.comMass = comMass;
         this.aabb = aabb;
@@ -84,6 +97,8 @@ public class Node {
         this.readyChildren = readyChildren;
         this.parentId = parentId;
         this.avgColor = avgColor;
+        this.nextNode = nextNode;
+        this.quadrupole = quadrupole;
         this.isLeaf = isLeaf;
     }
 
@@ -97,6 +112,7 @@ public class Node {
         this.comMass = new float[4];
         this.aabb = new float[6];
         this.avgColor = new float[4];
+        this.quadrupole = new float[6];
 
         this.comMass[0] = Float.intBitsToFloat(buffer.get(index * STRUCT_SIZE + COM_MASS_OFFSET));
         this.comMass[1] = Float.intBitsToFloat(buffer.get(index * STRUCT_SIZE + COM_MASS_OFFSET + 1));
@@ -123,6 +139,11 @@ public class Node {
         this.avgColor[2] = Float.intBitsToFloat(buffer.get(index * STRUCT_SIZE + AVG_COLOR_OFFSET + 2));
         this.avgColor[3] = Float.intBitsToFloat(buffer.get(index * STRUCT_SIZE + AVG_COLOR_OFFSET + 3));
 
+        this.nextNode = buffer.get(index * STRUCT_SIZE + NEXT_NODE_OFFSET);
+        for (int i = 0; i < 6; i++) {
+            this.quadrupole[i] = Float.intBitsToFloat(buffer.get(index * STRUCT_SIZE + QUADRUPOLE_OFFSET + i));
+        }
+
         this.isLeaf = index*STRUCT_SIZE<buffer.capacity()/2;
 
     }
@@ -196,6 +217,8 @@ public class Node {
                 ", readyChildren=" + readyChildren +
                 ", parentId=" + parentId +
                 ", avgColor=" + Arrays.toString(avgColor) +
+                ", nextNode=" + nextNode +
+                ", quadrupole=" + Arrays.toString(quadrupole) +
                 '}' + marker;
     }
 
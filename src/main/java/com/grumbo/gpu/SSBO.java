@@ -36,6 +36,19 @@ public class SSBO {
     // layout(std430, binding = 13) buffer RadixBucketTotals  { uint bucketTotals[NUM_BUCKETS]; uint globalBase[NUM_BUCKETS];};
     // layout(std430, binding = 14) buffer MergeTasks         { uint mergeTasksHead; uint mergeTasksTail; uvec2 mergeTasks[];};
     // layout(std430, binding = 15) buffer MergeBodyLocks     { uint bodyLocks[]; };
+    // layout(std430, binding = 16) buffer DispatchIndirect   { DispatchCommand bodiesDispatch; DispatchCommand internalNodesDispatch; DispatchCommand propagateDispatch[PROPAGATE_NODES_ITERATIONS];
+    //                                                          DispatchCommand sortDispatch; DispatchCommand coherentDispatch; DispatchCommand outlierDispatch; DispatchCommand activeDispatch; };
+    // layout(std430, binding = 17) buffer RadixOnesweepGlobal { uint onesweepTileCounter[RADIX_PASSES]; uint onesweepHist[RADIX_PASSES * NUM_BUCKETS]; uint onesweepBase[RADIX_PASSES * NUM_BUCKETS]; };
+    // layout(std430, binding = 18) coherent buffer RadixPartitionStatus { uint partitionStatus[]; };
+    // layout(std430, binding = 19) buffer CoherentScan       { uint coherentOutliers; uint coherentFailures; uint coherentSorts; uint coherentFallbacks; uint outlierScan[]; };
+    // layout(std430, binding = 20) buffer CoherentOutliers   { Outlier outliers[]; };
+    // layout(std430, binding = 21) buffer BodyIds            { uint bodyIds[]; };
+    // layout(std430, binding = 22) buffer BodySlots          { uint bodySlots[]; };
+    // layout(std430, binding = 23) buffer BodyStats          { BodyStat bodyStats[]; };
+    // layout(std430, binding = 24) buffer BodyAccelerations  { vec4 accelerations[]; };
+    // layout(std430, binding = 25) buffer ActiveBodies       { uint numActive; uint activeList[]; };
+    // layout(std430, binding = 26) buffer PMDensity          { uint pmDensity[]; };
+    // layout(std430, binding = 27) buffer PMForce            { vec4 pmForce[]; };
 
     public static final int LEAF_NODES_BINDING = 0;
     public static final int INTERNAL_NODES_BINDING = 1;
@@ -53,6 +66,18 @@ public class SSBO {
     public static final int RADIX_BUCKET_TOTALS_BINDING = 13;
     public static final int MERGE_QUEUE_BINDING = 14;
     public static final int MERGE_BODY_LOCKS_BINDING = 15;
+    public static final int DISPATCH_INDIRECT_BINDING = 16;
+    public static final int ONESWEEP_GLOBAL_BINDING = 17;
+    public static final int ONESWEEP_STATUS_BINDING = 18;
+    public static final int COHERENT_SCAN_BINDING = 19;
+    public static final int COHERENT_OUTLIERS_BINDING = 20;
+    public static final int BODY_IDS_BINDING = 21;
+    public static final int BODY_SLOTS_BINDING = 22;
+    public static final int BODY_STATS_BINDING = 23;
+    public static final int BODY_ACCELERATIONS_BINDING = 24;
+    public static final int ACTIVE_BODIES_BINDING = 25;
+    public static final int PM_DENSITY_BINDING = 26;
+    public static final int PM_FORCE_BINDING = 27;
 
 
     // Buffer location of the SSBO
@@ -0,0 +1,153 @@
+package com.grumbo.gpu;
+
+import static org.lwjgl.opengl.GL43C.*;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.BufferUtils;
+
+import com.grumbo.simulation.Settings;
+
+/**
+ * SimulationParameters class for the per-step values shared by the compute shaders (dt, theta, softening, ...).
+ * Instead of uploading each value to every program as a uniform, they are packed into one std140 uniform buffer
+ * that is bound once per step. The buffer is only repacked and uploaded when a setting has changed since the last snapshot.
+ * The layout must match the SimulationParameters block in common.glsl.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class SimulationParameters {
+
+    // Uniform buffer binding set in common.glsl
+    public static final int BINDING = 0;
+    // 22 scalars of 4 bytes, rounded up to a multiple of a vec4 as std140 does for the block
+    public static final int SIZE = 24 * Integer.BYTES;
+    // Restitution of overlapping bodies in collisions
+    public static final float RESTITUTION = 0.2f;
+    // Most block timestep levels, so the shortest step is at least dt / 2^16
+    public static final int MAX_TIMESTEP_LEVELS = 16;
+    // Largest particle mesh grid, so the grid and its transforms stay within a few GB
+    public static final int MAX_PM_GRID_SIZE = 256;
+
+    private final int bufferLocation;
+    private final ByteBuffer data;
+    private final int numWorkGroups;
+    // The settings modification count of the last snapshot, or -1 if no snapshot has been uploaded
+    private long snapshotModificationCount;
+
+    /**
+     * Constructor for the SimulationParameters class. Creates the uniform buffer, the first snapshot is uploaded by update().
+     * @param numWorkGroups the number of work groups covering every body
+     */
+    public SimulationParameters(int numWorkGroups) {
+        this.numWorkGroups = numWorkGroups;
+        this.data = BufferUtils.createByteBuffer(SIZE);
+        this.snapshotModificationCount = -1;
+        this.bufferLocation = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, bufferLocation);
+        glBufferData(GL_UNIFORM_BUFFER, SIZE, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+    }
+
+    /**
+     * Uploads a new snapshot if the settings have changed, and binds the uniform buffer. Called once per step.
+     */
+    public void update() {
+        Settings settings = Settings.getInstance();
+        long modificationCount = settings.getModificationCount();
+        if (modificationCount != snapshotModificationCount) {
+            pack(settings, numWorkGroups, data);
+            glBindBuffer(GL_UNIFORM_BUFFER, bufferLocation);
+            glBufferSubData(GL_UNIFORM_BUFFER, 0, data);
+            glBindBuffer(GL_UNIFORM_BUFFER, 0);
+            snapshotModificationCount = modificationCount;
+        }
+        glBindBufferBase(GL_UNIFORM_BUFFER, BINDING, bufferLocation);
+    }
+
+    /**
+     * Forces the next update() to upload a new snapshot.
+     */
+    public void markDirty() {
+        snapshotModificationCount = -1;
+    }
+
+    /**
+     * Packs a snapshot of the settings in the std140 layout of the SimulationParameters block.
+     * @param settings the settings to snapshot
+     * @param numWorkGroups the number of work groups covering every body
+     * @param buf the buffer to pack into, with at least SIZE bytes. Its position is reset to 0.
+     * @return the packed buffer
+     */
+    public static ByteBuffer pack(Settings settings, int numWorkGroups, ByteBuffer buf) {
+        buf.clear();
+        buf.putFloat(settings.getDt()); // dt
+        buf.putFloat(settings.getTheta()); // theta
+        buf.putFloat(settings.getSoftening()); // softening
+        buf.putFloat(settings.getElasticity()); // elasticity
+        buf.putFloat(RESTITUTION); // restitution
+        buf.putInt(settings.getSelectedIndexMergingCollisionOrNeither()); // mergingCollisionOrNeither
+        buf.putInt(settings.isWrapAround() ? 1 : 0); // wrapAround
+        buf.putInt(settings.getSelectedIndexDynamic()); // staticOrDynamic
+        buf.putInt(numWorkGroups); // numWorkGroups
+        buf.putFloat(settings.getMass()); // mass
+        buf.putFloat(settings.getDensity()); // density
+        buf.putFloat(settings.getLength()); // len
+        buf.putFloat(settings.getTime()); // time
+        buf.putFloat(settings.getCoherentSortThreshold()); // coherentSortThreshold
+        buf.putInt(settings.isQuadrupoles() ? 1 : 0); // quadrupoles
+        buf.putInt(settings.getSelectedIndexOpeningCriterion()); // openingCriterion
+        buf.putFloat(settings.getForceErrorTolerance()); // forceErrorTolerance
+        buf.putInt(settings.getSelectedIndexIntegrator()); // integrator
+        buf.putInt(timestepLevels(settings)); // timestepLevels
+        buf.putFloat(settings.getTimestepAccuracy()); // timestepAccuracy
+        buf.putInt(Math.min(pmGridSize(settings), GPU.PM_GRID_SIZE)); // pmGridSize
+        buf.putFloat(settings.getPmSplitScale()); // pmSplitScale
+        while (buf.position() < SIZE) {
+            buf.putInt(0); // padding
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Gets the number of block timestep levels in use. Block timesteps need the leapfrog, so this is 0 with the other integrator.
+     * @param settings the settings to read
+     * @return the timestepLevels setting clamped to [0, MAX_TIMESTEP_LEVELS], or 0 if the leapfrog is not selected
+     */
+    public static int timestepLevels(Settings settings) {
+        if (!settings.getIntegrator().equals("leapfrog")) {
+            return 0;
+        }
+        return Math.max(0, Math.min(settings.getTimestepLevels(), MAX_TIMESTEP_LEVELS));
+    }
+
+    /**
+     * Gets the size of the particle mesh grid in use. The mesh needs a periodic box, so this is 0 unless the bounds are static and wrap around.
+     * @param settings the settings to read
+     * @return the pmGridSize setting rounded down to a power of 2 and clamped to [2, MAX_PM_GRID_SIZE], or 0 if the mesh is off
+     */
+    public static int pmGridSize(Settings settings) {
+        if (settings.getPmGridSize() <= 0 || !settings.isWrapAround() || !settings.getDynamic().equals("static")) {
+            return 0;
+        }
+        return roundPmGridSize(settings.getPmGridSize());
+    }
+
+    /**
+     * Rounds a particle mesh grid size to one the mesh can use.
+     * @param gridSize the grid size, at least 1
+     * @return the grid size rounded down to a power of 2 and clamped to [2, MAX_PM_GRID_SIZE]
+     */
+    public static int roundPmGridSize(int gridSize) {
+        return Math.max(2, Math.min(Integer.highestOneBit(gridSize), MAX_PM_GRID_SIZE));
+    }
+
+    /**
+     * Deletes the uniform buffer.
+     */
+    public void delete() {
+        glDeleteBuffers(bufferLocation);
+    }
+}
@@ -71,17 +71,15 @@ public class Uniform<T> {
     }
 
     /**
-     * Uploads the uniform to the shader.
+     * Uploads the uniform to the shader. The location is looked up once per program and cached.
      * @param program the program to upload the uniform to
      */
     public void uploadToShader(int program) {
-        if (cachedLocations.containsKey(program)) {
-            type.uploadToShader(program, name, getValue());
-        } else {
-            int location = glGetUniformLocation(program, name);
+        Integer location = cachedLocations.get(program);
+        if (location == null) {
+            location = glGetUniformLocation(program, name);
             cachedLocations.put(program, location);
-            type.uploadToShader(program, name, getValue());
         }
-        type.uploadToShader(program, name, getValue());
+        type.uploadToShader(location, getValue());
     }
 }
\ No newline at end of file
@@ -63,12 +63,21 @@ public enum VariableType {
         this.v = v;
     }
     /**
-     * Uploads the value to the shader. Used in Uniform class.
+     * Uploads the value to the shader, looking up the uniform location by name every call.
      * @param program the program to upload the value to
      * @param name the name of the uniform
      * @param value the value to upload
      */
     public void uploadToShader(int program, String name, Object value) {
+        uploadToShader(glGetUniformLocation(program, name), value);
+    }
+
+    /**
+     * Uploads the value to the shader at a known uniform location. Used in Uniform class.
+     * @param location the location of the uniform given by glGetUniformLocation, -1 is ignored by OpenGL
+     * @param value the value to upload
+     */
+    public void uploadToShader(int location, Object value) {
         if (!javaClass.isInstance(value)) {
             throw new IllegalArgumentException("Uniform type mismatch: " + javaClass.getSimpleName() + " != " + value.getClass().getSimpleName());
         }
@@ -77,35 +86,35 @@ public enum VariableType {
         }
         switch (this) {
             case INT:
-                glUniform1i(glGetUniformLocation(program, name), (Integer) value);
+                glUniform1i(location, (Integer) value);
                 break;
             case UINT:
-                glUniform1ui(glGetUniformLocation(program, name), (Integer) value);
+                glUniform1ui(location, (Integer) value);
                 break;
             case FLOAT:
-                glUniform1f(glGetUniformLocation(program, name), (Float) value);
+                glUniform1f(location, (Float) value);
                 break;
             case BOOL:
-                glUniform1ui(glGetUniformLocation(program, name), (Boolean) value ? 1 : 0);
+                glUniform1ui(location, (Boolean) value ? 1 : 0);
                 break;
             case UINT64:
                 long longValue = (Long) value;
                 int high = (int) (longValue >>> 32);
                 int low = (int) longValue;
-                glUniform2ui(glGetUniformLocation(program, name), high, low);
+                glUniform2ui(location, high, low);
                 break;
             case MAT4:
-                glUniformMatrix4fv(glGetUniformLocation(program, name),  false, ((Matrix4f) value).get(new float[16]));
+                glUniformMatrix4fv(location,  false, ((Matrix4f) value).get(new float[16]));
                 break;
             case VEC3F:
                 FloatBuffer vec3Array = BufferUtils.createFloatBuffer(3);
                 ((Vector3f) value).get(vec3Array);
-                glUniform3fv(glGetUniformLocation(program, name), vec3Array);
+                glUniform3fv(location, vec3Array);
                 break;
             case VEC2I:
                 IntBuffer vec2Array = BufferUtils.createIntBuffer(2);
                 ((Vector2i) value).get(vec2Array);
-                glUniform2iv(glGetUniformLocation(program, name), vec2Array);
+                glUniform2iv(location, vec2Array);
                 break;
             default:
                 throw new IllegalArgumentException("Invalid type: " + this);
@@ -0,0 +1,338 @@
+package com.grumbo.record;
+
+import static org.lwjgl.opengl.GL44C.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.system.MemoryUtil;
+
+import com.grumbo.gpu.Body;
+
+/**
+ * Streams body snapshots from the GPU to a trajectory file without stalling the simulation loop.
+ * Each capture copies the bodies SSBO into a slot of a ring of persistently mapped readback buffers on the GPU
+ * and places a fence after the copy. Once the fence has signaled, a writer thread transposes the slot into
+ * columns and writes it to its place in the file, so captures never map a buffer or wait on the disk.
+ * Usage:
+ * - call start(config) from the GL thread
+ * - call capture(step, bodiesBuffer, bodyIdsBuffer, valuesBuffer) from the GL thread after each simulation step to record
+ * - call stop() from the GL thread to flush and close the file
+ *
+ * File format (little endian):
+ * - header of HEADER_SIZE bytes: long magic, int version, int headerSize, int initialNumBodies, int numColumns,
+ *   then the unit set as double mass, density, len, time, padded to HEADER_SIZE
+ * - frames of FRAME_HEADER_SIZE + numColumns * initialNumBodies * 4 bytes: int step, int numBodies, 2 ints padding,
+ *   then numColumns columns of initialNumBodies floats. Columns are in Body order: x, y, z, mass, then xVel, yVel, zVel, density when velocities are written.
+ * Frames have a fixed size, so frame k starts at HEADER_SIZE + k * frameSize and the number of frames follows from the file size.
+ * Each body is written at the column index of its stable id, so bodies keep their place when the simulation reorders them in memory.
+ * Dead bodies keep their place with every column 0.
+ */
+public class TrajectoryRecorder {
+    public static final long MAGIC = 0x4A41525456415247L; // "GRAVTRAJ" in little endian
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int FRAME_HEADER_SIZE = 4 * Integer.BYTES;
+    public static final int POSITION_COLUMNS = 4;
+    public static final int ALL_COLUMNS = 8;
+
+    private static final int BODY_BYTES = Body.STRUCT_SIZE * Float.BYTES;
+    // Id of an empty slot in the body ids buffer, NO_BODY in common.glsl
+    public static final int NO_BODY_ID = -1;
+    private static final long FENCE_TIMEOUT_NANOS = 1_000_000_000L;
+
+    public static class Config {
+        public final Path outputFile;
+        public final int initialNumBodies;
+        public final boolean withVelocities;
+        public final int ringSize;
+        public final int writerThreads;
+        public final double[] units;
+
+        /**
+         * @param outputFile the trajectory file to write
+         * @param initialNumBodies the number of bodies in the bodies SSBO
+         * @param withVelocities whether to write the velocity and density columns as well as position and mass
+         * @param ringSize the number of readback buffers. More buffers let captures run further ahead of the writers.
+         * @param writerThreads the number of threads writing frames to disk
+         * @param units the unit set of the bodies as {mass, density, len, time}
+         */
+        public Config(Path outputFile, int initialNumBodies, boolean withVelocities, int ringSize, int writerThreads, double[] units) {
+            this.outputFile = Objects.requireNonNull(outputFile);
+            this.initialNumBodies = initialNumBodies;
+            this.withVelocities = withVelocities;
+            this.ringSize = Math.max(2, ringSize);
+            this.writerThreads = Math.max(1, writerThreads);
+            this.units = units.clone();
+        }
+    }
+
+    /**
+     * A readback buffer of the ring. Owned by the GL thread unless it is being written.
+     * The mapping is kept as an address rather than a ByteBuffer, so slots can be larger than 2 GB.
+     */
+    private static class Slot {
+        final int buffer;
+        final long address;
+        long fence;
+        int step;
+        long frameIndex;
+        volatile boolean writing;
+
+        Slot(int buffer, long address) {
+            this.buffer = buffer;
+            this.address = address;
+        }
+    }
+
+    private Config config;
+    private FileChannel channel;
+    private ExecutorService writers;
+    private Slot[] slots;
+    private final ArrayDeque<Slot> inFlight = new ArrayDeque<>();
+    private int nextSlot;
+    private long framesCaptured;
+    private long bodiesBytes;
+    private long bodyIdsBytes;
+    private long frameBytes;
+    private volatile IOException writeError;
+    private boolean running = false;
+
+    /**
+     * Starts a trajectory. Must be called on the GL thread.
+     * @param config the configuration of the trajectory
+     */
+    public void start(Config config) {
+        if (running) return;
+        this.config = config;
+        int numColumns = config.withVelocities ? ALL_COLUMNS : POSITION_COLUMNS;
+        this.bodiesBytes = (long) config.initialNumBodies * BODY_BYTES;
+        this.bodyIdsBytes = (long) config.initialNumBodies * Integer.BYTES;
+        this.frameBytes = FRAME_HEADER_SIZE + (long) numColumns * config.initialNumBodies * Float.BYTES;
+        if ((long) config.initialNumBodies * Float.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many bodies for a trajectory column: " + config.initialNumBodies);
+        }
+        try {
+            Path parent = config.outputFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = FileChannel.open(config.outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(MAGIC).putInt(VERSION).putInt(HEADER_SIZE).putInt(config.initialNumBodies).putInt(numColumns);
+            for (double unit : config.units) {
+                header.putDouble(unit);
+            }
+            header.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create trajectory file: " + e.getMessage(), e);
+        }
+
+        // Each slot holds the bodies followed by the numBodies value of the simulation values, then the id of each body.
+        long slotBytes = bodiesBytes + Integer.BYTES + bodyIdsBytes;
+        int flags = GL_MAP_READ_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+        slots = new Slot[config.ringSize];
+        for (int i = 0; i < slots.length; i++) {
+            int buffer = glGenBuffers();
+            glBindBuffer(GL_COPY_WRITE_BUFFER, buffer);
+            glBufferStorage(GL_COPY_WRITE_BUFFER, slotBytes, flags);
+            long address = nglMapBufferRange(GL_COPY_WRITE_BUFFER, 0, slotBytes, flags);
+            if (address == MemoryUtil.NULL) {
+                glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+                throw new RuntimeException("Failed to map trajectory readback buffer " + i);
+            }
+            slots[i] = new Slot(buffer, address);
+        }
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+
+        writers = Executors.newFixedThreadPool(config.writerThreads);
+        nextSlot = 0;
+        framesCaptured = 0;
+        writeError = null;
+        running = true;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Gets the number of frames captured so far.
+     * @return the number of frames
+     */
+    public long getFramesCaptured() {
+        return framesCaptured;
+    }
+
+    /**
+     * Captures the current bodies. Call from the GL thread after a simulation step.
+     * Only queues a copy on the GPU. The frame is written once the copy has finished.
+     * @param step the step of the simulation
+     * @param bodiesBuffer the GL buffer holding the current bodies
+     * @param bodyIdsBuffer the GL buffer holding the stable id of the body in each slot, or NO_BODY_ID for an empty slot
+     * @param valuesBuffer the GL buffer holding the simulation values, whose first uint is numBodies
+     */
+    public void capture(int step, int bodiesBuffer, int bodyIdsBuffer, int valuesBuffer) {
+        if (!running) return;
+        if (writeError != null) {
+            System.err.println("Stopping trajectory after write error: " + writeError.getMessage());
+            stop();
+            return;
+        }
+        retireFinished(false);
+        Slot slot = slots[nextSlot];
+        // Only waits when the whole ring is still in use, which means the writers cannot keep up.
+        while (slot.writing || inFlight.contains(slot)) {
+            if (!inFlight.isEmpty()) {
+                retireFinished(true);
+            } else {
+                try { Thread.sleep(1); } catch (InterruptedException ignored) {}
+            }
+        }
+        nextSlot = (nextSlot + 1) % slots.length;
+
+        // The step's last dispatch only made its writes visible to shader storage, so make them visible to buffer copies too
+        glMemoryBarrier(GL_BUFFER_UPDATE_BARRIER_BIT);
+        glBindBuffer(GL_COPY_READ_BUFFER, bodiesBuffer);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, slot.buffer);
+        glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, 0, bodiesBytes);
+        glBindBuffer(GL_COPY_READ_BUFFER, valuesBuffer);
+        glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, bodiesBytes, Integer.BYTES);
+        glBindBuffer(GL_COPY_READ_BUFFER, bodyIdsBuffer);
+        glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, bodiesBytes + Integer.BYTES, bodyIdsBytes);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+
+        slot.fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        slot.step = step;
+        slot.frameIndex = framesCaptured++;
+        inFlight.add(slot);
+    }
+
+    /**
+     * Hands the slots whose copies have finished to the writers, oldest first.
+     * @param waitForOldest whether to wait for the oldest copy to finish
+     */
+    private void retireFinished(boolean waitForOldest) {
+        while (!inFlight.isEmpty()) {
+            Slot slot = inFlight.peek();
+            int status;
+            if (waitForOldest) {
+                do {
+                    status = glClientWaitSync(slot.fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NANOS);
+                } while (status == GL_TIMEOUT_EXPIRED);
+                waitForOldest = false;
+            } else {
+                status = glClientWaitSync(slot.fence, 0, 0);
+            }
+            if (status == GL_TIMEOUT_EXPIRED) {
+                return;
+            }
+            inFlight.poll();
+            glDeleteSync(slot.fence);
+            if (status == GL_WAIT_FAILED) {
+                throw new RuntimeException("Failed to wait for trajectory readback fence");
+            }
+            slot.writing = true;
+            writers.submit(() -> writeFrame(slot));
+        }
+    }
+
+    /**
+     * Runs on a writer thread. Transposes a slot into columns and writes it to its frame of the file, one column at a time,
+     * so only a column has to fit in a buffer and every offset into the slot and the file is a long.
+     * @param slot the slot to write
+     */
+    private void writeFrame(Slot slot) {
+        ByteBuffer column = null;
+        try {
+            int n = config.initialNumBodies;
+            int numColumns = config.withVelocities ? ALL_COLUMNS : POSITION_COLUMNS;
+            long idsAddress = slot.address + bodiesBytes + Integer.BYTES;
+            long position = HEADER_SIZE + slot.frameIndex * frameBytes;
+
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(slot.step).putInt(MemoryUtil.memGetInt(slot.address + bodiesBytes)).putInt(0).putInt(0);
+            header.flip();
+            position = writeFully(header, position);
+
+            column = MemoryUtil.memAlloc(n * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            long columnAddress = MemoryUtil.memAddress(column);
+            for (int c = 0; c < numColumns; c++) {
+                MemoryUtil.memSet(columnAddress, 0, (long) n * Float.BYTES);
+                for (int i = 0; i < n; i++) {
+                    int id = MemoryUtil.memGetInt(idsAddress + (long) i * Integer.BYTES);
+                    if (id < 0 || id >= n) continue; // empty slot, its dead body stays 0
+                    float value = MemoryUtil.memGetFloat(slot.address + (long) i * BODY_BYTES + (long) c * Float.BYTES);
+                    MemoryUtil.memPutFloat(columnAddress + (long) id * Float.BYTES, value);
+                }
+                column.clear();
+                position = writeFully(column, position);
+            }
+        } catch (IOException e) {
+            writeError = e;
+        } finally {
+            if (column != null) {
+                MemoryUtil.memFree(column);
+            }
+            slot.writing = false;
+        }
+    }
+
+    /**
+     * Writes all of a buffer to the file at a position.
+     * @param buffer the buffer to write, from its position to its limit
+     * @param position the position in the file
+     * @return the position after the buffer
+     * @throws IOException if the write fails
+     */
+    private long writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    /**
+     * Flushes every captured frame and closes the file. Must be called on the GL thread.
+     */
+    public void stop() {
+        if (!running) return;
+        running = false;
+        while (!inFlight.isEmpty()) {
+            retireFinished(true);
+        }
+        writers.shutdown();
+        try {
+            writers.awaitTermination(60, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {}
+        for (Slot slot : slots) {
+            glBindBuffer(GL_COPY_WRITE_BUFFER, slot.buffer);
+            glUnmapBuffer(GL_COPY_WRITE_BUFFER);
+            glDeleteBuffers(slot.buffer);
+        }
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        slots = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close trajectory file: " + e.getMessage());
+        }
+        if (writeError != null) {
+            System.err.println("Trajectory write error: " + writeError.getMessage());
+        }
+    }
+}
@@ -1,11 +1,12 @@
 package com.grumbo.simulation;
 
+import com.grumbo.cpu.ParticleMesh;
 import com.grumbo.gpu.*;
 import java.util.Map;
-import java.util.List;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 import java.nio.IntBuffer;
 import java.nio.ByteBuffer;
 import java.nio.LongBuffer;
@@ -27,6 +28,9 @@ import static org.lwjgl.opengl.GL43C.*;
  * 5. Compute the center of mass and location of the nodes in the tree.
  * 6. Compute the force on each body using the tree.
  * 7. Merge the bodies, leaving empty bodies where they are.
+ *
+ * In a periodic box with pmGridSize set, the long range force is solved on a particle mesh before step 6,
+ * and the tree only adds the short range force.
  */
 public class BarnesHut {
     private static final int NUM_DEBUG_OUTPUTS = 100;
@@ -38,6 +42,7 @@ public class BarnesHut {
 
     // Uniform local variables
     public int radixSortPassShift;
+    public int coherentMergePass;
     public int COMPropagationPassNumber;
     public boolean resetValuesOrDecrementDeadBodies;
 
@@ -45,35 +50,11 @@ public class BarnesHut {
     public Map<String, SSBO> ssbos;
 
     
-    //Debug variables
-    private List<Long> computeShaderDebugTimes;
-    private long renderingTime;
-    private long resetTime;
-    private long decrementDeadBodiesTime;
-    private long mortonAABBupdateBoundsTime;
-    private long mortonAABBRepopulateBoundsTime;
-    private long mortonAABBCollapseBoundsTime;
-    private long mortonCodeGenerationTime;
-    private long mortonTime;
-    private long deadTime;
-    private long deadCountTime;
-    private long deadExclusiveScanTime;
-    private long deadScatterTime;
-    private long radixSortTime;
-    private long radixSortHistogramTime;
-    private long radixSortScanParallelTime;
-    private long radixSortScanExclusiveTime;
-    private long radixSortScatterTime;
-    private long computeCOMAndLocationTime;
-    private long initLeavesTime;
-    private long propagateNodesTime;
-    private long buildTreeTime;
-    private long computeForceTime;
-    private long mergeBodiesTime;
-
     public String debugString;
     private GPUSimulation gpuSimulation;
     private float[][] bounds;
+    // Long range force of a periodic box, solved on the CPU. Null until it is first used
+    private ParticleMesh particleMesh;
 
 
     private boolean debug;
@@ -83,7 +64,7 @@ public class BarnesHut {
     /**
      * Constructor for BarnesHut.
      * @param gpuSimulation The GPU simulation.
-     * @param debug Whether to debug the algorithm. (This slows down the simulation to get accurate timing of each step)
+     * @param debug Whether to debug the algorithm. (Times each stage on the GPU with timer queries, and reads back debug output)
      * @param bounds The bounds of the simulation.
      */
     public BarnesHut(GPUSimulation gpuSimulation, boolean debug, float[][] bounds) {
@@ -100,16 +81,25 @@ public class BarnesHut {
 
         String dynamicOrStatic = Settings.getInstance().getDynamic();
 
-         // If debugging, check the time taken to render the simulation. Which takes place after the algorithm is run.
-         if (debug) {
-            renderingTimeCheck();
+        // If debugging, check for errors from rendering, which takes place after the algorithm is run.
+        if (debug) {
+            GPUSimulation.checkGLError("rendering");
         }
 
 
 
+        // Upload the per-step parameters if the settings changed, and bind them for every kernel of this step.
+        GPU.SIMULATION_PARAMETERS.update();
+
         // Reset various values for the queues and death counting.
         resetValues();
 
+        // With the leapfrog, kick the velocities by half a step and drift the bodies, so the tree is built at the new positions.
+        // With block timesteps, each step is one substep of dt / 2^timestepLevels.
+        if (Settings.getInstance().getIntegrator().equals("leapfrog")) {
+            leapfrogDrift();
+        }
+
         // Partition the dead bodies to the end of the array.
         partitionDeadBodies();
 
@@ -134,6 +124,11 @@ public class BarnesHut {
         // Radix sort the morton codes. This swaps the morton and index buffers for each radix sort pass.
         radixSort();
 
+        // Every bodyReorderInterval steps, move the bodies into their sorted order so the tree and force kernels read them in order.
+        int reorderInterval = Settings.getInstance().getBodyReorderInterval();
+        if (reorderInterval > 0 && steps % reorderInterval == 0) {
+            reorderBodies();
+        }
 
         // Build the binary radix tree.
         buildBinaryRadixTree();
@@ -141,6 +136,16 @@ public class BarnesHut {
         // Compute the center of mass and location of the nodes in the tree.
         computeCOMAndLocation();
 
+        // With block timesteps, list the bodies whose step ends this substep, so only they are force evaluated.
+        if (SimulationParameters.timestepLevels(Settings.getInstance()) > 0) {
+            buildActiveList();
+        }
+
+        // In a periodic box, solve the long range force on the particle mesh, which the force kernels add to the short range force of the tree.
+        if (GPU.pmGridSize() > 0) {
+            solveParticleMesh();
+        }
+
         // Compute the force on each body using the tree.
         // If bounded, OOB bodies are either killed or wraped around in here
         computeForce();
@@ -156,7 +161,9 @@ public class BarnesHut {
         GPU.swapBodyBuffers();
 
 
-            if (debug) {
+        // Resolve the GPU timings of earlier steps that have finished. Never waits on the GPU.
+        GPU.PROFILER.endFrame();
+        if (debug) {
             debugString = printProfiling();
         }
         this.steps++;
@@ -168,32 +175,18 @@ public class BarnesHut {
      * Initialize the compute shaders and SSBOs, and set up the initial index array.
      */
     public void init() {
+        GPU.PROFILER.setEnabled(debug);
         GPU.COMPUTE_INIT.run();
-        updateUnits(gpuSimulation.getPlanetGenerator().getUnitSet());
+        updateUnits(gpuSimulation.getUnitSet());
     }
 
 
     /* --------- Barnes-Hut --------- */
-    /**
-     * Check the time taken to render the simulation. Which takes place after the algorithm is run, and can be done by waiting for glFinish() before running the algorithm again.
-     */
-    private void renderingTimeCheck() {
-        if (debug) {
-            renderingTime = System.nanoTime();
-            //If an error occured in rendering it will be caught here.
-            GPUSimulation.checkGLError("rendering");
-            glFinish();
-            renderingTime = System.nanoTime() - renderingTime;
-        }
-    }
-
     /**
      * Reset the values for the next iteration. In bh_reset.comp
      */
     private void resetValues() {
-        long resetStartTime = 0;
         if (debug) {
-            resetStartTime = System.nanoTime();
             if (GPU.COMPUTE_UPDATE.isPreDebugSelected()) {
                 GPU.COMPUTE_UPDATE.setPreDebugString("Reseting values"+GPU.SSBO_SIMULATION_VALUES.getDataAsString("SimulationValues"));
             }
@@ -203,8 +196,6 @@ public class BarnesHut {
         GPU.COMPUTE_UPDATE.run();
         if (debug) {
             GPUSimulation.checkGLError("resetValuesPass");
-            glFinish();
-            resetTime = System.nanoTime() - resetStartTime;
             if (GPU.COMPUTE_UPDATE.isPostDebugSelected()) {
                 GPU.COMPUTE_UPDATE.setPostDebugString("Reset values"+GPU.SSBO_SIMULATION_VALUES.getDataAsString("SimulationValues"));
             }
@@ -215,9 +206,7 @@ public class BarnesHut {
      * Decrement the number of dead bodies from the total number of bodies. In bh_reset.comp
      */
     private void decrementDeadBodies() {
-        long decrementDeadBodiesStartTime = 0;
         if (debug) {
-            decrementDeadBodiesStartTime = System.nanoTime();
             if (GPU.COMPUTE_UPDATE.isPreDebugSelected()) {
                 GPU.COMPUTE_UPDATE.addToPreDebugString("Decrementing dead bodies"+GPU.SSBO_SIMULATION_VALUES.getDataAsString("SimulationValues"));
             }
@@ -226,8 +215,6 @@ public class BarnesHut {
         GPU.COMPUTE_UPDATE.run();
         if (debug) {
             GPUSimulation.checkGLError("decrementDeadBodiesPass");
-            glFinish();
-            decrementDeadBodiesTime = System.nanoTime() - decrementDeadBodiesStartTime;
             if (GPU.COMPUTE_UPDATE.isPostDebugSelected()) {
                 GPU.COMPUTE_UPDATE.addToPostDebugString("Decremented dead bodies"+GPU.SSBO_SIMULATION_VALUES.getDataAsString("SimulationValues"));
             }
@@ -238,12 +225,7 @@ public class BarnesHut {
      * Partition the dead bodies to the end of the array. In bh_dead.comp
      */
     private void partitionDeadBodies() {
-        long deadCountStartTime = 0;
-        long deadExclusiveScanStartTime = 0;
-        long deadScatterStartTime = 0;
-
         if (debug) {
-            deadCountStartTime = System.nanoTime();
             if (GPU.COMPUTE_DEAD_COUNT.isPreDebugSelected()) {
                 GPU.COMPUTE_DEAD_COUNT.setPreDebugString("Counting dead bodies"+GPU.SSBO_SIMULATION_VALUES.getDataAsString("SimulationValues"));
             }
@@ -254,9 +236,6 @@ public class BarnesHut {
             if (GPU.COMPUTE_DEAD_COUNT.isPostDebugSelected()) {
                 GPU.COMPUTE_DEAD_COUNT.setPostDebugString("Counted dead bodies"+GPU.SSBO_SIMULATION_VALUES.getDataAsString("SimulationValues"));
             }
-            glFinish();
-            deadCountTime = System.nanoTime() - deadCountStartTime;
-            deadExclusiveScanStartTime = System.nanoTime();
             if (GPU.COMPUTE_DEAD_EXCLUSIVE_SCAN.isPreDebugSelected()) {
                 GPU.COMPUTE_DEAD_EXCLUSIVE_SCAN.setPreDebugString("Scanning dead bodies"+GPU.SSBO_SIMULATION_VALUES.getDataAsString("SimulationValues"));
             }
@@ -267,9 +246,6 @@ public class BarnesHut {
             if (GPU.COMPUTE_DEAD_EXCLUSIVE_SCAN.isPostDebugSelected()) {
                 GPU.COMPUTE_DEAD_EXCLUSIVE_SCAN.setPostDebugString("Scanned dead bodies"+GPU.SSBO_SIMULATION_VALUES.getDataAsString("SimulationValues"));
             }
-            glFinish();
-            deadExclusiveScanTime = System.nanoTime() - deadExclusiveScanStartTime;
-            deadScatterStartTime = System.nanoTime();
             if (GPU.COMPUTE_DEAD_SCATTER.isPreDebugSelected()) {
                 GPU.COMPUTE_DEAD_SCATTER.setPreDebugString("Scattering dead bodies"+GPU.SSBO_SIMULATION_VALUES.getDataAsString("SimulationValues"));
             }
@@ -280,9 +256,6 @@ public class BarnesHut {
             if (GPU.COMPUTE_DEAD_SCATTER.isPostDebugSelected()) {
                 GPU.COMPUTE_DEAD_SCATTER.setPostDebugString("Scattered dead bodies"+GPU.SSBO_SIMULATION_VALUES.getDataAsString("SimulationValues"));
             }
-            glFinish();
-            deadScatterTime = System.nanoTime() - deadScatterStartTime;
-            deadTime = deadCountTime + deadExclusiveScanTime + deadScatterTime;
         }
 
     }
@@ -292,7 +265,6 @@ public class BarnesHut {
      */
     private void updateBounds() {
         if (debug) {
-            mortonAABBRepopulateBoundsTime = System.nanoTime();
             if (GPU.COMPUTE_MORTON_AABB_REPOPULATE.isPreDebugSelected()) {
                 GPU.COMPUTE_MORTON_AABB_REPOPULATE.addToPreDebugString("Updated bounds"+GPU.SSBO_SWAPPING_MORTON_IN.getDataAsString("MortonIn",0,NUM_DEBUG_OUTPUTS));
             }
@@ -300,29 +272,23 @@ public class BarnesHut {
         GPU.COMPUTE_MORTON_AABB_REPOPULATE.run();
         if (debug) {
             GPUSimulation.checkGLError("MortonAABBRepopulateKernel");
-            glFinish();
             if (GPU.COMPUTE_MORTON_AABB_REPOPULATE.isPostDebugSelected()) {
                 GPU.COMPUTE_MORTON_AABB_REPOPULATE.addToPostDebugString("Updated bounds"+GPU.SSBO_SWAPPING_MORTON_IN.getDataAsString("MortonIn",0,NUM_DEBUG_OUTPUTS));
             }
-            mortonAABBRepopulateBoundsTime = System.nanoTime() - mortonAABBRepopulateBoundsTime;
         }
 
         if (debug) {
             if (GPU.COMPUTE_MORTON_AABB_COLLAPSE.isPreDebugSelected()) {
                 GPU.COMPUTE_MORTON_AABB_COLLAPSE.addToPreDebugString("Updated bounds"+GPU.SSBO_SWAPPING_MORTON_IN.getDataAsString("MortonIn",0,NUM_DEBUG_OUTPUTS));
             }
-            mortonAABBCollapseBoundsTime = System.nanoTime();
         }
         GPU.COMPUTE_MORTON_AABB_COLLAPSE.run();
 
         if (debug) {
             GPUSimulation.checkGLError("MortonAABBCollapseKernel");
-            glFinish();
             if (GPU.COMPUTE_MORTON_AABB_COLLAPSE.isPostDebugSelected()) {
                 GPU.COMPUTE_MORTON_AABB_COLLAPSE.addToPostDebugString("Updated bounds"+GPU.SSBO_SWAPPING_MORTON_IN.getDataAsString("MortonIn",0,NUM_DEBUG_OUTPUTS));
             }
-            mortonAABBCollapseBoundsTime = System.nanoTime() - mortonAABBCollapseBoundsTime;
-            mortonAABBupdateBoundsTime = mortonAABBRepopulateBoundsTime + mortonAABBCollapseBoundsTime;
         }
 
 
@@ -333,7 +299,6 @@ public class BarnesHut {
      */
     private void generateMortonCodes() {
         if (debug) {
-            mortonCodeGenerationTime = System.nanoTime();
             if (GPU.COMPUTE_MORTON_ENCODE.isPreDebugSelected()) {
                 GPU.COMPUTE_MORTON_ENCODE.addToPreDebugString("Generating morton codes"+GPU.SSBO_SWAPPING_MORTON_IN.getDataAsString("MortonIn",0,NUM_DEBUG_OUTPUTS));
             }
@@ -345,37 +310,131 @@ public class BarnesHut {
             if (GPU.COMPUTE_MORTON_ENCODE.isPostDebugSelected()) {
                 GPU.COMPUTE_MORTON_ENCODE.addToPostDebugString("Generated morton codes"+GPU.SSBO_SWAPPING_MORTON_IN.getDataAsString("MortonIn",0,NUM_DEBUG_OUTPUTS));
             }
-            glFinish();
-            mortonCodeGenerationTime = System.nanoTime() - mortonCodeGenerationTime;
-            mortonTime = mortonCodeGenerationTime + mortonAABBupdateBoundsTime;
         }
 
     }
 
     /**
-     * Radix sort the morton codes. In bh_radix.comp
+     * Radix sort the morton codes with the selected engine.
      */
     private void radixSort() {
-        int numPasses = (int)Math.ceil(63.0 / GPU.RADIX_BITS);
-        
-        radixSortHistogramTime = 0;
-        radixSortScanParallelTime = 0;
-        radixSortScanExclusiveTime = 0;
-        radixSortScatterTime = 0;
+        // The coherent sort leaves the radix sort kernels below with no work groups when it sorts the bodies itself
+        if (Settings.getInstance().isCoherentSort() && GPU.INDIRECT_DISPATCH) {
+            coherentSort();
+        }
+
+        if (GPU.ONESWEEP_SORT) {
+            onesweepRadixSort();
+        } else {
+            multiPassRadixSort();
+        }
+    }
+
+    /**
+     * Runs the start of a step up to and including the radix sort, and checks the sort against a CPU sort of the same keys.
+     * Used by RadixSortCheck, never by step. The tree is not rebuilt, so the next step must start from resetValues as usual.
+     * @return whether the GPU sort matches the CPU sort
+     */
+    public boolean checkRadixSort() {
+        GPU.SIMULATION_PARAMETERS.update();
+        resetValues();
+        partitionDeadBodies();
+        GPU.swapMortonAndIndexBuffers();
+        decrementDeadBodies();
+        if (Settings.getInstance().getDynamic().equals("dynamic")) {
+            updateBounds();
+        }
+        generateMortonCodes();
+
+        int numBodies = GPU.SSBO_SIMULATION_VALUES.getIntegerData("numBodies", true);
+        long[] unsortedMortonCodes = readMortonCodes(GPU.SSBO_SWAPPING_MORTON_IN, numBodies);
+        int[] unsortedIndices = readIndices(GPU.SSBO_SWAPPING_INDEX_IN, numBodies);
+        radixSort();
+        return verifyRadixSort(unsortedMortonCodes, unsortedIndices);
+    }
+
+    /**
+     * Moves the bodies into their sorted Morton order in both body buffers, and resets the index buffers to the identity. In bh_reorder.comp
+     * The stable id of each body moves with it in SSBO_BODY_IDS, so outputs can still be written in the original order.
+     */
+    private void reorderBodies() {
+        // Phase 1: Gather the live bodies into sorted order in the output bodies
+        GPU.COMPUTE_REORDER_GATHER.run();
+        if (debug) {
+            GPUSimulation.checkGLError("reorderGather");
+        }
+
+        // Phase 2: Copy them back to both body buffers
+        GPU.COMPUTE_REORDER_SCATTER.run();
+        if (debug) {
+            GPUSimulation.checkGLError("reorderScatter");
+            if (GPU.COMPUTE_REORDER_SCATTER.isPostDebugSelected()) {
+                GPU.COMPUTE_REORDER_SCATTER.addToPostDebugString("Reordered body ids: "+GPU.SSBO_BODY_IDS.getDataAsString("BodyIds",0,NUM_DEBUG_OUTPUTS)+"\n");
+            }
+        }
+    }
+
+    /**
+     * Sorts the morton codes by moving only the bodies that are out of order since last step, if there are few enough of them. In bh_coherent.comp
+     * The choice is made on the GPU, which gives the kernels of the other sort no work groups, so nothing is read back.
+     */
+    private void coherentSort() {
+        // Phase 1: Mark the outliers
+        GPU.COMPUTE_COHERENT_MARK.run();
+        if (debug) {
+            GPUSimulation.checkGLError("coherentMark");
+            if (GPU.COMPUTE_COHERENT_MARK.isPostDebugSelected()) {
+                GPU.COMPUTE_COHERENT_MARK.addToPostDebugString("Marked outliers: "+GPU.SSBO_RADIX_WG_HIST.getDataAsString("WGHist",0,NUM_DEBUG_OUTPUTS)+"\n");
+            }
+        }
+
+        // Phase 2: Choose between the coherent sort and the radix sort
+        GPU.COMPUTE_COHERENT_DECIDE.run();
+        if (debug) {
+            GPUSimulation.checkGLError("coherentDecide");
+            if (GPU.COMPUTE_COHERENT_DECIDE.isPostDebugSelected()) {
+                GPU.COMPUTE_COHERENT_DECIDE.addToPostDebugString("Outliers: "+GPU.SSBO_COHERENT_SCAN.getDataAsString("CoherentOutliers",0,1)
+                    +" Coherent sorts: "+GPU.SSBO_COHERENT_SCAN.getDataAsString("CoherentSorts",0,1)
+                    +" Fallbacks: "+GPU.SSBO_COHERENT_SCAN.getDataAsString("CoherentFallbacks",0,1)+"\n");
+            }
+        }
+
+        // Phase 3: Compact the outliers, sort them in tiles, merge the tiles into one sorted run, and merge them with the in order bodies
+        GPU.COMPUTE_COHERENT_COMPACT.run();
+        GPU.COMPUTE_COHERENT_SORT_TILES.run();
+        int numMergePasses = GPU.coherentMergePasses();
+        for (coherentMergePass = 0; coherentMergePass < numMergePasses; coherentMergePass++) {
+            GPU.COMPUTE_COHERENT_MERGE_RUNS.run();
+        }
+        GPU.COMPUTE_COHERENT_MERGE.run();
+
+        // The radix sort swaps the buffers once per pass, so an even number of passes would leave the merged bodies in the out buffers
+        if (GPU.numRadixPasses() % 2 == 0) {
+            GPU.COMPUTE_COHERENT_COPY.run();
+        }
+        if (debug) {
+            GPUSimulation.checkGLError("coherentMerge");
+        }
+    }
 
-        long radixSortHistogramStartTime = 0;
-        long radixSortScanParallelStartTime = 0;
-        long radixSortScanExclusiveStartTime = 0;
-        long radixSortScatterStartTime = 0;
+    /**
+     * Radix sort the morton codes with four kernels per pass. In bh_radix.comp
+     */
+    private void multiPassRadixSort() {
+        int numPasses = GPU.numRadixPasses();
 
         radixSortPassShift = 0;
         
         for (int pass = 0; pass < numPasses; pass++) {
             
-            radixSortPassShift = pass * 4; // 4 bits per pass
+            radixSortPassShift = pass * GPU.RADIX_BITS;
+            String passStage = GPU.radixPassProfileStage(pass);
+            GPU.COMPUTE_RADIX_HISTOGRAM.setProfileStage(passStage);
+            GPU.COMPUTE_RADIX_BUCKET_SCAN.setProfileStage(passStage);
+            GPU.COMPUTE_RADIX_GLOBAL_SCAN.setProfileStage(passStage);
+            GPU.COMPUTE_RADIX_SCATTER.setProfileStage(passStage);
 
             if (debug) {
-                radixSortHistogramStartTime = System.nanoTime();
                 if (GPU.COMPUTE_RADIX_HISTOGRAM.isPreDebugSelected()) {
                     GPU.COMPUTE_RADIX_HISTOGRAM.addToPreDebugString("Histograming morton codes Pass "+pass+": "+GPU.SSBO_RADIX_WG_HIST.getDataAsString("WGHist",0,NUM_DEBUG_OUTPUTS)+"\n");
                 }
@@ -386,9 +445,6 @@ public class BarnesHut {
 
             if (debug) {
                 GPUSimulation.checkGLError("radixSortHistogramPass" + pass);
-                glFinish();
-                radixSortHistogramTime += System.nanoTime() - radixSortHistogramStartTime;
-                radixSortScanParallelStartTime = System.nanoTime();
                 if (GPU.COMPUTE_RADIX_HISTOGRAM.isPostDebugSelected()) {
                     GPU.COMPUTE_RADIX_HISTOGRAM.addToPostDebugString("Histogramed morton codes Pass "+pass+": "+GPU.SSBO_RADIX_WG_HIST.getDataAsString("WGHist",0,NUM_DEBUG_OUTPUTS)+"\n");
                 }
@@ -401,9 +457,6 @@ public class BarnesHut {
             GPU.COMPUTE_RADIX_BUCKET_SCAN.run();
             if (debug) {
                 GPUSimulation.checkGLError("radixSortBucketScanPass" + pass);
-                glFinish();
-                radixSortScanParallelTime += System.nanoTime() - radixSortScanParallelStartTime;
-                radixSortScanExclusiveStartTime = System.nanoTime();
                 if (GPU.COMPUTE_RADIX_BUCKET_SCAN.isPostDebugSelected()) {
                     GPU.COMPUTE_RADIX_BUCKET_SCAN.addToPostDebugString("Scanned morton codes Pass "+pass+": "+GPU.SSBO_RADIX_WG_SCANNED.getDataAsString("WGScanned",0,NUM_DEBUG_OUTPUTS)+"\n");
                 }
@@ -416,9 +469,6 @@ public class BarnesHut {
 
             if (debug) {
                 GPUSimulation.checkGLError("radixSortGlobalScanPass" + pass);
-                glFinish();
-                radixSortScanExclusiveTime += System.nanoTime() - radixSortScanExclusiveStartTime;
-                radixSortScatterStartTime = System.nanoTime();
                 if (GPU.COMPUTE_RADIX_GLOBAL_SCAN.isPostDebugSelected()) {
                     GPU.COMPUTE_RADIX_GLOBAL_SCAN.addToPostDebugString("Exclusive scanned morton codes Pass "+pass+": "+GPU.SSBO_RADIX_WG_SCANNED.getDataAsString("WGScanned",0,NUM_DEBUG_OUTPUTS)+"\n");
                 }
@@ -431,8 +481,6 @@ public class BarnesHut {
             GPU.COMPUTE_RADIX_SCATTER.run();
             if (debug) {
                 GPUSimulation.checkGLError("radixSortScatterPass" + pass);
-                glFinish();
-                radixSortScatterTime += System.nanoTime() - radixSortScatterStartTime;
                 if (GPU.COMPUTE_RADIX_SCATTER.isPostDebugSelected()) {
                     GPU.COMPUTE_RADIX_SCATTER.addToPostDebugString("Scattered morton codes Pass "+pass+": "+GPU.SSBO_RADIX_WG_SCANNED.getDataAsString("WGScanned",0,NUM_DEBUG_OUTPUTS)+"\n");
                 }
@@ -441,10 +489,113 @@ public class BarnesHut {
 
             GPU.swapMortonAndIndexBuffers();
         }
+    }
+
+    /**
+     * Radix sort the morton codes with one histogram for every pass up front and one lookback scatter per pass. In bh_onesweep.comp
+     */
+    private void onesweepRadixSort() {
+        int numPasses = GPU.numRadixPasses();
+
+        // Phase 1: Histogram of every pass
+        GPU.COMPUTE_ONESWEEP_HISTOGRAM.run();
+        if (debug) {
+            GPUSimulation.checkGLError("onesweepHistogram");
+            if (GPU.COMPUTE_ONESWEEP_HISTOGRAM.isPostDebugSelected()) {
+                GPU.COMPUTE_ONESWEEP_HISTOGRAM.addToPostDebugString("Histogramed morton codes: "+GPU.SSBO_ONESWEEP_GLOBAL.getDataAsString("Hist",0,NUM_DEBUG_OUTPUTS)+"\n");
+            }
+        }
 
+        // Phase 2: Scan the histogram of every pass into global bases
+        GPU.COMPUTE_ONESWEEP_SCAN.run();
         if (debug) {
-            radixSortTime = radixSortHistogramTime + radixSortScanParallelTime + radixSortScanExclusiveTime + radixSortScatterTime;
+            GPUSimulation.checkGLError("onesweepScan");
+            if (GPU.COMPUTE_ONESWEEP_SCAN.isPostDebugSelected()) {
+                GPU.COMPUTE_ONESWEEP_SCAN.addToPostDebugString("Scanned morton codes: "+GPU.SSBO_ONESWEEP_GLOBAL.getDataAsString("Base",0,NUM_DEBUG_OUTPUTS)+"\n");
+            }
+        }
+
+        // Phase 3: Scatter each pass
+        for (int pass = 0; pass < numPasses; pass++) {
+            radixSortPassShift = pass * GPU.RADIX_BITS;
+
+            GPU.COMPUTE_ONESWEEP_SCATTER.setProfileStage(GPU.radixPassProfileStage(pass));
+            GPU.COMPUTE_ONESWEEP_SCATTER.run();
+            if (debug) {
+                GPUSimulation.checkGLError("onesweepScatterPass" + pass);
+                if (GPU.COMPUTE_ONESWEEP_SCATTER.isPostDebugSelected()) {
+                    GPU.COMPUTE_ONESWEEP_SCATTER.addToPostDebugString("Scattered morton codes Pass "+pass+": "+GPU.SSBO_SWAPPING_MORTON_OUT.getDataAsString("MortonOut",0,NUM_DEBUG_OUTPUTS)+"\n");
+                }
+            }
+
+            GPU.swapMortonAndIndexBuffers();
+        }
+    }
+
+    /**
+     * Checks the sorted morton codes and indices against a stable CPU sort of the keys the GPU started from.
+     * Both radix sort engines are stable, so the indices must match exactly, not just the codes.
+     * @param unsortedMortonCodes the morton codes of the live bodies before the sort
+     * @param unsortedIndices the indices of the live bodies before the sort
+     * @return whether the GPU sort matches the CPU sort
+     */
+    private boolean verifyRadixSort(long[] unsortedMortonCodes, int[] unsortedIndices) {
+        int numBodies = unsortedMortonCodes.length;
+        Integer[] order = new Integer[numBodies];
+        for (int i = 0; i < numBodies; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(unsortedMortonCodes[a], unsortedMortonCodes[b]));
+
+        long[] sortedMortonCodes = readMortonCodes(GPU.SSBO_SWAPPING_MORTON_IN, numBodies);
+        int[] sortedIndices = readIndices(GPU.SSBO_SWAPPING_INDEX_IN, numBodies);
+        int mismatches = 0;
+        int firstMismatch = -1;
+        for (int i = 0; i < numBodies; i++) {
+            if (sortedMortonCodes[i] != unsortedMortonCodes[order[i]] || sortedIndices[i] != unsortedIndices[order[i]]) {
+                if (firstMismatch < 0) {
+                    firstMismatch = i;
+                }
+                mismatches++;
+            }
         }
+        String engine = (GPU.ONESWEEP_SORT ? "onesweep" : "multi pass") + " radix sort (" + GPU.RADIX_BITS + " bit)";
+        if (mismatches > 0) {
+            System.err.println("Step " + steps + ": " + engine + " differs from the CPU sort at " + mismatches + " of " + numBodies
+                + " positions. First at " + firstMismatch + ": GPU " + sortedMortonCodes[firstMismatch] + "/" + sortedIndices[firstMismatch]
+                + ", CPU " + unsortedMortonCodes[order[firstMismatch]] + "/" + unsortedIndices[order[firstMismatch]]);
+            return false;
+        }
+        System.out.println("Step " + steps + ": " + engine + " matches the CPU sort of " + numBodies + " keys");
+        return true;
+    }
+
+    /**
+     * Reads the first morton codes of a morton buffer.
+     * @param mortonBuffer the buffer to read
+     * @param count the number of morton codes to read
+     * @return the morton codes
+     */
+    private static long[] readMortonCodes(SSBO mortonBuffer, int count) {
+        mortonBuffer.refreshCache();
+        long[] mortonCodes = new long[count];
+        mortonBuffer.getBuffer().asLongBuffer().get(mortonCodes);
+        SSBO.unBind();
+        return mortonCodes;
+    }
+
+    /**
+     * Reads the first indices of an index buffer.
+     * @param indexBuffer the buffer to read
+     * @param count the number of indices to read
+     * @return the indices
+     */
+    private static int[] readIndices(SSBO indexBuffer, int count) {
+        indexBuffer.refreshCache();
+        int[] indices = new int[count];
+        indexBuffer.getBuffer().asIntBuffer().get(indices);
+        SSBO.unBind();
+        return indices;
     }
 
     /**
@@ -452,7 +603,6 @@ public class BarnesHut {
      */
     private void buildBinaryRadixTree() {
         if (debug) {
-            buildTreeTime = System.nanoTime();
             if (GPU.COMPUTE_TREE_BUILD.isPreDebugSelected()) {
                 GPU.COMPUTE_TREE_BUILD.setPreDebugString("Building binary radix tree"+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
             }
@@ -460,8 +610,6 @@ public class BarnesHut {
         GPU.COMPUTE_TREE_BUILD.run();
         if (debug) {
             GPUSimulation.checkGLError("buildBinaryRadixTree");
-            glFinish();
-            buildTreeTime = System.nanoTime() - buildTreeTime;
             if (GPU.COMPUTE_TREE_BUILD.isPostDebugSelected()) {
                 GPU.COMPUTE_TREE_BUILD.setPostDebugString("Built binary radix tree"+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
             }
@@ -469,11 +617,16 @@ public class BarnesHut {
     }
     
     /**
-     * Compute the center of mass and location of the nodes in the tree. In bh_reduce_more_efficient.comp
+     * Compute the center of mass and location of the nodes in the tree. In bh_tree.comp
+     * Either in one pass per tree level over a work queue, or in a single dispatch climbing from the leaves,
+     * depending on the comPropagation setting.
      */
     private void computeCOMAndLocation() {
+        if (Settings.getInstance().getComPropagation().equals("singleDispatch")) {
+            climbTree();
+            return;
+        }
         if (debug) {
-            initLeavesTime = System.nanoTime();
             if (GPU.COMPUTE_TREE_INIT_LEAVES.isPreDebugSelected()) {
                 GPU.COMPUTE_TREE_INIT_LEAVES.setPreDebugString("Computing center of mass and location of leaf nodes in the tree"+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
             }
@@ -483,15 +636,12 @@ public class BarnesHut {
 
         if (debug) {
             GPUSimulation.checkGLError("initLeaves");
-            glFinish();
-            initLeavesTime = System.nanoTime() - initLeavesTime;
             if (GPU.COMPUTE_TREE_INIT_LEAVES.isPostDebugSelected()) {
                 GPU.COMPUTE_TREE_INIT_LEAVES.setPostDebugString("Computed center of mass and location of leaf nodes in the tree"+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
             }
             if (GPU.COMPUTE_TREE_PROPAGATE_NODES.isPreDebugSelected()) {
                 GPU.COMPUTE_TREE_PROPAGATE_NODES.setPreDebugString("Propagating nodes in the tree"+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
             }
-            propagateNodesTime = System.nanoTime();
 
         }
         int lastThreads = 0;
@@ -505,7 +655,6 @@ public class BarnesHut {
             GPU.COMPUTE_TREE_PROPAGATE_NODES.run();
             if (debug) {
                 GPUSimulation.checkGLError("propagateNodesPass" + COMPropagationPassNumber);
-                glFinish();
                 if (GPU.COMPUTE_TREE_PROPAGATE_NODES.isPostDebugSelected()) {
                     GPU.COMPUTE_TREE_PROPAGATE_NODES.addToPostDebugString("Propagated nodes in the tree Pass "+COMPropagationPassNumber+": "+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
                 }
@@ -528,31 +677,100 @@ public class BarnesHut {
                 GPU.COMPUTE_TREE_PROPAGATE_NODES.setPostDebugString("Propagated nodes in the tree"+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
             }
             GPUSimulation.checkGLError("propagateNodes");
-            glFinish();
-            propagateNodesTime = System.nanoTime() - propagateNodesTime;
-            computeCOMAndLocationTime = initLeavesTime + propagateNodesTime;
+        }
+    }
+
+    /**
+     * Compute the center of mass and location of the nodes in the tree in a single dispatch. In bh_tree.comp
+     * The last child to reach each internal node computes it and continues to the parent.
+     */
+    private void climbTree() {
+        if (debug) {
+            if (GPU.COMPUTE_TREE_CLIMB.isPreDebugSelected()) {
+                GPU.COMPUTE_TREE_CLIMB.setPreDebugString("Climbing the tree"+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
+            }
+        }
+
+        GPU.COMPUTE_TREE_CLIMB.run();
+
+        if (debug) {
+            GPUSimulation.checkGLError("climbTree");
+            if (GPU.COMPUTE_TREE_CLIMB.isPostDebugSelected()) {
+                GPU.COMPUTE_TREE_CLIMB.setPostDebugString("Climbed the tree"+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
+            }
         }
     }
 
     /**
      * Compute the force on each body using the tree. In bh_force.comp
+     * Either each body walks the tree, or each work group walks it once, depending on the forceTraversal setting.
      */
     private void computeForce() {
+        ComputeProgram forceProgram = Settings.getInstance().getForceTraversal().equals("group") ? GPU.COMPUTE_FORCE_GROUP : GPU.COMPUTE_FORCE_COMPUTE;
         if (debug) {
-            computeForceTime = System.nanoTime();
-            if (GPU.COMPUTE_FORCE_COMPUTE.isPreDebugSelected()) {
-                GPU.COMPUTE_FORCE_COMPUTE.setPreDebugString("Computing force on each body: "+GPU.SSBO_SWAPPING_BODIES_IN.getDataAsString("BodiesIn",0,NUM_DEBUG_OUTPUTS)+"\n" + GPU.SSBO_SWAPPING_BODIES_OUT.getDataAsString("BodiesOut",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n");// + INTERNAL_NODES_SSBO.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n" + LEAF_NODE
+            if (forceProgram.isPreDebugSelected()) {
+                forceProgram.setPreDebugString("Computing force on each body: "+GPU.SSBO_SWAPPING_BODIES_IN.getDataAsString("BodiesIn",0,NUM_DEBUG_OUTPUTS)+"\n" + GPU.SSBO_SWAPPING_BODIES_OUT.getDataAsString("BodiesOut",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n");// + INTERNAL_NODES_SSBO.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n" + LEAF_NODE
             }
         }
 
 
-        GPU.COMPUTE_FORCE_COMPUTE.run();
+        forceProgram.run();
         if (debug) {
             GPUSimulation.checkGLError("computeForce");
-            glFinish();
-            computeForceTime = System.nanoTime() - computeForceTime;
-            if (GPU.COMPUTE_FORCE_COMPUTE.isPostDebugSelected()) {
-                GPU.COMPUTE_FORCE_COMPUTE.setPostDebugString("Computing force on each body: "+GPU.SSBO_SWAPPING_BODIES_IN.getDataAsString("BodiesIn",0,NUM_DEBUG_OUTPUTS)+"\n" + GPU.SSBO_SWAPPING_BODIES_OUT.getDataAsString("BodiesOut",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
+            if (forceProgram.isPostDebugSelected()) {
+                forceProgram.setPostDebugString("Computing force on each body: "+GPU.SSBO_SWAPPING_BODIES_IN.getDataAsString("BodiesIn",0,NUM_DEBUG_OUTPUTS)+"\n" + GPU.SSBO_SWAPPING_BODIES_OUT.getDataAsString("BodiesOut",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_LEAF_NODES.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n"+GPU.SSBO_INTERNAL_NODES.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
+            }
+        }
+    }
+
+    /**
+     * Deposit the masses on the particle mesh, solve for its long range force, and upload it for the force kernels. In bh_pm.comp
+     * The FFTs run on the CPU in ParticleMesh, so this reads the grid back and waits for the GPU every step.
+     */
+    private void solveParticleMesh() {
+        int gridSize = GPU.pmGridSize();
+        if (particleMesh == null || particleMesh.getGridSize() != gridSize) {
+            particleMesh = new ParticleMesh(gridSize, ForkJoinPool.commonPool());
+        }
+        float[] box = {bounds[0][0], bounds[0][1], bounds[0][2], bounds[1][0], bounds[1][1], bounds[1][2]};
+        particleMesh.setBox(box, Settings.getInstance().getPmSplitScale(), (float) gpuSimulation.getUnitSet().gravitationalConstant());
+
+        GPU.clearParticleMesh();
+        GPU.COMPUTE_PM_DEPOSIT.run();
+        particleMesh.setMasses(GPU.readParticleMeshMasses(gridSize));
+        particleMesh.solve();
+        GPU.uploadParticleMeshForces(particleMesh.getForces());
+        if (debug) {
+            GPUSimulation.checkGLError("solveParticleMesh");
+        }
+    }
+
+    /**
+     * Kick the bodies by half a step with their last acceleration and drift them a full step, in place on the input bodies. In bh_force.comp
+     * The force pass closes the step with the other half kick.
+     */
+    private void leapfrogDrift() {
+        GPU.COMPUTE_LEAPFROG_DRIFT.run();
+        if (debug) {
+            GPUSimulation.checkGLError("leapfrogDrift");
+            if (GPU.COMPUTE_LEAPFROG_DRIFT.isPostDebugSelected()) {
+                GPU.COMPUTE_LEAPFROG_DRIFT.setPostDebugString("Drifted bodies: "+GPU.SSBO_SWAPPING_BODIES_IN.getDataAsString("BodiesIn",0,NUM_DEBUG_OUTPUTS)+"\n");
+            }
+        }
+    }
+
+    /**
+     * List the sorted positions of the bodies whose block timestep ends this substep, and size the force dispatch to them. In bh_force.comp
+     * The other bodies are copied to the output bodies as they are, since the force pass skips them.
+     */
+    private void buildActiveList() {
+        GPU.COMPUTE_ACTIVE_COUNT.run();
+        GPU.COMPUTE_ACTIVE_SCAN.run();
+        GPU.COMPUTE_ACTIVE_SCATTER.run();
+        if (debug) {
+            GPUSimulation.checkGLError("buildActiveList");
+            if (GPU.COMPUTE_ACTIVE_SCATTER.isPostDebugSelected()) {
+                GPU.COMPUTE_ACTIVE_SCATTER.setPostDebugString("Active bodies: "+GPU.SSBO_ACTIVE_BODIES.getDataAsString("ActiveList",0,NUM_DEBUG_OUTPUTS)+"\n");
             }
         }
     }
@@ -562,7 +780,6 @@ public class BarnesHut {
      */
     private void mergeBodies() {
         if (debug) {
-            mergeBodiesTime = System.nanoTime();
             if (GPU.COMPUTE_MERGE_BODIES.isPreDebugSelected()) {
                 GPU.COMPUTE_MERGE_BODIES.setPreDebugString("Merging bodies: "+GPU.SSBO_MERGE_QUEUE.getDataAsString("MergeTasks",0,NUM_DEBUG_OUTPUTS)+"\n" + GPU.SSBO_SWAPPING_BODIES_OUT.getDataAsString("BodiesOut",0,NUM_DEBUG_OUTPUTS)+"\n");// + INTERNAL_NODES_SSBO.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n" + LEAF_NODES_SSBO.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
             }
@@ -570,8 +787,6 @@ public class BarnesHut {
         GPU.COMPUTE_MERGE_BODIES.run();
         if (debug) {
             GPUSimulation.checkGLError("mergeBodies");
-            glFinish();
-            mergeBodiesTime = System.nanoTime() - mergeBodiesTime;
             if (GPU.COMPUTE_MERGE_BODIES.isPostDebugSelected()) {
                 GPU.COMPUTE_MERGE_BODIES.setPostDebugString("Merged bodies: "+GPU.SSBO_MERGE_QUEUE.getDataAsString("MergeTasks",0,NUM_DEBUG_OUTPUTS)+"\n" + GPU.SSBO_SWAPPING_BODIES_OUT.getDataAsString("BodiesOut",0,NUM_DEBUG_OUTPUTS)+"\n");// + INTERNAL_NODES_SSBO.getDataAsString("InternalNodes",0,NUM_DEBUG_OUTPUTS)+"\n" + LEAF_NODES_SSBO.getDataAsString("LeafNodes",0,NUM_DEBUG_OUTPUTS)+"\n");
             }
@@ -605,6 +820,14 @@ public class BarnesHut {
         return steps;
     }
 
+    /**
+     * Sets the number of steps in the simulation. Used when resuming from a checkpoint.
+     * @param steps the number of steps in the simulation
+     */
+    public void setSteps(int steps) {
+        this.steps = steps;
+    }
+
     /**
      * Updates the units of the simulation.
      * @param units the units of the simulation
@@ -623,62 +846,11 @@ public class BarnesHut {
 
 
     /**
-     * Print the profiling information.
+     * Print the profiling information. The GPU time of each stage is measured with timer queries by GPU.PROFILER,
+     * and reported as rolling percentiles over the last resolved steps.
      */
     private String printProfiling() {
-        long totalTime = mortonTime + radixSortTime + buildTreeTime + propagateNodesTime + computeForceTime + deadTime + renderingTime + resetTime + mergeBodiesTime;
-        long percentRendering = (renderingTime * 100) / totalTime;
-        long percentReset = (resetTime * 100) / totalTime;
-        long percentDecrementDeadBodies = (decrementDeadBodiesTime * 100) / totalTime;
-        long percentRepopulateBounds = (mortonAABBRepopulateBoundsTime * 100) / totalTime;
-        long percentCollapseBounds = (mortonAABBCollapseBoundsTime * 100) / totalTime;
-        long percentUpdateBounds = (mortonAABBupdateBoundsTime * 100) / totalTime;
-        long percentMortonCodeGeneration = (mortonCodeGenerationTime * 100) / totalTime;
-        long percentMorton = (mortonTime * 100) / totalTime;
-        long percentDead = (deadTime * 100) / totalTime;
-        long percentDeadCount = (deadCountTime * 100) / totalTime;
-        long percentDeadExclusiveScan = (deadExclusiveScanTime * 100) / totalTime;
-        long percentDeadScatter = (deadScatterTime * 100) / totalTime;
-        long percentRadixSort = (radixSortTime * 100) / totalTime;
-        long percentRadixSortHistogram = (radixSortHistogramTime * 100) / totalTime;
-        long percentRadixSortParallelScan = (radixSortScanParallelTime * 100) / totalTime;
-        long percentRadixSortExclusiveScan = (radixSortScanExclusiveTime * 100) / totalTime;
-        long percentRadixSortScatter = (radixSortScatterTime * 100) / totalTime;
-        long percentBuildTree = (buildTreeTime * 100) / totalTime;
-        long percentComputeCOMAndLocation = (computeCOMAndLocationTime * 100) / totalTime;
-        long percentInitLeaves = (initLeavesTime * 100) / totalTime;
-        long percentPropagateNodes = (propagateNodesTime * 100) / totalTime;
-        long percentComputeForce = (computeForceTime * 100) / totalTime;
-        long percentMergeBodies = (mergeBodiesTime * 100) / totalTime;
-        final long oneMillion = 1_000_000;
-        return renderingTime/oneMillion + " ms (" + percentRendering + "%)" +":Rendering\n" + 
-               resetTime/oneMillion + " ms (" + percentReset + "%)" +":Reset\n" + 
-               mortonTime/oneMillion + " ms (" + percentMorton + "%)" +":Morton\n" +
-               "\t" + mortonAABBupdateBoundsTime/oneMillion + " ms (" + percentUpdateBounds + "%)" +":Update Bounds\n" +
-               "\t\t" + mortonAABBRepopulateBoundsTime/oneMillion + " ms (" + percentRepopulateBounds + "%)" +":Repopulate Bounds\n" +
-               "\t\t" + mortonAABBCollapseBoundsTime/oneMillion + " ms (" + percentCollapseBounds + "%)" +":Collapse Bounds\n" +
-               "\t" + mortonCodeGenerationTime/oneMillion + " ms (" + percentMortonCodeGeneration + "%)" +":Morton Code Generation\n" +
-               deadTime/oneMillion + " ms (" + percentDead + "%)" +":Dead\n" +
-               "\t" + deadCountTime/oneMillion + " ms (" + percentDeadCount + "%)" +":Count\n" +
-               "\t" + deadExclusiveScanTime/oneMillion + " ms (" + percentDeadExclusiveScan + "%)" +":Exclusive Scan\n" +
-               "\t" + deadScatterTime/oneMillion + " ms (" + percentDeadScatter + "%)" +":Scatter\n" +
-               radixSortTime/oneMillion + " ms (" + percentRadixSort + "%)" +":Radix Sort\n" +
-               "\t" + radixSortHistogramTime/oneMillion + " ms (" + percentRadixSortHistogram + "%)" +":Histogram\n" +
-               "\t" + radixSortScanParallelTime/oneMillion + " ms (" + percentRadixSortParallelScan + "%)" +":Parallel Scan\n" +
-               "\t" + radixSortScanExclusiveTime/oneMillion + " ms (" + percentRadixSortExclusiveScan + "%)" +":Exclusive Scan\n" +
-               "\t" + radixSortScatterTime/oneMillion + " ms (" + percentRadixSortScatter + "%)" +":Scatter\n" +
-               buildTreeTime/oneMillion + " ms (" + percentBuildTree + "%)" +":Build Tree\n" +
-               computeCOMAndLocationTime/oneMillion + " ms (" + percentComputeCOMAndLocation + "%)" +":Fill Tree\n" +
-               "\t" + initLeavesTime/oneMillion + " ms (" + percentInitLeaves + "%)" +":Init Leaves\n" +
-               "\t" + propagateNodesTime/oneMillion + " ms (" + percentPropagateNodes + "%)" +":Propagate Nodes\n" +
-               computeForceTime/oneMillion + " ms (" + percentComputeForce + "%)" +":Force\n" +
-               mergeBodiesTime/oneMillion + " ms (" + percentMergeBodies + "%)" +":Merge Bodies\n" +
-               totalTime/oneMillion + " ms" +":Total\n";
-               //"X Bounds: " + GPU.SSBO_SIMULATION_VALUES.getData("minCorner")[0]+" "+GPU.SSBO_SIMULATION_VALUES.getData("maxCorner")[0]+"\n" +
-               //"Y Bounds: " + GPU.SSBO_SIMULATION_VALUES.getData("minCorner")[1]+" "+GPU.SSBO_SIMULATION_VALUES.getData("maxCorner")[1]+"\n" +
-               //"Z Bounds: " + GPU.SSBO_SIMULATION_VALUES.getData("minCorner")[2]+" "+GPU.SSBO_SIMULATION_VALUES.getData("maxCorner")[2]+"\n" +
-               //"Bodies: " + (GPU.SSBO_SIMULATION_VALUES.getIntegerData("numBodies") +
-               //"Merged: " + GPU.SSBO_SIMULATION_VALUES.getIntegerData("merged"));
+        return GPU.PROFILER.report();
     }
 
 
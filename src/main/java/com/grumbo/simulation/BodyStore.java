@@ -0,0 +1,189 @@
+package com.grumbo.simulation;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * BodyStore class for holding bodies off heap as a structure of arrays.
+ * Each of the 8 values of a body (x, y, z, mass, xVel, yVel, zVel, density) is its own float column,
+ * in the same order as the values of the Body struct in the shader code.
+ * Generators write into the columns directly, and uploads and CPU engines interleave
+ * straight from the columns into their own buffers without going through Planet objects.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class BodyStore {
+
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int Z = 2;
+    public static final int MASS = 3;
+    public static final int X_VELOCITY = 4;
+    public static final int Y_VELOCITY = 5;
+    public static final int Z_VELOCITY = 6;
+    public static final int DENSITY = 7;
+    public static final int NUM_COLUMNS = 8;
+
+    private final int capacity;
+    private final FloatBuffer[] columns;
+
+    /**
+     * Constructor for the BodyStore class.
+     * @param capacity the number of bodies the store can hold
+     */
+    public BodyStore(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must be non negative: " + capacity);
+        }
+        this.capacity = capacity;
+        this.columns = new FloatBuffer[NUM_COLUMNS];
+        for (int c = 0; c < NUM_COLUMNS; c++) {
+            columns[c] = ByteBuffer.allocateDirect(capacity * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    }
+
+    /**
+     * Gets the number of bodies the store can hold.
+     * @return the capacity
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets a column of the store. The returned buffer shares its memory with the store.
+     * @param column the column (X, Y, Z, MASS, X_VELOCITY, Y_VELOCITY, Z_VELOCITY, or DENSITY)
+     * @return the column
+     */
+    public FloatBuffer column(int column) {
+        return columns[column].duplicate();
+    }
+
+    /**
+     * Gets a value of a body.
+     * @param column the column of the value
+     * @param index the index of the body
+     * @return the value
+     */
+    public float get(int column, int index) {
+        return columns[column].get(index);
+    }
+
+    /**
+     * Sets a value of a body.
+     * @param column the column of the value
+     * @param index the index of the body
+     * @param value the value
+     */
+    public void set(int column, int index, float value) {
+        columns[column].put(index, value);
+    }
+
+    /**
+     * Sets all the values of a body.
+     * @param index the index of the body
+     * @param x the x position
+     * @param y the y position
+     * @param z the z position
+     * @param mass the mass
+     * @param xVelocity the x velocity
+     * @param yVelocity the y velocity
+     * @param zVelocity the z velocity
+     * @param density the density
+     */
+    public void set(int index, float x, float y, float z, float mass, float xVelocity, float yVelocity, float zVelocity, float density) {
+        columns[X].put(index, x);
+        columns[Y].put(index, y);
+        columns[Z].put(index, z);
+        columns[MASS].put(index, mass);
+        columns[X_VELOCITY].put(index, xVelocity);
+        columns[Y_VELOCITY].put(index, yVelocity);
+        columns[Z_VELOCITY].put(index, zVelocity);
+        columns[DENSITY].put(index, density);
+    }
+
+    /**
+     * Sets a body from a planet.
+     * @param index the index of the body
+     * @param planet the planet
+     */
+    public void set(int index, Planet planet) {
+        set(index, planet.position.x, planet.position.y, planet.position.z, planet.mass,
+            planet.velocity.x, planet.velocity.y, planet.velocity.z, planet.density);
+    }
+
+    /**
+     * Converts a range of bodies from one unit set to another. Analogous to Planet.changeUnitSet.
+     * @param oldUnitSet the unit set the bodies are in
+     * @param newUnitSet the unit set to convert to
+     * @param start the first body to convert
+     * @param end one past the last body to convert
+     */
+    public void changeUnitSet(UnitSet oldUnitSet, UnitSet newUnitSet, int start, int end) {
+        if (oldUnitSet == newUnitSet) {
+            return;
+        }
+        float massFactor = (float) (oldUnitSet.mass() / newUnitSet.mass());
+        float densityFactor = (float) (oldUnitSet.density() / newUnitSet.density());
+        float lengthFactor = (float) (oldUnitSet.len() / newUnitSet.len());
+        float velocityFactor = (float) (oldUnitSet.len() / oldUnitSet.time() / newUnitSet.len() * newUnitSet.time());
+        for (int i = start; i < end; i++) {
+            columns[X].put(i, columns[X].get(i) * lengthFactor);
+            columns[Y].put(i, columns[Y].get(i) * lengthFactor);
+            columns[Z].put(i, columns[Z].get(i) * lengthFactor);
+            columns[MASS].put(i, columns[MASS].get(i) * massFactor);
+            columns[X_VELOCITY].put(i, columns[X_VELOCITY].get(i) * velocityFactor);
+            columns[Y_VELOCITY].put(i, columns[Y_VELOCITY].get(i) * velocityFactor);
+            columns[Z_VELOCITY].put(i, columns[Z_VELOCITY].get(i) * velocityFactor);
+            columns[DENSITY].put(i, columns[DENSITY].get(i) * densityFactor);
+        }
+    }
+
+    /**
+     * Writes a range of bodies into a buffer in the layout of the Body struct, starting at the buffer's position.
+     * Used to write straight into a mapped SSBO. The buffer's position is moved past the written bodies, and its byte order is left as it was.
+     * @param start the first body to write
+     * @param count the number of bodies to write
+     * @param dst the buffer to write to
+     */
+    public void writeBodies(int start, int count, ByteBuffer dst) {
+        FloatBuffer out = dst.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (int i = start; i < start + count; i++) {
+            for (int c = 0; c < NUM_COLUMNS; c++) {
+                out.put(columns[c].get(i));
+            }
+        }
+        dst.position(dst.position() + count * NUM_COLUMNS * Float.BYTES);
+    }
+
+    /**
+     * Writes a range of bodies into a float array in the layout of the Body struct.
+     * @param start the first body to write
+     * @param count the number of bodies to write
+     * @param dst the array to write to
+     * @param dstOffset the index in the array to start writing at
+     */
+    public void writeBodies(int start, int count, float[] dst, int dstOffset) {
+        int offset = dstOffset;
+        for (int i = start; i < start + count; i++) {
+            for (int c = 0; c < NUM_COLUMNS; c++) {
+                dst[offset++] = columns[c].get(i);
+            }
+        }
+    }
+
+    /**
+     * Generates all the bodies of a planet generator into a new store.
+     * @param planetGenerator the planet generator
+     * @return the store
+     */
+    public static BodyStore fromGenerator(PlanetGenerator planetGenerator) {
+        BodyStore store = new BodyStore(planetGenerator.getNumPlanets());
+        while (planetGenerator.hasNext()) {
+            planetGenerator.nextChunk(store, planetGenerator.planetsGenerated);
+        }
+        return store;
+    }
+}
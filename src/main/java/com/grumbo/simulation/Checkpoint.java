@@ -0,0 +1,289 @@
+package com.grumbo.simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.grumbo.gpu.Body;
+
+/**
+ * Checkpoint class for saving and restoring the full state of a simulation.
+ * A checkpoint file is a fixed size header followed by the raw Body records, exactly as they are laid out in the bodies SSBO.
+ * Everything is little endian. The header is:
+ * <pre>
+ * long magic, int version, int headerSize,
+ * int step, int initialNumBodies, int numBodies, int merged, int outOfBounds,
+ * float dt, float theta, int pad,
+ * double mass, double density, double len, double time (the unit set),
+ * float minX, minY, minZ, maxX, maxY, maxZ (the bounds),
+ * padding up to HEADER_SIZE bytes
+ * </pre>
+ * followed by initialNumBodies records of Body.STRUCT_SIZE floats. Dead bodies are kept as empty records so
+ * the file can be uploaded into the SSBO as is. Then come the per body state of the integrator and the opening criterion,
+ * both indexed by stable id like the bodies: initialNumBodies last accelerations of 4 floats (x, y, z, and the block timestep
+ * rung plus 1, or 0 for a body that has not started the leapfrog), and initialNumBodies BodyStats of a float acceleration
+ * magnitude and an int interaction count. Without them a restored leapfrog would stall every body for a step and skip
+ * the closing kick of bodies in the middle of a block step.
+ * Restoring maps the file region by region, so nothing is copied on the heap.
+ * Files of an older version are rejected, since they do not hold the accelerations.
+ * @author Grumbo
+ * @version 1.0
+ * @since 1.0
+ */
+public class Checkpoint {
+
+    public static final long MAGIC = 0x54504B4356415247L; // "GRAVCKPT" in little endian
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 128;
+    public static final int BODY_BYTES = Body.STRUCT_SIZE * Float.BYTES;
+    public static final int ACCELERATION_BYTES = 4 * Float.BYTES;
+    public static final int BODY_STAT_BYTES = Float.BYTES + Integer.BYTES;
+
+    // The largest region of the file mapped at once, a whole number of records of every kind.
+    private static final long MAX_REGION_BYTES = 256L * 1024 * 1024 / BODY_BYTES * BODY_BYTES;
+
+    public final int step;
+    public final int initialNumBodies;
+    public final int numBodies;
+    public final int merged;
+    public final int outOfBounds;
+    public final float dt;
+    public final float theta;
+    public final UnitSet units;
+    public final float[][] bounds;
+
+    // The file this checkpoint was read from, or null if it has not been read from a file.
+    private Path path;
+
+    /**
+     * Interface for receiving the records of a checkpoint region by region.
+     */
+    public interface BodyRegionFunction {
+        /**
+         * Receives a region of records.
+         * @param byteOffset the offset of the region from the first record of its kind, in bytes
+         * @param region the region, in little endian order
+         */
+        public void accept(long byteOffset, ByteBuffer region);
+    }
+
+    /**
+     * Constructor for the Checkpoint class.
+     * @param step the number of steps the simulation has run
+     * @param initialNumBodies the number of body records
+     * @param numBodies the number of bodies that are alive
+     * @param merged the number of bodies that have merged
+     * @param outOfBounds the number of bodies that have left the bounds
+     * @param dt the time step
+     * @param theta the Barnes-Hut opening angle
+     * @param units the unit set of the bodies
+     * @param bounds the bounds of the simulation {{minX, minY, minZ}, {maxX, maxY, maxZ}}
+     */
+    public Checkpoint(int step, int initialNumBodies, int numBodies, int merged, int outOfBounds, float dt, float theta, UnitSet units, float[][] bounds) {
+        this.step = step;
+        this.initialNumBodies = initialNumBodies;
+        this.numBodies = numBodies;
+        this.merged = merged;
+        this.outOfBounds = outOfBounds;
+        this.dt = dt;
+        this.theta = theta;
+        this.units = units;
+        this.bounds = new float[][] {bounds[0].clone(), bounds[1].clone()};
+    }
+
+    /**
+     * Writes the checkpoint to a file. The file is written next to the path and then moved over it,
+     * so a failed write never replaces the previous checkpoint.
+     * @param path the file to write to
+     * @param bodies the body records, from position to limit. Must hold initialNumBodies records in little endian order.
+     * @param accelerations the last accelerations by stable id, from position to limit. Must hold initialNumBodies records in little endian order.
+     * @param bodyStats the BodyStats by stable id, from position to limit. Must hold initialNumBodies records in little endian order.
+     * @throws IOException if the file could not be written
+     */
+    public void write(Path path, ByteBuffer bodies, ByteBuffer accelerations, ByteBuffer bodyStats) throws IOException {
+        checkRecords("body", bodies, BODY_BYTES);
+        checkRecords("acceleration", accelerations, ACCELERATION_BYTES);
+        checkRecords("body stat", bodyStats, BODY_STAT_BYTES);
+        Path absolute = path.toAbsolutePath();
+        if (absolute.getParent() != null) {
+            Files.createDirectories(absolute.getParent());
+        }
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = packHeader();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            for (ByteBuffer section : new ByteBuffer[] {bodies, accelerations, bodyStats}) {
+                ByteBuffer records = section.duplicate();
+                while (records.hasRemaining()) {
+                    channel.write(records);
+                }
+            }
+            channel.force(false);
+        }
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the header of a checkpoint file. The body records are read with forEachBodyRegion.
+     * @param path the file to read
+     * @return the checkpoint
+     * @throws IOException if the file could not be read or is not a checkpoint
+     */
+    public static Checkpoint read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a checkpoint, file is too small: " + path);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong() != MAGIC) {
+                throw new IOException("Not a checkpoint: " + path);
+            }
+            int version = header.getInt();
+            if (version < VERSION) {
+                throw new IOException("Checkpoint " + path + " is version " + version + ", which does not hold the accelerations of the integrator."
+                    + " Only version " + VERSION + " checkpoints can be restored");
+            }
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + " in " + path);
+            }
+            int headerSize = header.getInt();
+            if (headerSize != HEADER_SIZE) {
+                throw new IOException("Unexpected checkpoint header size " + headerSize + " in " + path);
+            }
+            int step = header.getInt();
+            int initialNumBodies = header.getInt();
+            int numBodies = header.getInt();
+            int merged = header.getInt();
+            int outOfBounds = header.getInt();
+            float dt = header.getFloat();
+            float theta = header.getFloat();
+            header.getInt(); // pad
+            UnitSet units = UnitSet.fromValues(header.getDouble(), header.getDouble(), header.getDouble(), header.getDouble());
+            float[][] bounds = new float[2][3];
+            for (int i = 0; i < 2; i++) {
+                for (int j = 0; j < 3; j++) {
+                    bounds[i][j] = header.getFloat();
+                }
+            }
+            long expectedSize = HEADER_SIZE + (long) initialNumBodies * (BODY_BYTES + ACCELERATION_BYTES + BODY_STAT_BYTES);
+            if (channel.size() != expectedSize) {
+                throw new IOException("Checkpoint " + path + " should be " + expectedSize + " bytes but is " + channel.size());
+            }
+            Checkpoint checkpoint = new Checkpoint(step, initialNumBodies, numBodies, merged, outOfBounds, dt, theta, units, bounds);
+            checkpoint.path = path;
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Maps the body records of the file this checkpoint was read from, region by region, and passes each region on.
+     * Each region is only valid for the duration of the call.
+     * @param regionFunction the function receiving the regions
+     * @throws IOException if the file could not be read
+     */
+    public void forEachBodyRegion(BodyRegionFunction regionFunction) throws IOException {
+        forEachRegion(HEADER_SIZE, (long) initialNumBodies * BODY_BYTES, regionFunction);
+    }
+
+    /**
+     * Maps the last accelerations of the file this checkpoint was read from, region by region, and passes each region on.
+     * Each region is only valid for the duration of the call.
+     * @param regionFunction the function receiving the regions
+     * @throws IOException if the file could not be read
+     */
+    public void forEachAccelerationRegion(BodyRegionFunction regionFunction) throws IOException {
+        forEachRegion(HEADER_SIZE + (long) initialNumBodies * BODY_BYTES, (long) initialNumBodies * ACCELERATION_BYTES, regionFunction);
+    }
+
+    /**
+     * Maps the BodyStats of the file this checkpoint was read from, region by region, and passes each region on.
+     * Each region is only valid for the duration of the call.
+     * @param regionFunction the function receiving the regions
+     * @throws IOException if the file could not be read
+     */
+    public void forEachBodyStatRegion(BodyRegionFunction regionFunction) throws IOException {
+        forEachRegion(HEADER_SIZE + (long) initialNumBodies * (BODY_BYTES + ACCELERATION_BYTES), (long) initialNumBodies * BODY_STAT_BYTES, regionFunction);
+    }
+
+    /**
+     * Maps a section of the file this checkpoint was read from, region by region, and passes each region on.
+     * @param start the offset of the section in the file, in bytes
+     * @param totalBytes the size of the section, in bytes
+     * @param regionFunction the function receiving the regions
+     * @throws IOException if the file could not be read
+     */
+    private void forEachRegion(long start, long totalBytes, BodyRegionFunction regionFunction) throws IOException {
+        if (path == null) {
+            throw new IllegalStateException("Checkpoint was not read from a file");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (long offset = 0; offset < totalBytes; offset += MAX_REGION_BYTES) {
+                long size = Math.min(MAX_REGION_BYTES, totalBytes - offset);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start + offset, size);
+                region.order(ByteOrder.LITTLE_ENDIAN);
+                regionFunction.accept(offset, region);
+            }
+        }
+    }
+
+    /**
+     * Checks that a section holds one record of its kind per body.
+     * @param kind the kind of record, for the message
+     * @param records the records, from position to limit
+     * @param recordBytes the size of one record
+     */
+    private void checkRecords(String kind, ByteBuffer records, int recordBytes) {
+        if (records.remaining() != (long) initialNumBodies * recordBytes) {
+            throw new IllegalArgumentException("Expected " + initialNumBodies + " " + kind + " records but got " + records.remaining() + " bytes");
+        }
+    }
+
+    /**
+     * Gets the file this checkpoint was read from.
+     * @return the file, or null if it has not been read from a file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Packs the header.
+     * @return the header, ready to be written
+     */
+    private ByteBuffer packHeader() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(HEADER_SIZE);
+        header.putInt(step);
+        header.putInt(initialNumBodies);
+        header.putInt(numBodies);
+        header.putInt(merged);
+        header.putInt(outOfBounds);
+        header.putFloat(dt);
+        header.putFloat(theta);
+        header.putInt(0); // pad
+        header.putDouble(units.mass()).putDouble(units.density()).putDouble(units.len()).putDouble(units.time());
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 3; j++) {
+                header.putFloat(bounds[i][j]);
+            }
+        }
+        header.position(0);
+        return header;
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint [step=" + step + ", initialNumBodies=" + initialNumBodies + ", numBodies=" + numBodies + ", merged=" + merged
+            + ", outOfBounds=" + outOfBounds + ", dt=" + dt + ", theta=" + theta + ", units=" + units + "]";
+    }
+}
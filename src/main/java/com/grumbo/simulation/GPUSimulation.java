@@ -14,6 +14,7 @@ import java.time.format.DateTimeFormatter;
 
 import com.grumbo.debug.Debug;
 import com.grumbo.record.Recording;
+import com.grumbo.record.TrajectoryRecorder;
 import com.grumbo.gpu.SSBO;
 import com.grumbo.gpu.GPUCommands;
 import static org.lwjgl.opengl.GL43.*;
@@ -33,6 +34,7 @@ public class GPUSimulation {
     private OpenGLWindow openGlWindow;
     private final ConcurrentLinkedQueue<GPUCommands.GPUCommand> commandQueue = new ConcurrentLinkedQueue<>();
     private PlanetGenerator planetGenerator;
+    private Checkpoint checkpoint;
     private UnitSet units;
     
     /**
@@ -64,6 +66,12 @@ public class GPUSimulation {
     private Path recordDir;
     private BufferedWriter recordMetaWriter;
 
+    // Trajectory variables
+    private static final int TRAJECTORY_RING_SIZE = 4;
+    private static final int TRAJECTORY_WRITER_THREADS = 2;
+    private TrajectoryRecorder trajectory;
+    private int trajectoryEvery = 1;
+
     private int currentBodies = 0;
     private int merged = 0;
     private int outOfBounds = 0;
@@ -228,10 +236,52 @@ public class GPUSimulation {
         return new GPUSimulation(new PlanetGenerator(newPlanets), 10, Render.RenderMode.IMPOSTOR_SPHERES_WITH_GLOW, true);
     }
 
+    /**
+     * Creates a headless simulation, which runs the compute shaders on a hidden OpenGL context with no window, render, or UI.
+     * It is driven with initHeadless, stepHeadless, and cleanupHeadless instead of run.
+     * @param planetGenerator the planet generator for the bodies
+     * @param bounds the bounds of the simulation
+     * @return the headless simulation
+     */
+    public static GPUSimulation createHeadless(PlanetGenerator planetGenerator, float[][] bounds) {
+        GPUSimulation gpuSimulation = new GPUSimulation(planetGenerator, null, bounds, Render.RenderMode.OFF, false);
+        gpuSimulation.render = null;
+        return gpuSimulation;
+    }
+
     public GPUSimulation(PlanetGenerator planetGenerator, float[][] bounds, Render.RenderMode renderMode, boolean debug) {
+        this(planetGenerator, null, bounds, renderMode, debug);
+    }
+
+    /**
+     * Constructor for the GPUSimulation class.
+     * Used to resume a simulation from a checkpoint. The bodies, counters, bounds, dt, and theta are restored from the checkpoint.
+     * @param checkpoint the checkpoint to resume from
+     * @param renderMode the render mode
+     * @param debug whether to debug the simulation
+     */
+    public GPUSimulation(Checkpoint checkpoint, Render.RenderMode renderMode, boolean debug) {
+        this(null, checkpoint, checkpoint.bounds, renderMode, debug);
+        this.barnesHut.setSteps(checkpoint.step);
+        this.merged = checkpoint.merged;
+        this.outOfBounds = checkpoint.outOfBounds;
+        Settings.getInstance().setDt(checkpoint.dt);
+        Settings.getInstance().setTheta(checkpoint.theta);
+    }
+
+    /**
+     * Constructor for the GPUSimulation class.
+     * @param planetGenerator the planet generator for the bodies, or null if the bodies come from a checkpoint
+     * @param checkpoint the checkpoint for the bodies, or null if the bodies come from a planet generator
+     * @param bounds the bounds of the simulation
+     * @param renderMode the render mode
+     * @param debug whether to debug the simulation
+     */
+    private GPUSimulation(PlanetGenerator planetGenerator, Checkpoint checkpoint, float[][] bounds, Render.RenderMode renderMode, boolean debug) {
 
         this.planetGenerator = planetGenerator;
-        this.initialbodiesContained = planetGenerator.getNumPlanets();
+        this.checkpoint = checkpoint;
+        this.initialbodiesContained = initialNumBodies();
         this.openGlWindow = new OpenGLWindow(this);
         this.barnesHut = new BarnesHut(this,debug,bounds);
         this.render = new Render(this,renderMode,debug);
@@ -292,6 +342,33 @@ public class GPUSimulation {
         render.init();
     }
 
+    /**
+     * Creates the hidden OpenGL context and uploads the bodies of a headless simulation.
+     */
+    public void initHeadless() {
+        openGlWindow.initHeadless();
+        GPU.initGPU(this);
+        barnesHut.init();
+    }
+
+    /**
+     * Steps a headless simulation once, with no render or buffer swap.
+     */
+    public void stepHeadless() {
+        processCommands();
+        barnesHut.step();
+        checkGLError("after barnesHut.step");
+        captureTrajectoryIfRecording();
+    }
+
+    /**
+     * Cleans up a headless simulation and destroys its hidden OpenGL context.
+     */
+    public void cleanupHeadless() {
+        cleanup();
+        openGlWindow.cleanupHeadless();
+    }
+
     /**
      * Check for OpenGL errors.
      * Note: if this is not run after each operation sent to the GPU, an error could have occured on ANY of the previous operations since it was last run.
@@ -334,6 +411,7 @@ public class GPUSimulation {
             barnesHut.step();
             checkGLError("after barnesHut.step");
             
+            captureTrajectoryIfRecording();
             render.render(state);
             checkGLError("after render");
             captureIfRecording();
@@ -349,6 +427,7 @@ public class GPUSimulation {
         if (state == State.FRAME_ADVANCE) {
             checkGLError("after barnesHut.step");
             barnesHut.step();
+            captureTrajectoryIfRecording();
             render.render(state);
             checkGLError("after render");
             captureIfRecording();
@@ -373,6 +452,17 @@ public class GPUSimulation {
         recordFrameIndex++;
     }
     
+    /**
+     * Captures the bodies into the trajectory if one is being recorded and this step should be written.
+     */
+    private void captureTrajectoryIfRecording() {
+        if (trajectory == null || !trajectory.isRunning()) return;
+        int step = barnesHut.getSteps();
+        if (step % trajectoryEvery != 0) return;
+        trajectory.capture(step, GPU.SSBO_SWAPPING_BODIES_IN.getBufferLocation(), GPU.SSBO_BODY_IDS.getBufferLocation(), GPU.SSBO_SIMULATION_VALUES.getBufferLocation());
+        checkGLError("after trajectory capture");
+    }
+
     /**
      * Processes the commands in the command queue.
      */
@@ -390,6 +480,9 @@ public class GPUSimulation {
      * @return the unit set.
      */
     public UnitSet getUnitSet() {
+        if (checkpoint != null) {
+            return checkpoint.units;
+        }
         return planetGenerator.getUnitSet();
     }
 
@@ -412,6 +505,9 @@ public class GPUSimulation {
      * @return the number of bodies in the simulation.
      */
     public int initialNumBodies() {
+        if (checkpoint != null) {
+            return checkpoint.initialNumBodies;
+        }
         return planetGenerator.getNumPlanets();
     }
 
@@ -541,6 +637,31 @@ public class GPUSimulation {
         return planetGenerator;
     }
 
+    /**
+     * Gets the checkpoint the simulation was resumed from.
+     * @return the checkpoint, or null if the simulation was started from a planet generator.
+     */
+    public Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Saves the current state of the simulation to a checkpoint file. Must be called on the GL thread.
+     * @param path the file to save to.
+     */
+    public void saveCheckpoint(Path path) {
+        GPU.saveCheckpoint(path, barnesHut.getSteps(), getUnitSet());
+        System.out.println("Checkpoint saved: " + path.toAbsolutePath());
+    }
+
+    /**
+     * Saves the current state of the simulation to a new checkpoint file in the checkpoints directory.
+     */
+    public void saveCheckpoint() {
+        String ts = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+        saveCheckpoint(Path.of("checkpoints", "ckpt_" + ts + "_step" + barnesHut.getSteps() + ".bin"));
+    }
+
     /**
      * Toggles the regions rendering.
      */
@@ -593,6 +714,9 @@ public class GPUSimulation {
         }
         cleanedUp = true;
 
+        if (trajectory != null && trajectory.isRunning()) {
+            stopTrajectory();
+        }
         GPU.cleanup();
         if (isRecording) {
             stopRecording();
@@ -657,4 +781,44 @@ public class GPUSimulation {
         System.out.println("Recording stopped.");
     }
 
-}
\ No newline at end of file
+    /* --------- Trajectory control --------- */
+    /**
+     * Toggles the trajectory output. Must be called on the GL thread.
+     */
+    public void toggleTrajectory() {
+        if (trajectory != null && trajectory.isRunning()) {
+            stopTrajectory();
+        } else {
+            String ts = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+            startTrajectory(Path.of("trajectories", "traj_" + ts + ".traj"), 1, false);
+        }
+    }
+
+    /**
+     * Starts writing a trajectory. Must be called on the GL thread.
+     * @param path the trajectory file.
+     * @param every the number of steps between frames.
+     * @param withVelocities whether to write velocities and densities as well as positions and masses.
+     */
+    public void startTrajectory(Path path, int every, boolean withVelocities) {
+        if (trajectory != null && trajectory.isRunning()) {
+            stopTrajectory();
+        }
+        UnitSet units = getUnitSet();
+        trajectoryEvery = Math.max(1, every);
+        trajectory = new TrajectoryRecorder();
+        trajectory.start(new TrajectoryRecorder.Config(path, initialNumBodies(), withVelocities, TRAJECTORY_RING_SIZE, TRAJECTORY_WRITER_THREADS,
+            new double[] {units.mass(), units.density(), units.len(), units.time()}));
+        System.out.println("Trajectory started: " + path.toAbsolutePath());
+    }
+
+    /**
+     * Stops writing the trajectory, flushing every captured frame. Must be called on the GL thread.
+     */
+    public void stopTrajectory() {
+        if (trajectory == null) return;
+        trajectory.stop();
+        System.out.println("Trajectory stopped after " + trajectory.getFramesCaptured() + " frames.");
+        trajectory = null;
+    }
+}
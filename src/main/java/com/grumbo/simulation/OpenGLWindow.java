@@ -96,6 +96,50 @@ public class OpenGLWindow {
         
         System.out.println(getStartupInfo());
     }
+    /**
+     * Creates an OpenGL 4.3 core context on a hidden 1x1 window, for running the compute shaders with no rendering or UI.
+     * The window is never shown, drawn to, or swapped, and the settings are left as they are.
+     */
+    public void initHeadless() {
+        GLFWErrorCallback.createPrint(System.err).set();
+
+        if (!glfwInit())
+            throw new IllegalStateException("Unable to initialize GLFW");
+
+        glfwDefaultWindowHints();
+        glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 4);
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3);
+        glfwWindowHint(GLFW_OPENGL_PROFILE, GLFW_OPENGL_CORE_PROFILE);
+        glfwWindowHint(GLFW_OPENGL_FORWARD_COMPAT, GLFW_TRUE);
+
+        window = glfwCreateWindow(1, 1, "Gravity Simulator 3D (headless)", NULL, NULL);
+        if (window == NULL)
+            throw new RuntimeException("Failed to create a hidden GLFW window for an OpenGL 4.3 context");
+
+        glfwMakeContextCurrent(window);
+        GL.createCapabilities();
+
+        System.out.println("OpenGL Version: " + glGetString(GL_VERSION));
+        System.out.println("OpenGL Renderer: " + glGetString(GL_RENDERER));
+    }
+
+    /**
+     * Destroys the hidden window of a headless run, after the GPU resources are cleaned up.
+     */
+    public void cleanupHeadless() {
+        if (window == 0) {
+            return;
+        }
+        glfwDestroyWindow(window);
+        window = 0;
+        glfwTerminate();
+        var cb = glfwSetErrorCallback(null);
+        if (cb != null) {
+            cb.free();
+        }
+    }
+
     /**
      * Steps the OpenGL window.
      */
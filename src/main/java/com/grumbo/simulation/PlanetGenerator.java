@@ -3,6 +3,9 @@ package com.grumbo.simulation;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 
 import org.joml.Vector3f;
 
@@ -23,14 +26,29 @@ public class PlanetGenerator {
     public int planetsGenerated;
     private int numPlanets;
     private UnitSet unitSet;
-    private PlanetGeneratorFunction planetGeneratorFunction;
+    private BodyGeneratorFunction bodyGeneratorFunction;
     private HasNextFunction hasNextFunction;
+    // Bodies generated ahead for nextPlanet, a block at a time, starting at body index planetBufferStart
+    private BodyStore planetBuffer;
+    private int planetBufferStart;
+    private int planetBufferCount;
+    private UnitSet planetBufferUnitSet;
 
     /**
-     * Interface for generating the next planet.
+     * Interface for generating a range of bodies straight into a body store.
+     * Implementations must be thread safe and give the same bodies for an index no matter how the range is split,
+     * so that ranges can be generated in parallel.
      */
-    private interface PlanetGeneratorFunction {
-        public Planet generateNextPlanet();
+    private interface BodyGeneratorFunction {
+        /**
+         * Generates a range of bodies.
+         * @param store the body store to write to
+         * @param storeOffset the index in the store to write the first body to
+         * @param start the index of the first body in this generator
+         * @param count the number of bodies to generate
+         * @param target the unit set to write the bodies in
+         */
+        public void generateBodies(BodyStore store, int storeOffset, int start, int count, UnitSet target);
     }
 
     /**
@@ -67,15 +85,24 @@ public class PlanetGenerator {
 
     private static final int DEFAULT_CHUNK_SIZE = 100_000;
 
+    // Each block of bodies gets its own random stream, so the bodies only depend on the seed and their index.
+    private static final int GENERATION_BLOCK_SIZE = 1024;
+    // The number of bodies generated by one parallel task.
+    private static final int PARALLEL_TASK_SIZE = 64 * GENERATION_BLOCK_SIZE;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private static final int RANDOM_BOX_DRAWS_PER_BODY = 8;
+    private static final int RANDOM_DISK_DRAWS_PER_BODY = 6;
+
     /**
      * Constructor for the PlanetGenerator class.
-     * @param planetGeneratorFunction the function to generate the next planet
+     * @param bodyGeneratorFunction the function to generate a range of bodies
      * @param numPlanets the number of planets to generate
      * @param chunkSize the largest size of planets to hold in RAM at any given time
      */
-    public PlanetGenerator(PlanetGeneratorFunction planetGeneratorFunction, int numPlanets, int chunkSize, UnitSet unitSet) {
+    private PlanetGenerator(BodyGeneratorFunction bodyGeneratorFunction, int numPlanets, int chunkSize, UnitSet unitSet) {
         this.chunkSize = chunkSize;
-        this.planetGeneratorFunction = planetGeneratorFunction;
+        this.bodyGeneratorFunction = bodyGeneratorFunction;
         this.numPlanets = numPlanets;
         this.planetsGenerated = 0;
         if (unitSet == null) {
@@ -101,11 +128,11 @@ public class PlanetGenerator {
 
     /**
      * Constructor for the PlanetGenerator class.
-     * @param planetGeneratorFunction the function to generate the next planet
+     * @param bodyGeneratorFunction the function to generate a range of bodies
      * @param numPlanets the number of planets to generate
      */
-    public PlanetGenerator(PlanetGeneratorFunction planetGeneratorFunction, int numPlanets) {
-        this(planetGeneratorFunction, numPlanets, DEFAULT_CHUNK_SIZE, null);
+    private PlanetGenerator(BodyGeneratorFunction bodyGeneratorFunction, int numPlanets) {
+        this(bodyGeneratorFunction, numPlanets, DEFAULT_CHUNK_SIZE, null);
     }
 
     /**
@@ -116,10 +143,19 @@ public class PlanetGenerator {
         this(planets.size(), unitSet);
 
         final int originalNumPlanets = this.numPlanets;
-        this.planetGeneratorFunction = new PlanetGeneratorFunction() {
+        this.bodyGeneratorFunction = new BodyGeneratorFunction() {
             @Override
-            public Planet generateNextPlanet() {
-                return planets.get(planetsGenerated-1);
+            public void generateBodies(BodyStore store, int storeOffset, int start, int count, UnitSet target) {
+                // Runs of planets in the same unit set are converted together once they are written
+                int runStart = 0;
+                for (int i = 0; i < count; i++) {
+                    Planet planet = planets.get(start + i);
+                    store.set(storeOffset + i, planet);
+                    if (i + 1 == count || planets.get(start + i + 1).getUnitSet() != planet.getUnitSet()) {
+                        store.changeUnitSet(planet.getUnitSet(), target, storeOffset + runStart, storeOffset + i + 1);
+                        runStart = i + 1;
+                    }
+                }
             }
         };
         this.hasNextFunction = new HasNextFunction() {
@@ -144,10 +180,13 @@ public class PlanetGenerator {
      */
     public PlanetGenerator(Planet planet) {
         this(1, null);
-        this.planetGeneratorFunction = new PlanetGeneratorFunction() {
+        this.bodyGeneratorFunction = new BodyGeneratorFunction() {
             @Override
-            public Planet generateNextPlanet() {
-                return planet;
+            public void generateBodies(BodyStore store, int storeOffset, int start, int count, UnitSet target) {
+                for (int i = 0; i < count; i++) {
+                    store.set(storeOffset + i, planet);
+                    store.changeUnitSet(planet.getUnitSet(), target, storeOffset + i, storeOffset + i + 1);
+                }
             }
         };
         this.hasNextFunction = new HasNextFunction() {
@@ -163,10 +202,9 @@ public class PlanetGenerator {
      */
     public PlanetGenerator() {
         this(0, null);
-        this.planetGeneratorFunction = new PlanetGeneratorFunction() {
+        this.bodyGeneratorFunction = new BodyGeneratorFunction() {
             @Override
-            public Planet generateNextPlanet() {
-                return null;
+            public void generateBodies(BodyStore store, int storeOffset, int start, int count, UnitSet target) {
             }
         };
         this.hasNextFunction = new HasNextFunction() {
@@ -186,18 +224,7 @@ public class PlanetGenerator {
     public PlanetGenerator(PlanetGenerator pg1, PlanetGenerator pg2) {
         this(pg1.numPlanets+pg2.numPlanets, pg1.unitSet);
         
-        final int previousNumPlanets = pg1.numPlanets;
-        this.planetGeneratorFunction = new PlanetGeneratorFunction() {
-            @Override
-            public Planet generateNextPlanet() {
-                if (planetsGenerated <= previousNumPlanets) {
-                    return pg1.nextPlanet();
-                } else {
-
-                    return pg2.nextPlanet();
-                }
-            }
-        };
+        this.bodyGeneratorFunction = combine(pg1.bodyGeneratorFunction, pg1.numPlanets, pg2.bodyGeneratorFunction);
         this.hasNextFunction = new HasNextFunction() {
             @Override
             public boolean hasNextFunction() {
@@ -216,18 +243,7 @@ public class PlanetGenerator {
 
         this.numPlanets += pg.numPlanets;
 
-        final PlanetGeneratorFunction prevGen = this.planetGeneratorFunction;
-
-        this.planetGeneratorFunction = new PlanetGeneratorFunction() {
-            @Override
-            public Planet generateNextPlanet() {
-                if (planetsGenerated <= prevNumPlanets) {
-                    return prevGen.generateNextPlanet();
-                } else {
-                    return pg.nextPlanet();
-                }
-            }
-        };
+        this.bodyGeneratorFunction = combine(this.bodyGeneratorFunction, prevNumPlanets, pg.bodyGeneratorFunction);
     
         this.hasNextFunction = new HasNextFunction() {
             @Override
@@ -237,6 +253,28 @@ public class PlanetGenerator {
         };
     }
 
+    /**
+     * Combines two body generator functions, the first giving the bodies before firstNumPlanets and the second the rest.
+     * @param first the first body generator function
+     * @param firstNumPlanets the number of planets in the first body generator function
+     * @param second the second body generator function
+     * @return the combined body generator function
+     */
+    private static BodyGeneratorFunction combine(BodyGeneratorFunction first, int firstNumPlanets, BodyGeneratorFunction second) {
+        return new BodyGeneratorFunction() {
+            @Override
+            public void generateBodies(BodyStore store, int storeOffset, int start, int count, UnitSet target) {
+                int firstCount = Math.max(0, Math.min(count, firstNumPlanets - start));
+                if (firstCount > 0) {
+                    first.generateBodies(store, storeOffset, start, firstCount, target);
+                }
+                if (count > firstCount) {
+                    second.generateBodies(store, storeOffset + firstCount, start + firstCount - firstNumPlanets, count - firstCount, target);
+                }
+            }
+        };
+    }
+
     /**
      * Adds a planet to the current planet generator.
      * @param planet the planet to add
@@ -268,21 +306,67 @@ public class PlanetGenerator {
         return ret;
     }
 
+    /**
+     * Writes the next chunk of planets straight into a body store, without holding them in a list or making a Planet per body.
+     * The chunk is split into tasks that are generated in parallel. The bodies do not depend on the number of threads.
+     * @param store the body store to write to
+     * @param storeOffset the index in the store to write the first body of the chunk to
+     * @return the number of bodies written
+     */
+    public int nextChunk(BodyStore store, int storeOffset) {
+        if (!hasNextFunction.hasNextFunction()) {
+            throw new RuntimeException("No more planets");
+        }
+        final int count = Math.min(chunkSize, numPlanets - planetsGenerated);
+        if (storeOffset + count > store.capacity()) {
+            throw new IllegalArgumentException("Body store is too small: " + store.capacity() + " for " + (storeOffset + count) + " bodies");
+        }
+        final int start = planetsGenerated;
+        final UnitSet target = unitSet;
+        int numTasks = (count + PARALLEL_TASK_SIZE - 1) / PARALLEL_TASK_SIZE;
+        IntStream.range(0, numTasks).parallel().forEach(task -> {
+            int taskStart = task * PARALLEL_TASK_SIZE;
+            int taskCount = Math.min(PARALLEL_TASK_SIZE, count - taskStart);
+            bodyGeneratorFunction.generateBodies(store, storeOffset + taskStart, start + taskStart, taskCount, target);
+        });
+        planetsGenerated += count;
+        return count;
+    }
+
+    /**
+     * Gets the largest number of planets returned by one chunk.
+     * @return the chunk size
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
     /**
      * Gets the next planet.
+     * Bodies are generated a block of GENERATION_BLOCK_SIZE at a time and handed out one by one,
+     * so each body's random stream is only positioned once per block.
      * @return the next planet
      */
     public Planet nextPlanet() {
         if (!hasNextFunction.hasNextFunction()) {
             throw new RuntimeException("No more planets");
         }
-        planetsGenerated++;
-        Planet planet = planetGeneratorFunction.generateNextPlanet();
-        if (unitSet != planet.getUnitSet()) {
- 
-            planet.changeUnitSet(unitSet);
+        if (planetBuffer == null) {
+            planetBuffer = new BodyStore(GENERATION_BLOCK_SIZE);
+        }
+        int index = planetsGenerated - planetBufferStart;
+        if (index < 0 || index >= planetBufferCount || planetBufferUnitSet != unitSet) {
+            planetBufferStart = planetsGenerated;
+            planetBufferCount = Math.min(GENERATION_BLOCK_SIZE, numPlanets - planetsGenerated);
+            planetBufferUnitSet = unitSet;
+            bodyGeneratorFunction.generateBodies(planetBuffer, 0, planetBufferStart, planetBufferCount, unitSet);
+            index = 0;
         }
-        return planet;
+        planetsGenerated++;
+        BodyStore s = planetBuffer;
+        return new Planet(s.get(BodyStore.X, index), s.get(BodyStore.Y, index), s.get(BodyStore.Z, index),
+            s.get(BodyStore.X_VELOCITY, index), s.get(BodyStore.Y_VELOCITY, index), s.get(BodyStore.Z_VELOCITY, index),
+            s.get(BodyStore.MASS, index), s.get(BodyStore.DENSITY, index), unitSet);
     }
 
     /**
@@ -293,6 +377,42 @@ public class PlanetGenerator {
         this.unitSet = unitSet;
     }
 
+    /**
+     * Gets a random stream positioned at a body, so that a body's values only depend on the seed and its index.
+     * Each block of GENERATION_BLOCK_SIZE bodies has its own stream, and bodies before the index in its block are skipped.
+     * @param seed the seed of the generator
+     * @param index the index of the body
+     * @param drawsPerBody the number of random values drawn for each body
+     * @return the random stream
+     */
+    private static SplittableRandom blockRandom(long seed, int index, int drawsPerBody) {
+        int block = index / GENERATION_BLOCK_SIZE;
+        SplittableRandom random = new SplittableRandom(mix64(seed + (block + 1L) * GOLDEN_GAMMA));
+        for (int i = (index % GENERATION_BLOCK_SIZE) * drawsPerBody; i > 0; i--) {
+            random.nextLong();
+        }
+        return random;
+    }
+
+    /**
+     * Mixes the bits of a long. This is the finalizer used by SplittableRandom.
+     * @param z the long to mix
+     * @return the mixed long
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Gets a new random seed for generators made without one.
+     * @return the seed
+     */
+    private static long randomSeed() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+
     
     /**
      * Makes a new random set of planets confined to a box.
@@ -308,43 +428,72 @@ public class PlanetGenerator {
      * @return the new random box
      */
 	public static PlanetGenerator makeNewRandomBox(int num, float[] x, float[] y, float[] z, float[] xV, float[] yV, float[] zV, float[] m, float[] density) {
+		return makeNewRandomBox(num, x, y, z, xV, yV, zV, m, density, randomSeed());
+	}
+
+    /**
+     * Makes a new random set of planets confined to a box.
+     * @param num the number of planets to generate
+     * @param x the x range
+     * @param y the y range
+     * @param z the z range
+     * @param xV the x velocity range
+     * @param yV the y velocity range
+     * @param zV the z velocity range
+     * @param m the mass range
+     * @param density the density range
+     * @param seed the seed, the same seed always gives the same planets
+     * @return the new random box
+     */
+	public static PlanetGenerator makeNewRandomBox(int num, float[] x, float[] y, float[] z, float[] xV, float[] yV, float[] zV, float[] m, float[] density, long seed) {
 		
-        PlanetGeneratorFunction planetGeneratorFunction = new PlanetGeneratorFunction() {
+        BodyGeneratorFunction bodyGeneratorFunction = new BodyGeneratorFunction() {
 			@Override
-			public Planet generateNextPlanet() {
-				return new Planet(randomInRange(x), randomInRange(y), randomInRange(z), randomInRange(xV), randomInRange(yV), randomInRange(zV), randomInRange(m), randomInRange(density));
+			public void generateBodies(BodyStore store, int storeOffset, int start, int count, UnitSet target) {
+				SplittableRandom random = null;
+				for (int i = start; i < start + count; i++) {
+					if (random == null || i % GENERATION_BLOCK_SIZE == 0) {
+						random = blockRandom(seed, i, RANDOM_BOX_DRAWS_PER_BODY);
+					}
+					store.set(storeOffset + i - start, randomInRange(x, random), randomInRange(y, random), randomInRange(z, random), randomInRange(m, random),
+						randomInRange(xV, random), randomInRange(yV, random), randomInRange(zV, random), randomInRange(density, random));
+				}
+				store.changeUnitSet(UnitSet.SOLAR_SYSTEM_SECOND, target, storeOffset, storeOffset + count);
 			}
 		};
         
-        PlanetGenerator ret = new PlanetGenerator(planetGeneratorFunction, num);
+        PlanetGenerator ret = new PlanetGenerator(bodyGeneratorFunction, num);
 		return ret;
 	}
 
     /**
-     * Calculates the adherence to a plane, used in making disks.
-     * @param adherenceToPlane the adherence to a plane
-     * @return the adherence to a plane
-     */
-	private static float adherenceCalculation(float adherenceToPlane) {
-		//returns the difference in radians from the plane for the phi value
-		double factor = 1-Math.pow(Math.random(), (1.0-adherenceToPlane)); 
-		return (float)(Math.PI*factor);
-	}
-
-    /**
-     * Converts polar coordinates to planar coordinates, used in making disks.
-     * @param r the radius
-     * @param theta the theta
-     * @param u the u
-     * @param v the v
-     * @return the planar coordinates
+     * Creates a new set of disks.
+     * @param numDisks the number of disks to create
+     * @param numPlanetsRange the number of planets per disk range
+     * @param radiusRangeLow the inner radius of a disk range 
+     * @param stellarDensityRange the stellar density range for inside the disk, this decides the outer radius of the disk
+     * @param mRange the mass range for the planets inside the disk
+     * @param densityRange the density range for the planets inside the disk
+     * @param centerXRange the range for the center x of the disk
+     * @param centerYRange the range for the center y of the disk
+     * @param centerZRange the range for the center z of the disk
+     * @param relativeVelocityX the range for the relative velocity x of the planets in the disk
+     * @param relativeVelocityY the range for the relative velocity y of the planets in the disk
+     * @param relativeVelocityZ the range for the relative velocity z of the planets in the disk
+     * @param phiRange the phi range for the disk. Generally 0 to pi, larger or smaller values reverse direction of rotation
+     * @param centerMassRange the range of the mass of the center body of the disk
+     * @param centerDensityRange the range of the density of the center body of the disk
+     * @param adherenceToPlaneRange the adherence to plane range for the disk
+     * @param orbitalFactor the orbital velocity factor for the planets in the disk
+     * @param giveOrbitalVelocity Give orbital velocity to the planets in the disk
+     * @return the new set of disks
      */
-	private static Vector3f polarToPlanarCoordinates(float r,float theta, Vector3f u, Vector3f v) {
-		Vector3f uC = new Vector3f(u);
-		Vector3f vC = new Vector3f(v);
-		Vector3f cuTr = uC.mul(r*(float)Math.cos(theta));
-		Vector3f cvTr = vC.mul(r*(float)Math.sin(theta));
-		return cuTr.add(cvTr);
+	public static PlanetGenerator createSeveralDisks(int numDisks, int[] numPlanetsRange, float[] radiusRangeLow, float[] stellarDensityRange, float[] mRange, 
+			float[] densityRange, float[] centerXRange, float[] centerYRange, float[] centerZRange, float[] relativeVelocityX, float[] relativeVelocityY, float[] relativeVelocityZ, 
+			float[] phiRange, float[] centerMassRange, float[] centerDensityRange, 
+			float[] adherenceToPlaneRange, float orbitalFactor, boolean giveOrbitalVelocity, UnitSet unitSet) {
+		return createSeveralDisks(numDisks, numPlanetsRange, radiusRangeLow, stellarDensityRange, mRange, densityRange, centerXRange, centerYRange, centerZRange,
+			relativeVelocityX, relativeVelocityY, relativeVelocityZ, phiRange, centerMassRange, centerDensityRange, adherenceToPlaneRange, orbitalFactor, giveOrbitalVelocity, unitSet, randomSeed());
 	}
 
     /**
@@ -367,32 +516,33 @@ public class PlanetGenerator {
      * @param adherenceToPlaneRange the adherence to plane range for the disk
      * @param orbitalFactor the orbital velocity factor for the planets in the disk
      * @param giveOrbitalVelocity Give orbital velocity to the planets in the disk
+     * @param seed the seed, the same seed always gives the same disks and planets
      * @return the new set of disks
      */
 	public static PlanetGenerator createSeveralDisks(int numDisks, int[] numPlanetsRange, float[] radiusRangeLow, float[] stellarDensityRange, float[] mRange, 
 			float[] densityRange, float[] centerXRange, float[] centerYRange, float[] centerZRange, float[] relativeVelocityX, float[] relativeVelocityY, float[] relativeVelocityZ, 
 			float[] phiRange, float[] centerMassRange, float[] centerDensityRange, 
-			float[] adherenceToPlaneRange, float orbitalFactor, boolean giveOrbitalVelocity, UnitSet unitSet) {
+			float[] adherenceToPlaneRange, float orbitalFactor, boolean giveOrbitalVelocity, UnitSet unitSet, long seed) {
 
+		// The disk parameters and the seed of each disk are drawn from one stream of the seed
+		SplittableRandom random = new SplittableRandom(mix64(seed));
 		PlanetGenerator pg = new PlanetGenerator();
 
 		for (int i = 0; i < numDisks; i++) {
-			int num = randomInRange(numPlanetsRange);
-			float[] radius = {randomInRange(radiusRangeLow), num/randomInRange(stellarDensityRange)};
-			float[] mass = {randomInRange(mRange), randomInRange(mRange)};
-			float[] density = {randomInRange(densityRange), randomInRange(densityRange)};
-			float[] center = {randomInRange(centerXRange), randomInRange(centerYRange), randomInRange(centerZRange)};
-			float[] relativeVelocity = {randomInRange(relativeVelocityX), randomInRange(relativeVelocityY), randomInRange(relativeVelocityZ)};
-			float phi = randomInRange(phiRange);
-			float centerMass = randomInRange(centerMassRange);
-			float centerDensity = randomInRange(centerDensityRange);
-			float adherenceToPlane = randomInRange(adherenceToPlaneRange);
-			orbitalFactor = orbitalFactor;
+			int num = randomInRange(numPlanetsRange, random);
+			float[] radius = {randomInRange(radiusRangeLow, random), num/randomInRange(stellarDensityRange, random)};
+			float[] mass = {randomInRange(mRange, random), randomInRange(mRange, random)};
+			float[] density = {randomInRange(densityRange, random), randomInRange(densityRange, random)};
+			float[] center = {randomInRange(centerXRange, random), randomInRange(centerYRange, random), randomInRange(centerZRange, random)};
+			float[] relativeVelocity = {randomInRange(relativeVelocityX, random), randomInRange(relativeVelocityY, random), randomInRange(relativeVelocityZ, random)};
+			float phi = randomInRange(phiRange, random);
+			float centerMass = randomInRange(centerMassRange, random);
+			float centerDensity = randomInRange(centerDensityRange, random);
+			float adherenceToPlane = randomInRange(adherenceToPlaneRange, random);
 			boolean ccw = false;
-			giveOrbitalVelocity = giveOrbitalVelocity;
 
 			PlanetGenerator pg2 = (PlanetGenerator.makeNewRandomDisk(num, radius, mass, density, 
-			center, relativeVelocity, phi, centerMass, centerDensity, adherenceToPlane, orbitalFactor, ccw, giveOrbitalVelocity, unitSet));
+			center, relativeVelocity, phi, centerMass, centerDensity, adherenceToPlane, orbitalFactor, ccw, giveOrbitalVelocity, unitSet, random.nextLong()));
 			pg= new PlanetGenerator(pg, pg2);
 		}
 		return pg;
@@ -416,64 +566,109 @@ public class PlanetGenerator {
      * @return the new random disk
      */
 	public static PlanetGenerator makeNewRandomDisk(int num, float[] radius, float[] mass, float[] density, float[] center, float[] relativeVelocity, float phi,  float centerMass, float centerDensity, float adherenceToPlane,float orbitalFactor,boolean ccw, boolean giveOrbitalVelocity, UnitSet unitSet) {
+		return makeNewRandomDisk(num, radius, mass, density, center, relativeVelocity, phi, centerMass, centerDensity, adherenceToPlane, orbitalFactor, ccw, giveOrbitalVelocity, unitSet, randomSeed());
+	}
+
+    /**
+     * Makes a new random disk.
+     * @param num the number of planets in the disk
+     * @param radius the radius range for the disk
+     * @param mass the mass range for the planets in the disk
+     * @param density the density range for the planets in the disk
+     * @param center the center range for the disk
+     * @param relativeVelocity the relative velocity range for the planets in the disk
+     * @param phi the phi for the disk
+     * @param centerMass the center mass for the disk
+     * @param centerDensity the center density for the disk
+     * @param adherenceToPlane the adherence to plane for the disk
+     * @param orbitalFactor the orbital factor for the disk
+     * @param ccw the ccw for the disk
+     * @param giveOrbitalVelocity the give orbital velocity for the disk
+     * @param seed the seed, the same seed always gives the same planets
+     * @return the new random disk
+     */
+	public static PlanetGenerator makeNewRandomDisk(int num, float[] radius, float[] mass, float[] density, float[] center, float[] relativeVelocity, float phi,  float centerMass, float centerDensity, float adherenceToPlane,float orbitalFactor,boolean ccw, boolean giveOrbitalVelocity, UnitSet unitSet, long seed) {
 		// Disk normal tilted from +z by phi around the x-axis
-		final Vector3f normal = new Vector3f(0f, (float)(Math.sin(phi)), (float)Math.cos(phi));
+		final float nx = 0f;
+		final float ny = (float)Math.sin(phi);
+		final float nz = (float)Math.cos(phi);
 
 		// Build an orthonormal basis (u, v) in the plane perpendicular to n (i.e in the disk)
 		// Choose a helper axis not colinear with n
-		Vector3f a;
-		if (Math.abs(normal.x) < 0.9f) { a = new Vector3f(1f, 0f, 0f); } else { a = new Vector3f(0f, 1f, 0f); }
+		final float ax = Math.abs(nx) < 0.9f ? 1f : 0f;
+		final float ay = Math.abs(nx) < 0.9f ? 0f : 1f;
 	
 		// u = normalize(n x a)
-		Vector3f u = new Vector3f(normal).cross(a).normalize();
+		float ux = ny * 0f - nz * ay;
+		float uy = nz * ax - nx * 0f;
+		float uz = nx * ay - ny * ax;
+		float uLength = (float)Math.sqrt(ux * ux + uy * uy + uz * uz);
+		final float[] u = {ux / uLength, uy / uLength, uz / uLength};
 
-	
 		// v = n x u  (already normalized)
-		Vector3f v = new Vector3f(normal).cross(u);
-
+		final float[] v = {ny * u[2] - nz * u[1], nz * u[0] - nx * u[2], nx * u[1] - ny * u[0]};
+		final float[] n = {nx, ny, nz};
+		final UnitSet sourceUnitSet = unitSet == null ? UnitSet.SOLAR_SYSTEM_SECOND : unitSet;
+		final double gravitationalConstant = sourceUnitSet.gravitationalConstant();
 
-        PlanetGenerator pg = new PlanetGenerator(new PlanetGeneratorFunction() {
+        PlanetGenerator pg = new PlanetGenerator(new BodyGeneratorFunction() {
 
             @Override 
-            public Planet generateNextPlanet() {
-
-                float r = randomInRange(radius, 1);
-                float theta = (float)(Math.random()*2*Math.PI);
-
-                float devianceFromPlane = adherenceCalculation(adherenceToPlane);
-
-                boolean abovePlane = Math.random() < 0.5;
-
-                devianceFromPlane = abovePlane ? devianceFromPlane : -devianceFromPlane;
-
-                Vector3f planarPlanetDir = polarToPlanarCoordinates(1, theta, u, v);
-
-                Vector3f planetDirWithDeviance = polarToPlanarCoordinates(1, devianceFromPlane, planarPlanetDir, normal);
-
-                Vector3f newNormal = polarToPlanarCoordinates(1, devianceFromPlane, normal, planarPlanetDir);
-
-                float approxMassWithinRadius = (mass[1]+mass[0])/2 * num * (float)Math.pow(r/radius[1], centerDensity+1);
-
-                // Position in the inclined disk plane
-                Vector3f position = planetDirWithDeviance.mul(r);
-
-                Vector3f velocity = new Vector3f(0f, 0f, 0f);
-                if (giveOrbitalVelocity) {
-                    int dir = ccw ? 1 : -1;
-                    float orbitalSpeed = (float)(Math.sqrt((centerMass+approxMassWithinRadius)*unitSet.gravitationalConstant()/r))*orbitalFactor;
-                
-
-                    // Tangent direction: t̂ = normalize(n × r̂)
-                    Vector3f tangent = new Vector3f(newNormal).cross(planetDirWithDeviance).normalize();
-
-
-                    velocity = tangent.mul(orbitalSpeed * dir);
+            public void generateBodies(BodyStore store, int storeOffset, int start, int count, UnitSet target) {
+                SplittableRandom random = null;
+                for (int i = start; i < start + count; i++) {
+                    if (random == null || i % GENERATION_BLOCK_SIZE == 0) {
+                        random = blockRandom(seed, i, RANDOM_DISK_DRAWS_PER_BODY);
+                    }
+                    float r = randomInRange(radius, random);
+                    float theta = (float)(random.nextDouble()*2*Math.PI);
+
+                    float devianceFromPlane = adherenceCalculation(adherenceToPlane, random);
+
+                    boolean abovePlane = random.nextDouble() < 0.5;
+
+                    devianceFromPlane = abovePlane ? devianceFromPlane : -devianceFromPlane;
+
+                    float bodyMass = randomInRange(mass, random);
+                    float bodyDensity = randomInRange(density, random);
+
+                    // Direction in the disk plane, then tilted out of the plane by the deviance
+                    float cosTheta = (float)Math.cos(theta);
+                    float sinTheta = (float)Math.sin(theta);
+                    float cosDev = (float)Math.cos(devianceFromPlane);
+                    float sinDev = (float)Math.sin(devianceFromPlane);
+                    float px = cosTheta * u[0] + sinTheta * v[0];
+                    float py = cosTheta * u[1] + sinTheta * v[1];
+                    float pz = cosTheta * u[2] + sinTheta * v[2];
+                    float dx = cosDev * px + sinDev * n[0];
+                    float dy = cosDev * py + sinDev * n[1];
+                    float dz = cosDev * pz + sinDev * n[2];
+                    float newNx = cosDev * n[0] + sinDev * px;
+                    float newNy = cosDev * n[1] + sinDev * py;
+                    float newNz = cosDev * n[2] + sinDev * pz;
+
+                    float approxMassWithinRadius = (mass[1]+mass[0])/2 * num * (float)Math.pow(r/radius[1], centerDensity+1);
+
+                    float vx = 0f, vy = 0f, vz = 0f;
+                    if (giveOrbitalVelocity) {
+                        int dir = ccw ? 1 : -1;
+                        float orbitalSpeed = (float)(Math.sqrt((centerMass+approxMassWithinRadius)*gravitationalConstant/r))*orbitalFactor;
+
+                        // Tangent direction: t = normalize(n x r)
+                        float tx = newNy * dz - newNz * dy;
+                        float ty = newNz * dx - newNx * dz;
+                        float tz = newNx * dy - newNy * dx;
+                        float tLength = (float)Math.sqrt(tx * tx + ty * ty + tz * tz);
+                        float speed = orbitalSpeed * dir / tLength;
+                        vx = tx * speed;
+                        vy = ty * speed;
+                        vz = tz * speed;
+                    }
+
+                    store.set(storeOffset + i - start, dx * r + center[0], dy * r + center[1], dz * r + center[2], bodyMass,
+                        vx + relativeVelocity[0], vy + relativeVelocity[1], vz + relativeVelocity[2], bodyDensity);
                 }
-
-                position = position.add(new Vector3f(center));
-                velocity = velocity.add(new Vector3f(relativeVelocity));
-
-                return new Planet(position, velocity, randomInRange(mass), randomInRange(density), unitSet);
+                store.changeUnitSet(sourceUnitSet, target, storeOffset, storeOffset + count);
             }
         }, num);
 
@@ -483,6 +678,18 @@ public class PlanetGenerator {
 		return ret;
 	}
 
+    /**
+     * Calculates the adherence to a plane, used in making disks.
+     * @param adherenceToPlane the adherence to a plane
+     * @param random the random stream to draw from
+     * @return the adherence to a plane
+     */
+	private static float adherenceCalculation(float adherenceToPlane, SplittableRandom random) {
+		//returns the difference in radians from the plane for the phi value
+		double factor = 1-Math.pow(random.nextDouble(), (1.0-adherenceToPlane)); 
+		return (float)(Math.PI*factor);
+	}
+
     /**
      * Makes a new planet in orbit around a center body.
      * @param radius the radius range for the planet
@@ -492,9 +699,22 @@ public class PlanetGenerator {
      * @return the new planet in orbit
      */
 	public static Planet makeNewInOrbit(float[] radius, float[] mass, float[] density, Planet center) {
-		float r = (float)(Math.random()*(radius[1]-radius[0])+radius[0]);
+		return makeNewInOrbit(radius, mass, density, center, new SplittableRandom(randomSeed()));
+	}
+
+    /**
+     * Makes a new planet in orbit around a center body.
+     * @param radius the radius range for the planet
+     * @param mass the mass range for the planet
+     * @param density the density range for the planet
+     * @param center the center body
+     * @param random the random stream to draw from
+     * @return the new planet in orbit
+     */
+	public static Planet makeNewInOrbit(float[] radius, float[] mass, float[] density, Planet center, SplittableRandom random) {
+		float r = randomInRange(radius, random);
 		float orbitalSpeed = (float)(1.1*Math.sqrt(center.mass/r));
-		float theta = (float)(Math.random()*2*Math.PI);
+		float theta = (float)(random.nextDouble()*2*Math.PI);
 		float phi = (float)(Math.PI/2);
 		float x = (float)(r*Math.cos(theta)*Math.sin(phi));
 		float y = (float)(r*Math.sin(theta)*Math.sin(phi));
@@ -502,7 +722,7 @@ public class PlanetGenerator {
 		float xV = (float)(-orbitalSpeed*Math.sin(theta)*Math.sin(phi));
 		float yV = (float)(orbitalSpeed*Math.cos(theta)*Math.sin(phi));
 		float zV = (float)(-orbitalSpeed*Math.cos(phi));
-		Planet ret = new Planet(x, y, z, xV, yV, zV, randomInRange(mass), randomInRange(density));
+		Planet ret = new Planet(x, y, z, xV, yV, zV, randomInRange(mass, random), randomInRange(density, random));
 		return ret;
 	}
 
@@ -516,9 +736,24 @@ public class PlanetGenerator {
      * @return the new set of planets in orbit
      */
 	public static ArrayList<Planet> makeNewInOrbit(int num, float[] mass, float[] density, Planet center, float[] radius) {
+		return makeNewInOrbit(num, mass, density, center, radius, randomSeed());
+	}
+
+    /**
+     * Makes a new set of planets in orbit around a center body.
+     * @param num the number of planets to generate
+     * @param mass the mass range for the planets
+     * @param density the density range for the planets
+     * @param center the center body
+     * @param radius the radius range for the planets
+     * @param seed the seed, the same seed always gives the same planets
+     * @return the new set of planets in orbit
+     */
+	public static ArrayList<Planet> makeNewInOrbit(int num, float[] mass, float[] density, Planet center, float[] radius, long seed) {
+		SplittableRandom random = new SplittableRandom(mix64(seed));
 		ArrayList<Planet> ret = new ArrayList<>();
 		for (int i=0;i<num;i++) {
-			ret.add(makeNewInOrbit(radius, mass, density, center));
+			ret.add(makeNewInOrbit(radius, mass, density, center, random));
 		}
 		return ret;
 	}
@@ -556,42 +791,23 @@ public class PlanetGenerator {
     }
 
     /**
-     * Randomly selects a value from a range.
-     * @param range the range
-     * @param density the bias towards one side of the range. 1.0 is no bias, inf is all at lower value, 0 is all at higher value
-     * @return the randomly selected value
-     */
-	private static float randomInRange(float[] range, double density) {
-		return (float)(Math.pow(Math.random(), density)*(range[1]-range[0])+range[0]);
-	}
-
-    /**
-     * Randomly selects a value from a range.
+     * Randomly selects a value from a range using a random stream.
      * @param range the range
+     * @param random the random stream to draw from
      * @return the randomly selected value
      */
-	private static float randomInRange(float[] range) {
-		return randomInRange(range, 1.0);
-	}
-
-    /**
-     * Randomly selects a value from a range.
-     * @param range the range
-     * @return the randomly selected value
-     */
-	private static int randomInRange(int[] range) {
-		float[] rangeFloat = {range[0], range[1]};
-		return (int) randomInRange(rangeFloat, 1.0);
+	private static float randomInRange(float[] range, SplittableRandom random) {
+		return (float)(random.nextDouble()*(range[1]-range[0])+range[0]);
 	}
 
     /**
-     * Randomly selects a value from a range.
+     * Randomly selects a value from a range using a random stream.
      * @param range the range
-     * @param density the bias towards one side of the range. 1.0 is no bias, inf is all at lower value, 0 is all at higher value
+     * @param random the random stream to draw from
      * @return the randomly selected value
      */
-	private static int randomInRange(int[] range, double density) {
+	private static int randomInRange(int[] range, SplittableRandom random) {
 		float[] rangeFloat = {range[0], range[1]};
-		return (int) randomInRange(rangeFloat, density);
+		return (int) randomInRange(rangeFloat, random);
 	}
 }
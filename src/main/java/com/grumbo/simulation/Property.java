@@ -3,6 +3,8 @@ package com.grumbo.simulation;
 import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import org.joml.Vector3f;
 
@@ -31,6 +33,10 @@ public class Property<T> {
     private T cachedValue;
     private String[] options; // Options for a selector property
     private int selectedIndex; // Index of the selected option for a selector property
+    // Incremented whenever any property changes, so readers can cheaply tell if a snapshot is stale.
+    // The UI thread writes properties while the GL thread reads them, so it is atomic and only incremented after the new
+    // value is stored: a reader that sees the new count also sees the value, and one that reads the old count sees the next one.
+    private static final AtomicLong modificationCount = new AtomicLong();
     /**
      * Enum for the type of the property.
      */
@@ -284,9 +290,19 @@ public class Property<T> {
      */
     public void setSelectedIndex(int selectedIndex) { 
         if (typeName != PropertyType.SELECTOR) throw new IllegalArgumentException("Property is not a selector"); 
+        boolean changed = this.selectedIndex != selectedIndex;
         this.selectedIndex = selectedIndex; 
+        if (changed) {
+            modificationCount.incrementAndGet();
+        }
     }
 
+    /**
+     * Gets the number of changes made to any property so far.
+     * @return the modification count
+     */
+    public static long getModificationCount() { return modificationCount.get(); }
+
     /**
      * Updates the property.
      */
@@ -304,6 +320,7 @@ public class Property<T> {
             cachedValue = value;
             if (typeName == PropertyType.SELECTOR) {
                 selectedIndex = Arrays.asList(options).indexOf(value);
+                modificationCount.incrementAndGet();
             }
         }
     }
@@ -332,7 +349,11 @@ public class Property<T> {
             }
         }
         
+        boolean changed = !newValue.equals(this.value);
         this.value = newValue;
+        if (changed) {
+            modificationCount.incrementAndGet();
+        }
     }
     
     /**
@@ -365,7 +386,11 @@ public class Property<T> {
      * Resets the value of the property to the default value.
      */
     public void reset() {
+        boolean changed = !Objects.equals(defaultValue, this.value);
         this.value = defaultValue;
+        if (changed) {
+            modificationCount.incrementAndGet();
+        }
     }
     
     // Convenience methods for common types
@@ -93,9 +93,54 @@ public class Settings {
 		// Time step
 		{ Property<Float> p = Property.createFloatProperty("dt", 100f, 100f); p.setEditable(true); properties.put("dt", p); }
 
+		// Integrator, a full kick and drift per step or a kick-drift-kick leapfrog with synchronized velocities
+		properties.put("integrator", Property.createSelectorProperty("integrator", "symplecticEuler", "symplecticEuler", new String[]{"symplecticEuler", "leapfrog"}, true));
+
+		// Levels of power of two block timesteps below dt with the leapfrog, 0 for one step for every body. Each step is a substep of dt / 2^levels
+		{ Property<Integer> p = Property.createIntProperty("timestepLevels", 0, 0); p.setEditable(true); properties.put("timestepLevels", p); }
+
+		// Accuracy parameter of the block timesteps, a body's step is sqrt(2 * timestepAccuracy * softening length / |a|)
+		{ Property<Float> p = Property.createFloatProperty("timestepAccuracy", 0.025f, 0.025f); p.setEditable(true); properties.put("timestepAccuracy", p); }
+
 		// Barnes-Hut acceptance criterion
 		{ Property<Float> p = Property.createFloatProperty("theta", 0.77f, 0.77f); p.setEditable(true); properties.put("theta", p); }
 
+		// Add the quadrupole moment of accepted nodes to the force, for better accuracy at the same theta
+		properties.put("quadrupoles", Property.createBooleanProperty("quadrupoles", false, false, true));
+
+		// Node opening criterion, theta for every body or the force error relative to each body's last acceleration
+		properties.put("openingCriterion", Property.createSelectorProperty("openingCriterion", "geometric", "geometric", new String[]{"geometric", "relative"}, true));
+
+		// Relative force error allowed per accepted node by the relative opening criterion
+		{ Property<Float> p = Property.createFloatProperty("forceErrorTolerance", 0.005f, 0.005f); p.setEditable(true); properties.put("forceErrorTolerance", p); }
+
+		// Cells per side of the particle mesh adding the long range force in a static wrap around box, 0 for none (applied on restart)
+		{ Property<Integer> p = Property.createIntProperty("pmGridSize", 0, 0); p.setEditable(true); properties.put("pmGridSize", p); }
+
+		// Split radius between the tree and particle mesh forces in mesh cells
+		{ Property<Float> p = Property.createFloatProperty("pmSplitScale", 1.25f, 1.25f); p.setEditable(true); properties.put("pmSplitScale", p); }
+
+		// Bits sorted per radix sort pass (applied on restart)
+		properties.put("radixBits", Property.createSelectorProperty("radixBits", "4", "4", new String[]{"4", "6", "8"}, true));
+
+		// Radix sort engine, four kernels per pass or one lookback scatter per pass (applied on restart)
+		properties.put("radixSortEngine", Property.createSelectorProperty("radixSortEngine", "multiPass", "multiPass", new String[]{"multiPass", "onesweep"}, true));
+
+		// Re-sort from last step's Morton order, merging only the out of order bodies
+		properties.put("coherentSort", Property.createBooleanProperty("coherentSort", false, false, true));
+
+		// Out of order fraction of the bodies above which the coherent sort falls back to a full radix sort
+		{ Property<Float> p = Property.createFloatProperty("coherentSortThreshold", 0.01f, 0.01f); p.setEditable(true); properties.put("coherentSortThreshold", p); }
+
+		// Steps between moving the bodies into Morton order in memory, 0 to never move them
+		{ Property<Integer> p = Property.createIntProperty("bodyReorderInterval", 0, 0); p.setEditable(true); properties.put("bodyReorderInterval", p); }
+
+		// Center of mass propagation, one dispatch per tree level or one dispatch climbing from the leaves
+		properties.put("comPropagation", Property.createSelectorProperty("comPropagation", "multiPass", "multiPass", new String[]{"multiPass", "singleDispatch"}, true));
+
+		// Force tree walk, one per body or one per work group of neighbouring bodies with a shared interaction list
+		properties.put("forceTraversal", Property.createSelectorProperty("forceTraversal", "perBody", "perBody", new String[]{"perBody", "group"}, true));
+
 		// Relative to
 		{ Property<Integer> p = Property.createIntProperty("relativeTo", -1, -1); p.setEditable(true); properties.put("relativeTo", p); }
 
@@ -414,6 +459,52 @@ public class Settings {
 	 */
 	public void setDt(float value) { setValue("dt", value); }
 
+	/**
+	 * Gets the value of theselector property integrator.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public String getIntegrator() { return getValue("integrator"); }
+	/**
+	 * Sets the value of the selector property integrator.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setIntegrator(String value) { setValue("integrator", value); }
+
+	/**
+	 * Gets the selected index of the selector property integrator.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public int getSelectedIndexIntegrator() { return getSelectedIndex("integrator"); }
+
+	/**
+	 * Gets the value of theint property timestepLevels.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public int getTimestepLevels() { return getValue("timestepLevels"); }
+	/**
+	 * Sets the value of the int property timestepLevels.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setTimestepLevels(int value) { setValue("timestepLevels", value); }
+
+	/**
+	 * Gets the value of thefloat property timestepAccuracy.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public float getTimestepAccuracy() { return getValue("timestepAccuracy"); }
+	/**
+	 * Sets the value of the float property timestepAccuracy.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setTimestepAccuracy(float value) { setValue("timestepAccuracy", value); }
+
 	/**
 	 * Gets the value of thefloat property theta.
 	 * This method is automatically generated from defaultProperties.json
@@ -427,6 +518,209 @@ public class Settings {
 	 */
 	public void setTheta(float value) { setValue("theta", value); }
 
+	/**
+	 * Gets the value of theboolean property quadrupoles.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public boolean isQuadrupoles() { return getValue("quadrupoles"); }
+	/**
+	 * Sets the value of the boolean property quadrupoles.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setQuadrupoles(boolean value) { setValue("quadrupoles", value); }
+
+	/**
+	 * Toggles the value of the boolean property quadrupoles.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void toggleQuadrupoles() { setQuadrupoles(!isQuadrupoles()); }
+	/**
+	 * Gets the value of theselector property openingCriterion.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public String getOpeningCriterion() { return getValue("openingCriterion"); }
+	/**
+	 * Sets the value of the selector property openingCriterion.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setOpeningCriterion(String value) { setValue("openingCriterion", value); }
+
+	/**
+	 * Gets the selected index of the selector property openingCriterion.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public int getSelectedIndexOpeningCriterion() { return getSelectedIndex("openingCriterion"); }
+
+	/**
+	 * Gets the value of thefloat property forceErrorTolerance.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public float getForceErrorTolerance() { return getValue("forceErrorTolerance"); }
+	/**
+	 * Sets the value of the float property forceErrorTolerance.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setForceErrorTolerance(float value) { setValue("forceErrorTolerance", value); }
+
+	/**
+	 * Gets the value of theint property pmGridSize.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public int getPmGridSize() { return getValue("pmGridSize"); }
+	/**
+	 * Sets the value of the int property pmGridSize.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setPmGridSize(int value) { setValue("pmGridSize", value); }
+
+	/**
+	 * Gets the value of thefloat property pmSplitScale.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public float getPmSplitScale() { return getValue("pmSplitScale"); }
+	/**
+	 * Sets the value of the float property pmSplitScale.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setPmSplitScale(float value) { setValue("pmSplitScale", value); }
+
+	/**
+	 * Gets the value of theselector property radixBits.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public String getRadixBits() { return getValue("radixBits"); }
+	/**
+	 * Sets the value of the selector property radixBits.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setRadixBits(String value) { setValue("radixBits", value); }
+
+	/**
+	 * Gets the selected index of the selector property radixBits.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public int getSelectedIndexRadixBits() { return getSelectedIndex("radixBits"); }
+
+	/**
+	 * Gets the value of theselector property radixSortEngine.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public String getRadixSortEngine() { return getValue("radixSortEngine"); }
+	/**
+	 * Sets the value of the selector property radixSortEngine.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setRadixSortEngine(String value) { setValue("radixSortEngine", value); }
+
+	/**
+	 * Gets the selected index of the selector property radixSortEngine.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public int getSelectedIndexRadixSortEngine() { return getSelectedIndex("radixSortEngine"); }
+
+	/**
+	 * Gets the value of theboolean property coherentSort.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public boolean isCoherentSort() { return getValue("coherentSort"); }
+	/**
+	 * Sets the value of the boolean property coherentSort.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setCoherentSort(boolean value) { setValue("coherentSort", value); }
+
+	/**
+	 * Toggles the value of the boolean property coherentSort.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void toggleCoherentSort() { setCoherentSort(!isCoherentSort()); }
+	/**
+	 * Gets the value of thefloat property coherentSortThreshold.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public float getCoherentSortThreshold() { return getValue("coherentSortThreshold"); }
+	/**
+	 * Sets the value of the float property coherentSortThreshold.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setCoherentSortThreshold(float value) { setValue("coherentSortThreshold", value); }
+
+	/**
+	 * Gets the value of theint property bodyReorderInterval.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public int getBodyReorderInterval() { return getValue("bodyReorderInterval"); }
+	/**
+	 * Sets the value of the int property bodyReorderInterval.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setBodyReorderInterval(int value) { setValue("bodyReorderInterval", value); }
+
+	/**
+	 * Gets the value of theselector property comPropagation.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public String getComPropagation() { return getValue("comPropagation"); }
+	/**
+	 * Sets the value of the selector property comPropagation.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setComPropagation(String value) { setValue("comPropagation", value); }
+
+	/**
+	 * Gets the selected index of the selector property comPropagation.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public int getSelectedIndexComPropagation() { return getSelectedIndex("comPropagation"); }
+
+	/**
+	 * Gets the value of theselector property forceTraversal.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public String getForceTraversal() { return getValue("forceTraversal"); }
+	/**
+	 * Sets the value of the selector property forceTraversal.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public void setForceTraversal(String value) { setValue("forceTraversal", value); }
+
+	/**
+	 * Gets the selected index of the selector property forceTraversal.
+	 * This method is automatically generated from defaultProperties.json
+	 * Any changes made here will be overwritten when regenerating
+	 */
+	public int getSelectedIndexForceTraversal() { return getSelectedIndex("forceTraversal"); }
+
 	/**
 	 * Gets the value of theint property relativeTo.
 	 * This method is automatically generated from defaultProperties.json
@@ -935,6 +1229,11 @@ public class Settings {
 		saveSettings();
 	}
 
+	// Number of changes made to any property, used to tell if a snapshot of the settings is stale (kept across regenerations)
+	public long getModificationCount() {
+		return Property.getModificationCount();
+	}
+
 	// Reset all properties to their default values (kept across regenerations)
 	public void restoreDefaults() {
 		for (Property<?> prop : properties.values()) {
@@ -76,6 +76,7 @@ public class SimulationSetup {
 
     private final List<SceneItem> items = new ArrayList<>();
     private UnitSet unitSet = UnitSet.SOLAR_SYSTEM_SECOND;
+    private long seed = System.nanoTime();
 
     public List<SceneItem> getItems() {
         return items;
@@ -89,6 +90,17 @@ public class SimulationSetup {
         this.unitSet = unitSet;
     }
 
+    /**
+     * Seed for the random objects. The same seed and items always build the same bodies.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
     public void clear() {
         items.clear();
     }
@@ -175,8 +187,8 @@ public class SimulationSetup {
             throw new IllegalStateException("Scene is empty — add a preset or at least one object.");
         }
         PlanetGenerator combined = null;
-        for (SceneItem item : items) {
-            PlanetGenerator part = buildItem(item);
+        for (int i = 0; i < items.size(); i++) {
+            PlanetGenerator part = buildItem(items.get(i), seed + i);
             if (combined == null) {
                 combined = part;
             } else {
@@ -189,7 +201,7 @@ public class SimulationSetup {
         return combined;
     }
 
-    private PlanetGenerator buildItem(SceneItem item) {
+    private PlanetGenerator buildItem(SceneItem item, long itemSeed) {
         return switch (item.type) {
             case DISK -> PlanetGenerator.makeNewRandomDisk(
                 item.bodyCount,
@@ -205,7 +217,8 @@ public class SimulationSetup {
                 1f,
                 false,
                 true,
-                unitSet
+                unitSet,
+                itemSeed
             );
             case BOX -> {
                 float h = item.halfExtent;
@@ -218,7 +231,8 @@ public class SimulationSetup {
                     new float[] {-0.01f, 0.01f},
                     new float[] {-0.01f, 0.01f},
                     new float[] {item.mass * 0.5f, item.mass * 1.5f},
-                    new float[] {item.density, item.density}
+                    new float[] {item.density, item.density},
+                    itemSeed
                 );
             }
             case SINGLE -> new PlanetGenerator(new Planet(
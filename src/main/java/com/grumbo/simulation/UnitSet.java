@@ -205,6 +205,18 @@ public class UnitSet {
         this.time = time;
     }
 
+    /**
+     * Makes a unit set from the values of its units in base units, as returned by mass(), density(), len(), and time().
+     * @param mass the value of the mass unit in kg
+     * @param density the value of the density unit in kg/m^3
+     * @param len the value of the length unit in m
+     * @param time the value of the time unit in s
+     * @return the unit set
+     */
+    public static UnitSet fromValues(double mass, double density, double len, double time) {
+        return new UnitSet(new Unit(mass, Dimensions.MASS), new Unit(density, Dimensions.DENSITY), new Unit(len, Dimensions.LENGTH), new Unit(time, Dimensions.TIME));
+    }
+
     /**
      * Gets the value of the mass unit.
      * @return the value of the mass unit
@@ -14,10 +14,17 @@ const uint WG_SIZE = 256u; // Must match local_size_x above and WORK_GROUP_SIZE
 //End for render shaders
 
 
-//To change these, you need to also change them in BarnesHut.java
 //Radix sort constants:
-const uint RADIX_BITS = 4u;
+//RADIX_BITS_VALUE is defined by ComputeShader.java from GPU.RADIX_BITS (4, 6 or 8), render shaders use the default
+#ifndef RADIX_BITS_VALUE
+#define RADIX_BITS_VALUE 4u
+#endif
+const uint RADIX_BITS = RADIX_BITS_VALUE;
 const uint NUM_BUCKETS = 1u << RADIX_BITS;
+//Passes needed to sort the 63 bit morton codes (GPU.numRadixPasses() in Java)
+const uint RADIX_PASSES = (63u + RADIX_BITS - 1u) / RADIX_BITS;
+//Tree propagation constants (PROPAGATE_NODES_ITERATIONS in GPU.java):
+const uint PROPAGATE_NODES_ITERATIONS = 64u;
 
 
 //Common structs:
@@ -28,6 +35,13 @@ struct Body {
     //velocity (x,y,z) and density (w)
     vec4 velDensity;};
 
+//Force statistics of a body from its last force evaluation
+struct BodyStat {
+    //magnitude of the gravitational acceleration
+    float accelMagnitude;
+    //number of nodes and leaves whose force was added
+    uint interactions;};
+
 //Representation of an axis aligned bounding box
 struct AABB {
     //minimum corner of the bounding box
@@ -55,6 +69,11 @@ struct Node {
     uint parentId;
     //mass-weighted average star color (rgb); w unused (std430 vec4 pad)
     vec4 avgColor;
+    //rope: the node to visit once this node's subtree is done, 0xFFFFFFFF after the last leaf
+    uint nextNode;
+    //traceless quadrupole moment about the center of mass (xx, yy, zz, xy, xz, yz), 0 for leaves
+    float[6] quadrupole;
+    uint pad0;
 };
 
 
@@ -69,18 +88,38 @@ struct UnitSet {
     float bodyLengthInSimulationLengthsConstant;
 };
 
+//Arguments of glDispatchComputeIndirect (DispatchIndirectCommand), 12 bytes with no padding in std430
+struct DispatchCommand {
+    uint numGroupsX;
+    uint numGroupsY;
+    uint numGroupsZ;
+};
+
+//Body that is out of order in the coherent sort, by its morton code and position in last step's order
+struct Outlier {
+    uint64_t key;
+    uint pos;
+    uint pad;
+};
+
 // =============================================================
 //                       SSBO bindings
 // =============================================================
 
 //Note: in render shaders, these SSBO bindings are changed to readonly
 
+//The single dispatch propagation reads nodes written by other work groups in the same dispatch, so only it needs them coherent
+#ifdef COMPUTE_TREE_CLIMB
+#define TREE_NODES_COHERENT coherent
+#else
+#define TREE_NODES_COHERENT
+#endif
 //Leaf nodes of the radix tree (node representation of a body).
 //  -Initialized with numBodies nodes (In Java: numBodies * Node.STRUCT_SIZE * Integer.BYTES)
-layout(std430, binding = 0)  buffer LeafNodes          { Node leafNodes[]; };
+layout(std430, binding = 0)  TREE_NODES_COHERENT buffer LeafNodes          { Node leafNodes[]; };
 //Internal nodes of the radix tree.
 //  -Initialized with numBodies - 1 nodes (In Java: (numBodies - 1) * Node.STRUCT_SIZE * Integer.BYTES)
-layout(std430, binding = 1)  buffer InternalNodes      { Node internalNodes[]; };
+layout(std430, binding = 1)  TREE_NODES_COHERENT buffer InternalNodes      { Node internalNodes[]; };
 //Simulation values
 //  -Initialized to exactly fit the values. (In Java: 8*Integer.BYTES+8*Float.BYTES+100*Integer.BYTES+100*Float.BYTES)
 layout(std430, binding = 2)  buffer SimulationValues   { uint numBodies; uint initialNumBodies; uint justDied; uint merged; 
@@ -118,44 +157,102 @@ layout(std430, binding = 14) buffer MergeTasks         { uint mergeTasksHead; ui
 //Merge body locks to avoid races when merging bodies
 //  -Initialized with numBodies locks (uints) (In Java: numBodies * Integer.BYTES)
 layout(std430, binding = 15) buffer MergeBodyLocks     { uint bodyLocks[]; };
+//Indirect dispatch commands sized to the live bodies, written by the dead partition every step
+//The radix sort kernels use sortDispatch, which the coherent sort empties when it sorts the bodies itself
+//The force kernels use activeDispatch, which the block timesteps shrink to the active bodies of the substep
+//  -Initialized with 6 + PROPAGATE_NODES_ITERATIONS commands (In Java: (6 + PROPAGATE_NODES_ITERATIONS) * 3 * Integer.BYTES)
+layout(std430, binding = 16) buffer DispatchIndirect   { DispatchCommand bodiesDispatch; DispatchCommand internalNodesDispatch; DispatchCommand propagateDispatch[PROPAGATE_NODES_ITERATIONS];
+                                                          DispatchCommand sortDispatch; DispatchCommand coherentDispatch; DispatchCommand outlierDispatch; DispatchCommand activeDispatch; };
+//Onesweep radix sort tile counter, global histogram, and global base of every pass. The counters and histogram are left zeroed for the next sort
+//  -Initialized with zeros, RADIX_PASSES + 2 * RADIX_PASSES * NUM_BUCKETS uints (In Java: (numRadixPasses() + 2 * numRadixPasses() * NUM_RADIX_BUCKETS) * Integer.BYTES)
+layout(std430, binding = 17) buffer RadixOnesweepGlobal { uint onesweepTileCounter[RADIX_PASSES]; uint onesweepHist[RADIX_PASSES * NUM_BUCKETS]; uint onesweepBase[RADIX_PASSES * NUM_BUCKETS]; };
+//Onesweep decoupled lookback status of each tile and bucket (flag and count), double buffered by the parity of the pass
+//  -Initialized with 2 * numWorkGroups * NUM_BUCKETS statuses (uints) (In Java: 2 * numWorkGroups * NUM_BUCKETS * Integer.BYTES)
+layout(std430, binding = 18) coherent buffer RadixPartitionStatus { uint partitionStatus[]; };
+//Coherent sort counters, and the number of outliers before each position (the outlier flag of each position during marking)
+//  -Initialized with zeros, 4 counters and numBodies + 1 positions (uints) (In Java: (5 + numBodies) * Integer.BYTES)
+layout(std430, binding = 19) buffer CoherentScan       { uint coherentOutliers; uint coherentFailures; uint coherentSorts; uint coherentFallbacks; uint outlierScan[]; };
+//Coherent sort outliers in last step's order, followed by the same outliers sorted
+//  -Initialized with 2 * maxOutliers outliers (In Java: 2 * maxCoherentOutliers() * 16)
+layout(std430, binding = 20) buffer CoherentOutliers   { Outlier outliers[]; };
+//Stable id of the body in each slot of the bodies buffers, which the reorder moves with its body. Empty slots hold NO_BODY
+//  -Initialized with numBodies ids (uints) counting up from 0 (In Java: numBodies * Integer.BYTES)
+layout(std430, binding = 21) buffer BodyIds            { uint bodyIds[]; };
+//Slot in the bodies buffers of each stable id, the inverse of BodyIds. Bodies that have died hold NO_BODY
+//  -Initialized with numBodies slots (uints) counting up from 0 (In Java: numBodies * Integer.BYTES)
+layout(std430, binding = 22) buffer BodySlots          { uint bodySlots[]; };
+//Force statistics of each stable id from the last step it was alive: the magnitude of its gravitational acceleration,
+//used by the relative opening criterion, and the number of nodes and leaves it interacted with
+//  -Initialized with zeros, numBodies stats (In Java: numBodies * 2 * Integer.BYTES)
+layout(std430, binding = 23) buffer BodyStats          { BodyStat bodyStats[]; };
+//Acceleration of each stable id from its last force pass, for the opening half kick of the leapfrog integrator
+//w is the body's block timestep rung plus 1 once the leapfrog has started for the body, and 0 before, or while the other integrator is selected
+//  -Initialized with zeros, numBodies accelerations (vec4s) (In Java: numBodies * 4 * Float.BYTES)
+layout(std430, binding = 24) buffer BodyAccelerations  { vec4 accelerations[]; };
+//Sorted positions of the bodies whose block timestep ends this substep, in order, and their number. The force kernels only run for these
+//  -Initialized with zeros, 1 counter and numBodies positions (uints) (In Java: (1 + numBodies) * Integer.BYTES)
+layout(std430, binding = 25) buffer ActiveBodies       { uint numActive; uint activeList[]; };
+//Mass deposited on each grid point of the particle mesh as float bits, added with compare and swap by pmDepositKernel and cleared before it
+//  -Initialized with pmGridSize^3 grid points (uints), 1 if the mesh is off at init (In Java: max(1, PM_GRID_SIZE^3) * Integer.BYTES)
+layout(std430, binding = 26) buffer PMDensity          { uint pmDensity[]; };
+//Long range acceleration at each grid point of the particle mesh (x,y,z), solved on the CPU by ParticleMesh.java every step; w unused
+//  -Initialized with pmGridSize^3 grid points (vec4s), 1 if the mesh is off at init (In Java: max(1, PM_GRID_SIZE^3) * 4 * Float.BYTES)
+layout(std430, binding = 27) buffer PMForce            { vec4 pmForce[]; };
 
 // =============================================================
 //           Common functions, uniforms, and constants
 // =============================================================
 
 //Compute Uniforms
-//Update uniforms:
-uniform uint resetValuesOrDecrementDeadBodies; //Used to determine if the update kernel is resetting values or decrementing dead bodies
-//Force uniforms: 
-uniform float softening; //Used to soften the force calculation (F ∝ (r+softening)^-2)
-uniform float theta; //Used to determine acceptance criterion for force calculation in node traversal
-uniform float dt; // Time step used to update the position and velocity of bodies
-uniform uint mergingCollisionOrNeither; // Selects collision, merging, or neither. 0 = neither, 1 = collision, 2 = merging, 3 = both
-uniform float cameraScale;
-//Constants for the mergingCollisionOrNeither uniform
+//Per-step parameters, packed from a Settings snapshot by SimulationParameters.java and bound once per step.
+//  -std140 with only 4 byte scalars, so the members are tightly packed in this order (In Java: SimulationParameters.SIZE bytes)
+layout(std140, binding = 0) uniform SimulationParameters {
+    float dt; // Time step used to update the position and velocity of bodies
+    float theta; //Used to determine acceptance criterion for force calculation in node traversal
+    float softening; //Used to soften the force calculation (F ∝ (r+softening)^-2)
+    float elasticity; //Elasticity of collisions
+    float restitution; //Restitution of overlapping bodies in collisions 
+    uint mergingCollisionOrNeither; // Selects collision, merging, or neither. 0 = neither, 1 = collision, 2 = merging, 3 = both
+    bool wrapAround; //If the simulation wraps around or kills OOB bodies 
+    uint staticOrDynamic; //If the simulation is static or dynamic
+    uint numWorkGroups; //Used to determine the number of work groups during the radix sort
+    float mass; //Body mass unit
+    float density; //Body density unit
+    float len; //Simulation length unit
+    float time; //Simulation time unit
+    float coherentSortThreshold; //Out of order fraction above which the coherent sort falls back to a full radix sort
+    bool quadrupoles; //If accepted nodes add their quadrupole moment to the force
+    uint openingCriterion; //Selects the node opening criterion. 0 = geometric (theta), 1 = relative (forceErrorTolerance)
+    float forceErrorTolerance; //Largest force of an accepted node's next order term, relative to the body's last acceleration
+    uint integrator; //Selects the integrator. 0 = symplectic Euler, 1 = kick-drift-kick leapfrog
+    uint timestepLevels; //Levels of power of two block timesteps below dt, 0 if every body takes dt (always 0 without the leapfrog)
+    float timestepAccuracy; //Accuracy parameter of the block timesteps, a body's step is sqrt(2 * timestepAccuracy * softening length / |a|)
+    uint pmGridSize; //Grid points along each side of the particle mesh of a periodic box, 0 if the mesh is off (always 0 unless static and wrapping around)
+    float pmSplitScale; //Split radius of the particle mesh and tree forces, in cells of the box's longest side
+};
+//Constants for the mergingCollisionOrNeither parameter
 const uint NEITHER = 0u;
 const uint MERGING = 1u;
 const uint COLLISION = 2u;
 
 const uint BOTH = 3u;
-
-uniform float elasticity; //Elasticity of collisions
-uniform float restitution; //Restitution of overlapping bodies in collisions 
-uniform float bothCriterion; //Used to determine if the body is colliding or merging
-uniform bool wrapAround; //If the simulation wraps around or kills OOB bodies 
-uniform uint staticOrDynamic; //If the simulation is static or dynamic
-//Constants for the dynamic uniform
+//Constants for the staticOrDynamic parameter
 const uint STATIC = 0u;
 const uint DYNAMIC = 1u;
-
-//Radix sort uniforms:
+//Constants for the openingCriterion parameter
+const uint GEOMETRIC = 0u;
+const uint RELATIVE = 1u;
+//Constants for the integrator parameter
+const uint SYMPLECTIC_EULER = 0u;
+const uint LEAPFROG = 1u;
+
+//Per-dispatch uniforms, these change between dispatches of the same step:
+uniform uint resetValuesOrDecrementDeadBodies; //Used to determine if the update kernel is resetting values or decrementing dead bodies
 uniform uint passShift; //Pass shift for radix sort passes.
-//Common uniforms:
-uniform uint numWorkGroups; //Used to determine the number of work groups during the radix sort
-uniform float mass; //Body mass unit
-uniform float density; //Body density unit
-uniform float len; //Simulation length unit
-uniform float time; //Simulation time unit
+uniform uint coherentMergePass; //Merge pass of the coherent sort's outliers, whose runs are WG_SIZE << coherentMergePass long
+uniform uint blockSubstep; //Step count, the substep of dt / 2^timestepLevels that the block timesteps are on
+uniform float bothCriterion; //Used to determine if the body is colliding or merging
+uniform float cameraScale;
 
 //Render Uniforms
 uniform mat4 uMVP; // model-view-projection matrix
@@ -186,6 +283,8 @@ uniform float uBodyRenderDistance; // max view-space depth (-z) for per-body imp
 
 //Empty body constant for merged bodies or OOB bodies
 const Body EMPTY_BODY = Body(vec4(0.0), vec4(0.0));
+//Id or slot in BodyIds and BodySlots with no body
+const uint NO_BODY = 0xFFFFFFFFu;
 
 const AABB DEFAULT_AABB = AABB(vec3(1e38), vec3(-1e38));
 
@@ -288,6 +387,7 @@ float scaledDist(float a) {
     return a*sim.units.len;
 }
 
+//relativeTo is the stable id of the body, which is looked up in BodySlots since the reorder can move it
 vec3 relativeLocation(vec3 a, uint relativeTo) {
     if (relativeTo == 0xFFFFFFFFu) {
         return a;
@@ -295,7 +395,11 @@ vec3 relativeLocation(vec3 a, uint relativeTo) {
     if (relativeTo >= sim.initialNumBodies) {
         return a;
     }
-    return a - srcB.bodies[relativeTo].posMass.xyz;
+    uint slot = bodySlots[relativeTo];
+    if (slot == NO_BODY) {
+        return a;
+    }
+    return a - srcB.bodies[slot].posMass.xyz;
 }
 
 vec3 relativeLocation(Body b, uint relativeTo) {
@@ -341,6 +445,54 @@ bool isInternalNode(Node node) {
     return node.childA != 0xFFFFFFFFu;
 }
 
+//Periodic box of the particle mesh:
+//Distance in split radii beyond which the tree skips the short range force (ParticleMesh.CUTOFF in Java)
+const float PM_CUTOFF = 4.5;
+//Largest short range cutoff as a fraction of the box's shortest side (ParticleMesh.MAX_CUTOFF_FRACTION in Java)
+const float PM_MAX_CUTOFF_FRACTION = 0.49;
+
+//Checks if the particle mesh adds the long range force of a periodic box, so the tree only adds the short range force
+bool periodicMesh() {
+    return pmGridSize > 0u;
+}
+//Gets the sides of the periodic box
+vec3 boxSides() {
+    return sim.bounds.maxCorner - sim.bounds.minCorner;
+}
+//Gets the sides of a cell of the particle mesh
+vec3 pmCellSides() {
+    return boxSides() / float(pmGridSize);
+}
+//Gets the split radius between the tree and particle mesh forces, pmSplitScale cells of the box's longest side
+//It is clamped as ParticleMesh.setBox clamps it, so the cutoff stays under half of the box's shortest side
+float pmSplitRadius() {
+    vec3 cell = pmCellSides();
+    vec3 sides = boxSides();
+    return min(pmSplitScale * max(cell.x, max(cell.y, cell.z)), PM_MAX_CUTOFF_FRACTION * min(sides.x, min(sides.y, sides.z)) / PM_CUTOFF);
+}
+//Gets the nearest periodic image of a separation
+vec3 nearestImage(vec3 d) {
+    vec3 sides = boxSides();
+    return d - sides * roundEven(d / sides);
+}
+//Distance between the nearest images of two AABBs in the periodic box, 0 if they overlap
+float periodicDistance(AABB a, AABB b) {
+    vec3 d = abs(nearestImage(0.5 * (b.minCorner + b.maxCorner - a.minCorner - a.maxCorner)))
+           - 0.5 * (a.maxCorner - a.minCorner + b.maxCorner - b.minCorner);
+    return length(max(d, vec3(0.0)));
+}
+//Complementary error function of a non negative value, to within 1.5e-7 (Abramowitz and Stegun 7.1.26), given exp(-x^2)
+float erfcApprox(float x, float gaussian) {
+    float t = 1.0 / (1.0 + 0.3275911 * x);
+    return t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429)))) * gaussian;
+}
+//Factor of the Newtonian force that is short range, erfc(r / 2rs) + r / (rs sqrt(pi)) * exp(-r^2 / 4rs^2)
+float shortRangeFactor(float r, float splitRadius) {
+    float u = r / (2.0 * splitRadius);
+    float gaussian = exp(-u * u);
+    return erfcApprox(u, gaussian) + 2.0 * u * inversesqrt(PI) * gaussian;
+}
+
 
 //For compute shaders:
 void setScaledGravitationalConstant(UnitSet units) {